@@ -0,0 +1,454 @@
+/**
+ * AppBenchmarks.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmarks of the parsers, formatting, portfolio operations and watchlist storage of the app, run through BenchmarkHarness. The
+ * parsers are fed generated payloads of several sizes in the formats returned by Yahoo! Finance, and the portfolio is measured
+ * without the network by applying generated quotes as Portfolio.update does after each download.
+ * 
+ * Only the core of the app is needed, which has no dependency on Android. The JSON parsers need an org.json implementation and the
+ * RSS parser an XmlPull implementation on the classpath. Workloads that need a library that is missing are reported as skipped, and
+ * a report with skipped workloads must not be used as a baseline. The report names the jars on the classpath in its header.
+ * benchmark/baseline.txt was measured with the json.org reference jar json-20231013.jar (org.json:json:20231013) and
+ * kxml2-2.3.0.jar (net.sf.kxml:kxml2:2.3.0).
+ * 
+ * Runs on a plain JVM from the root of the project, optionally writing the report to a file as well as printing it:
+ * 
+ * <pre>
+ * javac -cp json-20231013.jar:kxml2-2.3.0.jar -d bin/benchmark core/src/uk/co/ryanharrison/stocks/*.java benchmark/src/uk/co/ryanharrison/stocks/*.java
+ * java -cp bin/benchmark:json-20231013.jar:kxml2-2.3.0.jar uk.co.ryanharrison.stocks.AppBenchmarks [report file]
+ * </pre>
+ * 
+ * @author Ryan Harrison
+ */
+public class AppBenchmarks {
+
+  /** The number of rounds measured for each workload */
+  private static final int      ROUNDS        = 7;
+
+  /** The target time in milliseconds of each round */
+  private static final long     ROUND_MILLIS  = 200;
+
+  /** The number of companies in the measured portfolios and watchlists */
+  private static final int      COMPANIES     = 100;
+
+  /** Fields of a full quote from Yahoo! Finance that the parser does not use, which pad out the larger quote payload */
+  private static final String[] UNUSED_FIELDS = { "Ask", "Bid", "AskRealtime", "BidRealtime", "BookValue", "Change_PercentChange",
+      "Commission", "ChangeRealtime", "AfterHoursChangeRealtime", "DividendShare", "LastTradeDate", "TradeDate", "EarningsShare",
+      "ErrorIndicationreturnedforsymbolchangedinvalid", "EPSEstimateCurrentYear", "EPSEstimateNextYear", "EPSEstimateNextQuarter",
+      "HoldingsGainPercent", "AnnualizedGain", "HoldingsGain", "HoldingsGainPercentRealtime", "HoldingsGainRealtime",
+      "MoreInfo", "OrderBookRealtime", "MarketCapRealtime", "EBITDA", "ChangeFromYearLow", "PercentChangeFromYearLow",
+      "LastTradeRealtimeWithTime", "ChangePercentRealtime", "ChangeFromYearHigh", "PercebtChangeFromYearHigh",
+      "LastTradeWithTime", "HighLimit", "LowLimit", "DaysRange", "DaysRangeRealtime", "FiftydayMovingAverage",
+      "TwoHundreddayMovingAverage", "ChangeFromTwoHundreddayMovingAverage", "PercentChangeFromTwoHundreddayMovingAverage",
+      "ChangeFromFiftydayMovingAverage", "PercentChangeFromFiftydayMovingAverage", "Notes", "Open", "PreviousClose",
+      "PricePaid", "ChangeinPercent", "PriceSales", "PriceBook", "ExDividendDate", "PERatio", "DividendPayDate",
+      "PERatioRealtime", "PEGRatio", "PriceEPSEstimateCurrentYear", "PriceEPSEstimateNextYear", "SharesOwned",
+      "ShortRatio", "LastTradeTime", "TickerTrend", "OneyrTargetPrice", "HoldingsValue", "HoldingsValueRealtime",
+      "YearRange", "DaysValueChange", "DaysValueChangeRealtime", "PercentChange" };
+
+  /** Words used to generate headlines and business names */
+  private static final String[] WORDS         = { "shares", "rise", "fall", "profit", "quarterly", "results", "analysts",
+      "upgrade", "downgrade", "merger", "talks", "record", "sales", "chief", "executive", "outlook", "dividend", "cut", "boost",
+      "market", "investors", "tech", "bank", "energy", "deal", "growth", "slump", "rally", "forecast", "regulators" };
+
+  /**
+   * Generate the quote of a company in the JSON format returned by Yahoo! Finance, on a single line as the parser expects
+   * 
+   * @param random
+   *          The source of randomness
+   * @param ticker
+   *          The ticker of the company
+   * @param full
+   *          True to include every field of a real quote, false for only the fields that the parser reads
+   * @return The JSON payload
+   */
+  private static String quoteJson(Random random, String ticker, boolean full) {
+    double price = 10 + random.nextDouble() * 500;
+    double change = random.nextGaussian() * 5;
+    StringBuilder json = new StringBuilder("{\"query\":{\"count\":1,\"created\":\"2013-06-14T15:30:00Z\",\"lang\":\"en-US\",");
+    json.append("\"results\":{\"quote\":{\"symbol\":\"").append(ticker).append('"');
+    json.append(",\"AverageDailyVolume\":\"").append(random.nextInt(50000000)).append('"');
+    json.append(",\"Change\":\"").append(String.format(Locale.US, "%+.2f", change)).append('"');
+    json.append(",\"DaysLow\":\"").append(String.format(Locale.US, "%.2f", price - 2)).append('"');
+    json.append(",\"DaysHigh\":\"").append(String.format(Locale.US, "%.2f", price + 2)).append('"');
+    json.append(",\"YearLow\":\"").append(String.format(Locale.US, "%.2f", price * 0.7)).append('"');
+    json.append(",\"YearHigh\":\"").append(String.format(Locale.US, "%.2f", price * 1.3)).append('"');
+    json.append(",\"MarketCapitalization\":\"").append(1 + random.nextInt(999)).append(".4B\"");
+    json.append(",\"LastTradePriceOnly\":\"").append(String.format(Locale.US, "%.2f", price)).append('"');
+    json.append(",\"Name\":\"").append(name(random)).append('"');
+    json.append(",\"Symbol\":\"").append(ticker).append('"');
+    json.append(",\"Volume\":\"").append(random.nextInt(50000000)).append('"');
+    json.append(",\"StockExchange\":\"NasdaqNM\"");
+    if (full) {
+      for (String field : UNUSED_FIELDS) {
+        json.append(",\"").append(field).append("\":");
+        if (random.nextInt(3) == 0) {
+          json.append("null");
+        }
+        else {
+          json.append('"').append(String.format(Locale.US, "%.2f", random.nextDouble() * 100)).append('"');
+        }
+      }
+    }
+    return json.append("}}}}").toString();
+  }
+
+  /**
+   * Generate the results of a ticker search in the JSONP format returned by Yahoo! Finance
+   * 
+   * @param random
+   *          The source of randomness
+   * @param count
+   *          The number of results
+   * @return The JSONP payload
+   */
+  private static String tickerJson(Random random, int count) {
+    StringBuilder json = new StringBuilder("YAHOO.Finance.SymbolSuggest.ssCallback({\"ResultSet\":{\"Query\":\"a\",\"Result\":[");
+    for (int i = 0; i < count; i++) {
+      if (i != 0) {
+        json.append(',');
+      }
+      json.append("{\"symbol\":\"").append(ticker(i)).append("\",\"name\":\"").append(name(random));
+      json.append("\",\"exch\":\"NMS\",\"type\":\"S\",\"exchDisp\":\"NASDAQ\",\"typeDisp\":\"Equity\"}");
+    }
+    return json.append("]}})").toString();
+  }
+
+  /**
+   * Generate a news feed in the RSS format returned by Yahoo! Finance
+   * 
+   * @param random
+   *          The source of randomness
+   * @param count
+   *          The number of items in the feed
+   * @return The XML payload
+   */
+  private static String rssXml(Random random, int count) {
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\">\n<channel>\n");
+    xml.append("<title>Yahoo! Finance: AAPL News</title>\n<link>http://finance.yahoo.com/q/h?s=AAPL</link>\n");
+    xml.append("<description>Latest Financial News for AAPL</description>\n<language>en-US</language>\n");
+    for (int i = 0; i < count; i++) {
+      StringBuilder title = new StringBuilder(name(random));
+      for (int w = 0; w < 6; w++) {
+        title.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      xml.append("<item>\n<title>").append(title).append("</title>\n");
+      xml.append("<link>http://finance.yahoo.com/news/story-").append(i).append(".html</link>\n");
+      xml.append("<description>").append(title).append(" according to people familiar with the matter.</description>\n");
+      xml.append("<guid isPermaLink=\"false\">yahoo_finance/").append(random.nextInt(Integer.MAX_VALUE)).append("</guid>\n");
+      xml.append("<pubDate>Fri, 14 Jun 2013 15:30:00 GMT</pubDate>\n</item>\n");
+    }
+    return xml.append("</channel>\n</rss>\n").toString();
+  }
+
+  /**
+   * Generate a random business name
+   * 
+   * @param random
+   *          The source of randomness
+   * @return The generated name
+   */
+  private static String name(Random random) {
+    return Character.toUpperCase(WORDS[random.nextInt(WORDS.length)].charAt(0)) + WORDS[random.nextInt(WORDS.length)]
+        + " Holdings Inc.";
+  }
+
+  /**
+   * Generate a unique ticker
+   * 
+   * @param i
+   *          The number of the ticker
+   * @return The ticker
+   */
+  private static String ticker(int i) {
+    return "S" + Integer.toString(i, 36).toUpperCase(Locale.US);
+  }
+
+  /**
+   * Generate a quote with random values
+   * 
+   * @param random
+   *          The source of randomness
+   * @param ticker
+   *          The ticker of the quote
+   * @return The generated quote
+   */
+  private static Quote quote(Random random, String ticker) {
+    Quote quote = new Quote();
+    quote.ticker = ticker;
+    quote.name = name(random);
+    quote.stockExchange = "NasdaqNM";
+    quote.lastTradePrice = 10 + random.nextDouble() * 500;
+    quote.change = random.nextGaussian() * 5;
+    quote.percentChange = quote.change / quote.lastTradePrice * 100;
+    quote.volume = random.nextInt(50000000);
+    return quote;
+  }
+
+  /**
+   * Measure the formatting and parsing of numbers for display
+   * 
+   * @param harness
+   *          The harness to measure with
+   */
+  private static void measureFormatting(BenchmarkHarness harness) {
+    final Random random = new Random(42);
+    final double[] values = new double[1024];
+    final String[] caps = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Math.pow(10, random.nextDouble() * 13);
+      caps[i] = Utils.formatMarketCap(values[i]);
+    }
+
+    harness.measure("format.roundTwoPlaces", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        long sum = 0;
+        for (int i = 0; i < operations; i++) {
+          sum += Utils.roundTwoPlaces(values[i & 1023]).length();
+        }
+        return sum;
+      }
+    });
+    harness.measure("format.formatMarketCap", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        long sum = 0;
+        for (int i = 0; i < operations; i++) {
+          sum += Utils.formatMarketCap(values[i & 1023]).length();
+        }
+        return sum;
+      }
+    });
+    harness.measure("format.parseMarketCap", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        long sum = 0;
+        for (int i = 0; i < operations; i++) {
+          sum += (long) Utils.parseMarketCap(caps[i & 1023]);
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Measure the parsers over payloads of several sizes
+   * 
+   * @param harness
+   *          The harness to measure with
+   */
+  private static void measureParsers(BenchmarkHarness harness) {
+    Random random = new Random(42);
+    final QuoteJsonParser quoteParser = new QuoteJsonParser();
+    final TickerJsonParser tickerParser = new TickerJsonParser();
+    final RSSFeedXmlParser rssParser = new RSSFeedXmlParser();
+
+    String[] quoteSizes = { "minimal", "full" };
+    for (int s = 0; s < quoteSizes.length; s++) {
+      final byte[] payload = quoteJson(random, "AAPL", s == 1).getBytes();
+      harness.measure("parse.quote." + quoteSizes[s] + " (" + payload.length + " B)", new BenchmarkHarness.Workload() {
+
+        @Override
+        public long run(int operations) throws Exception {
+          long sum = 0;
+          for (int i = 0; i < operations; i++) {
+            sum += quoteParser.parse(new ByteArrayInputStream(payload)).volume;
+          }
+          return sum;
+        }
+      });
+    }
+
+    for (int count : new int[] { 1, 10, 50 }) {
+      final byte[] payload = tickerJson(random, count).getBytes();
+      harness.measure("parse.ticker." + count + " (" + payload.length + " B)", new BenchmarkHarness.Workload() {
+
+        @Override
+        public long run(int operations) throws Exception {
+          long sum = 0;
+          for (int i = 0; i < operations; i++) {
+            sum += tickerParser.parse(new ByteArrayInputStream(payload)).size();
+          }
+          return sum;
+        }
+      });
+    }
+
+    for (int count : new int[] { 5, 20, 100 }) {
+      final byte[] payload = rssXml(random, count).getBytes();
+      harness.measure("parse.rss." + count + " (" + payload.length + " B)", new BenchmarkHarness.Workload() {
+
+        @Override
+        public long run(int operations) throws Exception {
+          long sum = 0;
+          for (int i = 0; i < operations; i++) {
+            sum += rssParser.parse(new ByteArrayInputStream(payload)).size();
+          }
+          return sum;
+        }
+      });
+    }
+  }
+
+  /**
+   * Measure adding, removing, moving and updating companies in a portfolio
+   * 
+   * @param harness
+   *          The harness to measure with
+   */
+  private static void measurePortfolio(BenchmarkHarness harness) {
+    final Random random = new Random(42);
+    final String[] tickers = new String[COMPANIES];
+    final Quote[] quotes = new Quote[COMPANIES];
+    for (int i = 0; i < COMPANIES; i++) {
+      tickers[i] = ticker(i);
+      quotes[i] = quote(random, tickers[i]);
+    }
+
+    harness.measure("portfolio.add+remove", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < COMPANIES; i++) {
+          portfolio.addCompanyNoUpdate(tickers[i]);
+        }
+        // Each operation removes a company and adds it back at the end
+        for (int i = 0; i < operations; i++) {
+          String ticker = tickers[random.nextInt(COMPANIES)];
+          portfolio.removeCompany(ticker);
+          portfolio.addCompanyNoUpdate(ticker);
+        }
+        return portfolio.getCompanyCount();
+      }
+    });
+    harness.measure("portfolio.move", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < COMPANIES; i++) {
+          portfolio.addCompanyNoUpdate(tickers[i]);
+        }
+        for (int i = 0; i < operations; i++) {
+          portfolio.moveCompany(random.nextInt(COMPANIES), random.nextInt(COMPANIES));
+        }
+        return portfolio.indexOfCompany(tickers[0]);
+      }
+    });
+    harness.measure("portfolio.update." + COMPANIES, new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) {
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < COMPANIES; i++) {
+          portfolio.addCompanyNoUpdate(tickers[i]);
+        }
+        // Each operation applies a downloaded quote to every company, as an update of the whole portfolio does
+        long sum = 0;
+        for (int i = 0; i < operations; i++) {
+          for (int c = 0; c < COMPANIES; c++) {
+            if (portfolio.setQuote(tickers[c], quotes[c])) {
+              sum++;
+            }
+          }
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Measure saving changes to the watchlist and restoring it, as MainActivity does when it stops and when it is created
+   * 
+   * @param harness
+   *          The harness to measure with
+   * @throws Exception
+   *           If the watchlist file could not be created
+   */
+  private static void measureWatchlist(BenchmarkHarness harness) throws Exception {
+    final File file = File.createTempFile("watchlist", ".dat");
+    file.deleteOnExit();
+    final File saved = File.createTempFile("watchlist", ".dat");
+    saved.deleteOnExit();
+    saved.delete();
+
+    harness.measure("watchlist.save (move + flush)", new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) throws Exception {
+        file.delete();
+        WatchlistStore store = new WatchlistStore(file);
+        for (int i = 0; i < COMPANIES; i++) {
+          store.add(ticker(i));
+        }
+        store.flush();
+        // Each operation makes one change and saves it, which appends to the journal until it is compacted
+        for (int i = 0; i < operations; i++) {
+          store.move(ticker(i % COMPANIES), ticker((i + 7) % COMPANIES));
+          store.flush();
+        }
+        return file.length();
+      }
+    });
+    harness.measure("watchlist.restore." + COMPANIES, new BenchmarkHarness.Workload() {
+
+      @Override
+      public long run(int operations) throws Exception {
+        if (!saved.exists()) {
+          // Save the watchlist once, outside of the measured loop
+          WatchlistStore store = new WatchlistStore(saved);
+          for (int i = 0; i < COMPANIES; i++) {
+            store.add(ticker(i));
+          }
+          store.flush();
+        }
+        long sum = 0;
+        for (int i = 0; i < operations; i++) {
+          sum += new WatchlistStore(saved).getEntries().size();
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Run the benchmarks
+   * 
+   * @param args
+   *          Optionally a file to write the report to
+   * @throws Exception
+   *           If the report could not be written
+   */
+  public static void main(String[] args) throws Exception {
+    // The portfolio logs every change, which would otherwise be measured along with it
+    Logger.setSink(Logger.NONE);
+    BenchmarkHarness harness = new BenchmarkHarness(ROUNDS, ROUND_MILLIS);
+    measureParsers(harness);
+    measureFormatting(harness);
+    measurePortfolio(harness);
+    measureWatchlist(harness);
+
+    harness.report(System.out);
+    if (args.length > 0) {
+      PrintStream out = new PrintStream(new FileOutputStream(args[0]), false, "UTF-8");
+      harness.report(out);
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/**
+ * BenchmarkHarness.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small harness for measuring the throughput and allocation rate of pieces of the app on a plain JVM.
+ * 
+ * Each workload is first calibrated so that a round takes a fixed time, then run for a round to warm up the JIT, then measured over
+ * several rounds of which the median throughput is reported. Allocation is measured through the per-thread allocation counter of
+ * HotSpot JVMs and reported as the mean number of bytes allocated per operation. Workloads that cannot run, for example because a
+ * library they need is not on the classpath, are reported as skipped rather than stopping the other workloads.
+ * 
+ * @author Ryan Harrison
+ */
+public class BenchmarkHarness {
+
+  /**
+   * A piece of work to measure
+   * 
+   * @author Ryan Harrison
+   */
+  public abstract static class Workload {
+
+    /**
+     * Run the work a number of times
+     * 
+     * @param operations
+     *          The number of times to run the work
+     * @return A value computed from the results of the work, which stops the JIT from discarding it
+     * @throws Exception
+     *           If the work failed
+     */
+    public abstract long run(int operations) throws Exception;
+  }
+
+  /**
+   * The measurements of a single workload
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Result {
+
+    /** The name of the workload */
+    private final String name;
+
+    /** The median number of operations per second, or NaN if the workload was skipped */
+    private double       throughput;
+
+    /** The mean number of bytes allocated per operation, or NaN if it could not be measured */
+    private double       allocation;
+
+    /** The reason that the workload was skipped, or null if it was measured */
+    private String       skipped;
+
+    /**
+     * Construct a new Result for a workload
+     * 
+     * @param name
+     *          The name of the workload
+     */
+    private Result(String name) {
+      this.name = name;
+      this.throughput = Double.NaN;
+      this.allocation = Double.NaN;
+    }
+  }
+
+  /** The number of rounds measured for each workload */
+  private final int          rounds;
+
+  /** The target time in nanoseconds of each round */
+  private final long         roundTime;
+
+  /** The measurements of each workload, in the order in which they were run */
+  private final List<Result> results;
+
+  /** The method that reads the number of bytes allocated by a thread, or null if the JVM does not have one */
+  private final Method       allocatedBytes;
+
+  /** Prevents the JIT from discarding the results of the workloads */
+  private long               sink;
+
+  /**
+   * Construct a new BenchmarkHarness
+   * 
+   * @param rounds
+   *          The number of rounds measured for each workload
+   * @param roundMillis
+   *          The target time in milliseconds of each round
+   */
+  public BenchmarkHarness(int rounds, long roundMillis) {
+    this.rounds = rounds;
+    this.roundTime = roundMillis * 1000000;
+    this.results = new ArrayList<Result>();
+
+    Method method = null;
+    try {
+      // Only HotSpot based JVMs have this, so look it up through the interface rather than linking against it
+      method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+      method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+    }
+    catch (Exception e) {
+      method = null;
+    }
+    this.allocatedBytes = method;
+  }
+
+  /**
+   * Get the number of bytes allocated by the current thread so far
+   * 
+   * @return The number of bytes, or -1 if it cannot be measured
+   */
+  private long getAllocatedBytes() {
+    if (this.allocatedBytes == null) {
+      return -1;
+    }
+    try {
+      return (Long) this.allocatedBytes.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+    }
+    catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Measure a workload and keep its result for the report
+   * 
+   * @param name
+   *          The name of the workload
+   * @param workload
+   *          The workload
+   */
+  public void measure(String name, Workload workload) {
+    Result result = new Result(name);
+    this.results.add(result);
+    System.err.println("Measuring " + name);
+    try {
+      // Double the number of operations until a round takes at least a quarter of the target time, then scale up to the target
+      int operations = 1;
+      long elapsed;
+      while (true) {
+        long start = System.nanoTime();
+        this.sink += workload.run(operations);
+        elapsed = System.nanoTime() - start;
+        if (elapsed >= this.roundTime / 4 || operations >= Integer.MAX_VALUE / 2) {
+          break;
+        }
+        operations *= 2;
+      }
+      operations = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (double) operations * this.roundTime / Math.max(1, elapsed)));
+
+      // Warm up for a round at the calibrated size before measuring
+      this.sink += workload.run(operations);
+
+      double[] throughputs = new double[this.rounds];
+      long allocatedBefore = this.getAllocatedBytes();
+      for (int round = 0; round < this.rounds; round++) {
+        long start = System.nanoTime();
+        this.sink += workload.run(operations);
+        throughputs[round] = operations * 1e9 / Math.max(1, System.nanoTime() - start);
+      }
+      long allocatedAfter = this.getAllocatedBytes();
+
+      Arrays.sort(throughputs);
+      result.throughput = throughputs[this.rounds / 2];
+      if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+        result.allocation = (double) (allocatedAfter - allocatedBefore) / ((long) operations * this.rounds);
+      }
+    }
+    catch (Throwable e) {
+      // Missing classes are expected when a library is not on the classpath, so report them rather than fail
+      result.skipped = e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+  }
+
+  /**
+   * Print the results of every workload measured so far as a table, headed by the JVM and the libraries on the classpath that they
+   * were measured with
+   * 
+   * @param out
+   *          The stream to print to
+   */
+  public void report(PrintStream out) {
+    out.printf(Locale.US, "# java %s (%s), %s %s, %d processors%n", System.getProperty("java.version"),
+        System.getProperty("java.vm.name"), System.getProperty("os.name"), System.getProperty("os.arch"), Runtime.getRuntime()
+            .availableProcessors());
+    StringBuilder jars = new StringBuilder();
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (entry.endsWith(".jar")) {
+        jars.append(' ').append(new File(entry).getName());
+      }
+    }
+    out.printf(Locale.US, "# libraries%s%n", jars.length() == 0 ? " none" : jars.toString());
+    out.printf(Locale.US, "# median of %d rounds of %d ms%n", this.rounds, this.roundTime / 1000000);
+    out.printf(Locale.US, "%-40s %16s %12s%n", "benchmark", "ops/s", "bytes/op");
+    for (Result result : this.results) {
+      if (result.skipped != null) {
+        out.printf(Locale.US, "%-40s skipped (%s)%n", result.name, result.skipped);
+      }
+      else if (Double.isNaN(result.allocation)) {
+        out.printf(Locale.US, "%-40s %16.1f %12s%n", result.name, result.throughput, "n/a");
+      }
+      else {
+        out.printf(Locale.US, "%-40s %16.1f %12.1f%n", result.name, result.throughput, result.allocation);
+      }
+    }
+    out.printf(Locale.US, "# checksum %d%n", this.sink);
+  }
+}
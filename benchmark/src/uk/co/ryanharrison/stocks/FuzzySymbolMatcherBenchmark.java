@@ -0,0 +1,146 @@
+/**
+ * FuzzySymbolMatcherBenchmark.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark of FuzzySymbolMatcher over a synthetic directory of tens of thousands of listings. Each query is the name of a random
+ * listing with a typo introduced, and the benchmark reports the latency of the searches along with how often the intended listing
+ * was in the results.
+ * 
+ * Runs on a plain JVM from the root of the project:
+ * 
+ * <pre>
+ * javac -d bin/benchmark core/src/uk/co/ryanharrison/stocks/{SymbolListing,SymbolDirectory,FuzzySymbolMatcher}.java benchmark/src/uk/co/ryanharrison/stocks/FuzzySymbolMatcherBenchmark.java
+ * java -cp bin/benchmark uk.co.ryanharrison.stocks.FuzzySymbolMatcherBenchmark [listings] [queries]
+ * </pre>
+ * 
+ * @author Ryan Harrison
+ */
+public class FuzzySymbolMatcherBenchmark {
+
+  /** Consonants used to generate the syllables of business names */
+  private static final String   CONSONANTS = "bcdfghjklmnprstvwxz";
+
+  /** Vowels used to generate the syllables of business names */
+  private static final String   VOWELS     = "aeiou";
+
+  /** Words appended to generated business names */
+  private static final String[] SUFFIXES   = { "Holdings", "Group", "plc", "Inc.", "Corporation", "Limited", "Systems",
+      "Industries", "Resources", "Technologies" };
+
+  /** The number of results requested from each search */
+  private static final int      LIMIT      = 10;
+
+  /**
+   * Generate a random business name of one or two made up words followed by a common suffix
+   * 
+   * @param random
+   *          The source of randomness
+   * @return The generated name
+   */
+  private static String name(Random random) {
+    StringBuilder builder = new StringBuilder();
+    int words = 1 + random.nextInt(2);
+    for (int w = 0; w < words; w++) {
+      int syllables = 2 + random.nextInt(3);
+      for (int s = 0; s < syllables; s++) {
+        char consonant = CONSONANTS.charAt(random.nextInt(CONSONANTS.length()));
+        builder.append(s == 0 ? Character.toUpperCase(consonant) : consonant);
+        builder.append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+        if (random.nextBoolean()) {
+          builder.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+        }
+      }
+      builder.append(' ');
+    }
+    return builder.append(SUFFIXES[random.nextInt(SUFFIXES.length)]).toString();
+  }
+
+  /**
+   * Introduce a single random typo into a word, either deleting, substituting or transposing characters
+   * 
+   * @param word
+   *          The word to misspell
+   * @param random
+   *          The source of randomness
+   * @return The misspelt word
+   */
+  private static String typo(String word, Random random) {
+    if (word.length() < 4) {
+      return word;
+    }
+    StringBuilder builder = new StringBuilder(word);
+    int i = 1 + random.nextInt(word.length() - 2);
+    switch (random.nextInt(3)) {
+      case 0:
+        builder.deleteCharAt(i);
+        break;
+      case 1:
+        builder.setCharAt(i, (char) ('a' + random.nextInt(26)));
+        break;
+      default:
+        char c = builder.charAt(i);
+        builder.setCharAt(i, builder.charAt(i + 1));
+        builder.setCharAt(i + 1, c);
+        break;
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Run the benchmark
+   * 
+   * @param args
+   *          Optionally the number of listings to generate followed by the number of queries to run
+   */
+  public static void main(String[] args) {
+    int listingCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    Random random = new Random(42);
+
+    List<SymbolListing> listings = new ArrayList<SymbolListing>(listingCount);
+    for (int i = 0; i < listingCount; i++) {
+      listings.add(new SymbolListing("S" + Integer.toString(i, 36).toUpperCase(), name(random), "BENCH"));
+    }
+
+    long start = System.nanoTime();
+    FuzzySymbolMatcher matcher = new FuzzySymbolMatcher(listings);
+    System.out.printf("Indexed %d listings in %.1f ms%n", listingCount, (System.nanoTime() - start) / 1e6);
+
+    // Warm up the JIT before measuring
+    for (int i = 0; i < queryCount / 4; i++) {
+      matcher.search(typo(listings.get(random.nextInt(listingCount)).name.split(" ")[0], random), LIMIT);
+    }
+
+    long[] latencies = new long[queryCount];
+    int found = 0;
+    for (int i = 0; i < queryCount; i++) {
+      SymbolListing target = listings.get(random.nextInt(listingCount));
+      String query = typo(target.name.split(" ")[0], random);
+
+      long begin = System.nanoTime();
+      List<SymbolListing> results = matcher.search(query, LIMIT);
+      latencies[i] = System.nanoTime() - begin;
+
+      // Many generated names share their first word, so count a hit if any listing with the same first word was returned
+      for (SymbolListing result : results) {
+        if (result.name.split(" ")[0].equals(target.name.split(" ")[0])) {
+          found++;
+          break;
+        }
+      }
+    }
+
+    Arrays.sort(latencies);
+    System.out.printf("Queries: %d, hit rate: %.1f%%%n", queryCount, 100.0 * found / queryCount);
+    System.out.printf("Latency p50: %.3f ms, p99: %.3f ms, max: %.3f ms%n", latencies[queryCount / 2] / 1e6,
+        latencies[queryCount * 99 / 100] / 1e6, latencies[queryCount - 1] / 1e6);
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * QuoteHandoffBenchmark.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark of the ways of handing a quote from one activity to another. Compares the Java serialization that a Serializable
+ * intent extra goes through, writing the fields one by one in the order used by QuoteParcel, and looking the quote up by its ticker
+ * in a QuoteTable as QuoteRegistry does through the portfolio.
+ * 
+ * Parcel itself is only available on a device, so the explicit encoding is written to a DataOutputStream instead. It makes the
+ * same calls per field as QuoteParcel, so it shows how the two encodings compare rather than the exact cost on a device.
+ * 
+ * Runs on a plain JVM from the root of the project:
+ * 
+ * <pre>
+ * javac -d bin/benchmark core/src/uk/co/ryanharrison/stocks/{Quote,QuoteTable,StringDictionary}.java benchmark/src/uk/co/ryanharrison/stocks/QuoteHandoffBenchmark.java
+ * java -cp bin/benchmark uk.co.ryanharrison.stocks.QuoteHandoffBenchmark [quotes] [handoffs]
+ * </pre>
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteHandoffBenchmark {
+
+  /** The number of times each method is measured, of which the median is reported */
+  private static final int      ROUNDS    = 7;
+
+  /** Stock exchanges given to the generated quotes */
+  private static final String[] EXCHANGES = { "NasdaqNM", "NYSE", "LSE", "AMEX" };
+
+  /** Prevents the JIT from discarding the results of the measured work */
+  private static long           sink;
+
+  /**
+   * Write the fields of a quote one by one and read them back, in the same order as QuoteParcel
+   * 
+   * @param quote
+   *          The quote to hand off
+   * @param buffer
+   *          A buffer to reuse for the encoded quote
+   * @return The quote read back
+   * @throws IOException
+   *           If there was an error writing or reading the quote
+   */
+  private static Quote explicit(Quote quote, ByteArrayOutputStream buffer) throws IOException {
+    buffer.reset();
+    DataOutputStream out = new DataOutputStream(buffer);
+    out.writeUTF(quote.ticker);
+    out.writeUTF(quote.name);
+    out.writeUTF(quote.stockExchange);
+    out.writeDouble(quote.marketCapitalization);
+    out.writeDouble(quote.lastTradePrice);
+    out.writeDouble(quote.change);
+    out.writeDouble(quote.percentChange);
+    out.writeDouble(quote.daysLow);
+    out.writeDouble(quote.daysHigh);
+    out.writeDouble(quote.yearLow);
+    out.writeDouble(quote.yearHigh);
+    out.writeLong(quote.volume);
+    out.writeLong(quote.averageDailyVolume);
+    out.flush();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+    Quote result = new Quote();
+    result.ticker = in.readUTF();
+    result.name = in.readUTF();
+    result.stockExchange = in.readUTF();
+    result.marketCapitalization = in.readDouble();
+    result.lastTradePrice = in.readDouble();
+    result.change = in.readDouble();
+    result.percentChange = in.readDouble();
+    result.daysLow = in.readDouble();
+    result.daysHigh = in.readDouble();
+    result.yearLow = in.readDouble();
+    result.yearHigh = in.readDouble();
+    result.volume = in.readLong();
+    result.averageDailyVolume = in.readLong();
+    return result;
+  }
+
+  /**
+   * Get the size of a quote written field by field
+   * 
+   * @param quote
+   *          The quote to write
+   * @param buffer
+   *          A buffer to reuse for the encoded quote
+   * @return The number of bytes written
+   * @throws IOException
+   *           If there was an error writing the quote
+   */
+  private static int explicitSize(Quote quote, ByteArrayOutputStream buffer) throws IOException {
+    explicit(quote, buffer);
+    return buffer.size();
+  }
+
+  /**
+   * Run the benchmark
+   * 
+   * @param args
+   *          Optionally the number of quotes to generate followed by the number of handoffs to measure in each round
+   * @throws Exception
+   *           If a quote could not be serialized
+   */
+  public static void main(String[] args) throws Exception {
+    int quoteCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int handoffs = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    Random random = new Random(42);
+
+    // Fill a table with quotes and index it by ticker, as the portfolio does
+    Quote[] quotes = new Quote[quoteCount];
+    QuoteTable table = new QuoteTable(quoteCount);
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    for (int i = 0; i < quoteCount; i++) {
+      quotes[i] = quote(random, i);
+      table.set(i, quotes[i]);
+      index.put(quotes[i].ticker, i);
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    System.out.printf("Encoded size: serializable %d bytes, explicit %d bytes%n", serialize(quotes[0], buffer).length,
+        explicitSize(quotes[0], buffer));
+
+    String[] names = { "Serializable", "Explicit fields", "Registry lookup" };
+    long[][] times = new long[names.length][ROUNDS];
+    // The first round of each method warms up the JIT and is discarded
+    for (int round = -1; round < ROUNDS; round++) {
+      for (int method = 0; method < names.length; method++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < handoffs; i++) {
+          Quote quote = quotes[random.nextInt(quoteCount)];
+          Quote received;
+          switch (method) {
+            case 0:
+              received = (Quote) new ObjectInputStream(new ByteArrayInputStream(serialize(quote, buffer))).readObject();
+              break;
+            case 1:
+              received = explicit(quote, buffer);
+              break;
+            default:
+              received = table.get(index.get(quote.ticker), new Quote());
+              break;
+          }
+          sink += received.volume;
+        }
+        if (round >= 0) {
+          times[method][round] = System.nanoTime() - start;
+        }
+      }
+    }
+
+    System.out.printf("Handoffs per round: %d, median of %d rounds%n", handoffs, ROUNDS);
+    for (int method = 0; method < names.length; method++) {
+      Arrays.sort(times[method]);
+      System.out.printf("%-16s %8.0f ns per handoff%n", names[method], (double) times[method][ROUNDS / 2] / handoffs);
+    }
+    System.out.printf("Checksum: %d%n", sink);
+  }
+
+  /**
+   * Generate a quote with random values
+   * 
+   * @param random
+   *          The source of randomness
+   * @param i
+   *          The number of the quote, used to make its ticker unique
+   * @return The generated quote
+   */
+  private static Quote quote(Random random, int i) {
+    Quote quote = new Quote();
+    quote.ticker = "S" + Integer.toString(i, 36).toUpperCase();
+    quote.name = "Benchmark Company " + i + " Inc.";
+    quote.stockExchange = EXCHANGES[random.nextInt(EXCHANGES.length)];
+    quote.marketCapitalization = (1 + random.nextInt(999)) * 1e8;
+    quote.lastTradePrice = 10 + random.nextDouble() * 500;
+    quote.change = random.nextGaussian() * 5;
+    quote.percentChange = quote.change / quote.lastTradePrice * 100;
+    quote.daysLow = quote.lastTradePrice - random.nextDouble() * 5;
+    quote.daysHigh = quote.lastTradePrice + random.nextDouble() * 5;
+    quote.yearLow = quote.daysLow * 0.7;
+    quote.yearHigh = quote.daysHigh * 1.3;
+    quote.volume = random.nextInt(50000000);
+    quote.averageDailyVolume = random.nextInt(50000000);
+    return quote;
+  }
+
+  /**
+   * Serialize a quote with Java serialization, as is done for a Serializable intent extra
+   * 
+   * @param quote
+   *          The quote to serialize
+   * @param buffer
+   *          A buffer to reuse for the serialized quote
+   * @return The serialized quote
+   * @throws IOException
+   *           If there was an error serializing the quote
+   */
+  private static byte[] serialize(Quote quote, ByteArrayOutputStream buffer) throws IOException {
+    buffer.reset();
+    ObjectOutputStream out = new ObjectOutputStream(buffer);
+    out.writeObject(quote);
+    out.close();
+    return buffer.toByteArray();
+  }
+}
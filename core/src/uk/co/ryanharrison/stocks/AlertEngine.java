@@ -0,0 +1,415 @@
+/**
+ * AlertEngine.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the price alerts set by the user and finds the alerts triggered by each new quote.
+ * 
+ * The alerts of each ticker are indexed by type in arrays sorted by threshold. An alert is triggered when the price moves from one
+ * side of its threshold to the other between two quotes, so the alerts triggered by a quote are exactly those with thresholds
+ * between the old and new price, which are found by binary search. Evaluating a quote therefore takes time logarithmic in the number
+ * of alerts on its ticker plus the number of alerts triggered, however many alerts there are. The arrays are only rebuilt when an
+ * alert is added or removed.
+ * 
+ * The alerts are stored in a small file that is rewritten whenever it is flushed after a change. The file is read the first time the
+ * alerts are accessed, which should be done off the UI thread. Every method is thread safe.
+ * 
+ * @author Ryan Harrison
+ */
+public class AlertEngine {
+
+  /**
+   * The alerts of a single ticker, indexed by type and sorted by threshold
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Thresholds {
+
+    /** The thresholds of the alerts of each type in ascending order, indexed by type */
+    private final double[][]     levels = new double[3][];
+
+    /** The alerts of each type in the same order as their thresholds, indexed by type */
+    private final PriceAlert[][] alerts = new PriceAlert[3][];
+
+    /**
+     * Construct a new Thresholds index of the alerts of a ticker
+     * 
+     * @param all
+     *          Every alert of the ticker
+     */
+    private Thresholds(List<PriceAlert> all) {
+      List<PriceAlert> sorted = new ArrayList<PriceAlert>(all);
+      Collections.sort(sorted, BY_THRESHOLD);
+      for (int type = 0; type < 3; type++) {
+        List<PriceAlert> ofType = new ArrayList<PriceAlert>();
+        for (PriceAlert alert : sorted) {
+          if (alert.type == type) {
+            ofType.add(alert);
+          }
+        }
+        this.levels[type] = new double[ofType.size()];
+        this.alerts[type] = ofType.toArray(new PriceAlert[ofType.size()]);
+        for (int i = 0; i < this.alerts[type].length; i++) {
+          this.levels[type][i] = this.alerts[type][i].threshold;
+        }
+      }
+    }
+  }
+
+  /** Magic number at the start of every alerts file */
+  private static final int                    MAGIC        = 0x414c5431;
+
+  /** Orders alerts by ascending threshold */
+  private static final Comparator<PriceAlert> BY_THRESHOLD = new Comparator<PriceAlert>() {
+
+    @Override
+    public int compare(PriceAlert a, PriceAlert b) {
+      return Double.compare(a.threshold, b.threshold);
+    }
+  };
+
+  /** The file that the alerts are stored in */
+  private final File                          file;
+
+  /** Every alert keyed by id, in the order they were added */
+  private final Map<Long, PriceAlert>         alerts;
+
+  /** The alerts of each ticker that has any in the order they were added, keyed by canonical ticker */
+  private final Map<String, List<PriceAlert>> byTicker;
+
+  /** The index of the alerts of each ticker that has any, keyed by canonical ticker */
+  private final Map<String, Thresholds>       thresholds;
+
+  /** The id of the next alert to be added */
+  private long                                nextId;
+
+  /** Whether the file has been read yet */
+  private boolean                             loaded;
+
+  /** Whether the alerts have changed since they were last written to the file */
+  private boolean                             dirty;
+
+  /** Lock held while writing the file, so that flushes from different threads are written in order */
+  private final Object                        fileLock;
+
+  /** Tag used for logging */
+  public static final String                  TAG          = "AlertEngine";
+
+  /**
+   * Construct a new AlertEngine backed by the specified file. The file is not read until the alerts are first accessed
+   * 
+   * @param file
+   *          The file that the alerts are stored in
+   */
+  public AlertEngine(File file) {
+    this.file = file;
+    this.alerts = new LinkedHashMap<Long, PriceAlert>();
+    this.byTicker = new HashMap<String, List<PriceAlert>>();
+    this.thresholds = new HashMap<String, Thresholds>();
+    this.fileLock = new Object();
+  }
+
+  /**
+   * Find the index of the first level greater than a value, or the number of levels if there is none
+   * 
+   * @param levels
+   *          The levels in ascending order
+   * @param value
+   *          The value
+   * @param inclusive
+   *          True to find the first level greater than or equal to the value instead
+   * @return The index of the level
+   */
+  private static int search(double[] levels, double value, boolean inclusive) {
+    int low = 0;
+    int high = levels.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (levels[mid] < value || !inclusive && levels[mid] == value) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Add an alert
+   * 
+   * @param ticker
+   *          The ticker of the stock to watch
+   * @param type
+   *          The type of the alert, either PriceAlert.ABOVE, PriceAlert.BELOW or PriceAlert.MOVE
+   * @param threshold
+   *          The price that triggers the alert, or the percentage for alerts of type MOVE
+   * @return The new alert
+   */
+  public synchronized PriceAlert add(String ticker, int type, double threshold) {
+    if (type < PriceAlert.ABOVE || type > PriceAlert.MOVE) {
+      throw new IllegalArgumentException("Unknown alert type " + type);
+    }
+    this.ensureLoaded();
+    // Moves are compared by size, whichever direction the price went
+    double level = type == PriceAlert.MOVE ? Math.abs(threshold) : threshold;
+    PriceAlert alert = new PriceAlert(this.nextId++, Portfolio.canonicalise(ticker), type, level);
+    this.alerts.put(alert.id, alert);
+    this.group(alert);
+    this.reindex(alert.ticker);
+    this.dirty = true;
+    return alert;
+  }
+
+  /**
+   * Read the alerts from the file if that has not been done yet
+   */
+  private void ensureLoaded() {
+    if (this.loaded) {
+      return;
+    }
+    this.loaded = true;
+    if (!this.file.exists()) {
+      return;
+    }
+
+    Logger.i(TAG, "Loading alerts from " + this.file);
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Invalid alerts " + this.file);
+      }
+      this.nextId = in.readLong();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        PriceAlert alert = new PriceAlert(in.readLong(), in.readUTF(), in.readByte(), in.readDouble());
+        this.alerts.put(alert.id, alert);
+        this.nextId = Math.max(this.nextId, alert.id + 1);
+      }
+    }
+    catch (IOException e) {
+      Logger.e(TAG, e.toString());
+    }
+    finally {
+      // Make sure that the InputStream is closed in all cases
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) {
+          Logger.e(TAG, e.toString());
+        }
+      }
+    }
+    // Group the alerts by ticker in one pass, then index each ticker once
+    for (PriceAlert alert : this.alerts.values()) {
+      this.group(alert);
+    }
+    for (String ticker : this.byTicker.keySet()) {
+      this.reindex(ticker);
+    }
+    Logger.i(TAG, "Loaded " + this.alerts.size() + " alerts");
+  }
+
+  /**
+   * Find the alerts of a ticker triggered by a change in its price and percentage change, adding them to a list in ascending order
+   * of threshold for each type
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param oldPrice
+   *          The price in the previous quote
+   * @param newPrice
+   *          The price in the new quote
+   * @param oldPercent
+   *          The percentage change on the day in the previous quote
+   * @param newPercent
+   *          The percentage change on the day in the new quote
+   * @param triggered
+   *          The list to add the triggered alerts to
+   * @return The number of alerts triggered
+   */
+  public synchronized int evaluate(String ticker, double oldPrice, double newPrice, double oldPercent, double newPercent,
+      List<PriceAlert> triggered) {
+    this.ensureLoaded();
+    Thresholds index = this.thresholds.get(Portfolio.canonicalise(ticker));
+    if (index == null) {
+      return 0;
+    }
+    int count = 0;
+    if (newPrice > oldPrice) {
+      // Thresholds in (old, new] have been risen through
+      double[] levels = index.levels[PriceAlert.ABOVE];
+      for (int i = search(levels, oldPrice, false); i < levels.length && levels[i] <= newPrice; i++, count++) {
+        triggered.add(index.alerts[PriceAlert.ABOVE][i]);
+      }
+    }
+    else if (newPrice < oldPrice) {
+      // Thresholds in [new, old) have been fallen through
+      double[] levels = index.levels[PriceAlert.BELOW];
+      for (int i = search(levels, newPrice, true); i < levels.length && levels[i] < oldPrice; i++, count++) {
+        triggered.add(index.alerts[PriceAlert.BELOW][i]);
+      }
+    }
+    double oldMove = Math.abs(oldPercent);
+    double newMove = Math.abs(newPercent);
+    if (newMove > oldMove) {
+      double[] levels = index.levels[PriceAlert.MOVE];
+      for (int i = search(levels, oldMove, false); i < levels.length && levels[i] <= newMove; i++, count++) {
+        triggered.add(index.alerts[PriceAlert.MOVE][i]);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Write the alerts to the file if they have changed since they were last written. This should not be called on the UI thread
+   * 
+   * @throws IOException
+   *           If there was an error writing the file. The alerts are written again by the next flush
+   */
+  public void flush() throws IOException {
+    synchronized (this.fileLock) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      synchronized (this) {
+        if (!this.dirty) {
+          return;
+        }
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeLong(this.nextId);
+        out.writeInt(this.alerts.size());
+        for (PriceAlert alert : this.alerts.values()) {
+          out.writeLong(alert.id);
+          out.writeUTF(alert.ticker);
+          out.writeByte(alert.type);
+          out.writeDouble(alert.threshold);
+        }
+        this.dirty = false;
+      }
+
+      Logger.i(TAG, "Writing alerts to " + this.file);
+      try {
+        File temp = new File(this.file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+          out.write(buffer.toByteArray());
+          out.getFD().sync();
+        }
+        finally {
+          out.close();
+        }
+        // Renaming over the old file is atomic, so a crash leaves either the old or the new alerts. Only delete the old file first
+        // where the rename cannot replace it
+        if (!temp.renameTo(this.file) && !(this.file.delete() && temp.renameTo(this.file))) {
+          throw new IOException("Unable to replace alerts " + this.file);
+        }
+      }
+      catch (IOException e) {
+        synchronized (this) {
+          this.dirty = true;
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Get the alerts of a ticker
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @return The alerts of the ticker, ordered by type then threshold
+   */
+  public synchronized List<PriceAlert> getAlerts(String ticker) {
+    this.ensureLoaded();
+    List<PriceAlert> result = new ArrayList<PriceAlert>();
+    Thresholds index = this.thresholds.get(Portfolio.canonicalise(ticker));
+    if (index != null) {
+      for (PriceAlert[] ofType : index.alerts) {
+        Collections.addAll(result, ofType);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Add an alert to the list of alerts of its ticker
+   * 
+   * @param alert
+   *          The alert
+   */
+  private void group(PriceAlert alert) {
+    List<PriceAlert> ofTicker = this.byTicker.get(alert.ticker);
+    if (ofTicker == null) {
+      ofTicker = new ArrayList<PriceAlert>();
+      this.byTicker.put(alert.ticker, ofTicker);
+    }
+    ofTicker.add(alert);
+  }
+
+  /**
+   * Read the alerts from the file if they have not been read yet, so that later calls do not block on reading it
+   */
+  public synchronized void load() {
+    this.ensureLoaded();
+  }
+
+  /**
+   * Rebuild the index of the alerts of a ticker after they have changed, which only looks at the alerts of that ticker
+   * 
+   * @param ticker
+   *          The canonical ticker
+   */
+  private void reindex(String ticker) {
+    List<PriceAlert> ofTicker = this.byTicker.get(ticker);
+    if (ofTicker == null) {
+      this.thresholds.remove(ticker);
+    }
+    else {
+      this.thresholds.put(ticker, new Thresholds(ofTicker));
+    }
+  }
+
+  /**
+   * Remove an alert
+   * 
+   * @param id
+   *          The id of the alert
+   * @return True if the alert was removed, false if there was no alert with the id
+   */
+  public synchronized boolean remove(long id) {
+    this.ensureLoaded();
+    PriceAlert alert = this.alerts.remove(id);
+    if (alert == null) {
+      return false;
+    }
+    List<PriceAlert> ofTicker = this.byTicker.get(alert.ticker);
+    ofTicker.remove(alert);
+    if (ofTicker.isEmpty()) {
+      this.byTicker.remove(alert.ticker);
+    }
+    this.reindex(alert.ticker);
+    this.dirty = true;
+    return true;
+  }
+}
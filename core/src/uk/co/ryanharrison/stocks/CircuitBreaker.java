@@ -0,0 +1,146 @@
+/**
+ * CircuitBreaker.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class to stop requests being sent to a host that is failing, so that a service that is down is not hammered with requests that
+ * will only fail and the user is told straight away rather than after every request has timed out.
+ * 
+ * Each host has its own breaker. A breaker is closed while requests succeed, and opens after a run of consecutive failures. While it
+ * is open requests to the host fail immediately. Once the open period has passed a single trial request is let through: if it
+ * succeeds the breaker closes again, otherwise it reopens for twice as long as before, up to a limit.
+ * 
+ * @author Ryan Harrison
+ */
+public class CircuitBreaker {
+
+  /**
+   * The state of the breaker of a single host
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Host {
+
+    /** The number of consecutive failed requests */
+    private int     failures;
+
+    /** The time in milliseconds until which requests fail immediately, or 0 if the breaker is closed */
+    private long    openUntil;
+
+    /** The time in milliseconds that the breaker stays open for the next time it opens */
+    private long    openTime;
+
+    /** Whether a trial request has been let through since the breaker last opened */
+    private boolean trial;
+  }
+
+  /** The number of consecutive failures after which a breaker opens */
+  private final int               threshold;
+
+  /** The time in milliseconds that a breaker stays open for the first time it opens */
+  private final long              minOpenTime;
+
+  /** The longest time in milliseconds that a breaker stays open for */
+  private final long              maxOpenTime;
+
+  /** The breaker of each host, keyed by host name */
+  private final Map<String, Host> hosts;
+
+  /**
+   * Construct a new CircuitBreaker
+   * 
+   * @param threshold
+   *          The number of consecutive failures after which the breaker of a host opens
+   * @param minOpenTime
+   *          The time in milliseconds that a breaker stays open for the first time it opens
+   * @param maxOpenTime
+   *          The longest time in milliseconds that a breaker stays open for
+   */
+  public CircuitBreaker(int threshold, long minOpenTime, long maxOpenTime) {
+    this.threshold = threshold;
+    this.minOpenTime = minOpenTime;
+    this.maxOpenTime = maxOpenTime;
+    this.hosts = new HashMap<String, Host>();
+  }
+
+  /**
+   * Determine whether a request may be sent to a host. If the open period of the host's breaker has passed, the request is allowed
+   * as the trial request and others are refused for another open period, which also covers a trial request that never reports back
+   * 
+   * @param host
+   *          The name of the host
+   * @param now
+   *          The current time in milliseconds
+   * @return True if the request may be sent, false if it should fail immediately
+   */
+  public synchronized boolean allowRequest(String host, long now) {
+    Host state = this.hosts.get(host);
+    if (state == null || state.openUntil == 0) {
+      return true;
+    }
+    if (now < state.openUntil) {
+      return false;
+    }
+    state.trial = true;
+    state.openUntil = now + state.openTime;
+    return true;
+  }
+
+  /**
+   * Determine whether the breaker of a host is open, meaning that requests to it are currently failing immediately
+   * 
+   * @param host
+   *          The name of the host
+   * @param now
+   *          The current time in milliseconds
+   * @return True if the breaker is open and no request would be allowed now
+   */
+  public synchronized boolean isOpen(String host, long now) {
+    Host state = this.hosts.get(host);
+    return state != null && now < state.openUntil;
+  }
+
+  /**
+   * Record that a request to a host has failed because the host could not be reached or returned a server error
+   * 
+   * @param host
+   *          The name of the host
+   * @param now
+   *          The current time in milliseconds
+   */
+  public synchronized void recordFailure(String host, long now) {
+    Host state = this.hosts.get(host);
+    if (state == null) {
+      state = new Host();
+      state.openTime = this.minOpenTime;
+      this.hosts.put(host, state);
+    }
+    state.failures++;
+
+    if (state.trial) {
+      // The trial request failed, so wait longer before trying again
+      state.trial = false;
+      state.openTime = Math.min(state.openTime * 2, this.maxOpenTime);
+      state.openUntil = now + state.openTime;
+    }
+    else if (state.openUntil == 0 && state.failures >= this.threshold) {
+      state.openUntil = now + state.openTime;
+    }
+  }
+
+  /**
+   * Record that a request to a host has succeeded, closing its breaker
+   * 
+   * @param host
+   *          The name of the host
+   */
+  public synchronized void recordSuccess(String host) {
+    // Closed breakers with no failures are not kept
+    this.hosts.remove(host);
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Conflater.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class to conflate a stream of updates so that only the latest pending value for each key is delivered.
+ * 
+ * Producers offer values from any thread. Each key has a slot holding its pending value, and a value offered while an earlier one
+ * is still pending is merged into it instead of being queued, so a burst of updates for the same key costs a single delivery. The
+ * consumer drains every dirty slot in one flush, which it schedules when an offer reports that no flush is pending. Flushing no more
+ * often than the screen is redrawn means no work is done for values that would never have been seen.
+ * 
+ * Offering and flushing are lock free. Slots are updated with compare and set and the keys of dirty slots are kept in a concurrent
+ * queue, which a key joins only when its slot changes from clean to dirty.
+ * 
+ * @param <K>
+ *          The type of the keys
+ * @param <V>
+ *          The type of the values
+ * @author Ryan Harrison
+ */
+public class Conflater<K, V> {
+
+  /**
+   * Interface to merge a newly offered value into a value that is still pending
+   * 
+   * @param <V>
+   *          The type of the values
+   * @author Ryan Harrison
+   */
+  public interface Merger<V> {
+
+    /**
+     * Merge two values
+     * 
+     * @param older
+     *          The value that is pending
+     * @param newer
+     *          The value that has just been offered
+     * @return The value to leave pending in place of both
+     */
+    V merge(V older, V newer);
+  }
+
+  /**
+   * Interface to receive the values drained by a flush
+   * 
+   * @param <K>
+   *          The type of the keys
+   * @param <V>
+   *          The type of the values
+   * @author Ryan Harrison
+   */
+  public interface Sink<K, V> {
+
+    /**
+     * Called once for each key with a pending value
+     * 
+     * @param key
+     *          The key
+     * @param value
+     *          The latest value of the key
+     */
+    void onValue(K key, V value);
+
+    /**
+     * Called at the end of every flush that delivered at least one value
+     * 
+     * @param delivered
+     *          The number of values delivered by the flush
+     * @param merged
+     *          The number of values merged into others since the previous flush
+     */
+    void onFlushed(int delivered, long merged);
+  }
+
+  /** The slot of each key, holding its pending value or null if it is clean */
+  private final ConcurrentHashMap<K, AtomicReference<V>> slots;
+
+  /** The keys of the dirty slots, in the order they became dirty */
+  private final ConcurrentLinkedQueue<K>                 dirty;
+
+  /** Merges values offered while another is pending, or null to keep only the newest value */
+  private final Merger<V>                                merger;
+
+  /** Whether a flush has been requested and not yet started */
+  private final AtomicBoolean                            flushPending;
+
+  /** The number of values offered */
+  private final AtomicLong                               offered;
+
+  /** The number of values merged into a pending value rather than delivered on their own */
+  private final AtomicLong                               merged;
+
+  /** The number of values delivered */
+  private long                                           delivered;
+
+  /** The number of merged values at the end of the previous flush */
+  private long                                           mergedAtLastFlush;
+
+  /**
+   * Construct a new Conflater
+   * 
+   * @param merger
+   *          Merges values offered while another is pending, or null to keep only the newest value
+   */
+  public Conflater(Merger<V> merger) {
+    this.slots = new ConcurrentHashMap<K, AtomicReference<V>>();
+    this.dirty = new ConcurrentLinkedQueue<K>();
+    this.merger = merger;
+    this.flushPending = new AtomicBoolean();
+    this.offered = new AtomicLong();
+    this.merged = new AtomicLong();
+  }
+
+  /**
+   * Deliver the pending value of every dirty key to a sink. Must only be called from one thread at a time, normally the UI thread
+   * 
+   * @param sink
+   *          The sink to deliver the values to
+   * @return The number of values delivered
+   */
+  public int flush(Sink<K, V> sink) {
+    // Clear the flag first so that a value offered while draining requests another flush
+    this.flushPending.set(false);
+
+    int count = 0;
+    K key;
+    while ((key = this.dirty.poll()) != null) {
+      // The slot is gone if the key was removed while it was dirty
+      AtomicReference<V> slot = this.slots.get(key);
+      V value = slot == null ? null : slot.getAndSet(null);
+      if (value != null) {
+        sink.onValue(key, value);
+        count++;
+      }
+    }
+
+    if (count != 0) {
+      long mergedNow = this.merged.get();
+      sink.onFlushed(count, mergedNow - this.mergedAtLastFlush);
+      this.mergedAtLastFlush = mergedNow;
+      this.delivered += count;
+    }
+    return count;
+  }
+
+  /**
+   * Get the number of values delivered by flushes
+   * 
+   * @return The number of values delivered
+   */
+  public long getDeliveredCount() {
+    return this.delivered;
+  }
+
+  /**
+   * Get the number of values merged into a pending value rather than delivered on their own
+   * 
+   * @return The number of merged values
+   */
+  public long getMergedCount() {
+    return this.merged.get();
+  }
+
+  /**
+   * Get the number of values offered
+   * 
+   * @return The number of values offered
+   */
+  public long getOfferedCount() {
+    return this.offered.get();
+  }
+
+  /**
+   * Offer a new value for a key. Can be called from any thread
+   * 
+   * @param key
+   *          The key
+   * @param value
+   *          The new value of the key
+   * @return True if no flush was pending, in which case the caller must schedule one
+   */
+  public boolean offer(K key, V value) {
+    AtomicReference<V> slot = this.slots.get(key);
+    if (slot == null) {
+      AtomicReference<V> created = new AtomicReference<V>();
+      slot = this.slots.putIfAbsent(key, created);
+      if (slot == null) {
+        slot = created;
+      }
+    }
+
+    while (true) {
+      V pending = slot.get();
+      V next = pending == null || this.merger == null ? value : this.merger.merge(pending, value);
+      if (slot.compareAndSet(pending, next)) {
+        // Only a slot that has just become dirty joins the queue
+        if (pending == null) {
+          this.dirty.add(key);
+        }
+        else {
+          this.merged.incrementAndGet();
+        }
+        break;
+      }
+    }
+    this.offered.incrementAndGet();
+    return this.flushPending.compareAndSet(false, true);
+  }
+
+  /**
+   * Forget the slot of a key, discarding any pending value
+   * 
+   * @param key
+   *          The key to forget
+   */
+  public void remove(K key) {
+    this.slots.remove(key);
+  }
+}
@@ -0,0 +1,414 @@
+/**
+ * FuzzySymbolMatcher.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class to search a set of listings for business names and symbols that approximately match a query, so that misspellings such as
+ * 'microsft' or 'vodaphone' still find the intended business.
+ * 
+ * Every word of every name and every symbol is indexed by its trigrams. A word within k edits of a query shares all but at most 4k
+ * of the query's trigrams, so only the words sharing enough trigrams with the query are retrieved as candidates. Candidates are then
+ * scored with a Damerau-Levenshtein distance that stops as soon as the distance is known to exceed the number of edits allowed.
+ * Candidates sharing the most trigrams are scored first, and scoring stops once the time budget of the search has been used up.
+ * 
+ * @author Ryan Harrison
+ */
+public class FuzzySymbolMatcher {
+
+  /**
+   * A listing that matched a query along with how closely it matched
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Match {
+
+    /** The id of the listing that matched */
+    public final int id;
+
+    /** The total number of edits needed to match every word of the query */
+    public final int distance;
+
+    /**
+     * Construct a new Match
+     * 
+     * @param id
+     *          The id of the listing that matched
+     * @param distance
+     *          The total number of edits needed to match every word of the query
+     */
+    public Match(int id, int distance) {
+      this.id = id;
+      this.distance = distance;
+    }
+  }
+
+  /** The default time budget of a search in nanoseconds */
+  public static final long          DEFAULT_BUDGET = 3000000L;
+
+  /** Character used to pad the start of words so that their first characters also form trigrams */
+  private static final char         PAD            = '\u0001';
+
+  /** The listings that can be matched */
+  private final List<SymbolListing> listings;
+
+  /** The characters of every indexed word */
+  private final char[][]            words;
+
+  /** The id of the listing that each indexed word belongs to */
+  private final int[]               wordListings;
+
+  /** Map of trigrams to the ids of the words containing them, in ascending order */
+  private final Map<Long, int[]>    postings;
+
+  /** The number of trigrams each word shares with the current query word, reused between searches */
+  private final int[]               counts;
+
+  /** The best distance of each listing to the current query word, reused between searches */
+  private final int[]               bestDistances;
+
+  /**
+   * Construct a new FuzzySymbolMatcher over every listing in a symbol directory
+   * 
+   * @param directory
+   *          The directory containing the listings to match
+   */
+  public FuzzySymbolMatcher(SymbolDirectory directory) {
+    this(listingsOf(directory));
+  }
+
+  /**
+   * Construct a new FuzzySymbolMatcher over a list of listings, indexing the trigrams of every symbol and word of every name
+   * 
+   * @param listings
+   *          The listings to match, in order of popularity
+   */
+  public FuzzySymbolMatcher(List<SymbolListing> listings) {
+    this.listings = listings;
+
+    List<char[]> wordList = new ArrayList<char[]>();
+    List<Integer> wordListingList = new ArrayList<Integer>();
+    for (int id = 0; id < listings.size(); id++) {
+      SymbolListing listing = listings.get(id);
+      wordList.add(SymbolDirectory.normalise(listing.symbol).toCharArray());
+      wordListingList.add(id);
+      for (String token : SymbolDirectory.tokenise(listing.name)) {
+        wordList.add(token.toCharArray());
+        wordListingList.add(id);
+      }
+    }
+    this.words = wordList.toArray(new char[wordList.size()][]);
+    this.wordListings = new int[this.words.length];
+    for (int i = 0; i < this.wordListings.length; i++) {
+      this.wordListings[i] = wordListingList.get(i);
+    }
+
+    // Collect the posting list of each trigram, then pack each into an array
+    Map<Long, List<Integer>> lists = new HashMap<Long, List<Integer>>();
+    for (int w = 0; w < this.words.length; w++) {
+      long[] trigrams = trigrams(this.words[w]);
+      for (int t = 0; t < trigrams.length; t++) {
+        List<Integer> list = lists.get(trigrams[t]);
+        if (list == null) {
+          list = new ArrayList<Integer>(2);
+          lists.put(trigrams[t], list);
+        }
+        // A word containing the same trigram twice is only posted once
+        if (list.isEmpty() || list.get(list.size() - 1) != w) {
+          list.add(w);
+        }
+      }
+    }
+    this.postings = new HashMap<Long, int[]>(lists.size() * 2);
+    for (Map.Entry<Long, List<Integer>> entry : lists.entrySet()) {
+      List<Integer> list = entry.getValue();
+      int[] packed = new int[list.size()];
+      for (int i = 0; i < packed.length; i++) {
+        packed[i] = list.get(i);
+      }
+      this.postings.put(entry.getKey(), packed);
+    }
+
+    this.counts = new int[this.words.length];
+    this.bestDistances = new int[listings.size()];
+  }
+
+  /**
+   * Read every listing out of a symbol directory
+   * 
+   * @param directory
+   *          The directory to read
+   * @return Every listing in the directory in order of id
+   */
+  private static List<SymbolListing> listingsOf(SymbolDirectory directory) {
+    List<SymbolListing> listings = new ArrayList<SymbolListing>(directory.getListingCount());
+    for (int id = 0; id < directory.getListingCount(); id++) {
+      listings.add(directory.getListing(id));
+    }
+    return listings;
+  }
+
+  /**
+   * Get the trigrams of a word, padded at the start so that the first characters form trigrams of their own. Each trigram is packed
+   * into a long
+   * 
+   * @param word
+   *          The word to get the trigrams of
+   * @return The trigrams of the word, one per character
+   */
+  private static long[] trigrams(char[] word) {
+    long[] trigrams = new long[word.length];
+    char a = PAD;
+    char b = PAD;
+    for (int i = 0; i < word.length; i++) {
+      char c = word[i];
+      trigrams[i] = ((long) a << 32) | ((long) b << 16) | c;
+      a = b;
+      b = c;
+    }
+    return trigrams;
+  }
+
+  /**
+   * Get the number of edits allowed when matching a query word, so that short words are not matched by almost anything
+   * 
+   * @param length
+   *          The length of the query word
+   * @return The maximum number of edits allowed
+   */
+  private static int maxEdits(int length) {
+    if (length <= 2) {
+      return 0;
+    }
+    if (length <= 5) {
+      return 1;
+    }
+    return length <= 9 ? 2 : 3;
+  }
+
+  /**
+   * Compute the Damerau-Levenshtein (optimal string alignment) distance between a query word and the closest prefix of a word, so
+   * that a partially typed query matches. The computation stops as soon as every alignment needs more than the maximum number of
+   * edits
+   * 
+   * @param query
+   *          The query word
+   * @param word
+   *          The word to compare the query word against
+   * @param max
+   *          The maximum number of edits that are of interest
+   * @param rows
+   *          Three rows of working space, each at least one longer than the word
+   * @return The distance, or max + 1 if the distance is greater than max
+   */
+  static int distance(char[] query, char[] word, int max, int[][] rows) {
+    // Only prefixes within max characters of the length of the query can be within max edits
+    int columns = Math.min(word.length, query.length + max);
+    int[] previous = rows[0];
+    int[] current = rows[1];
+    int[] beforePrevious = rows[2];
+    for (int j = 0; j <= columns; j++) {
+      previous[j] = j;
+    }
+
+    for (int i = 1; i <= query.length; i++) {
+      current[0] = i;
+      int rowMin = i;
+      for (int j = 1; j <= columns; j++) {
+        int cost = query[i - 1] == word[j - 1] ? 0 : 1;
+        int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+        // Transposition of two adjacent characters
+        if (i > 1 && j > 1 && query[i - 1] == word[j - 2] && query[i - 2] == word[j - 1]) {
+          value = Math.min(value, beforePrevious[j - 2] + 1);
+        }
+        current[j] = value;
+        rowMin = Math.min(rowMin, value);
+      }
+      if (rowMin > max) {
+        return max + 1;
+      }
+      int[] temp = beforePrevious;
+      beforePrevious = previous;
+      previous = current;
+      current = temp;
+    }
+
+    // The closest prefix of the word is the smallest value in the last row, as long as it is not much shorter than the query
+    int best = max + 1;
+    for (int j = Math.max(0, query.length - max); j <= columns; j++) {
+      best = Math.min(best, previous[j]);
+    }
+    return best;
+  }
+
+  /**
+   * Search for the listings that best match a query using the default time budget
+   * 
+   * @param query
+   *          The query to search for
+   * @param limit
+   *          The maximum number of listings to return
+   * @return The best matching listings, closest first
+   */
+  public List<SymbolListing> search(String query, int limit) {
+    return this.search(query, limit, DEFAULT_BUDGET);
+  }
+
+  /**
+   * Search for the listings where every word of a query approximately matches the symbol or a word of the name. Listings needing the
+   * fewest edits come first, then the most popular listings. Once the time budget has been used up no more candidates are scored,
+   * so the best matches found so far are returned
+   * 
+   * @param query
+   *          The query to search for
+   * @param limit
+   *          The maximum number of listings to return
+   * @param budget
+   *          The time budget of the search in nanoseconds
+   * @return The best matching listings, closest first
+   */
+  public synchronized List<SymbolListing> search(String query, int limit, long budget) {
+    long deadline = System.nanoTime() + budget;
+    List<String> queryWords = SymbolDirectory.tokenise(query.toLowerCase(Locale.US));
+    List<SymbolListing> results = new ArrayList<SymbolListing>();
+    if (queryWords.isEmpty()) {
+      return results;
+    }
+
+    // The total distance of each listing that has matched every query word so far, or -1 once a word has failed to match
+    Map<Integer, Integer> totals = null;
+    int[][] rows = null;
+    for (String queryWord : queryWords) {
+      char[] q = queryWord.toCharArray();
+      int max = maxEdits(q.length);
+      if (rows == null || rows[0].length < q.length + max + 1) {
+        rows = new int[3][q.length + max + 1];
+      }
+
+      List<List<Integer>> buckets = this.candidates(q, max);
+      Arrays.fill(this.bestDistances, Integer.MAX_VALUE);
+      Map<Integer, Integer> matched = new HashMap<Integer, Integer>();
+      // The number of listings matched at each distance, used to stop once the remaining candidates cannot do better
+      int[] histogram = new int[max + 1];
+      int scored = 0;
+
+      search: for (int count = buckets.size() - 1; count >= 0; count--) {
+        // A word sharing count of the query word's trigrams needs at least this many edits, as each edit changes at most four
+        int lowerBound = (q.length - count + 3) / 4;
+        if (queryWords.size() == 1 && countBelow(histogram, lowerBound) >= limit) {
+          break;
+        }
+
+        for (int w : buckets.get(count)) {
+          // Stop scoring candidates once the budget is used up, keeping the best candidates that have been scored
+          if ((++scored & 63) == 0 && System.nanoTime() > deadline) {
+            break search;
+          }
+          int listing = this.wordListings[w];
+          if (totals != null && !totals.containsKey(listing)) {
+            continue;
+          }
+          int d = distance(q, this.words[w], max, rows);
+          if (d <= max && d < this.bestDistances[listing]) {
+            if (this.bestDistances[listing] <= max) {
+              histogram[this.bestDistances[listing]]--;
+            }
+            histogram[d]++;
+            this.bestDistances[listing] = d;
+            matched.put(listing, d + (totals == null ? 0 : totals.get(listing)));
+          }
+        }
+      }
+      totals = matched;
+    }
+
+    List<Match> matches = new ArrayList<Match>(totals.size());
+    for (Map.Entry<Integer, Integer> entry : totals.entrySet()) {
+      matches.add(new Match(entry.getKey(), entry.getValue()));
+    }
+    Collections.sort(matches, new Comparator<Match>() {
+
+      @Override
+      public int compare(Match a, Match b) {
+        if (a.distance != b.distance) {
+          return a.distance < b.distance ? -1 : 1;
+        }
+        return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+      }
+    });
+    for (int i = 0; i < matches.size() && i < limit; i++) {
+      results.add(this.listings.get(matches.get(i).id));
+    }
+    return results;
+  }
+
+  /**
+   * Count the listings that have been matched with fewer than a number of edits
+   * 
+   * @param histogram
+   *          The number of listings matched at each distance
+   * @param distance
+   *          The number of edits
+   * @return The number of listings matched with fewer edits
+   */
+  private static int countBelow(int[] histogram, int distance) {
+    int count = 0;
+    for (int d = 0; d < distance && d < histogram.length; d++) {
+      count += histogram[d];
+    }
+    return count;
+  }
+
+  /**
+   * Find the words that share enough trigrams with a query word to possibly be within the maximum number of edits of it
+   * 
+   * @param query
+   *          The query word
+   * @param max
+   *          The maximum number of edits allowed
+   * @return The ids of the candidate words, bucketed by the number of trigrams they share with the query word. Buckets below the
+   *         threshold needed to be within the maximum number of edits are empty
+   */
+  private List<List<Integer>> candidates(char[] query, int max) {
+    long[] trigrams = trigrams(query);
+    // Each edit can change at most four trigrams, which happens when two adjacent characters are transposed
+    int threshold = Math.max(1, trigrams.length - 4 * max);
+
+    List<Integer> touched = new ArrayList<Integer>();
+    for (long trigram : trigrams) {
+      int[] words = this.postings.get(trigram);
+      if (words == null) {
+        continue;
+      }
+      for (int w : words) {
+        if (this.counts[w]++ == 0) {
+          touched.add(w);
+        }
+      }
+    }
+
+    // Bucket the candidates by the number of shared trigrams so the most promising can be scored first, resetting the counts
+    List<List<Integer>> buckets = new ArrayList<List<Integer>>();
+    for (int i = 0; i <= trigrams.length; i++) {
+      buckets.add(new ArrayList<Integer>());
+    }
+    for (int w : touched) {
+      int count = Math.min(this.counts[w], trigrams.length);
+      this.counts[w] = 0;
+      if (count >= threshold) {
+        buckets.get(count).add(w);
+      }
+    }
+    return buckets;
+  }
+}
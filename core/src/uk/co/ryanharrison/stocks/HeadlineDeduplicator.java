@@ -0,0 +1,269 @@
+/**
+ * HeadlineDeduplicator.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class to detect near-duplicate news headlines using 64-bit SimHash fingerprints. Syndicated stories often arrive under slightly
+ * different titles from different sources, so each headline is reduced to a fingerprint where similar titles differ in only a few
+ * bits.
+ * 
+ * Fingerprints are split into bands and stored in one lookup table per band. By the pigeonhole principle two fingerprints within
+ * maxDistance bits of each other must match exactly on at least one of maxDistance + 1 bands, so only headlines sharing a band are
+ * compared rather than every pair of headlines. This only pays off while the bands are wide enough to spread the headlines over many
+ * keys, so the maximum distance should be kept small: the default of 3 gives 4 bands of 16 bits, whereas 10 would give bands of 5 or
+ * 6 bits in which every lookup scans around a fifth of all the headlines
+ * 
+ * @author Ryan Harrison
+ */
+public class HeadlineDeduplicator {
+
+  /**
+   * The default maximum number of differing bits for two headlines to be considered near-duplicates. Titles that differ only in case,
+   * punctuation, spacing or a few characters are within a few bits of each other, whereas changing a whole word of a short headline
+   * moves the fingerprint by ten or more bits and unrelated headlines differ by around half of the 64 bits
+   */
+  public static final int                      DEFAULT_MAX_DISTANCE = 3;
+
+  /** The number of characters in each shingle taken from a headline when computing its fingerprint */
+  private static final int                     SHINGLE_LENGTH       = 4;
+
+  /** FNV-1a 64 bit offset basis */
+  private static final long                    FNV_OFFSET           = 0xcbf29ce484222325L;
+
+  /** FNV-1a 64 bit prime */
+  private static final long                    FNV_PRIME            = 0x100000001b3L;
+
+  /** The maximum number of differing bits for two headlines to be considered near-duplicates */
+  private final int                            maxDistance;
+
+  /** The number of bands each fingerprint is split into */
+  private final int                            bands;
+
+  /** One lookup table per band mapping the bits of that band to the groups whose fingerprint has those bits */
+  private final List<Map<Long, List<Integer>>> bandTables;
+
+  /** The fingerprint of the first headline in each group */
+  private final List<Long>                     fingerprints;
+
+  /** The number of headlines that have been collapsed into each group */
+  private final List<Integer>                  groupSizes;
+
+  /**
+   * Construct a new HeadlineDeduplicator using the default maximum distance
+   */
+  public HeadlineDeduplicator() {
+    this(DEFAULT_MAX_DISTANCE);
+  }
+
+  /**
+   * Construct a new HeadlineDeduplicator with the specified maximum distance
+   * 
+   * @param maxDistance
+   *          The maximum number of differing bits for two headlines to be considered near-duplicates
+   */
+  public HeadlineDeduplicator(int maxDistance) {
+    if (maxDistance < 0 || maxDistance > 63) {
+      throw new IllegalArgumentException("maxDistance must be between 0 and 63");
+    }
+    this.maxDistance = maxDistance;
+    this.bands = maxDistance + 1;
+    this.bandTables = new ArrayList<Map<Long, List<Integer>>>(this.bands);
+    for (int i = 0; i < this.bands; i++) {
+      this.bandTables.add(new HashMap<Long, List<Integer>>());
+    }
+    this.fingerprints = new ArrayList<Long>();
+    this.groupSizes = new ArrayList<Integer>();
+  }
+
+  /**
+   * Compute the number of bits that differ between two fingerprints
+   * 
+   * @param a
+   *          The first fingerprint
+   * @param b
+   *          The second fingerprint
+   * @return The hamming distance between the two fingerprints
+   */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  /**
+   * Compute the 64-bit SimHash fingerprint of a headline. The headline is normalised to lower case alphanumeric words and split into
+   * overlapping character shingles. Each bit of the fingerprint is the majority vote of that bit across the hashes of every shingle
+   * 
+   * @param text
+   *          The headline to fingerprint
+   * @return The SimHash fingerprint of the headline
+   */
+  public static long fingerprint(String text) {
+    String normalised = normalise(text);
+    int[] votes = new int[64];
+
+    // Short headlines are treated as a single shingle
+    int shingles = Math.max(1, normalised.length() - SHINGLE_LENGTH + 1);
+    for (int i = 0; i < shingles; i++) {
+      long hash = hash(normalised, i, Math.min(normalised.length(), i + SHINGLE_LENGTH));
+      for (int bit = 0; bit < 64; bit++) {
+        votes[bit] += ((hash >>> bit) & 1L) != 0 ? 1 : -1;
+      }
+    }
+
+    long fingerprint = 0L;
+    for (int bit = 0; bit < 64; bit++) {
+      if (votes[bit] > 0) {
+        fingerprint |= 1L << bit;
+      }
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Hash a range of characters using 64-bit FNV-1a followed by a finalising mix so that every output bit depends on every input
+   * character
+   * 
+   * @param s
+   *          The string containing the characters to hash
+   * @param start
+   *          The index of the first character to hash
+   * @param end
+   *          The index after the last character to hash
+   * @return The 64-bit hash of the characters
+   */
+  private static long hash(String s, int start, int end) {
+    long h = FNV_OFFSET;
+    for (int i = start; i < end; i++) {
+      h ^= s.charAt(i);
+      h *= FNV_PRIME;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Reduce a headline to lower case letters and digits separated by single spaces so that punctuation and spacing differences
+   * between sources do not affect the fingerprint
+   * 
+   * @param text
+   *          The headline to normalise
+   * @return The normalised headline
+   */
+  private static String normalise(String text) {
+    StringBuilder builder = new StringBuilder(text.length());
+    boolean space = true;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        builder.append(c);
+        space = false;
+      }
+      else if (!space) {
+        builder.append(' ');
+        space = true;
+      }
+    }
+    return builder.toString().trim().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Add a headline, collapsing it into the group of an existing headline if their fingerprints are within the maximum distance
+   * 
+   * @param headline
+   *          The headline to add
+   * @return True if the headline started a new group, false if it is a near-duplicate of a previously added headline
+   */
+  public boolean add(String headline) {
+    long fingerprint = fingerprint(headline);
+
+    // Only groups sharing at least one band with the headline can be within the maximum distance
+    for (int band = 0; band < this.bands; band++) {
+      List<Integer> candidates = this.bandTables.get(band).get(this.bandKey(fingerprint, band));
+      if (candidates == null) {
+        continue;
+      }
+      for (int group : candidates) {
+        if (distance(fingerprint, this.fingerprints.get(group)) <= this.maxDistance) {
+          this.groupSizes.set(group, this.groupSizes.get(group) + 1);
+          return false;
+        }
+      }
+    }
+
+    // Otherwise start a new group and index its fingerprint in every band table
+    int group = this.fingerprints.size();
+    this.fingerprints.add(fingerprint);
+    this.groupSizes.add(1);
+    for (int band = 0; band < this.bands; band++) {
+      Long key = this.bandKey(fingerprint, band);
+      List<Integer> groups = this.bandTables.get(band).get(key);
+      if (groups == null) {
+        groups = new ArrayList<Integer>(1);
+        this.bandTables.get(band).put(key, groups);
+      }
+      groups.add(group);
+    }
+    return true;
+  }
+
+  /**
+   * Get the bits of a fingerprint that fall within a band. The key is not tagged with the band number, as each band has its own
+   * lookup table
+   * 
+   * @param fingerprint
+   *          The fingerprint to get the band of
+   * @param band
+   *          The band to get
+   * @return The key of the fingerprint in the lookup table of the band
+   */
+  private long bandKey(long fingerprint, int band) {
+    int start = band * 64 / this.bands;
+    int end = (band + 1) * 64 / this.bands;
+    long mask = end - start == 64 ? -1L : (1L << (end - start)) - 1;
+    return (fingerprint >>> start) & mask;
+  }
+
+  /**
+   * Get the number of headlines that were collapsed into an existing group
+   * 
+   * @return The number of near-duplicate headlines seen so far
+   */
+  public int getDuplicateCount() {
+    int duplicates = 0;
+    for (int size : this.groupSizes) {
+      duplicates += size - 1;
+    }
+    return duplicates;
+  }
+
+  /**
+   * Get the number of distinct groups of headlines
+   * 
+   * @return The number of groups of near-duplicate headlines
+   */
+  public int getGroupCount() {
+    return this.fingerprints.size();
+  }
+
+  /**
+   * Get the number of headlines that have been collapsed into a group
+   * 
+   * @param group
+   *          The index of the group, in the order the groups were created
+   * @return The number of headlines in the group
+   */
+  public int getGroupSize(int group) {
+    return this.groupSizes.get(group);
+  }
+}
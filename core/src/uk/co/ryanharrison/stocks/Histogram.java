@@ -0,0 +1,171 @@
+/**
+ * Histogram.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, such as latencies in microseconds or download sizes in bytes, which can be recorded from any
+ * thread without locking or allocating.
+ * 
+ * Values are counted in log-linear buckets in the style of an HDR histogram. Each power of two is split into eight equal buckets, so
+ * any value is counted in a bucket no more than an eighth wider than the value itself and percentiles are accurate to within 12.5%
+ * however large the values are, while the whole range of a long fits in under five hundred buckets.
+ * 
+ * @author Ryan Harrison
+ */
+public class Histogram {
+
+  /** The number of bits of each value below its highest set bit that select its bucket within a power of two */
+  private static final int      SUB_BUCKET_BITS  = 3;
+
+  /** The number of buckets that each power of two is split into */
+  private static final int      SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** The number of buckets needed for every non-negative long value */
+  private static final int      BUCKET_COUNT     = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  /** The number of values counted in each bucket */
+  private final AtomicLongArray counts;
+
+  /** The number of values recorded */
+  private final AtomicLong      count;
+
+  /** The sum of the values recorded */
+  private final AtomicLong      sum;
+
+  /** The largest value recorded */
+  private final AtomicLong      max;
+
+  /**
+   * Construct a new empty Histogram
+   */
+  public Histogram() {
+    this.counts = new AtomicLongArray(BUCKET_COUNT);
+    this.count = new AtomicLong();
+    this.sum = new AtomicLong();
+    this.max = new AtomicLong();
+  }
+
+  /**
+   * Get the bucket that a value is counted in
+   * 
+   * @param value
+   *          The value, which must not be negative
+   * @return The index of the bucket
+   */
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      // Small values each have a bucket to themselves
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Get the largest value that is counted in a bucket
+   * 
+   * @param bucket
+   *          The index of the bucket
+   * @return The largest value of the bucket
+   */
+  private static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKET_COUNT - 1;
+    long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Get the number of values recorded
+   * 
+   * @return The number of values
+   */
+  public long getCount() {
+    return this.count.get();
+  }
+
+  /**
+   * Get the largest value recorded
+   * 
+   * @return The largest value, or 0 if no values have been recorded
+   */
+  public long getMax() {
+    return this.max.get();
+  }
+
+  /**
+   * Get the mean of the values recorded
+   * 
+   * @return The mean, or 0 if no values have been recorded
+   */
+  public double getMean() {
+    long n = this.count.get();
+    return n == 0 ? 0 : (double) this.sum.get() / n;
+  }
+
+  /**
+   * Get the value below which a percentage of the recorded values fall. Values recorded while this is running may or may not be
+   * included
+   * 
+   * @param percentile
+   *          The percentage, from 0 to 100
+   * @return The largest value of the bucket holding the percentile, no greater than the largest value recorded, or 0 if no values
+   *         have been recorded
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += this.counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    // The rank of the value at the percentile, counting from 1
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += this.counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  /**
+   * Record a value. Negative values are recorded as 0
+   * 
+   * @param value
+   *          The value to record
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    this.counts.incrementAndGet(bucketOf(value));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(value);
+    long current;
+    while (value > (current = this.max.get()) && !this.max.compareAndSet(current, value)) {
+      // Another thread raised the maximum first, so compare against its value
+    }
+  }
+
+  /**
+   * Record the time in microseconds that has passed since a start time taken from System.nanoTime
+   * 
+   * @param start
+   *          The start time in nanoseconds
+   */
+  public void recordSince(long start) {
+    this.record((System.nanoTime() - start) / 1000);
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * HistoryJsonParser.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Class to parse the downloaded daily price history of a stock into the bars of an indicator engine
+ * 
+ * @author Ryan Harrison
+ */
+public class HistoryJsonParser {
+
+  /**
+   * Parse a downloaded JSON object holding the daily prices of a stock, adding a bar for each day to an indicator engine from the
+   * oldest to the newest
+   * 
+   * @param in
+   *          A stream of the downloaded JSON object to parse
+   * @param engine
+   *          The engine to add the bars to
+   * @return The number of bars added
+   * @throws IOException
+   *           If there was an error reading the InputStream
+   * @throws JSONException
+   *           If there was an error parsing the JSON object
+   */
+  public int parse(InputStream in, IndicatorEngine engine) throws IOException, JSONException {
+    try {
+      // Read the JSON object as a String through the stream
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in), 8);
+      String json = reader.readLine();
+      json = json.substring(json.indexOf("{"), json.lastIndexOf("}") + 1);
+
+      JSONObject results = new JSONObject(json).getJSONObject("query").optJSONObject("results");
+      if (results == null) {
+        return 0;
+      }
+      // A single day is returned as an object rather than an array of one
+      JSONArray days = results.optJSONArray("quote");
+      if (days == null) {
+        days = new JSONArray().put(results.getJSONObject("quote"));
+      }
+
+      // The days are listed from the newest to the oldest
+      for (int i = days.length() - 1; i >= 0; i--) {
+        JSONObject day = days.getJSONObject(i);
+        engine.addBar(Double.parseDouble(day.getString("High")), Double.parseDouble(day.getString("Low")),
+            Double.parseDouble(day.getString("Close")));
+      }
+      return days.length();
+    }
+    finally {
+      // Even if an exception is thrown we must close the stream
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,654 @@
+/**
+ * Holdings.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ledger of the shares the user holds, built from the trades they record, with the value and gains of the whole portfolio of
+ * holdings.
+ * 
+ * Each purchase opens a lot, and sales close the oldest lots first, so the cost basis of a holding is the cost of its remaining lots
+ * and the gain realised by a sale is measured against the lots it closed. The lots of each holding are kept in a ring of primitive
+ * arrays. The total value, day change and unrealised gain of every holding together are maintained as running sums, which each new
+ * quote and each trade adjust by the difference it makes to its own holding, so they never need to be recomputed over every holding
+ * or lot. Holdings that have not yet had a quote are left out of the value and unrealised gain until they do. The day change is
+ * measured as if every share had been held since the previous close.
+ * 
+ * The trades are stored as a journal that each flush appends the new trades to, and replayed when the ledger is first accessed,
+ * which should be done off the UI thread. When the journal has grown to hold many more trades than there are open lots, or could
+ * not be read completely, the next flush replaces it with a snapshot holding a purchase for each open lot and a record of the gain
+ * realised so far. Every method is thread safe.
+ * 
+ * @author Ryan Harrison
+ */
+public class Holdings {
+
+  /**
+   * The shares held in a single stock
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Position {
+
+    /** The number of shares held */
+    private double   quantity;
+
+    /** The cost of the shares held, which is the cost of the open lots */
+    private double   cost;
+
+    /** The latest price of the stock, or NaN if there has not been a quote yet */
+    private double   price = Double.NaN;
+
+    /** The change in the price of the stock since the previous close */
+    private double   change;
+
+    /** The number of shares remaining in each open lot, in a ring starting at the head */
+    private double[] lotQuantities;
+
+    /** The price paid per share of each open lot, in a ring starting at the head */
+    private double[] lotPrices;
+
+    /** The index of the oldest open lot */
+    private int      head;
+
+    /** The number of open lots */
+    private int      lots;
+
+    /**
+     * Construct a new Position holding no shares
+     */
+    private Position() {
+      this.lotQuantities = new double[INITIAL_LOTS];
+      this.lotPrices = new double[INITIAL_LOTS];
+    }
+
+    /**
+     * Open a new lot after the existing ones, growing the ring if it is full
+     * 
+     * @param quantity
+     *          The number of shares bought
+     * @param price
+     *          The price paid per share
+     */
+    private void addLot(double quantity, double price) {
+      if (this.lots == this.lotQuantities.length) {
+        double[] quantities = new double[this.lots * 2];
+        double[] prices = new double[this.lots * 2];
+        for (int i = 0; i < this.lots; i++) {
+          quantities[i] = this.lotQuantities[(this.head + i) % this.lots];
+          prices[i] = this.lotPrices[(this.head + i) % this.lots];
+        }
+        this.lotQuantities = quantities;
+        this.lotPrices = prices;
+        this.head = 0;
+      }
+      int slot = (this.head + this.lots) % this.lotQuantities.length;
+      this.lotQuantities[slot] = quantity;
+      this.lotPrices[slot] = price;
+      this.lots++;
+      this.quantity += quantity;
+      this.cost += quantity * price;
+    }
+
+    /**
+     * Close shares from the oldest lots first
+     * 
+     * @param quantity
+     *          The number of shares sold, which must not be more than are held
+     * @param price
+     *          The price received per share
+     * @return The gain realised by the sale
+     */
+    private double closeLots(double quantity, double price) {
+      double gain = 0;
+      double remaining = quantity;
+      while (remaining > 0 && this.lots > 0) {
+        double sold = Math.min(remaining, this.lotQuantities[this.head]);
+        gain += sold * (price - this.lotPrices[this.head]);
+        this.cost -= sold * this.lotPrices[this.head];
+        this.lotQuantities[this.head] -= sold;
+        remaining -= sold;
+        if (this.lotQuantities[this.head] <= EPSILON) {
+          this.head = (this.head + 1) % this.lotQuantities.length;
+          this.lots--;
+        }
+      }
+      this.quantity = this.lots == 0 ? 0 : this.quantity - quantity;
+      if (this.lots == 0) {
+        this.cost = 0;
+      }
+      return gain;
+    }
+  }
+
+  /** Magic number at the start of every holdings file */
+  private static final int            MAGIC         = 0x484c4431;
+
+  /** The number of lots each holding has room for before its arrays grow */
+  private static final int            INITIAL_LOTS  = 4;
+
+  /** Quantities smaller than this are treated as zero, to absorb rounding errors from fractional shares */
+  private static final double         EPSILON       = 1e-9;
+
+  /** The number of records over twice the number of open lots that the journal can hold before it is replaced by a snapshot */
+  private static final int            COMPACT_SLACK = 64;
+
+  /** The file that the trades are stored in */
+  private final File                  file;
+
+  /** The holding in each stock that has been traded, keyed by canonical ticker */
+  private final Map<String, Position> positions;
+
+  /** The value of every holding with a quote */
+  private double                      value;
+
+  /** The cost of every holding with a quote */
+  private double                      pricedCost;
+
+  /** The change in value of every holding with a quote since the previous close */
+  private double                      dayChange;
+
+  /** The gain realised by every sale */
+  private double                      realisedGain;
+
+  /** The number of stocks that shares are held in */
+  private int                         held;
+
+  /** The number of open lots in every holding */
+  private int                         openLots;
+
+  /** Trades recorded since the last flush */
+  private final ByteArrayOutputStream pending;
+
+  /** Stream used to encode trades into the pending buffer */
+  private final DataOutputStream      pendingOut;
+
+  /** The number of trades in the pending buffer */
+  private int                         pendingRecords;
+
+  /** The number of records in the journal file */
+  private int                         journalRecords;
+
+  /** Whether the next flush must replace the journal with a snapshot rather than append to it */
+  private boolean                     snapshotRequired;
+
+  /** Whether the file has been read yet */
+  private boolean                     loaded;
+
+  /** Lock held while writing the file, so that flushes from different threads are written in order */
+  private final Object                fileLock;
+
+  /** Tag used for logging */
+  public static final String          TAG           = "Holdings";
+
+  /**
+   * Construct a new Holdings ledger backed by the specified file. The file is not read until the ledger is first accessed
+   * 
+   * @param file
+   *          The file that the trades are stored in
+   */
+  public Holdings(File file) {
+    this.file = file;
+    this.positions = new HashMap<String, Position>();
+    this.pending = new ByteArrayOutputStream();
+    this.pendingOut = new DataOutputStream(this.pending);
+    this.fileLock = new Object();
+  }
+
+  /**
+   * Add the contribution of a holding to the totals
+   * 
+   * @param position
+   *          The holding
+   */
+  private void addToTotals(Position position) {
+    if (!Double.isNaN(position.price)) {
+      this.value += position.quantity * position.price;
+      this.pricedCost += position.cost;
+      this.dayChange += position.quantity * position.change;
+    }
+  }
+
+  /**
+   * Append records to the end of the journal file
+   * 
+   * @param records
+   *          The encoded records to append
+   * @throws IOException
+   *           If there was an error writing the file
+   */
+  private void appendToFile(byte[] records) throws IOException {
+    FileOutputStream out = new FileOutputStream(this.file, true);
+    try {
+      out.write(records);
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Apply a trade to a holding and the totals
+   * 
+   * @param ticker
+   *          The canonical ticker of the stock
+   * @param quantity
+   *          The number of shares bought, or minus the number sold
+   * @param price
+   *          The price per share
+   * @return The gain realised by a sale, or 0 for a purchase
+   */
+  private double apply(String ticker, double quantity, double price) {
+    Position position = this.positions.get(ticker);
+    if (position == null) {
+      position = new Position();
+      this.positions.put(ticker, position);
+    }
+    if (quantity < 0 && -quantity > position.quantity + EPSILON) {
+      throw new IllegalArgumentException("Cannot sell " + -quantity + " " + ticker + " when only " + position.quantity + " are held");
+    }
+
+    this.removeFromTotals(position);
+    this.openLots -= position.lots;
+    boolean wasHeld = position.quantity > EPSILON;
+    double gain = 0;
+    if (quantity > 0) {
+      position.addLot(quantity, price);
+    }
+    else {
+      gain = position.closeLots(-quantity, price);
+      this.realisedGain += gain;
+    }
+    if (wasHeld != position.quantity > EPSILON) {
+      this.held += wasHeld ? -1 : 1;
+    }
+    this.openLots += position.lots;
+    this.addToTotals(position);
+    return gain;
+  }
+
+  /**
+   * Record a purchase of shares
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param quantity
+   *          The number of shares bought, which must be positive
+   * @param price
+   *          The price paid per share
+   */
+  public synchronized void buy(String ticker, double quantity, double price) {
+    if (!(quantity > 0) || !(price >= 0)) {
+      throw new IllegalArgumentException("Invalid purchase of " + quantity + " at " + price);
+    }
+    this.ensureLoaded();
+    this.record(Portfolio.canonicalise(ticker), quantity, price);
+  }
+
+  /**
+   * Replay the journal of trades from the file if that has not been done yet. Records are replayed up to the end of the file or the
+   * first record that cannot be read, which can be left behind by a write that was interrupted. If the file could not be read
+   * completely it is replaced by a snapshot on the next flush, so that later trades are not appended after the unreadable record
+   */
+  private void ensureLoaded() {
+    if (this.loaded) {
+      return;
+    }
+    this.loaded = true;
+    // A snapshot that was written but not yet renamed into place is the newest ledger
+    File temp = new File(this.file.getPath() + ".tmp");
+    if (!this.file.exists() && temp.exists() && !temp.renameTo(this.file)) {
+      Logger.e(TAG, "Unable to recover holdings from " + temp);
+    }
+    if (!this.file.exists()) {
+      return;
+    }
+
+    Logger.i(TAG, "Loading holdings from " + this.file);
+    DataInputStream in = null;
+    int records = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Invalid holdings " + this.file);
+      }
+      while (true) {
+        String ticker;
+        try {
+          ticker = in.readUTF();
+        }
+        catch (EOFException e) {
+          break;
+        }
+        double quantity = in.readDouble();
+        double price = in.readDouble();
+        records++;
+        if (quantity == 0) {
+          // Snapshots record the gain realised by the trades they replace as a trade of no shares
+          this.realisedGain += price;
+          continue;
+        }
+        try {
+          this.apply(ticker, quantity, price);
+        }
+        catch (IllegalArgumentException e) {
+          Logger.e(TAG, e.getMessage());
+        }
+      }
+    }
+    catch (IOException e) {
+      Logger.e(TAG, e.toString());
+      this.snapshotRequired = true;
+    }
+    finally {
+      // Make sure that the InputStream is closed in all cases
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) {
+          Logger.e(TAG, e.toString());
+        }
+      }
+    }
+    this.journalRecords = records;
+    Logger.i(TAG, "Loaded " + this.positions.size() + " holdings from " + records + " records");
+  }
+
+  /**
+   * Write every trade recorded since the last flush to the file, either by appending them to the journal or by replacing the
+   * journal with a snapshot. Does nothing if there are no trades to write. This should not be called on the UI thread
+   * 
+   * @throws IOException
+   *           If there was an error writing the file. The trades are not lost, and are written by the next flush
+   */
+  public void flush() throws IOException {
+    synchronized (this.fileLock) {
+      byte[] records;
+      int count;
+      boolean snapshot;
+      synchronized (this) {
+        if (this.pendingRecords == 0 && !this.snapshotRequired) {
+          return;
+        }
+        snapshot = this.snapshotRequired || !this.file.exists()
+            || this.journalRecords + this.pendingRecords > 2 * this.openLots + COMPACT_SLACK;
+        if (snapshot) {
+          ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+          count = this.writeSnapshot(new DataOutputStream(buffer));
+          records = buffer.toByteArray();
+        }
+        else {
+          count = this.pendingRecords;
+          records = this.pending.toByteArray();
+        }
+        this.pending.reset();
+        this.pendingRecords = 0;
+        this.snapshotRequired = false;
+      }
+
+      try {
+        if (snapshot) {
+          Logger.i(TAG, "Writing holdings snapshot of " + count + " records");
+          this.replaceFile(records);
+        }
+        else {
+          Logger.i(TAG, "Appending " + count + " trades to holdings");
+          this.appendToFile(records);
+        }
+      }
+      catch (IOException e) {
+        // The pending trades have been taken, and an append may have been partly written, so write everything again next time
+        synchronized (this) {
+          this.snapshotRequired = true;
+        }
+        throw e;
+      }
+
+      synchronized (this) {
+        this.journalRecords = snapshot ? count : this.journalRecords + count;
+      }
+    }
+  }
+
+  /**
+   * Get the cost of the shares held in a stock, which is what was paid for the shares that have not been sold
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @return The cost of the shares held
+   */
+  public synchronized double getCostBasis(String ticker) {
+    this.ensureLoaded();
+    Position position = this.positions.get(Portfolio.canonicalise(ticker));
+    return position == null ? 0 : position.cost;
+  }
+
+  /**
+   * Get the change in value of the holdings with a quote since the previous close
+   * 
+   * @return The day change
+   */
+  public synchronized double getDayChange() {
+    this.ensureLoaded();
+    return this.dayChange;
+  }
+
+  /**
+   * Get the number of shares held in a stock
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @return The number of shares
+   */
+  public synchronized double getQuantity(String ticker) {
+    this.ensureLoaded();
+    Position position = this.positions.get(Portfolio.canonicalise(ticker));
+    return position == null ? 0 : position.quantity;
+  }
+
+  /**
+   * Get the gain realised by every sale, measured against the cost of the lots that each sale closed
+   * 
+   * @return The realised gain, which is negative for a loss
+   */
+  public synchronized double getRealisedGain() {
+    this.ensureLoaded();
+    return this.realisedGain;
+  }
+
+  /**
+   * Get the value of the holdings with a quote at their latest prices
+   * 
+   * @return The total value
+   */
+  public synchronized double getTotalValue() {
+    this.ensureLoaded();
+    return this.value;
+  }
+
+  /**
+   * Get the gain of the holdings with a quote over what was paid for them
+   * 
+   * @return The unrealised gain, which is negative for a loss
+   */
+  public synchronized double getUnrealisedGain() {
+    this.ensureLoaded();
+    return this.value - this.pricedCost;
+  }
+
+  /**
+   * Determine whether any shares are held
+   * 
+   * @return True if any stock has shares held
+   */
+  public synchronized boolean isEmpty() {
+    this.ensureLoaded();
+    return this.held == 0;
+  }
+
+  /**
+   * Read the trades from the file if they have not been read yet, so that later calls do not block on reading it
+   */
+  public synchronized void load() {
+    this.ensureLoaded();
+  }
+
+  /**
+   * Apply a trade and add it to the trades waiting to be written to the file
+   * 
+   * @param ticker
+   *          The canonical ticker of the stock
+   * @param quantity
+   *          The number of shares bought, or minus the number sold
+   * @param price
+   *          The price per share
+   * @return The gain realised by a sale, or 0 for a purchase
+   */
+  private double record(String ticker, double quantity, double price) {
+    double gain = this.apply(ticker, quantity, price);
+    try {
+      this.pendingOut.writeUTF(ticker);
+      this.pendingOut.writeDouble(quantity);
+      this.pendingOut.writeDouble(price);
+      this.pendingRecords++;
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e.toString());
+    }
+    return gain;
+  }
+
+  /**
+   * Remove the contribution of a holding from the totals
+   * 
+   * @param position
+   *          The holding
+   */
+  private void removeFromTotals(Position position) {
+    if (!Double.isNaN(position.price)) {
+      this.value -= position.quantity * position.price;
+      this.pricedCost -= position.cost;
+      this.dayChange -= position.quantity * position.change;
+    }
+  }
+
+  /**
+   * Replace the journal file with a snapshot. The snapshot is written to a temporary file first so that the ledger is never left
+   * partially written
+   * 
+   * @param snapshot
+   *          The encoded snapshot
+   * @throws IOException
+   *           If there was an error writing the file
+   */
+  private void replaceFile(byte[] snapshot) throws IOException {
+    File temp = new File(this.file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(snapshot);
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+    // Renaming over the old file is atomic, so a crash leaves either the old or the new ledger. Only delete the old file first where
+    // the rename cannot replace it
+    if (!temp.renameTo(this.file) && !(this.file.delete() && temp.renameTo(this.file))) {
+      throw new IOException("Unable to replace holdings " + this.file);
+    }
+  }
+
+  /**
+   * Record a sale of shares, closing the oldest lots first
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param quantity
+   *          The number of shares sold, which must be positive and no more than are held
+   * @param price
+   *          The price received per share
+   * @return The gain realised by the sale, which is negative for a loss
+   */
+  public synchronized double sell(String ticker, double quantity, double price) {
+    if (!(quantity > 0) || !(price >= 0)) {
+      throw new IllegalArgumentException("Invalid sale of " + quantity + " at " + price);
+    }
+    this.ensureLoaded();
+    return this.record(Portfolio.canonicalise(ticker), -quantity, price);
+  }
+
+  /**
+   * Update the value of the holding in a stock from a new quote. Does nothing if the stock has never been traded
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param price
+   *          The latest price of the stock
+   * @param change
+   *          The change in the price since the previous close
+   */
+  public synchronized void updatePrice(String ticker, double price, double change) {
+    this.ensureLoaded();
+    Position position = this.positions.get(Portfolio.canonicalise(ticker));
+    if (position == null) {
+      return;
+    }
+    this.removeFromTotals(position);
+    position.price = price;
+    position.change = change;
+    this.addToTotals(position);
+  }
+
+  /**
+   * Encode a snapshot of the whole ledger, holding a purchase for each open lot in the order they were opened followed by a record
+   * of the gain realised so far
+   * 
+   * @param out
+   *          The stream to encode the snapshot into
+   * @return The number of records in the snapshot
+   */
+  private int writeSnapshot(DataOutputStream out) {
+    int count = 0;
+    try {
+      out.writeInt(MAGIC);
+      for (Map.Entry<String, Position> entry : this.positions.entrySet()) {
+        Position position = entry.getValue();
+        for (int i = 0; i < position.lots; i++) {
+          int slot = (position.head + i) % position.lotQuantities.length;
+          out.writeUTF(entry.getKey());
+          out.writeDouble(position.lotQuantities[slot]);
+          out.writeDouble(position.lotPrices[slot]);
+          count++;
+        }
+      }
+      if (this.realisedGain != 0) {
+        out.writeUTF("");
+        out.writeDouble(0);
+        out.writeDouble(this.realisedGain);
+        count++;
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e.toString());
+    }
+    return count;
+  }
+}
@@ -0,0 +1,558 @@
+/**
+ * IndicatorEngine.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * Computes technical indicators of the price of a stock as a stream of bars: the simple and exponential moving averages, the
+ * relative strength index, MACD, Bollinger bands and the average true range.
+ * 
+ * Completed bars are added one at a time, each updating the state of every indicator in constant time. The state is a handful of
+ * running sums and averages plus a single ring of recent closing prices, sized for the longest window that is summed, so the engine
+ * never allocates after it is constructed however many bars it sees. The bar still forming, such as today's bar while the market is
+ * open, is held apart from the completed bars and replaced by each new tick. Every indicator includes it, computed from the state of
+ * the completed bars in constant time, so ticks never disturb that state.
+ * 
+ * Averages that smooth every value they have seen start as the simple average of their first values, then continue as Wilder's
+ * average for the relative strength index and average true range and as an exponential average otherwise. An indicator is NaN until
+ * it has seen enough bars to fill its period. This class is not thread safe.
+ * 
+ * @author Ryan Harrison
+ */
+public class IndicatorEngine {
+
+  /** The default period of the simple moving average */
+  public static final int    DEFAULT_SMA_PERIOD       = 50;
+
+  /** The default period of the exponential moving average */
+  public static final int    DEFAULT_EMA_PERIOD       = 20;
+
+  /** The default period of the relative strength index */
+  public static final int    DEFAULT_RSI_PERIOD       = 14;
+
+  /** The default period of the fast average of MACD */
+  public static final int    DEFAULT_MACD_FAST        = 12;
+
+  /** The default period of the slow average of MACD */
+  public static final int    DEFAULT_MACD_SLOW        = 26;
+
+  /** The default period of the signal line of MACD */
+  public static final int    DEFAULT_MACD_SIGNAL      = 9;
+
+  /** The default period of the Bollinger bands */
+  public static final int    DEFAULT_BOLLINGER_PERIOD = 20;
+
+  /** The default width of the Bollinger bands in standard deviations */
+  public static final double DEFAULT_BOLLINGER_WIDTH  = 2;
+
+  /** The default period of the average true range */
+  public static final int    DEFAULT_ATR_PERIOD       = 14;
+
+  /** The period of the simple moving average */
+  private final int          smaPeriod;
+
+  /** The period of the exponential moving average */
+  private final int          emaPeriod;
+
+  /** The period of the relative strength index */
+  private final int          rsiPeriod;
+
+  /** The period of the fast average of MACD */
+  private final int          macdFast;
+
+  /** The period of the slow average of MACD */
+  private final int          macdSlow;
+
+  /** The period of the signal line of MACD */
+  private final int          macdSignal;
+
+  /** The period of the Bollinger bands */
+  private final int          bollingerPeriod;
+
+  /** The width of the Bollinger bands in standard deviations */
+  private final double       bollingerWidth;
+
+  /** The period of the average true range */
+  private final int          atrPeriod;
+
+  /** The closing prices of the most recent completed bars, in a ring indexed by bar number */
+  private final double[]     closes;
+
+  /** The number of completed bars added */
+  private int                count;
+
+  /** The sum of the closing prices in the window of the simple moving average */
+  private double             smaSum;
+
+  /** The sum of the closing prices in the window of the Bollinger bands */
+  private double             bollingerSum;
+
+  /** The sum of the squares of the closing prices in the window of the Bollinger bands */
+  private double             bollingerSumOfSquares;
+
+  /** The exponential moving average of the closing prices */
+  private double             ema;
+
+  /** The fast exponential moving average of the closing prices used by MACD */
+  private double             fastEma;
+
+  /** The slow exponential moving average of the closing prices used by MACD */
+  private double             slowEma;
+
+  /** The exponential moving average of the MACD line */
+  private double             signalEma;
+
+  /** The average gain of the closing prices used by the relative strength index */
+  private double             averageGain;
+
+  /** The average loss of the closing prices used by the relative strength index */
+  private double             averageLoss;
+
+  /** The average true range */
+  private double             atr;
+
+  /** The closing price of the last completed bar */
+  private double             lastClose;
+
+  /** Whether there is a bar still forming */
+  private boolean            forming;
+
+  /** The high price of the bar still forming */
+  private double             formingHigh;
+
+  /** The low price of the bar still forming */
+  private double             formingLow;
+
+  /** The closing price so far of the bar still forming */
+  private double             formingClose;
+
+  /**
+   * Construct a new IndicatorEngine with the default period of each indicator
+   */
+  public IndicatorEngine() {
+    this(DEFAULT_SMA_PERIOD, DEFAULT_EMA_PERIOD, DEFAULT_RSI_PERIOD, DEFAULT_MACD_FAST, DEFAULT_MACD_SLOW, DEFAULT_MACD_SIGNAL,
+        DEFAULT_BOLLINGER_PERIOD, DEFAULT_BOLLINGER_WIDTH, DEFAULT_ATR_PERIOD);
+  }
+
+  /**
+   * Construct a new IndicatorEngine
+   * 
+   * @param smaPeriod
+   *          The number of bars averaged by the simple moving average
+   * @param emaPeriod
+   *          The period of the exponential moving average
+   * @param rsiPeriod
+   *          The period of the relative strength index
+   * @param macdFast
+   *          The period of the fast average of MACD
+   * @param macdSlow
+   *          The period of the slow average of MACD
+   * @param macdSignal
+   *          The period of the signal line of MACD
+   * @param bollingerPeriod
+   *          The number of bars in the window of the Bollinger bands
+   * @param bollingerWidth
+   *          The width of the Bollinger bands in standard deviations
+   * @param atrPeriod
+   *          The period of the average true range
+   */
+  public IndicatorEngine(int smaPeriod, int emaPeriod, int rsiPeriod, int macdFast, int macdSlow, int macdSignal,
+      int bollingerPeriod, double bollingerWidth, int atrPeriod) {
+    if (smaPeriod < 1 || emaPeriod < 1 || rsiPeriod < 1 || macdFast < 1 || macdSlow < 1 || macdSignal < 1 || bollingerPeriod < 1
+        || atrPeriod < 1) {
+      throw new IllegalArgumentException("Indicator periods must be positive");
+    }
+    this.smaPeriod = smaPeriod;
+    this.emaPeriod = emaPeriod;
+    this.rsiPeriod = rsiPeriod;
+    this.macdFast = macdFast;
+    this.macdSlow = macdSlow;
+    this.macdSignal = macdSignal;
+    this.bollingerPeriod = bollingerPeriod;
+    this.bollingerWidth = bollingerWidth;
+    this.atrPeriod = atrPeriod;
+    this.closes = new double[Math.max(smaPeriod, bollingerPeriod)];
+  }
+
+  /**
+   * Continue an exponential moving average with a new value. The average of the first values up to the period is their simple
+   * average
+   * 
+   * @param average
+   *          The average of the values before the new one
+   * @param value
+   *          The new value
+   * @param seen
+   *          The number of values averaged including the new one
+   * @param period
+   *          The period of the average
+   * @return The average including the new value
+   */
+  private static double exponential(double average, double value, int seen, int period) {
+    if (seen <= period) {
+      return average + (value - average) / seen;
+    }
+    return average + 2.0 * (value - average) / (period + 1);
+  }
+
+  /**
+   * Calculate the relative strength index from the average gain and loss
+   * 
+   * @param gain
+   *          The average gain
+   * @param loss
+   *          The average loss
+   * @return The relative strength index, between 0 and 100
+   */
+  private static double strength(double gain, double loss) {
+    if (loss == 0) {
+      return gain == 0 ? 50 : 100;
+    }
+    return 100 - 100 / (1 + gain / loss);
+  }
+
+  /**
+   * Calculate the true range of a bar, which includes any gap from the close of the previous bar
+   * 
+   * @param high
+   *          The high price of the bar
+   * @param low
+   *          The low price of the bar
+   * @param previousClose
+   *          The closing price of the previous bar, or NaN if there is none
+   * @return The true range
+   */
+  private static double trueRange(double high, double low, double previousClose) {
+    if (Double.isNaN(previousClose)) {
+      return high - low;
+    }
+    return Math.max(high, previousClose) - Math.min(low, previousClose);
+  }
+
+  /**
+   * Continue a Wilder's average with a new value. The average of the first values up to the period is their simple average
+   * 
+   * @param average
+   *          The average of the values before the new one
+   * @param value
+   *          The new value
+   * @param seen
+   *          The number of values averaged including the new one
+   * @param period
+   *          The period of the average
+   * @return The average including the new value
+   */
+  private static double wilder(double average, double value, int seen, int period) {
+    return average + (value - average) / Math.min(seen, period);
+  }
+
+  /**
+   * Add a completed bar, replacing any bar that was forming
+   * 
+   * @param high
+   *          The high price of the bar
+   * @param low
+   *          The low price of the bar
+   * @param close
+   *          The closing price of the bar
+   */
+  public void addBar(double high, double low, double close) {
+    double previous = this.count == 0 ? Double.NaN : this.lastClose;
+    int bars = this.count + 1;
+
+    // Slide the windows of the summed averages along, dropping the closes that fall out of them before they are overwritten
+    this.smaSum += close - (this.count >= this.smaPeriod ? this.close(this.count - this.smaPeriod) : 0);
+    double dropped = this.count >= this.bollingerPeriod ? this.close(this.count - this.bollingerPeriod) : 0;
+    this.bollingerSum += close - dropped;
+    this.bollingerSumOfSquares += close * close - dropped * dropped;
+    this.closes[this.count % this.closes.length] = close;
+
+    this.ema = exponential(this.ema, close, bars, this.emaPeriod);
+    this.fastEma = exponential(this.fastEma, close, bars, this.macdFast);
+    this.slowEma = exponential(this.slowEma, close, bars, this.macdSlow);
+    if (bars >= this.macdSlow) {
+      this.signalEma = exponential(this.signalEma, this.fastEma - this.slowEma, bars - this.macdSlow + 1, this.macdSignal);
+    }
+    if (bars > 1) {
+      this.averageGain = wilder(this.averageGain, Math.max(close - previous, 0), bars - 1, this.rsiPeriod);
+      this.averageLoss = wilder(this.averageLoss, Math.max(previous - close, 0), bars - 1, this.rsiPeriod);
+    }
+    this.atr = wilder(this.atr, trueRange(high, low, previous), bars, this.atrPeriod);
+
+    this.lastClose = close;
+    this.count = bars;
+    this.forming = false;
+  }
+
+  /**
+   * Get the closing price of a completed bar that is still held in the ring
+   * 
+   * @param bar
+   *          The number of the bar, counting from 0 for the first bar added
+   * @return The closing price
+   */
+  private double close(int bar) {
+    return this.closes[bar % this.closes.length];
+  }
+
+  /**
+   * Get the average true range, including any bar that is forming
+   * 
+   * @return The average true range, or NaN if fewer bars than its period have been seen
+   */
+  public double getAtr() {
+    if (!this.forming) {
+      return this.count >= this.atrPeriod ? this.atr : Double.NaN;
+    }
+    int bars = this.count + 1;
+    if (bars < this.atrPeriod) {
+      return Double.NaN;
+    }
+    double previous = this.count == 0 ? Double.NaN : this.lastClose;
+    return wilder(this.atr, trueRange(this.formingHigh, this.formingLow, previous), bars, this.atrPeriod);
+  }
+
+  /**
+   * Get the period of the average true range
+   * 
+   * @return The period
+   */
+  public int getAtrPeriod() {
+    return this.atrPeriod;
+  }
+
+  /**
+   * Get the number of bars that have been seen, including any bar that is forming
+   * 
+   * @return The number of bars
+   */
+  public int getBarCount() {
+    return this.forming ? this.count + 1 : this.count;
+  }
+
+  /**
+   * Get the lower Bollinger band, including any bar that is forming
+   * 
+   * @return The lower band, or NaN if fewer bars than its period have been seen
+   */
+  public double getBollingerLower() {
+    return this.getBollingerMiddle() - this.bollingerWidth * this.getStandardDeviation();
+  }
+
+  /**
+   * Get the middle Bollinger band, which is the simple moving average over the period of the bands, including any bar that is
+   * forming
+   * 
+   * @return The middle band, or NaN if fewer bars than its period have been seen
+   */
+  public double getBollingerMiddle() {
+    double sum = this.bollingerSum;
+    if (this.forming) {
+      sum += this.formingClose - (this.count >= this.bollingerPeriod ? this.close(this.count - this.bollingerPeriod) : 0);
+    }
+    return this.getBarCount() >= this.bollingerPeriod ? sum / this.bollingerPeriod : Double.NaN;
+  }
+
+  /**
+   * Get the period of the Bollinger bands
+   * 
+   * @return The period
+   */
+  public int getBollingerPeriod() {
+    return this.bollingerPeriod;
+  }
+
+  /**
+   * Get the upper Bollinger band, including any bar that is forming
+   * 
+   * @return The upper band, or NaN if fewer bars than its period have been seen
+   */
+  public double getBollingerUpper() {
+    return this.getBollingerMiddle() + this.bollingerWidth * this.getStandardDeviation();
+  }
+
+  /**
+   * Get the width of the Bollinger bands
+   * 
+   * @return The width in standard deviations
+   */
+  public double getBollingerWidth() {
+    return this.bollingerWidth;
+  }
+
+  /**
+   * Get the exponential moving average, including any bar that is forming
+   * 
+   * @return The average, or NaN if fewer bars than its period have been seen
+   */
+  public double getEma() {
+    int bars = this.getBarCount();
+    if (bars < this.emaPeriod) {
+      return Double.NaN;
+    }
+    return this.forming ? exponential(this.ema, this.formingClose, bars, this.emaPeriod) : this.ema;
+  }
+
+  /**
+   * Get the period of the exponential moving average
+   * 
+   * @return The period
+   */
+  public int getEmaPeriod() {
+    return this.emaPeriod;
+  }
+
+  /**
+   * Get the MACD line, which is the fast average minus the slow average, including any bar that is forming
+   * 
+   * @return The MACD line, or NaN if fewer bars than the period of the slow average have been seen
+   */
+  public double getMacd() {
+    int bars = this.getBarCount();
+    if (bars < this.macdSlow) {
+      return Double.NaN;
+    }
+    if (!this.forming) {
+      return this.fastEma - this.slowEma;
+    }
+    return exponential(this.fastEma, this.formingClose, bars, this.macdFast)
+        - exponential(this.slowEma, this.formingClose, bars, this.macdSlow);
+  }
+
+  /**
+   * Get the period of the fast average of MACD
+   * 
+   * @return The period
+   */
+  public int getMacdFast() {
+    return this.macdFast;
+  }
+
+  /**
+   * Get the histogram of MACD, which is the MACD line minus its signal line, including any bar that is forming
+   * 
+   * @return The histogram, or NaN if the signal line is not yet available
+   */
+  public double getMacdHistogram() {
+    return this.getMacd() - this.getMacdSignal();
+  }
+
+  /**
+   * Get the signal line of MACD, which is an exponential average of the MACD line, including any bar that is forming
+   * 
+   * @return The signal line, or NaN if fewer bars than the periods of the slow average and signal line need have been seen
+   */
+  public double getMacdSignal() {
+    int bars = this.getBarCount();
+    if (bars < this.macdSlow + this.macdSignal - 1) {
+      return Double.NaN;
+    }
+    return this.forming ? exponential(this.signalEma, this.getMacd(), bars - this.macdSlow + 1, this.macdSignal) : this.signalEma;
+  }
+
+  /**
+   * Get the period of the signal line of MACD
+   * 
+   * @return The period
+   */
+  public int getMacdSignalPeriod() {
+    return this.macdSignal;
+  }
+
+  /**
+   * Get the period of the slow average of MACD
+   * 
+   * @return The period
+   */
+  public int getMacdSlow() {
+    return this.macdSlow;
+  }
+
+  /**
+   * Get the relative strength index, including any bar that is forming
+   * 
+   * @return The index between 0 and 100, or NaN if fewer changes in price than its period have been seen
+   */
+  public double getRsi() {
+    int changes = this.getBarCount() - 1;
+    if (changes < this.rsiPeriod) {
+      return Double.NaN;
+    }
+    if (!this.forming) {
+      return strength(this.averageGain, this.averageLoss);
+    }
+    return strength(wilder(this.averageGain, Math.max(this.formingClose - this.lastClose, 0), changes, this.rsiPeriod),
+        wilder(this.averageLoss, Math.max(this.lastClose - this.formingClose, 0), changes, this.rsiPeriod));
+  }
+
+  /**
+   * Get the period of the relative strength index
+   * 
+   * @return The period
+   */
+  public int getRsiPeriod() {
+    return this.rsiPeriod;
+  }
+
+  /**
+   * Get the simple moving average, including any bar that is forming
+   * 
+   * @return The average, or NaN if fewer bars than its period have been seen
+   */
+  public double getSma() {
+    double sum = this.smaSum;
+    if (this.forming) {
+      sum += this.formingClose - (this.count >= this.smaPeriod ? this.close(this.count - this.smaPeriod) : 0);
+    }
+    return this.getBarCount() >= this.smaPeriod ? sum / this.smaPeriod : Double.NaN;
+  }
+
+  /**
+   * Get the period of the simple moving average
+   * 
+   * @return The period
+   */
+  public int getSmaPeriod() {
+    return this.smaPeriod;
+  }
+
+  /**
+   * Get the standard deviation of the closing prices in the window of the Bollinger bands, including any bar that is forming
+   * 
+   * @return The standard deviation, or NaN if fewer bars than the period of the bands have been seen
+   */
+  private double getStandardDeviation() {
+    double sum = this.bollingerSum;
+    double sumOfSquares = this.bollingerSumOfSquares;
+    if (this.forming) {
+      double dropped = this.count >= this.bollingerPeriod ? this.close(this.count - this.bollingerPeriod) : 0;
+      sum += this.formingClose - dropped;
+      sumOfSquares += this.formingClose * this.formingClose - dropped * dropped;
+    }
+    if (this.getBarCount() < this.bollingerPeriod) {
+      return Double.NaN;
+    }
+    double mean = sum / this.bollingerPeriod;
+    // Rounding in the running sums can leave a tiny negative variance when every price in the window is the same
+    return Math.sqrt(Math.max(sumOfSquares / this.bollingerPeriod - mean * mean, 0));
+  }
+
+  /**
+   * Set the bar that is still forming, replacing the previous one. Each tick of the price updates the bar with its latest high, low
+   * and close
+   * 
+   * @param high
+   *          The high price of the bar so far
+   * @param low
+   *          The low price of the bar so far
+   * @param close
+   *          The latest price
+   */
+  public void setFormingBar(double high, double low, double close) {
+    this.formingHigh = high;
+    this.formingLow = low;
+    this.formingClose = close;
+    this.forming = true;
+  }
+}
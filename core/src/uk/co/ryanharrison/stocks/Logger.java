@@ -0,0 +1,100 @@
+/**
+ * Logger.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * Logging used by the core of the app, which has no dependency on Android so that it can also run on a plain JVM. Messages are passed
+ * to a sink, which the Android app replaces with one writing to the system log and which otherwise prints to standard error.
+ * 
+ * @author Ryan Harrison
+ */
+public final class Logger {
+
+  /**
+   * The destination of logged messages
+   * 
+   * @author Ryan Harrison
+   */
+  public interface Sink {
+
+    /**
+     * Write a message
+     * 
+     * @param priority
+     *          The priority of the message, either INFO or ERROR
+     * @param tag
+     *          The tag identifying the class the message came from
+     * @param message
+     *          The message
+     */
+    void log(int priority, String tag, String message);
+  }
+
+  /** The priority of informational messages, which matches android.util.Log.INFO */
+  public static final int  INFO   = 4;
+
+  /** The priority of error messages, which matches android.util.Log.ERROR */
+  public static final int  ERROR  = 6;
+
+  /** Sink that prints messages to standard error */
+  public static final Sink STDERR = new Sink() {
+
+    @Override
+    public void log(int priority, String tag, String message) {
+      System.err.println((priority >= ERROR ? "E/" : "I/") + tag + ": " + message);
+    }
+  };
+
+  /** Sink that discards messages */
+  public static final Sink NONE   = new Sink() {
+
+    @Override
+    public void log(int priority, String tag, String message) {
+    }
+  };
+
+  /** The sink that messages are currently written to */
+  private static volatile Sink sink = STDERR;
+
+  /**
+   * Construct a new Logger. Not used as the class only has static methods
+   */
+  private Logger() {
+  }
+
+  /**
+   * Log an error message
+   * 
+   * @param tag
+   *          The tag identifying the class the message came from
+   * @param message
+   *          The message
+   */
+  public static void e(String tag, String message) {
+    sink.log(ERROR, tag, message);
+  }
+
+  /**
+   * Log an informational message
+   * 
+   * @param tag
+   *          The tag identifying the class the message came from
+   * @param message
+   *          The message
+   */
+  public static void i(String tag, String message) {
+    sink.log(INFO, tag, message);
+  }
+
+  /**
+   * Set the sink that messages are written to
+   * 
+   * @param sink
+   *          The new sink, or null to discard messages
+   */
+  public static void setSink(Sink sink) {
+    Logger.sink = sink == null ? NONE : sink;
+  }
+}
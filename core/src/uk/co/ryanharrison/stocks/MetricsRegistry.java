@@ -0,0 +1,231 @@
+/**
+ * MetricsRegistry.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the counters and histograms measuring where the app spends its time, such as connecting to Yahoo! Finance, parsing
+ * downloads and drawing the watchlist. Each metric has a name and optionally a set of tags, such as the endpoint or ticker that it
+ * measures, and the registry can be dumped as text or JSON while debugging.
+ * 
+ * Looking up a metric builds its key, so code that records on every frame should look its metrics up once and keep them. Tags with
+ * many values, such as tickers, should only be used for counters, as each histogram takes a few kilobytes.
+ * 
+ * @author Ryan Harrison
+ */
+public class MetricsRegistry {
+
+  /**
+   * A count of events that can be incremented from any thread without locking
+   * 
+   * @author Ryan Harrison
+   */
+  public static class Counter {
+
+    /** The current count */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Get the current count
+     * 
+     * @return The count
+     */
+    public long get() {
+      return this.count.get();
+    }
+
+    /**
+     * Add one to the count
+     */
+    public void increment() {
+      this.count.incrementAndGet();
+    }
+
+    /**
+     * Add an amount to the count
+     * 
+     * @param amount
+     *          The amount to add
+     */
+    public void increment(long amount) {
+      this.count.addAndGet(amount);
+    }
+  }
+
+  /** The registry used by the whole app */
+  public static final MetricsRegistry            APP         = new MetricsRegistry();
+
+  /** The percentiles reported for each histogram */
+  private static final double[]                  PERCENTILES = { 50, 90, 99 };
+
+  /** The counters, keyed by name and tags */
+  private final ConcurrentMap<String, Counter>   counters;
+
+  /** The histograms, keyed by name and tags */
+  private final ConcurrentMap<String, Histogram> histograms;
+
+  /**
+   * Construct a new empty MetricsRegistry
+   */
+  public MetricsRegistry() {
+    this.counters = new ConcurrentHashMap<String, Counter>();
+    this.histograms = new ConcurrentHashMap<String, Histogram>();
+  }
+
+  /**
+   * Build the key of a metric from its name and tags, in the form name{tag=value,tag=value}
+   * 
+   * @param name
+   *          The name of the metric
+   * @param tags
+   *          Pairs of tag names and values
+   * @return The key of the metric
+   */
+  private static String keyOf(String name, String... tags) {
+    if (tags.length == 0) {
+      return name;
+    }
+    StringBuilder key = new StringBuilder(name).append('{');
+    for (int i = 0; i + 1 < tags.length; i += 2) {
+      if (i != 0) {
+        key.append(',');
+      }
+      key.append(tags[i]).append('=').append(tags[i + 1]);
+    }
+    return key.append('}').toString();
+  }
+
+  /**
+   * Quote a string as a JSON string literal
+   * 
+   * @param value
+   *          The string
+   * @param json
+   *          The builder to append the literal to
+   */
+  private static void quote(String value, StringBuilder json) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      }
+      else if (c < ' ') {
+        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+      }
+      else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  /**
+   * Get a counter, creating it if it does not exist yet
+   * 
+   * @param name
+   *          The name of the counter
+   * @param tags
+   *          Pairs of tag names and values identifying the counter
+   * @return The counter
+   */
+  public Counter counter(String name, String... tags) {
+    String key = keyOf(name, tags);
+    Counter counter = this.counters.get(key);
+    if (counter == null) {
+      Counter created = new Counter();
+      counter = this.counters.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Dump every metric as a JSON object, with the counters and histograms each in an object keyed by the name and tags of the metric
+   * 
+   * @return The JSON text
+   */
+  public String dumpJson() {
+    StringBuilder json = new StringBuilder("{\"counters\":{");
+    boolean first = true;
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(this.counters).entrySet()) {
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      quote(entry.getKey(), json);
+      json.append(':').append(entry.getValue().get());
+    }
+    json.append("},\"histograms\":{");
+    first = true;
+    for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(this.histograms).entrySet()) {
+      Histogram histogram = entry.getValue();
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      quote(entry.getKey(), json);
+      json.append(":{\"count\":").append(histogram.getCount());
+      json.append(",\"mean\":").append(String.format(Locale.US, "%.1f", histogram.getMean()));
+      for (double percentile : PERCENTILES) {
+        json.append(",\"p").append((int) percentile).append("\":").append(histogram.getPercentile(percentile));
+      }
+      json.append(",\"max\":").append(histogram.getMax()).append('}');
+    }
+    return json.append("}}").toString();
+  }
+
+  /**
+   * Dump every metric as text, one line per metric sorted by name
+   * 
+   * @return The text
+   */
+  public String dumpText() {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(this.counters).entrySet()) {
+      text.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(this.histograms).entrySet()) {
+      Histogram histogram = entry.getValue();
+      text.append(entry.getKey()).append(" count=").append(histogram.getCount());
+      text.append(String.format(Locale.US, " mean=%.1f", histogram.getMean()));
+      for (double percentile : PERCENTILES) {
+        text.append(" p").append((int) percentile).append('=').append(histogram.getPercentile(percentile));
+      }
+      text.append(" max=").append(histogram.getMax()).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Get a histogram, creating it if it does not exist yet
+   * 
+   * @param name
+   *          The name of the histogram, which by convention ends with the unit of its values such as _us or _bytes
+   * @param tags
+   *          Pairs of tag names and values identifying the histogram
+   * @return The histogram
+   */
+  public Histogram histogram(String name, String... tags) {
+    String key = keyOf(name, tags);
+    Histogram histogram = this.histograms.get(key);
+    if (histogram == null) {
+      Histogram created = new Histogram();
+      histogram = this.histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+}
@@ -0,0 +1,805 @@
+/**
+ * Portfolio.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.json.JSONException;
+
+/**
+ * Class to hold and manage a set of companies that are being monitored for quotes. This class manages adding and removing companies
+ * from the set as well as updating the current quote information for each monitored business
+ * 
+ * The companies are held in a dense array in display order alongside a hash index from each canonical ticker to its position, so
+ * looking up and adding a company take constant time however large the portfolio is. Removing a company only empties its slot, which
+ * is compacted away the next time the companies are accessed by position. That access costs a pass over the array, so a run of
+ * removals shares one pass, but a removal followed straight away by a redraw of the grid still costs time linear in the number of
+ * companies.
+ * 
+ * The companies are shown in the order of the watchlist unless a sort mode is set, in which case they are also held in a
+ * QuoteRanking by the sort key. Each new quote moves its company to its new rank in time logarithmic in the number of companies,
+ * and the company at a position is found in the ranking in the same time, so the companies never have to be sorted again as quotes
+ * arrive. The companies with quotes are always ranked by percentage change too, so the biggest movers can be read off the ends.
+ * 
+ * The quotes themselves are held in a QuoteTable, whose rows are the slots of the companies, and new quotes are copied into it in
+ * place. The quotes returned by this class are views of the table which are reused by the next call, so a quote that is needed for
+ * longer must be copied.
+ * 
+ * @author Ryan Harrison
+ */
+public class Portfolio {
+
+  /**
+   * A list view of the quotes of the companies in a portfolio, in display order. Adding a quote adds its company to the portfolio
+   * and removing a quote removes its company
+   * 
+   * @author Ryan Harrison
+   */
+  private class QuoteList extends AbstractList<Quote> {
+
+    /**
+     * Add the company of a quote to the end of the portfolio
+     * 
+     * @param position
+     *          The position to add the company at, which must be the end of the list
+     * @param quote
+     *          The quote of the company to add
+     * 
+     * @see java.util.AbstractList#add(int, java.lang.Object)
+     */
+    @Override
+    public void add(int position, Quote quote) {
+      if (position != this.size()) {
+        throw new UnsupportedOperationException("Companies can only be added to the end of a portfolio");
+      }
+      if (Portfolio.this.addCompanyNoUpdate(quote.ticker)) {
+        Portfolio.this.rankQuote(Portfolio.this.slots - 1, quote);
+        Portfolio.this.table.set(Portfolio.this.slots - 1, quote);
+      }
+    }
+
+    /**
+     * Get the quote of the company at a position
+     * 
+     * @param position
+     *          The position of the company
+     * @return A view of the quote of the company, which is reused by the next call
+     * 
+     * @see java.util.AbstractList#get(int)
+     */
+    @Override
+    public Quote get(int position) {
+      Portfolio.this.compact();
+      if (position < 0 || position >= Portfolio.this.slots) {
+        throw new IndexOutOfBoundsException("Cannot get company " + position + " of " + Portfolio.this.slots);
+      }
+      return Portfolio.this.table.get(Portfolio.this.slotOf(position), Portfolio.this.view);
+    }
+
+    /**
+     * Remove the company at a position from the portfolio
+     * 
+     * @param position
+     *          The position of the company
+     * @return The quote of the removed company
+     * 
+     * @see java.util.AbstractList#remove(int)
+     */
+    @Override
+    public Quote remove(int position) {
+      return Portfolio.this.removeCompanyAt(position);
+    }
+
+    /**
+     * Get the number of companies in the portfolio
+     * 
+     * @return The number of companies
+     * 
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+      return Portfolio.this.getCompanyCount();
+    }
+  }
+
+  /** Sort mode showing the companies in the order of the watchlist */
+  public static final int                          SORT_NONE           = 0;
+
+  /** Sort mode showing the companies by percentage change on the day, biggest gain first */
+  public static final int                          SORT_PERCENT_CHANGE = 1;
+
+  /** Sort mode showing the companies by volume traded today as a multiple of the average daily volume, highest first */
+  public static final int                          SORT_VOLUME         = 2;
+
+  /** Sort mode showing the companies by market capitalisation, largest first */
+  public static final int                          SORT_MARKET_CAP     = 3;
+
+  /** Sort mode showing the companies in alphabetical order of name */
+  public static final int                          SORT_NAME           = 4;
+
+  /** The initial capacity of the arrays of companies */
+  private static final int                         INITIAL_CAPACITY    = 16;
+
+  /** The quotes of each company currently being monitored, in display order. Slots of removed companies are left empty */
+  private final QuoteTable                         table;
+
+  /** The quote that views of the table are read into */
+  private final Quote                              view;
+
+  /** The canonical ticker of the company in each slot, or null if the company in the slot has been removed */
+  private String[]                                 tickers;
+
+  /** The number of slots in use, including those of removed companies */
+  private int                                      slots;
+
+  /** The number of slots of removed companies that have not yet been compacted away */
+  private int                                      removed;
+
+  /** Index from the canonical ticker of each company to its slot */
+  private final Map<String, Integer>               index;
+
+  /** A list view of the quotes of the companies, in display order */
+  private final List<Quote>                        quotes;
+
+  /** The price alerts checked against every new quote, or null if alerts are not checked */
+  private AlertEngine                              alerts;
+
+  /** The alerts triggered by new quotes that have not yet been taken */
+  private final List<PriceAlert>                   triggered;
+
+  /** The holdings revalued by every new quote, or null if holdings are not tracked */
+  private Holdings                                 holdings;
+
+  /** The history that the price of every new quote is recorded in, or null if prices are not recorded */
+  private TickHistory                              ticks;
+
+  /** The current sort mode, one of the SORT_ constants */
+  private int                                      sortMode;
+
+  /** The companies ranked by the current sort mode, or null if they are shown in the order of the watchlist */
+  private QuoteRanking                             order;
+
+  /** The companies that have quotes ranked by percentage change, biggest gain first */
+  private final QuoteRanking                       movers;
+
+  /** The quote downloads in progress, keyed by canonical ticker and shared between every portfolio */
+  private static final SingleFlight<String, Quote> REQUESTS            = new SingleFlight<String, Quote>();
+
+  /**
+   * The URL used when updating the quotes for each company. The stock data is obtained from the Yahoo! Finance API which is free to
+   * use for personal use
+   */
+  private static final String                      QUOTEURL            = "http://query.yahooapis.com/v1/public/yql?q=select%20*%20from%20yahoo.finance.quote%20where%20symbol%20%3D%20%22%s%22&format=json&env=store%3A%2F%2Fdatatables.org%2Falltableswithkeys";
+
+  public static final String                       TAG                 = "Portfolio";
+
+  /**
+   * Construct a new Portfolio object
+   */
+  public Portfolio() {
+    this.table = new QuoteTable(INITIAL_CAPACITY);
+    this.view = new Quote();
+    this.tickers = new String[INITIAL_CAPACITY];
+    this.index = new HashMap<String, Integer>();
+    this.quotes = new QuoteList();
+    this.triggered = new ArrayList<PriceAlert>();
+    this.movers = new QuoteRanking(false);
+  }
+
+  /**
+   * Add a new company to the current list of monitored companies without updating the quotes for the set. Tickers are compared
+   * without regard to case or surrounding whitespace, so a company that is already being monitored is not added again
+   * 
+   * @param ticker
+   *          The ticker of the company to add
+   * @return True if the company was added, false if the ticker was empty or the company is already being monitored
+   */
+  public boolean addCompanyNoUpdate(String ticker) {
+    String key = canonicalise(ticker);
+    if (key.length() == 0 || this.index.containsKey(key)) {
+      Logger.i(TAG, "Not adding " + ticker + " to the portfolio");
+      return false;
+    }
+    Logger.i(TAG, "Adding " + ticker + " to the portfolio");
+
+    // Add the company to the end of the array with an empty quote
+    this.ensureCapacity(this.slots + 1);
+    this.table.clear(this.slots, ticker.trim());
+    this.tickers[this.slots] = key;
+    this.index.put(key, this.slots);
+    this.slots++;
+    if (this.order != null) {
+      this.order.put(key, Double.NaN, null);
+    }
+    return true;
+  }
+
+  /**
+   * Get the canonical form of a ticker, used to detect when two tickers refer to the same company
+   * 
+   * @param ticker
+   *          The ticker to canonicalise
+   * @return The ticker without surrounding whitespace and in upper case, or an empty string if the ticker is null
+   */
+  public static String canonicalise(String ticker) {
+    return ticker == null ? "" : ticker.trim().toUpperCase(Locale.US);
+  }
+
+  /**
+   * Compact away the slots of removed companies, moving every remaining company down to its position in display order
+   */
+  private void compact() {
+    if (this.removed == 0) {
+      return;
+    }
+    int position = 0;
+    for (int slot = 0; slot < this.slots; slot++) {
+      if (this.tickers[slot] == null) {
+        continue;
+      }
+      if (slot != position) {
+        this.table.copy(slot, position, 1);
+        this.tickers[position] = this.tickers[slot];
+        this.index.put(this.tickers[position], position);
+      }
+      position++;
+    }
+
+    // Clear the slots at the end so the removed quotes can be garbage collected
+    for (int slot = position; slot < this.slots; slot++) {
+      this.table.clear(slot, null);
+    }
+    Arrays.fill(this.tickers, position, this.slots, null);
+    this.slots = position;
+    this.removed = 0;
+  }
+
+  /**
+   * Determine whether a company is currently being monitored
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @return True if the company is in the portfolio
+   */
+  public boolean containsCompany(String ticker) {
+    return this.index.containsKey(canonicalise(ticker));
+  }
+
+  /**
+   * Download an updated quote for a specified company ticker. This does not change the portfolio, so it can be called from any
+   * thread. Callers that ask for the same ticker while a download is in progress, from this or any other portfolio, share the
+   * download and its result, which is rate limited with the priority of whichever caller started it
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @param priority
+   *          The RateLimiter priority of the download
+   * @return An updated quote for the specified ticker, or null if the downloaded quote could not be parsed
+   * @throws IOException
+   *           If there was an error downloading the quote
+   */
+  public Quote downloadQuoteFor(String ticker, final int priority) throws IOException {
+    final String key = canonicalise(ticker);
+    return REQUESTS.join(key, new Callable<Quote>() {
+
+      @Override
+      public Quote call() throws IOException {
+        Logger.i(TAG, "Downloading new quote data for " + key);
+        String url;
+        long start = Tracer.getApp().begin();
+        try {
+          // Construct the custom url using the ticker
+          url = QUOTEURL.replace("%s", URLEncoder.encode(key, "utf-8"));
+          // Download a quote json object from the internet and parse it to get the quote
+          Quote quote = Portfolio.this.loadJsonFromNetwork(url, priority);
+          MetricsRegistry.APP.counter("quotes.downloaded", "ticker", key).increment();
+          return quote;
+        }
+        catch (JSONException e) {
+          Logger.e(TAG, e.getMessage());
+          MetricsRegistry.APP.counter("quotes.parse_errors", "ticker", key).increment();
+          return null;
+        }
+        finally {
+          Tracer.getApp().end("portfolio", "downloadQuote", key, start);
+        }
+      }
+    }).get();
+  }
+
+  /**
+   * Ensure that the arrays of companies can hold at least the specified number of slots
+   * 
+   * @param capacity
+   *          The number of slots required
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > this.tickers.length) {
+      // Arrays.copyOf is not available before API level 9
+      String[] tickers = new String[Math.max(capacity, this.tickers.length * 2)];
+      System.arraycopy(this.tickers, 0, tickers, 0, this.slots);
+      this.tickers = tickers;
+      this.table.ensureCapacity(tickers.length);
+    }
+  }
+
+  /**
+   * Get the number of companies currently being monitored
+   * 
+   * @return The number of companies in the portfolio
+   */
+  public int getCompanyCount() {
+    return this.slots - this.removed;
+  }
+
+  /**
+   * Get the companies that have moved furthest in one direction on the day, taking time logarithmic in the number of companies for
+   * each one returned
+   * 
+   * @param count
+   *          The maximum number of companies to get
+   * @param gainers
+   *          True to get the biggest gainers, false to get the biggest losers
+   * @return The canonical tickers of the companies in order of the size of their move. Only companies that have moved in the
+   *         direction asked for are included, so there may be fewer than asked for
+   */
+  public List<String> getMovers(int count, boolean gainers) {
+    List<String> result = new ArrayList<String>();
+    int ranked = this.movers.size();
+    for (int i = 0; i < ranked && result.size() < count; i++) {
+      // Losers are read from the bottom of the ranking
+      String key = this.movers.get(gainers ? i : ranked - 1 - i);
+      double percentChange = this.table.getPercentChange(this.index.get(key));
+      if (gainers ? percentChange <= 0 : percentChange >= 0) {
+        break;
+      }
+      result.add(key);
+    }
+    return result;
+  }
+
+  /**
+   * Get the current quote of a monitored company
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @return A view of the quote of the company, which is reused by the next call, or null if the company is not in the portfolio
+   */
+  public Quote getQuote(String ticker) {
+    return this.getQuote(ticker, this.view);
+  }
+
+  /**
+   * Copy the current quote of a monitored company into a quote object
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @param target
+   *          The quote object to copy the quote into
+   * @return The quote object, or null if the company is not in the portfolio
+   */
+  public Quote getQuote(String ticker, Quote target) {
+    Integer slot = this.index.get(canonicalise(ticker));
+    return slot == null ? null : this.table.get(slot, target);
+  }
+
+  /**
+   * Get a list of quotes for each company currently being monitored. The list is a view of the portfolio in display order, so
+   * removing a quote from the list removes the company from the portfolio. Each quote in the list is a view which is reused by the
+   * next call
+   * 
+   * @return A list of quotes for each company currently being monitored
+   */
+  public List<Quote> getQuotes() {
+    return this.quotes;
+  }
+
+  /**
+   * Get the order the companies are shown in
+   * 
+   * @return The sort mode, one of the SORT_ constants
+   */
+  public int getSortMode() {
+    return this.sortMode;
+  }
+
+  /**
+   * Get the canonical ticker of the company at a position in display order
+   * 
+   * @param position
+   *          The position of the company
+   * @return The canonical ticker of the company
+   */
+  public String getTickerAt(int position) {
+    this.compact();
+    if (position < 0 || position >= this.slots) {
+      throw new IndexOutOfBoundsException("Cannot get company " + position + " of " + this.slots);
+    }
+    return this.tickers[this.slotOf(position)];
+  }
+
+  /**
+   * Get the position of a company in display order
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @return The position of the company, or -1 if it is not in the portfolio
+   */
+  public int indexOfCompany(String ticker) {
+    Integer slot = this.index.get(canonicalise(ticker));
+    if (slot == null) {
+      return -1;
+    }
+    if (this.order != null) {
+      return this.order.rank(canonicalise(ticker));
+    }
+    this.compact();
+    return this.index.get(canonicalise(ticker));
+  }
+
+  /**
+   * Determine whether quotes can currently be downloaded. While Yahoo! Finance is failing no requests are sent to it for a while,
+   * and the last quotes that were downloaded should be shown instead
+   * 
+   * @return True if quote downloads are being attempted, false if they are currently failing immediately
+   */
+  public boolean isQuoteServiceAvailable() {
+    return !Utils.isHostUnavailable(QUOTEURL);
+  }
+
+  /**
+   * Download and parse a json object and construct a quote object from its data
+   * 
+   * @param url
+   *          The url of the json object to download and parse
+   * @param priority
+   *          The RateLimiter priority of the download
+   * @return A Quote object containing the data from the downloaded json object
+   * @throws JSONException
+   *           If there was an error parsing the json object
+   * @throws IOException
+   *           If there was an error downloading the json object
+   */
+  private Quote loadJsonFromNetwork(String url, int priority) throws JSONException, IOException {
+    InputStream stream = null;
+    // Create a parser to retrieve the data from the json object
+    QuoteJsonParser quoteParser = new QuoteJsonParser();
+    Quote quote;
+    try {
+      Logger.i(TAG, "Retrieiving url stream");
+      // Download the json object from the url
+      stream = Utils.downloadUrl(url, RateLimiter.QUOTES, priority);
+
+      Logger.i(TAG, "Parsing json object for quote data");
+      // Parse the json string into a Quote object. The stream is read as it is parsed, so this includes downloading the body
+      long start = Tracer.getApp().begin();
+      quote = quoteParser.parse(stream);
+      MetricsRegistry.APP.histogram("parse.json_us", "endpoint", "quotes").recordSince(start);
+      Tracer.getApp().end("parse", "QuoteJsonParser.parse", start);
+    }
+    finally {
+      // Make sure that the InputStream is closed in all cases
+      if (stream != null) {
+        stream.close();
+      }
+    }
+    return quote;
+  }
+
+  /**
+   * Move a company to a different position in display order, shifting the companies in between along by one, which takes time
+   * proportional to the distance moved. Companies can only be moved while they are shown in the order of the watchlist
+   * 
+   * @param from
+   *          The current position of the company
+   * @param to
+   *          The position to move the company to
+   */
+  public void moveCompany(int from, int to) {
+    if (this.order != null) {
+      throw new IllegalStateException("Cannot move companies while they are sorted");
+    }
+    this.compact();
+    if (from < 0 || from >= this.slots || to < 0 || to >= this.slots) {
+      throw new IndexOutOfBoundsException("Cannot move company from " + from + " to " + to + " of " + this.slots);
+    }
+    String key = this.tickers[from];
+    if (from < to) {
+      System.arraycopy(this.tickers, from + 1, this.tickers, from, to - from);
+    }
+    else {
+      System.arraycopy(this.tickers, to, this.tickers, to + 1, from - to);
+    }
+    this.tickers[to] = key;
+    this.table.move(from, to);
+
+    // Only the companies between the two positions have moved
+    for (int i = Math.min(from, to); i <= Math.max(from, to); i++) {
+      this.index.put(this.tickers[i], i);
+    }
+  }
+
+  /**
+   * Check the price alerts against a new quote of the company in a slot, revalue its holding, record its price and move it to its
+   * new rank, before the new quote replaces the old one. No alert is triggered by the first quote of a company, as there is no
+   * earlier price for it to have crossed from
+   * 
+   * @param slot
+   *          The slot of the company
+   * @param quote
+   *          The new quote
+   */
+  private void observeQuote(int slot, Quote quote) {
+    if (this.alerts != null && this.table.hasQuote(slot)) {
+      this.alerts.evaluate(this.tickers[slot], this.table.getLastTradePrice(slot), quote.lastTradePrice,
+          this.table.getPercentChange(slot), quote.percentChange, this.triggered);
+    }
+    if (this.holdings != null) {
+      this.holdings.updatePrice(this.tickers[slot], quote.lastTradePrice, quote.change);
+    }
+    if (this.ticks != null) {
+      this.ticks.record(this.tickers[slot], System.currentTimeMillis(), quote.lastTradePrice);
+    }
+    this.rankQuote(slot, quote);
+  }
+
+  /**
+   * Move the company in a slot to the rank of a new quote in the current sort order and among the movers
+   * 
+   * @param slot
+   *          The slot of the company
+   * @param quote
+   *          The new quote
+   */
+  private void rankQuote(int slot, Quote quote) {
+    if (this.order != null) {
+      this.order.put(this.tickers[slot], sortKey(this.sortMode, quote), quote.name);
+    }
+    this.movers.put(this.tickers[slot], quote.percentChange, null);
+  }
+
+  /**
+   * Remove a company from the current list of monitored companies
+   * 
+   * @param ticker
+   *          The ticker of the company to remove
+   * @return True if the company was removed, false if it was not in the portfolio
+   */
+  public boolean removeCompany(String ticker) {
+    Logger.i(TAG, "Removing " + ticker + " from portfolio");
+    Integer slot = this.index.remove(canonicalise(ticker));
+    if (slot == null) {
+      return false;
+    }
+    this.removeSlot(slot);
+    return true;
+  }
+
+  /**
+   * Remove the company at a position in display order from the current list of monitored companies
+   * 
+   * @param position
+   *          The position of the company to remove
+   * @return A copy of the quote of the removed company
+   */
+  public Quote removeCompanyAt(int position) {
+    this.compact();
+    if (position < 0 || position >= this.slots) {
+      throw new IndexOutOfBoundsException("Cannot remove company " + position + " of " + this.slots);
+    }
+    int slot = this.slotOf(position);
+    Quote quote = this.table.get(slot, new Quote());
+    Logger.i(TAG, "Removing " + this.tickers[slot] + " from portfolio");
+    this.index.remove(this.tickers[slot]);
+    this.removeSlot(slot);
+    return quote;
+  }
+
+  /**
+   * Empty the slot of a removed company, leaving it to be compacted away later. A removal from the end of the array is compacted
+   * immediately
+   * 
+   * @param slot
+   *          The slot of the removed company
+   */
+  private void removeSlot(int slot) {
+    if (this.ticks != null) {
+      this.ticks.remove(this.tickers[slot]);
+    }
+    if (this.order != null) {
+      this.order.remove(this.tickers[slot]);
+    }
+    this.movers.remove(this.tickers[slot]);
+    this.table.clear(slot, null);
+    this.tickers[slot] = null;
+    if (slot == this.slots - 1) {
+      this.slots--;
+    }
+    else {
+      this.removed++;
+    }
+  }
+
+  /**
+   * Set the price alerts checked against every new quote. Alerts that are triggered are held until they are taken
+   * 
+   * @param alerts
+   *          The alerts, or null to stop checking alerts
+   */
+  public void setAlertEngine(AlertEngine alerts) {
+    this.alerts = alerts;
+  }
+
+  /**
+   * Set the holdings revalued by every new quote
+   * 
+   * @param holdings
+   *          The holdings, or null to stop revaluing holdings
+   */
+  public void setHoldings(Holdings holdings) {
+    this.holdings = holdings;
+  }
+
+  /**
+   * Replace the quote of a monitored company, for example with one that has just been downloaded. The fields of the quote are copied
+   * into the portfolio, so the quote can be reused afterwards
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @param quote
+   *          The new quote of the company
+   * @return True if the quote was replaced, false if the company is no longer in the portfolio
+   */
+  public boolean setQuote(String ticker, Quote quote) {
+    Integer slot = this.index.get(canonicalise(ticker));
+    if (slot == null) {
+      return false;
+    }
+    this.observeQuote(slot, quote);
+    this.table.set(slot, quote);
+    return true;
+  }
+
+  /**
+   * Set the order the companies are shown in. Changing the sort mode ranks every company again, which takes time proportional to
+   * n log n in the number of companies, but each later quote only moves its own company
+   * 
+   * @param mode
+   *          The sort mode, one of the SORT_ constants
+   */
+  public void setSortMode(int mode) {
+    if (mode < SORT_NONE || mode > SORT_NAME) {
+      throw new IllegalArgumentException("Unknown sort mode " + mode);
+    }
+    if (mode == this.sortMode) {
+      return;
+    }
+    Logger.i(TAG, "Sorting portfolio by mode " + mode);
+    this.sortMode = mode;
+    if (mode == SORT_NONE) {
+      this.order = null;
+      return;
+    }
+    this.order = new QuoteRanking(mode == SORT_NAME);
+    Quote quote = new Quote();
+    for (int slot = 0; slot < this.slots; slot++) {
+      if (this.tickers[slot] == null) {
+        continue;
+      }
+      if (this.table.hasQuote(slot)) {
+        this.table.get(slot, quote);
+        this.order.put(this.tickers[slot], sortKey(mode, quote), quote.name);
+      }
+      else {
+        this.order.put(this.tickers[slot], Double.NaN, null);
+      }
+    }
+  }
+
+  /**
+   * Set the history that the price of every new quote is recorded in. The prices of a company are forgotten when it is removed
+   * 
+   * @param ticks
+   *          The history, or null to stop recording prices
+   */
+  public void setTickHistory(TickHistory ticks) {
+    this.ticks = ticks;
+  }
+
+  /**
+   * Find the slot of the company at a position in display order. The slots must have been compacted
+   * 
+   * @param position
+   *          The position of the company
+   * @return The slot of the company
+   */
+  private int slotOf(int position) {
+    return this.order == null ? position : this.index.get(this.order.get(position));
+  }
+
+  /**
+   * Get the key that a quote is ranked by in a sort mode
+   * 
+   * @param mode
+   *          The sort mode, one of the SORT_ constants other than SORT_NONE and SORT_NAME
+   * @param quote
+   *          The quote
+   * @return The key, higher for companies shown first, or NaN if the quote does not have one
+   */
+  private static double sortKey(int mode, Quote quote) {
+    switch (mode) {
+      case SORT_PERCENT_CHANGE:
+        return quote.percentChange;
+      case SORT_VOLUME:
+        return quote.averageDailyVolume == 0 ? Double.NaN : (double) quote.volume / quote.averageDailyVolume;
+      case SORT_MARKET_CAP:
+        return quote.marketCapitalization;
+      default:
+        return Double.NaN;
+    }
+  }
+
+  /**
+   * Take the price alerts that have been triggered by new quotes since they were last taken
+   * 
+   * @return The triggered alerts in the order they were triggered, which may be empty
+   */
+  public List<PriceAlert> takeTriggeredAlerts() {
+    List<PriceAlert> taken = new ArrayList<PriceAlert>(this.triggered);
+    this.triggered.clear();
+    return taken;
+  }
+
+  /**
+   * Update the quote information for each currently monitored company by downloading the data from Yahoo! Finance. A company whose
+   * quote fails to download keeps its last quote, so one failure does not stop the rest of the companies from being updated
+   * 
+   * @throws IOException
+   *           If no quote could be updated because every download failed
+   */
+  public void update() throws IOException {
+    Logger.i(TAG, "Updating all portfolio quote data");
+    long start = Tracer.getApp().begin();
+    IOException failure = null;
+    int updated = 0;
+    for (int i = 0; i < this.slots; i++) {
+      // Skip the slots of removed companies
+      if (this.tickers[i] == null) {
+        continue;
+      }
+      Quote q;
+      try {
+        // Download an updated quote for each company, using its ticker symbol
+        q = this.downloadQuoteFor(this.table.getTicker(i), RateLimiter.BACKGROUND);
+      }
+      catch (IOException e) {
+        Logger.e(TAG, e.toString());
+        failure = e;
+        continue;
+      }
+      // Overwrite the old quote with the newly updated one in place. The slot keeps its canonical ticker so the index stays valid
+      if (q != null) {
+        this.observeQuote(i, q);
+        this.table.set(i, q);
+        updated++;
+      }
+    }
+    Tracer.getApp().end("portfolio", "update", start);
+    if (updated == 0 && failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * PriceAlert.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * A rule set by the user to be told when the price of a stock crosses a level, or when it has moved by more than a percentage on the
+ * day
+ * 
+ * @author Ryan Harrison
+ */
+public class PriceAlert {
+
+  /** Alert triggered when the price rises to or through the threshold */
+  public static final int ABOVE = 0;
+
+  /** Alert triggered when the price falls to or through the threshold */
+  public static final int BELOW = 1;
+
+  /** Alert triggered when the size of the percentage change on the day grows to or through the threshold */
+  public static final int MOVE  = 2;
+
+  /** The unique id of the alert */
+  public final long       id;
+
+  /** The canonical ticker of the stock that the alert watches */
+  public final String     ticker;
+
+  /** The type of the alert, either ABOVE, BELOW or MOVE */
+  public final int        type;
+
+  /** The price that triggers the alert, or the percentage for alerts of type MOVE */
+  public final double     threshold;
+
+  /**
+   * Construct a new PriceAlert
+   * 
+   * @param id
+   *          The unique id of the alert
+   * @param ticker
+   *          The canonical ticker of the stock that the alert watches
+   * @param type
+   *          The type of the alert, either ABOVE, BELOW or MOVE
+   * @param threshold
+   *          The price that triggers the alert, or the percentage for alerts of type MOVE
+   */
+  public PriceAlert(long id, String ticker, int type, double threshold) {
+    this.id = id;
+    this.ticker = ticker;
+    this.type = type;
+    this.threshold = threshold;
+  }
+}
@@ -14,7 +14,7 @@ import java.io.Serializable;
 class Quote implements Serializable {
 
   /** Serial version id required when implementing Serializable */
-  private static final long serialVersionUID = 1328189913783422102L;
+  private static final long serialVersionUID     = 1328189913783422102L;
 
   /** The average number of shares that are traded daily */
   public long               averageDailyVolume;
@@ -37,13 +37,13 @@ class Quote implements Serializable {
   /** The highest price of the stock in the current year of trading */
   public double             yearHigh;
 
-  /** The market capitalisation value of the stock */
-  public String             marketCapitalization;
+  /** The market capitalisation value of the stock in units of its currency, or NaN if it is not available */
+  public double             marketCapitalization = Double.NaN;
 
   /** The current price of the stock */
   public double             lastTradePrice;
 
-  /** The full name of the stock */
+  /** The full name of the stock, held in StringDictionary.QUOTES */
   public String             name;
 
   /** The ticker symbol of the stock */
@@ -52,6 +52,6 @@ class Quote implements Serializable {
   /** The amount of shares that have been traded in the current day of trading */
   public long               volume;
 
-  /** The stock exchange that the stock belongs to */
+  /** The stock exchange that the stock belongs to, held in StringDictionary.QUOTES */
   public String             stockExchange;
 }
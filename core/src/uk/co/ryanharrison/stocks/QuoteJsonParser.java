@@ -8,6 +8,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Iterator;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -19,6 +20,60 @@ import org.json.JSONObject;
  */
 public class QuoteJsonParser {
 
+  /**
+   * Apply a partial update of a stock quote onto an existing Quote. The update uses the same field names as the full quote JSON
+   * object, and only the fields that are present are changed
+   * 
+   * @param quote
+   *          The quote to update
+   * @param delta
+   *          A JSON object holding the fields of the quote that have changed
+   * @throws JSONException
+   *           If there was an error parsing the JSON object
+   */
+  public void applyDelta(Quote quote, JSONObject delta) throws JSONException {
+    if (delta.has("LastTradePriceOnly")) {
+      quote.lastTradePrice = Double.parseDouble(delta.getString("LastTradePriceOnly"));
+    }
+    if (delta.has("Change")) {
+      quote.change = Double.parseDouble(delta.getString("Change"));
+    }
+    if (delta.has("Volume")) {
+      quote.volume = Long.parseLong(delta.getString("Volume"));
+    }
+    if (delta.has("DaysLow")) {
+      quote.daysLow = Double.parseDouble(delta.getString("DaysLow"));
+    }
+    if (delta.has("DaysHigh")) {
+      quote.daysHigh = Double.parseDouble(delta.getString("DaysHigh"));
+    }
+    quote.percentChange = quote.change / quote.lastTradePrice * 100.0;
+  }
+
+  /**
+   * Merge two partial updates of a stock quote into one, so that applying the merged update has the same effect as applying both in
+   * turn
+   * 
+   * @param older
+   *          The earlier update
+   * @param newer
+   *          The later update, whose fields take precedence
+   * @return A new JSON object holding the fields of both updates
+   * @throws JSONException
+   *           If there was an error copying the fields
+   */
+  public JSONObject mergeDeltas(JSONObject older, JSONObject newer) throws JSONException {
+    JSONObject merged = new JSONObject();
+    for (JSONObject delta : new JSONObject[] { older, newer }) {
+      Iterator<?> keys = delta.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        merged.put(key, delta.get(key));
+      }
+    }
+    return merged;
+  }
+
   /**
    * Parse a downloaded JSON object into a Quote object for a stock
    * 
@@ -47,12 +102,13 @@ public class QuoteJsonParser {
       quote.change = Double.parseDouble(obj.getString("Change"));
       quote.yearLow = Double.parseDouble(obj.getString("YearLow"));
       quote.yearHigh = Double.parseDouble(obj.getString("YearHigh"));
-      quote.marketCapitalization = obj.getString("MarketCapitalization");
+      quote.marketCapitalization = Utils.parseMarketCap(obj.getString("MarketCapitalization"));
       quote.lastTradePrice = Double.parseDouble(obj.getString("LastTradePriceOnly"));
-      quote.name = obj.getString("Name");
+      // Names and exchanges rarely change, so keep the copies already held rather than a new string for every update
+      quote.name = StringDictionary.QUOTES.canonical(obj.getString("Name"));
       quote.ticker = obj.getString("Symbol");
       quote.volume = Long.parseLong(obj.getString("Volume"));
-      quote.stockExchange = obj.getString("StockExchange");
+      quote.stockExchange = StringDictionary.QUOTES.canonical(obj.getString("StockExchange"));
       quote.percentChange = quote.change / quote.lastTradePrice * 100.0;
 
       // If DaysLow is null it means that the stock market has not yet opened for trading so we don't want to parse it
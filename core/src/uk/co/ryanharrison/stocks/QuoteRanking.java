@@ -0,0 +1,419 @@
+/**
+ * QuoteRanking.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps a set of stocks in ranked order, either by a numeric key from highest to lowest or by name, so that the stock at any rank
+ * can be found without sorting the whole set again each time a quote changes.
+ * 
+ * The stocks are held in a treap, a binary search tree balanced by random priorities, in which each node also knows the size of its
+ * subtree. Adding, removing or moving a stock and finding the stock at a rank or the rank of a stock all take time logarithmic in
+ * the number of stocks. The nodes are held in primitive arrays indexed by node number, and the nodes of removed stocks are reused,
+ * so a stock moving as its quotes arrive allocates nothing. Stocks with equal keys are ranked by ticker, so the order is always the
+ * same for the same keys.
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteRanking {
+
+  /** The initial capacity of the arrays of nodes */
+  private static final int           INITIAL_CAPACITY = 16;
+
+  /** Marks the absence of a node */
+  private static final int           NONE             = -1;
+
+  /** True to rank the stocks by name, false to rank them by key */
+  private final boolean              byName;
+
+  /** The node of each stock, keyed by canonical ticker */
+  private final Map<String, Integer> nodes;
+
+  /** The random priorities that balance the tree */
+  private final Random               random;
+
+  /** The canonical ticker of the stock in each node */
+  private String[]                   tickers;
+
+  /** The key of the stock in each node */
+  private double[]                   keys;
+
+  /** The name of the stock in each node */
+  private String[]                   names;
+
+  /** The left child of each node, or the next free node of a free node */
+  private int[]                      lefts;
+
+  /** The right child of each node */
+  private int[]                      rights;
+
+  /** The number of nodes in the subtree of each node */
+  private int[]                      sizes;
+
+  /** The priority of each node, which is never less than the priorities of its children */
+  private int[]                      priorities;
+
+  /** The root of the tree */
+  private int                        root;
+
+  /** The first free node, or NONE if every node that has been used holds a stock */
+  private int                        free;
+
+  /** The number of nodes that have ever been used */
+  private int                        used;
+
+  /** The left part of the last split */
+  private int                        splitLeft;
+
+  /** The right part of the last split */
+  private int                        splitRight;
+
+  /**
+   * Construct a new empty QuoteRanking
+   * 
+   * @param byName
+   *          True to rank the stocks by name in alphabetical order, false to rank them by key from highest to lowest
+   */
+  public QuoteRanking(boolean byName) {
+    this.byName = byName;
+    this.nodes = new HashMap<String, Integer>();
+    this.random = new Random();
+    this.tickers = new String[INITIAL_CAPACITY];
+    this.keys = new double[INITIAL_CAPACITY];
+    this.names = new String[INITIAL_CAPACITY];
+    this.lefts = new int[INITIAL_CAPACITY];
+    this.rights = new int[INITIAL_CAPACITY];
+    this.sizes = new int[INITIAL_CAPACITY];
+    this.priorities = new int[INITIAL_CAPACITY];
+    this.root = NONE;
+    this.free = NONE;
+  }
+
+  /**
+   * Take a free node, growing the arrays of nodes if there is none
+   * 
+   * @return The node
+   */
+  private int allocate() {
+    if (this.free != NONE) {
+      int node = this.free;
+      this.free = this.lefts[node];
+      return node;
+    }
+    if (this.used == this.tickers.length) {
+      int capacity = this.used * 2;
+      String[] newTickers = new String[capacity];
+      double[] newKeys = new double[capacity];
+      String[] newNames = new String[capacity];
+      int[] newLefts = new int[capacity];
+      int[] newRights = new int[capacity];
+      int[] newSizes = new int[capacity];
+      int[] newPriorities = new int[capacity];
+      System.arraycopy(this.tickers, 0, newTickers, 0, this.used);
+      System.arraycopy(this.keys, 0, newKeys, 0, this.used);
+      System.arraycopy(this.names, 0, newNames, 0, this.used);
+      System.arraycopy(this.lefts, 0, newLefts, 0, this.used);
+      System.arraycopy(this.rights, 0, newRights, 0, this.used);
+      System.arraycopy(this.sizes, 0, newSizes, 0, this.used);
+      System.arraycopy(this.priorities, 0, newPriorities, 0, this.used);
+      this.tickers = newTickers;
+      this.keys = newKeys;
+      this.names = newNames;
+      this.lefts = newLefts;
+      this.rights = newRights;
+      this.sizes = newSizes;
+      this.priorities = newPriorities;
+    }
+    return this.used++;
+  }
+
+  /**
+   * Remove every stock
+   */
+  public void clear() {
+    this.nodes.clear();
+    Arrays.fill(this.tickers, 0, this.used, null);
+    Arrays.fill(this.names, 0, this.used, null);
+    this.root = NONE;
+    this.free = NONE;
+    this.used = 0;
+  }
+
+  /**
+   * Get the stock at a rank
+   * 
+   * @param rank
+   *          The rank, where 0 is the highest key or the first name
+   * @return The canonical ticker of the stock
+   */
+  public String get(int rank) {
+    if (rank < 0 || rank >= this.size()) {
+      throw new IndexOutOfBoundsException("Cannot get rank " + rank + " of " + this.size());
+    }
+    int node = this.root;
+    while (true) {
+      int before = this.size(this.lefts[node]);
+      if (rank < before) {
+        node = this.lefts[node];
+      }
+      else if (rank == before) {
+        return this.tickers[node];
+      }
+      else {
+        rank -= before + 1;
+        node = this.rights[node];
+      }
+    }
+  }
+
+  /**
+   * Insert a node into a subtree
+   * 
+   * @param tree
+   *          The root of the subtree
+   * @param node
+   *          The node to insert
+   * @return The new root of the subtree
+   */
+  private int insert(int tree, int node) {
+    if (tree == NONE) {
+      return node;
+    }
+    if (this.priorities[node] > this.priorities[tree]) {
+      // The node belongs above the subtree, which is split around it
+      this.split(tree, node);
+      this.lefts[node] = this.splitLeft;
+      this.rights[node] = this.splitRight;
+      this.resize(node);
+      return node;
+    }
+    if (this.precedes(node, tree)) {
+      this.lefts[tree] = this.insert(this.lefts[tree], node);
+    }
+    else {
+      this.rights[tree] = this.insert(this.rights[tree], node);
+    }
+    this.resize(tree);
+    return tree;
+  }
+
+  /**
+   * Join two subtrees, where every node of the first precedes every node of the second
+   * 
+   * @param left
+   *          The root of the first subtree
+   * @param right
+   *          The root of the second subtree
+   * @return The root of the joined subtree
+   */
+  private int merge(int left, int right) {
+    if (left == NONE) {
+      return right;
+    }
+    if (right == NONE) {
+      return left;
+    }
+    if (this.priorities[left] > this.priorities[right]) {
+      this.rights[left] = this.merge(this.rights[left], right);
+      this.resize(left);
+      return left;
+    }
+    this.lefts[right] = this.merge(left, this.lefts[right]);
+    this.resize(right);
+    return right;
+  }
+
+  /**
+   * Determine whether one node is ranked before another
+   * 
+   * @param a
+   *          The first node
+   * @param b
+   *          The second node
+   * @return True if the first node is ranked before the second
+   */
+  private boolean precedes(int a, int b) {
+    int order;
+    if (this.byName) {
+      order = String.CASE_INSENSITIVE_ORDER.compare(this.names[a], this.names[b]);
+    }
+    else {
+      order = Double.compare(this.keys[b], this.keys[a]);
+    }
+    if (order == 0) {
+      order = this.tickers[a].compareTo(this.tickers[b]);
+    }
+    return order < 0;
+  }
+
+  /**
+   * Add a stock, or move it to the rank of a new key and name if it is already ranked. Does nothing if the stock is already ranked
+   * with the same key and name, which is the common case of a quote that has not changed
+   * 
+   * @param ticker
+   *          The canonical ticker of the stock
+   * @param key
+   *          The key of the stock. NaN is ranked below every other key
+   * @param name
+   *          The name of the stock, or null to rank it by ticker
+   */
+  public void put(String ticker, double key, String name) {
+    double newKey = Double.isNaN(key) ? Double.NEGATIVE_INFINITY : key;
+    String newName = name == null ? ticker : name;
+    Integer existing = this.nodes.get(ticker);
+    int node;
+    if (existing == null) {
+      node = this.allocate();
+      this.nodes.put(ticker, node);
+      this.tickers[node] = ticker;
+      this.priorities[node] = this.random.nextInt();
+    }
+    else {
+      node = existing;
+      if (Double.compare(this.keys[node], newKey) == 0 && this.names[node].equals(newName)) {
+        return;
+      }
+      this.root = this.remove(this.root, node);
+    }
+    this.keys[node] = newKey;
+    this.names[node] = newName;
+    this.lefts[node] = NONE;
+    this.rights[node] = NONE;
+    this.sizes[node] = 1;
+    this.root = this.insert(this.root, node);
+  }
+
+  /**
+   * Get the rank of a stock
+   * 
+   * @param ticker
+   *          The canonical ticker of the stock
+   * @return The rank of the stock, or -1 if it is not ranked
+   */
+  public int rank(String ticker) {
+    Integer node = this.nodes.get(ticker);
+    if (node == null) {
+      return -1;
+    }
+    // Count the nodes ranked before the stock on the way down to it
+    int rank = 0;
+    int tree = this.root;
+    while (tree != node) {
+      if (this.precedes(node, tree)) {
+        tree = this.lefts[tree];
+      }
+      else {
+        rank += this.size(this.lefts[tree]) + 1;
+        tree = this.rights[tree];
+      }
+    }
+    return rank + this.size(this.lefts[node]);
+  }
+
+  /**
+   * Remove a node from a subtree
+   * 
+   * @param tree
+   *          The root of the subtree, which must contain the node
+   * @param node
+   *          The node to remove
+   * @return The new root of the subtree
+   */
+  private int remove(int tree, int node) {
+    if (tree == node) {
+      return this.merge(this.lefts[node], this.rights[node]);
+    }
+    if (this.precedes(node, tree)) {
+      this.lefts[tree] = this.remove(this.lefts[tree], node);
+    }
+    else {
+      this.rights[tree] = this.remove(this.rights[tree], node);
+    }
+    this.resize(tree);
+    return tree;
+  }
+
+  /**
+   * Remove a stock
+   * 
+   * @param ticker
+   *          The canonical ticker of the stock
+   * @return True if the stock was removed, false if it was not ranked
+   */
+  public boolean remove(String ticker) {
+    Integer node = this.nodes.remove(ticker);
+    if (node == null) {
+      return false;
+    }
+    this.root = this.remove(this.root, node);
+    this.tickers[node] = null;
+    this.names[node] = null;
+    this.lefts[node] = this.free;
+    this.free = node;
+    return true;
+  }
+
+  /**
+   * Recount the size of the subtree of a node from the sizes of its children
+   * 
+   * @param node
+   *          The node
+   */
+  private void resize(int node) {
+    this.sizes[node] = this.size(this.lefts[node]) + this.size(this.rights[node]) + 1;
+  }
+
+  /**
+   * Get the number of stocks ranked
+   * 
+   * @return The number of stocks
+   */
+  public int size() {
+    return this.nodes.size();
+  }
+
+  /**
+   * Get the number of nodes in a subtree
+   * 
+   * @param tree
+   *          The root of the subtree
+   * @return The number of nodes, which is 0 for an empty subtree
+   */
+  private int size(int tree) {
+    return tree == NONE ? 0 : this.sizes[tree];
+  }
+
+  /**
+   * Split a subtree into the nodes ranked before a node and the rest, which are left in splitLeft and splitRight
+   * 
+   * @param tree
+   *          The root of the subtree
+   * @param node
+   *          The node to split around, which is not in the subtree
+   */
+  private void split(int tree, int node) {
+    if (tree == NONE) {
+      this.splitLeft = NONE;
+      this.splitRight = NONE;
+      return;
+    }
+    if (this.precedes(tree, node)) {
+      this.split(this.rights[tree], node);
+      this.rights[tree] = this.splitLeft;
+      this.resize(tree);
+      this.splitLeft = tree;
+    }
+    else {
+      this.split(this.lefts[tree], node);
+      this.lefts[tree] = this.splitRight;
+      this.resize(tree);
+      this.splitRight = tree;
+    }
+  }
+}
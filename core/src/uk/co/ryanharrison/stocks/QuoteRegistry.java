@@ -0,0 +1,53 @@
+/**
+ * QuoteRegistry.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * Registry through which activities of the app look up the latest quote of a stock by its ticker. Activities pass each other only
+ * the ticker of a stock in their intents rather than a whole quote, so starting an activity costs nothing for the quote however
+ * large it is, and the quote that the new activity displays is the latest one rather than a copy taken when it was started.
+ * 
+ * The registry only lasts as long as the process. If the process is killed while an activity is in the background the activity has
+ * to fall back on a quote that it saved in its instance state.
+ * 
+ * The registry must only be used on the UI thread, where the quotes in the portfolio are updated.
+ * 
+ * @author Ryan Harrison
+ */
+public final class QuoteRegistry {
+
+  /** The portfolio holding the quotes, or null if none has been registered in this process */
+  private static Portfolio portfolio;
+
+  /**
+   * Get a copy of the latest quote of a stock
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @return A copy of the quote of the stock, or null if the stock is not in a registered portfolio
+   */
+  public static Quote lookup(String ticker) {
+    if (QuoteRegistry.portfolio == null || ticker == null) {
+      return null;
+    }
+    return QuoteRegistry.portfolio.getQuote(ticker, new Quote());
+  }
+
+  /**
+   * Register the portfolio holding the quotes, replacing any portfolio that was registered before
+   * 
+   * @param portfolio
+   *          The portfolio
+   */
+  public static void register(Portfolio portfolio) {
+    QuoteRegistry.portfolio = portfolio;
+  }
+
+  /**
+   * No instances of this class
+   */
+  private QuoteRegistry() {
+  }
+}
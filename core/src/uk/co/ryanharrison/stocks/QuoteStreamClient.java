@@ -0,0 +1,369 @@
+/**
+ * QuoteStreamClient.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Client for a push based quote feed served as a stream of server-sent events.
+ * 
+ * The client holds a long lived connection to the feed, subscribed to a set of tickers, and receives an event whenever the quote of
+ * one of them changes. Each event carries a JSON object with the ticker in its 'Symbol' field and only the fields of the quote that
+ * have changed, using the same field names as the full quote JSON object. Events are passed to a listener on the thread of the
+ * client.
+ * 
+ * If the connection fails it is reopened after a delay that doubles on every consecutive failure, sending the id of the last event
+ * received so that the server can resume the stream. Changing the subscribed tickers reopens the connection straight away.
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteStreamClient implements Runnable {
+
+  /**
+   * Interface to receive the events of a quote feed
+   * 
+   * @author Ryan Harrison
+   */
+  public interface Listener {
+
+    /**
+     * Called when the connection to the feed has been opened or has been lost
+     * 
+     * @param connected
+     *          True if the connection has been opened, false if it has been lost
+     */
+    void onConnectionChanged(boolean connected);
+
+    /**
+     * Called when the quote of a subscribed ticker has changed
+     * 
+     * @param ticker
+     *          The ticker of the stock
+     * @param delta
+     *          The fields of the quote that have changed
+     */
+    void onQuoteDelta(String ticker, JSONObject delta);
+  }
+
+  /** The delay in milliseconds before reconnecting after the first failure */
+  private static final long  INITIAL_RETRY   = 1000;
+
+  /** The maximum delay in milliseconds before reconnecting */
+  private static final long  MAX_RETRY       = 30 * 1000;
+
+  /** The minimum delay in milliseconds before reconnecting, as waiting for 0 ms would wait until the client is woken */
+  private static final long  MIN_RETRY       = 1;
+
+  /** The time in milliseconds to wait for the connection to be opened */
+  private static final int   CONNECT_TIMEOUT = 15000;
+
+  /** The time in milliseconds to wait for data before the connection is assumed dead. Servers send comments to keep it alive */
+  private static final int   READ_TIMEOUT    = 60000;
+
+  /** The URL of the feed, to which the subscribed tickers are added as a query parameter */
+  private final String       url;
+
+  /** The listener to pass the events of the feed to */
+  private final Listener     listener;
+
+  /** Lock guarding the subscribed tickers and the current connection, and notified when either changes */
+  private final Object       lock;
+
+  /** The canonical tickers that are subscribed to */
+  private Set<String>        tickers;
+
+  /** Whether the connection must be reopened because the subscribed tickers have changed */
+  private boolean            resubscribe;
+
+  /** Whether the client should keep running */
+  private volatile boolean   running;
+
+  /** The current connection, or null if there is none */
+  private HttpURLConnection  connection;
+
+  /** The id of the last event received, sent when reconnecting so that the stream can be resumed */
+  private String             lastEventId;
+
+  /** The delay in milliseconds before reconnecting after the next failure */
+  private long               retry;
+
+  public static final String TAG             = "QuoteStreamClient";
+
+  /**
+   * Construct a new QuoteStreamClient for a feed. The client does not connect until it is started
+   * 
+   * @param url
+   *          The URL of the feed
+   * @param listener
+   *          The listener to pass the events of the feed to
+   */
+  public QuoteStreamClient(String url, Listener listener) {
+    this.url = url;
+    this.listener = listener;
+    this.lock = new Object();
+    this.tickers = new TreeSet<String>();
+    this.retry = INITIAL_RETRY;
+  }
+
+  /**
+   * Determine whether a field value is made up only of ASCII digits
+   * 
+   * @param value
+   *          The value
+   * @return True if the value is not empty and every character is a digit from 0 to 9
+   */
+  private static boolean isDigits(String value) {
+    if (value.length() == 0) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Close the current connection, if there is one. This interrupts a read in progress on the thread of the client
+   */
+  private void closeConnection() {
+    synchronized (this.lock) {
+      if (this.connection != null) {
+        this.connection.disconnect();
+        this.connection = null;
+      }
+    }
+  }
+
+  /**
+   * Dispatch a complete event to the listener
+   * 
+   * @param event
+   *          The type of the event
+   * @param data
+   *          The data of the event
+   */
+  private void dispatch(String event, String data) {
+    if (!event.equals("quote") && !event.equals("message")) {
+      return;
+    }
+    try {
+      JSONObject delta = new JSONObject(data);
+      this.listener.onQuoteDelta(delta.getString("Symbol"), delta);
+    }
+    catch (JSONException e) {
+      Logger.e(TAG, e.getMessage());
+    }
+  }
+
+  /**
+   * Open a connection to the feed and read events from it until it is closed
+   * 
+   * @param tickers
+   *          The tickers to subscribe to
+   * @throws IOException
+   *           If there was an error connecting or reading from the feed
+   */
+  private void read(Set<String> tickers) throws IOException {
+    StringBuilder query = new StringBuilder(this.url).append(this.url.indexOf('?') == -1 ? "?symbols=" : "&symbols=");
+    boolean first = true;
+    for (String ticker : tickers) {
+      query.append(first ? "" : ",").append(URLEncoder.encode(ticker, "utf-8"));
+      first = false;
+    }
+
+    HttpURLConnection conn = (HttpURLConnection) new URL(query.toString()).openConnection();
+    conn.setReadTimeout(READ_TIMEOUT);
+    conn.setConnectTimeout(CONNECT_TIMEOUT);
+    conn.setRequestProperty("Accept", "text/event-stream");
+    if (this.lastEventId != null) {
+      conn.setRequestProperty("Last-Event-ID", this.lastEventId);
+    }
+    synchronized (this.lock) {
+      if (!this.running || this.resubscribe) {
+        return;
+      }
+      this.connection = conn;
+    }
+
+    Logger.i(TAG, "Connecting to " + query);
+    boolean opened = false;
+    try {
+      if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + conn.getResponseCode() + " from quote feed");
+      }
+      BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+      opened = true;
+      this.retry = INITIAL_RETRY;
+      this.listener.onConnectionChanged(true);
+
+      // Parse the stream line by line. A blank line ends each event
+      String event = "message";
+      StringBuilder data = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.length() == 0) {
+          if (data.length() != 0) {
+            this.dispatch(event, data.toString());
+          }
+          event = "message";
+          data.setLength(0);
+          continue;
+        }
+        // Lines starting with a colon are comments, used by the server to keep the connection alive
+        if (line.charAt(0) == ':') {
+          continue;
+        }
+
+        int colon = line.indexOf(':');
+        String field = colon == -1 ? line : line.substring(0, colon);
+        String value = colon == -1 ? "" : line.substring(line.startsWith(": ", colon) ? colon + 2 : colon + 1);
+        if (field.equals("event")) {
+          event = value;
+        }
+        else if (field.equals("data")) {
+          data.append(data.length() == 0 ? "" : "\n").append(value);
+        }
+        else if (field.equals("id")) {
+          this.lastEventId = value;
+        }
+        // The retry field is ignored unless it is made up only of digits, as the server-sent events spec requires
+        else if (field.equals("retry") && isDigits(value)) {
+          try {
+            this.retry = Math.max(Long.parseLong(value), MIN_RETRY);
+          }
+          catch (NumberFormatException e) {
+            // Too many digits for a long
+            Logger.e(TAG, e.getMessage());
+          }
+        }
+      }
+    }
+    finally {
+      // Make sure that the connection is closed in all cases
+      this.closeConnection();
+      if (opened) {
+        this.listener.onConnectionChanged(false);
+      }
+    }
+  }
+
+  /**
+   * Main loop of the client. Keep a connection to the feed open while there are tickers subscribed to, reconnecting whenever it
+   * fails or the tickers change
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    while (this.running) {
+      Set<String> subscribed;
+      synchronized (this.lock) {
+        this.resubscribe = false;
+        subscribed = this.tickers;
+        // Wait for something to subscribe to
+        if (subscribed.isEmpty()) {
+          this.waitFor(0);
+          continue;
+        }
+      }
+
+      try {
+        this.read(subscribed);
+      }
+      catch (IOException e) {
+        Logger.e(TAG, e.toString());
+      }
+
+      synchronized (this.lock) {
+        // Reconnect straight away if the tickers have changed, otherwise back off before trying again
+        if (this.running && !this.resubscribe) {
+          this.waitFor(this.retry);
+          this.retry = Math.min(this.retry * 2, MAX_RETRY);
+        }
+      }
+    }
+    Logger.i(TAG, "Quote stream stopped");
+  }
+
+  /**
+   * Start the client on a new thread
+   */
+  public void start() {
+    synchronized (this.lock) {
+      if (this.running) {
+        return;
+      }
+      this.running = true;
+    }
+    Thread thread = new Thread(this, TAG);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop the client, closing the current connection
+   */
+  public void stop() {
+    synchronized (this.lock) {
+      this.running = false;
+      this.lock.notifyAll();
+    }
+    this.closeConnection();
+  }
+
+  /**
+   * Set the tickers to subscribe to. If they are different from the current tickers the connection is reopened with the new tickers
+   * 
+   * @param tickers
+   *          The tickers to subscribe to
+   */
+  public void subscribe(Collection<String> tickers) {
+    Set<String> canonical = new TreeSet<String>();
+    for (String ticker : tickers) {
+      String key = Portfolio.canonicalise(ticker);
+      if (key.length() != 0) {
+        canonical.add(key);
+      }
+    }
+    synchronized (this.lock) {
+      if (canonical.equals(this.tickers)) {
+        return;
+      }
+      this.tickers = canonical;
+      this.resubscribe = true;
+      this.lock.notifyAll();
+    }
+    this.closeConnection();
+  }
+
+  /**
+   * Wait on the lock until it is notified or a timeout passes. Must be called while holding the lock
+   * 
+   * @param timeout
+   *          The time in milliseconds to wait, or 0 to wait until notified
+   */
+  private void waitFor(long timeout) {
+    try {
+      this.lock.wait(timeout);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.running = false;
+    }
+  }
+}
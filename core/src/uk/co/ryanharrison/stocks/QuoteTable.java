@@ -0,0 +1,341 @@
+/**
+ * QuoteTable.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * Class to hold the quotes of many stocks as a table, with one row per stock and one array per field of a quote.
+ * 
+ * Storing each field in its own primitive array rather than a separate Quote object per stock means a new quote is copied into the
+ * row of its stock in place, so updating every stock allocates nothing that outlives the update. Scanning a single field across all
+ * stocks, for example to sort by change or market capitalisation, only touches that field's array. Names and stock exchanges are
+ * stored as ids into the shared dictionary of quote strings.
+ * 
+ * Existing code that works with Quote objects reads a row through a view, a single Quote that is refilled from the table on each
+ * read instead of a new object being created every time.
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteTable {
+
+  /** The ticker symbol of the stock in each row */
+  private String[]               tickers;
+
+  /** The dictionary id of the full name of the stock in each row, or NONE if no quote has been stored in the row */
+  private int[]                  names;
+
+  /** The dictionary id of the stock exchange of each row */
+  private int[]                  exchanges;
+
+  /** The market capitalisation of the stock in each row, or NaN if it is not available */
+  private double[]               marketCaps;
+
+  /** The current price of the stock in each row */
+  private double[]               lastTradePrices;
+
+  /** The change in price of the stock in each row in the current day of trading */
+  private double[]               changes;
+
+  /** The percentage change in price of the stock in each row in the current day of trading */
+  private double[]               percentChanges;
+
+  /** The lowest price of the stock in each row in the current day of trading */
+  private double[]               daysLows;
+
+  /** The highest price of the stock in each row in the current day of trading */
+  private double[]               daysHighs;
+
+  /** The lowest price of the stock in each row in the current year of trading */
+  private double[]               yearLows;
+
+  /** The highest price of the stock in each row in the current year of trading */
+  private double[]               yearHighs;
+
+  /** The amount of shares of the stock in each row that have been traded in the current day of trading */
+  private long[]                 volumes;
+
+  /** The average number of shares of the stock in each row that are traded daily */
+  private long[]                 averageDailyVolumes;
+
+  /** The dictionary of names and stock exchanges */
+  private final StringDictionary dictionary;
+
+  /** A quote used to hold a row while the table is being rearranged */
+  private final Quote            scratch;
+
+  /**
+   * Construct a new QuoteTable with space for a number of rows
+   * 
+   * @param capacity
+   *          The initial number of rows
+   */
+  public QuoteTable(int capacity) {
+    this.dictionary = StringDictionary.QUOTES;
+    this.scratch = new Quote();
+    this.allocate(capacity);
+  }
+
+  /**
+   * Allocate new arrays of a given length, copying the rows of the current arrays into them if there are any
+   * 
+   * @param length
+   *          The length of the new arrays
+   */
+  private void allocate(int length) {
+    String[] tickers = new String[length];
+    int[] names = new int[length];
+    int[] exchanges = new int[length];
+    double[] marketCaps = new double[length];
+    double[] lastTradePrices = new double[length];
+    double[] changes = new double[length];
+    double[] percentChanges = new double[length];
+    double[] daysLows = new double[length];
+    double[] daysHighs = new double[length];
+    double[] yearLows = new double[length];
+    double[] yearHighs = new double[length];
+    long[] volumes = new long[length];
+    long[] averageDailyVolumes = new long[length];
+
+    if (this.tickers != null) {
+      int rows = this.tickers.length;
+      System.arraycopy(this.tickers, 0, tickers, 0, rows);
+      System.arraycopy(this.names, 0, names, 0, rows);
+      System.arraycopy(this.exchanges, 0, exchanges, 0, rows);
+      System.arraycopy(this.marketCaps, 0, marketCaps, 0, rows);
+      System.arraycopy(this.lastTradePrices, 0, lastTradePrices, 0, rows);
+      System.arraycopy(this.changes, 0, changes, 0, rows);
+      System.arraycopy(this.percentChanges, 0, percentChanges, 0, rows);
+      System.arraycopy(this.daysLows, 0, daysLows, 0, rows);
+      System.arraycopy(this.daysHighs, 0, daysHighs, 0, rows);
+      System.arraycopy(this.yearLows, 0, yearLows, 0, rows);
+      System.arraycopy(this.yearHighs, 0, yearHighs, 0, rows);
+      System.arraycopy(this.volumes, 0, volumes, 0, rows);
+      System.arraycopy(this.averageDailyVolumes, 0, averageDailyVolumes, 0, rows);
+    }
+
+    this.tickers = tickers;
+    this.names = names;
+    this.exchanges = exchanges;
+    this.marketCaps = marketCaps;
+    this.lastTradePrices = lastTradePrices;
+    this.changes = changes;
+    this.percentChanges = percentChanges;
+    this.daysLows = daysLows;
+    this.daysHighs = daysHighs;
+    this.yearLows = yearLows;
+    this.yearHighs = yearHighs;
+    this.volumes = volumes;
+    this.averageDailyVolumes = averageDailyVolumes;
+  }
+
+  /**
+   * Empty a row, leaving it holding only a ticker with no quote
+   * 
+   * @param row
+   *          The row to empty
+   * @param ticker
+   *          The ticker to leave in the row, or null to leave the row completely empty
+   */
+  public void clear(int row, String ticker) {
+    this.tickers[row] = ticker;
+    this.names[row] = StringDictionary.NONE;
+    this.exchanges[row] = StringDictionary.NONE;
+    this.marketCaps[row] = Double.NaN;
+    this.lastTradePrices[row] = 0;
+    this.changes[row] = 0;
+    this.percentChanges[row] = 0;
+    this.daysLows[row] = 0;
+    this.daysHighs[row] = 0;
+    this.yearLows[row] = 0;
+    this.yearHighs[row] = 0;
+    this.volumes[row] = 0;
+    this.averageDailyVolumes[row] = 0;
+  }
+
+  /**
+   * Copy a run of consecutive rows to another position, as System.arraycopy does for a single array. The runs may overlap
+   * 
+   * @param from
+   *          The first row to copy
+   * @param to
+   *          The row to copy the first row to
+   * @param count
+   *          The number of rows to copy
+   */
+  public void copy(int from, int to, int count) {
+    System.arraycopy(this.tickers, from, this.tickers, to, count);
+    System.arraycopy(this.names, from, this.names, to, count);
+    System.arraycopy(this.exchanges, from, this.exchanges, to, count);
+    System.arraycopy(this.marketCaps, from, this.marketCaps, to, count);
+    System.arraycopy(this.lastTradePrices, from, this.lastTradePrices, to, count);
+    System.arraycopy(this.changes, from, this.changes, to, count);
+    System.arraycopy(this.percentChanges, from, this.percentChanges, to, count);
+    System.arraycopy(this.daysLows, from, this.daysLows, to, count);
+    System.arraycopy(this.daysHighs, from, this.daysHighs, to, count);
+    System.arraycopy(this.yearLows, from, this.yearLows, to, count);
+    System.arraycopy(this.yearHighs, from, this.yearHighs, to, count);
+    System.arraycopy(this.volumes, from, this.volumes, to, count);
+    System.arraycopy(this.averageDailyVolumes, from, this.averageDailyVolumes, to, count);
+  }
+
+  /**
+   * Ensure that the table has at least the specified number of rows, growing it by at least double if it has to grow
+   * 
+   * @param capacity
+   *          The number of rows required
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > this.tickers.length) {
+      this.allocate(Math.max(capacity, this.tickers.length * 2));
+    }
+  }
+
+  /**
+   * Read a row into a quote object
+   * 
+   * @param row
+   *          The row to read
+   * @param view
+   *          The quote object to fill with the fields of the row, which is overwritten
+   * @return The quote object
+   */
+  public Quote get(int row, Quote view) {
+    view.ticker = this.tickers[row];
+    view.name = this.dictionary.get(this.names[row]);
+    view.stockExchange = this.dictionary.get(this.exchanges[row]);
+    view.marketCapitalization = this.marketCaps[row];
+    view.lastTradePrice = this.lastTradePrices[row];
+    view.change = this.changes[row];
+    view.percentChange = this.percentChanges[row];
+    view.daysLow = this.daysLows[row];
+    view.daysHigh = this.daysHighs[row];
+    view.yearLow = this.yearLows[row];
+    view.yearHigh = this.yearHighs[row];
+    view.volume = this.volumes[row];
+    view.averageDailyVolume = this.averageDailyVolumes[row];
+    return view;
+  }
+
+  /**
+   * Get the number of rows that the table can hold without growing
+   * 
+   * @return The number of rows
+   */
+  public int getCapacity() {
+    return this.tickers.length;
+  }
+
+  /**
+   * Get the change in price of the stock in a row in the current day of trading
+   * 
+   * @param row
+   *          The row
+   * @return The change in price
+   */
+  public double getChange(int row) {
+    return this.changes[row];
+  }
+
+  /**
+   * Get the current price of the stock in a row
+   * 
+   * @param row
+   *          The row
+   * @return The current price
+   */
+  public double getLastTradePrice(int row) {
+    return this.lastTradePrices[row];
+  }
+
+  /**
+   * Get the market capitalisation of the stock in a row
+   * 
+   * @param row
+   *          The row
+   * @return The market capitalisation, or NaN if it is not available
+   */
+  public double getMarketCapitalization(int row) {
+    return this.marketCaps[row];
+  }
+
+  /**
+   * Get the percentage change in price of the stock in a row in the current day of trading
+   * 
+   * @param row
+   *          The row
+   * @return The percentage change in price
+   */
+  public double getPercentChange(int row) {
+    return this.percentChanges[row];
+  }
+
+  /**
+   * Get the ticker symbol of the stock in a row
+   * 
+   * @param row
+   *          The row
+   * @return The ticker symbol
+   */
+  public String getTicker(int row) {
+    return this.tickers[row];
+  }
+
+  /**
+   * Determine whether a quote has been stored in a row
+   * 
+   * @param row
+   *          The row
+   * @return True if the row holds a quote, false if it only holds a ticker
+   */
+  public boolean hasQuote(int row) {
+    return this.names[row] != StringDictionary.NONE;
+  }
+
+  /**
+   * Move a row to a different position, shifting the rows in between along by one
+   * 
+   * @param from
+   *          The current position of the row
+   * @param to
+   *          The position to move the row to
+   */
+  public void move(int from, int to) {
+    if (from == to) {
+      return;
+    }
+    // Hold the moving row aside while the others are shifted over it
+    this.get(from, this.scratch);
+    if (from < to) {
+      this.copy(from + 1, from, to - from);
+    }
+    else {
+      this.copy(to, to + 1, from - to);
+    }
+    this.set(to, this.scratch);
+  }
+
+  /**
+   * Copy the fields of a quote into a row, overwriting the quote currently in the row
+   * 
+   * @param row
+   *          The row to write
+   * @param quote
+   *          The quote to copy
+   */
+  public void set(int row, Quote quote) {
+    this.tickers[row] = quote.ticker;
+    this.names[row] = this.dictionary.intern(quote.name);
+    this.exchanges[row] = this.dictionary.intern(quote.stockExchange);
+    this.marketCaps[row] = quote.marketCapitalization;
+    this.lastTradePrices[row] = quote.lastTradePrice;
+    this.changes[row] = quote.change;
+    this.percentChanges[row] = quote.percentChange;
+    this.daysLows[row] = quote.daysLow;
+    this.daysHighs[row] = quote.daysHigh;
+    this.yearLows[row] = quote.yearLow;
+    this.yearHighs[row] = quote.yearHigh;
+    this.volumes[row] = quote.volume;
+    this.averageDailyVolumes[row] = quote.averageDailyVolume;
+  }
+}
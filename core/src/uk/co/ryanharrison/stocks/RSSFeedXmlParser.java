@@ -6,13 +6,14 @@ package uk.co.ryanharrison.stocks;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-
-import android.util.Xml;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 /**
  * Class to parse an RSS feed xml file into a Map of link names to urls
@@ -48,6 +49,35 @@ public class RSSFeedXmlParser {
     }
   }
 
+  /** The factory creating the parser for each feed */
+  private final XmlParserFactory factory;
+
+  /** The format of the title of an item that near-duplicates were collapsed into, or null to leave its title unchanged */
+  private String                 collapsedFormat;
+
+  /**
+   * Construct a new RSSFeedXmlParser that finds an XmlPull implementation on the classpath through XmlPullParserFactory
+   */
+  public RSSFeedXmlParser() {
+    this(new XmlParserFactory() {
+
+      @Override
+      public XmlPullParser newPullParser() throws XmlPullParserException {
+        return XmlPullParserFactory.newInstance().newPullParser();
+      }
+    });
+  }
+
+  /**
+   * Construct a new RSSFeedXmlParser that reads feeds with parsers created by a factory
+   * 
+   * @param factory
+   *          The factory creating the parser for each feed
+   */
+  public RSSFeedXmlParser(XmlParserFactory factory) {
+    this.factory = factory;
+  }
+
   /**
    * Parse an RSS feed xml file into a Map of link names to their corresponding urls
    * 
@@ -62,7 +92,7 @@ public class RSSFeedXmlParser {
   public Map<String, String> parse(InputStream in) throws XmlPullParserException, IOException {
     try {
       // Set up the xml parser and make it point to the rss file input stream
-      XmlPullParser parser = Xml.newPullParser();
+      XmlPullParser parser = this.factory.newPullParser();
       parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
       parser.setInput(in, null);
       parser.nextTag();
@@ -79,7 +109,9 @@ public class RSSFeedXmlParser {
   }
 
   /**
-   * Read the RSS feed xml file and parse each element we are interested in
+   * Read the RSS feed xml file and parse each element we are interested in. Items whose titles are near-duplicates of an earlier
+   * item, such as the same syndicated story from a different source, are collapsed into the earlier item, whose title then shows
+   * how many were collapsed if a collapsed format has been set
    * 
    * @param parser
    *          The parser object set up with the xml file
@@ -92,6 +124,10 @@ public class RSSFeedXmlParser {
   private Map<String, String> readFeed(XmlPullParser parser) throws XmlPullParserException, IOException {
     // LinkedHashMap used to maintain the order of the RSS entries
     Map<String, String> entries = new LinkedHashMap<String, String>();
+    // Fingerprints each title so that near-duplicate stories can be collapsed
+    HeadlineDeduplicator deduplicator = new HeadlineDeduplicator();
+    // The group of near-duplicates of each item that was kept, keyed by title
+    Map<String, Integer> groups = new HashMap<String, Integer>();
 
     parser.nextTag();
     // Continue parsing until we have reached the end of the file
@@ -105,16 +141,34 @@ public class RSSFeedXmlParser {
       String name = parser.getName();
       // We only want to parse the data inside the item tag
       if (name.equals("item")) {
-        // Parse the item and add it to the result map
+        // Parse the item and add it to the result map, unless it is a near-duplicate of an item we have already added
         RSSItem e = this.readRssItem(parser);
-        entries.put(e.title, e.link);
+        if (e.title == null) {
+          entries.put(e.title, e.link);
+        }
+        else if (deduplicator.add(e.title)) {
+          entries.put(e.title, e.link);
+          groups.put(e.title, deduplicator.getGroupCount() - 1);
+        }
       }
       else {
         // Otherwise we can skip the tag as we are not interested in it
         this.skip(parser);
       }
     }
-    return entries;
+    if (this.collapsedFormat == null || deduplicator.getDuplicateCount() == 0) {
+      return entries;
+    }
+
+    // Show how many near-duplicates were collapsed into each item that was kept, keeping the order of the items
+    Map<String, String> collapsed = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      Integer group = entry.getKey() == null ? null : groups.get(entry.getKey());
+      int duplicates = group == null ? 0 : deduplicator.getGroupSize(group) - 1;
+      String title = duplicates == 0 ? entry.getKey() : String.format(Locale.US, this.collapsedFormat, entry.getKey(), duplicates);
+      collapsed.put(title, entry.getValue());
+    }
+    return collapsed;
   }
 
   /**
@@ -226,6 +280,17 @@ public class RSSFeedXmlParser {
     return title;
   }
 
+  /**
+   * Set the format of the title of an item that near-duplicates were collapsed into, which is given the original title and the
+   * number of near-duplicates as arguments, for example "%1$s (+%2$d similar)"
+   * 
+   * @param format
+   *          The format, or null to leave the titles of items unchanged
+   */
+  public void setCollapsedFormat(String format) {
+    this.collapsedFormat = format;
+  }
+
   /**
    * Skip over the current xml tag in the parser
    * 
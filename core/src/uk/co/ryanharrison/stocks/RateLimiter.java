@@ -0,0 +1,151 @@
+/**
+ * RateLimiter.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * Class to limit the rate at which requests are sent to Yahoo! Finance, which blocks clients that send too many. Each family of
+ * endpoints, such as quotes or charts, has its own token bucket. A bucket holds up to a fixed number of tokens and gains one every
+ * refill interval, and each request takes a token, so a family can send a short burst of requests but no more than one per refill
+ * interval over time.
+ * 
+ * Requests are either interactive, when the user is waiting on them, or background work such as refreshing off screen stocks.
+ * Background requests leave a quarter of each bucket untouched, so a request made by the user is always let through ahead of any
+ * background work that is waiting for tokens.
+ * 
+ * Acquiring a token never blocks. A caller that is refused is told how long to wait, and can sleep for that long if it is on a
+ * background thread or schedule less work if it is on the UI thread.
+ * 
+ * @author Ryan Harrison
+ */
+public class RateLimiter {
+
+  /** The family of quote endpoints */
+  public static final int       QUOTES       = 0;
+
+  /** The family of chart endpoints */
+  public static final int       CHARTS       = 1;
+
+  /** The family of news feed endpoints */
+  public static final int       FEEDS        = 2;
+
+  /** The family of ticker search endpoints */
+  public static final int       SEARCH       = 3;
+
+  /** The priority of requests that the user is waiting on */
+  public static final int       INTERACTIVE  = 0;
+
+  /** The priority of requests made in the background */
+  public static final int       BACKGROUND   = 1;
+
+  /** The names of the families, used to tag their metrics */
+  private static final String[] FAMILY_NAMES = { "quotes", "charts", "feeds", "search" };
+
+  /** The maximum number of tokens in each bucket */
+  private final int[]           capacities;
+
+  /** The time in milliseconds taken to gain each token in each bucket */
+  private final long[]          intervals;
+
+  /** The number of tokens in each bucket, as of its refill time */
+  private final double[]        tokens;
+
+  /** The time in milliseconds at which each bucket was last refilled */
+  private final long[]          refilled;
+
+  /**
+   * Construct a new RateLimiter with full buckets
+   * 
+   * @param capacities
+   *          The maximum number of tokens in the bucket of each family, indexed by family
+   * @param intervals
+   *          The time in milliseconds taken to gain each token in the bucket of each family, indexed by family
+   */
+  public RateLimiter(int[] capacities, long[] intervals) {
+    this.capacities = capacities.clone();
+    this.intervals = intervals.clone();
+    this.tokens = new double[capacities.length];
+    this.refilled = new long[capacities.length];
+    for (int i = 0; i < capacities.length; i++) {
+      this.tokens[i] = capacities[i];
+    }
+  }
+
+  /**
+   * Get the number of requests of a family that could be sent now without waiting
+   * 
+   * @param family
+   *          The family of the requests
+   * @param priority
+   *          The priority of the requests
+   * @param now
+   *          The current time in milliseconds
+   * @return The number of tokens available to requests of the priority
+   */
+  public synchronized int available(int family, int priority, long now) {
+    this.refill(family, now);
+    return Math.max(0, (int) (this.tokens[family] - this.getReserve(family, priority)));
+  }
+
+  /**
+   * Get the name of a family of endpoints
+   * 
+   * @param family
+   *          The family
+   * @return The name of the family, such as quotes
+   */
+  public static String getFamilyName(int family) {
+    return FAMILY_NAMES[family];
+  }
+
+  /**
+   * Get the number of tokens in a bucket that requests of a priority may not take
+   * 
+   * @param family
+   *          The family of the bucket
+   * @param priority
+   *          The priority of the requests
+   * @return The number of tokens kept back from the requests
+   */
+  private int getReserve(int family, int priority) {
+    return priority == BACKGROUND ? this.capacities[family] / 4 : 0;
+  }
+
+  /**
+   * Add the tokens gained by a bucket since it was last refilled
+   * 
+   * @param family
+   *          The family of the bucket
+   * @param now
+   *          The current time in milliseconds
+   */
+  private void refill(int family, long now) {
+    long elapsed = now - this.refilled[family];
+    if (elapsed > 0) {
+      this.tokens[family] = Math.min(this.capacities[family], this.tokens[family] + (double) elapsed / this.intervals[family]);
+    }
+    this.refilled[family] = now;
+  }
+
+  /**
+   * Try to take a token for a request without blocking
+   * 
+   * @param family
+   *          The family of the request
+   * @param priority
+   *          The priority of the request
+   * @param now
+   *          The current time in milliseconds
+   * @return Zero if a token was taken and the request may be sent, otherwise the time in milliseconds to wait before trying again
+   */
+  public synchronized long tryAcquire(int family, int priority, long now) {
+    this.refill(family, now);
+    double needed = 1 + this.getReserve(family, priority) - this.tokens[family];
+    if (needed <= 0) {
+      this.tokens[family]--;
+      return 0;
+    }
+    return Math.max(1, (long) Math.ceil(needed * this.intervals[family]));
+  }
+}
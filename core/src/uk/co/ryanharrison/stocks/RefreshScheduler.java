@@ -0,0 +1,214 @@
+/**
+ * RefreshScheduler.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to decide which companies of a portfolio should have their quotes refreshed next, based on which companies are currently
+ * visible to the user.
+ * 
+ * Companies in the visible range of positions are refreshed first and most often. The remaining companies are refreshed at a much
+ * lower rate, a few at a time, by a sweep through the portfolio that resumes where it left off. As soon as a company scrolls into
+ * view it is refreshed at the visible rate, so one that has not been refreshed recently is picked by the very next batch. A company
+ * whose refresh failed is retried after a delay that doubles with each failure in a row, but never waits longer than it would have
+ * if the refresh had succeeded.
+ * 
+ * @author Ryan Harrison
+ */
+public class RefreshScheduler {
+
+  /** The maximum number of off screen positions examined for each batch, which bounds the cost of a batch for large portfolios */
+  private static final int           SWEEP_LIMIT = 64;
+
+  /** The time in milliseconds after the first failed refresh of a company that it is retried */
+  private static final long          RETRY_DELAY = 2000;
+
+  /** The portfolio of companies being refreshed */
+  private final Portfolio            portfolio;
+
+  /** The time in milliseconds after which the quote of a visible company should be refreshed */
+  private final long                 visibleInterval;
+
+  /** The time in milliseconds after which the quote of an off screen company should be refreshed */
+  private final long                 hiddenInterval;
+
+  /** The time in milliseconds that each company was last refreshed, keyed by canonical ticker */
+  private final Map<String, Long>    refreshed;
+
+  /** The number of refreshes in a row that have failed for each company that is failing, keyed by canonical ticker */
+  private final Map<String, Integer> failures;
+
+  /** The time in milliseconds that each failing company is due to be retried, keyed by canonical ticker */
+  private final Map<String, Long>    retries;
+
+  /** The position of the first visible company */
+  private int                        firstVisible;
+
+  /** The number of visible companies */
+  private int                        visibleCount;
+
+  /** The position that the sweep through the off screen companies resumes at */
+  private int                        sweep;
+
+  /**
+   * Construct a new RefreshScheduler for a portfolio
+   * 
+   * @param portfolio
+   *          The portfolio of companies to refresh
+   * @param visibleInterval
+   *          The time in milliseconds after which the quote of a visible company should be refreshed
+   * @param hiddenInterval
+   *          The time in milliseconds after which the quote of an off screen company should be refreshed
+   */
+  public RefreshScheduler(Portfolio portfolio, long visibleInterval, long hiddenInterval) {
+    this.portfolio = portfolio;
+    this.visibleInterval = visibleInterval;
+    this.hiddenInterval = hiddenInterval;
+    this.refreshed = new HashMap<String, Long>();
+    this.failures = new HashMap<String, Integer>();
+    this.retries = new HashMap<String, Long>();
+  }
+
+  /**
+   * Forget when a company was last refreshed, for example because it has been removed from the portfolio
+   * 
+   * @param ticker
+   *          The ticker of the company
+   */
+  public void forget(String ticker) {
+    String key = Portfolio.canonicalise(ticker);
+    this.refreshed.remove(key);
+    this.failures.remove(key);
+    this.retries.remove(key);
+  }
+
+  /**
+   * Forget when every company was last refreshed, so that they are all refreshed again starting with the visible companies
+   */
+  public void invalidateAll() {
+    this.refreshed.clear();
+    this.retries.clear();
+  }
+
+  /**
+   * Determine whether the company at a position is due to be refreshed. If it is, it is recorded as refreshed now so that it is not
+   * picked again before the refresh completes. A company whose last refresh failed is also due once its retry time has passed
+   * 
+   * @param position
+   *          The position of the company
+   * @param now
+   *          The current time in milliseconds
+   * @param interval
+   *          The time in milliseconds after which the company should be refreshed
+   * @return The ticker of the company if it is due, otherwise null
+   */
+  private String takeIfDue(int position, long now, long interval) {
+    String ticker = this.portfolio.getTickerAt(position);
+    Long last = this.refreshed.get(ticker);
+    Long retry = this.retries.get(ticker);
+    if (last != null && now - last < interval && (retry == null || now < retry)) {
+      return null;
+    }
+    this.refreshed.put(ticker, now);
+    this.retries.remove(ticker);
+    return ticker;
+  }
+
+  /**
+   * Get the tickers of the companies that should be refreshed next. Every visible company that is due is included, followed by at
+   * most a few off screen companies that are due
+   * 
+   * @param now
+   *          The current time in milliseconds
+   * @param hiddenLimit
+   *          The maximum number of off screen companies to include
+   * @return The canonical tickers of the companies to refresh, which may be empty if none are due
+   */
+  public List<String> nextBatch(long now, int hiddenLimit) {
+    List<String> batch = new ArrayList<String>();
+    int count = this.portfolio.getCompanyCount();
+    int first = Math.min(this.firstVisible, count);
+    int last = Math.min(this.firstVisible + this.visibleCount, count);
+
+    // All of the visible companies that are due come first
+    for (int i = first; i < last; i++) {
+      String ticker = this.takeIfDue(i, now, this.visibleInterval);
+      if (ticker != null) {
+        batch.add(ticker);
+      }
+    }
+
+    // Then continue the sweep through the off screen companies
+    int hidden = 0;
+    for (int examined = 0; examined < Math.min(count, SWEEP_LIMIT) && hidden < hiddenLimit; examined++) {
+      if (this.sweep >= count) {
+        this.sweep = 0;
+      }
+      int position = this.sweep++;
+      if (position >= first && position < last) {
+        continue;
+      }
+      String ticker = this.takeIfDue(position, now, this.hiddenInterval);
+      if (ticker != null) {
+        batch.add(ticker);
+        hidden++;
+      }
+    }
+    return batch;
+  }
+
+  /**
+   * Record that the refresh of a company failed, so that it is retried sooner than a whole interval later. The delay starts at two
+   * seconds and doubles with each failure in a row, so a company that can never be downloaded, such as a mistyped ticker, soon
+   * falls back to the normal interval rather than using up the rate limit of the healthy companies
+   * 
+   * @param ticker
+   *          The ticker of the company
+   * @param now
+   *          The current time in milliseconds
+   */
+  public void refreshFailed(String ticker, long now) {
+    String key = Portfolio.canonicalise(ticker);
+    Integer previous = this.failures.get(key);
+    int failures = previous == null ? 1 : previous + 1;
+    this.failures.put(key, failures);
+    // Once the delay reaches the interval the retry makes no difference, so stop doubling before it can overflow
+    this.retries.put(key, now + (RETRY_DELAY << Math.min(failures - 1, 20)));
+  }
+
+  /**
+   * Record that the refresh of a company succeeded, so that its next failure is retried after the shortest delay again
+   * 
+   * @param ticker
+   *          The ticker of the company
+   */
+  public void refreshSucceeded(String ticker) {
+    String key = Portfolio.canonicalise(ticker);
+    this.failures.remove(key);
+    this.retries.remove(key);
+  }
+
+  /**
+   * Set the range of positions of the companies that are currently visible
+   * 
+   * @param first
+   *          The position of the first visible company
+   * @param count
+   *          The number of visible companies
+   * @return True if the range has changed
+   */
+  public boolean setVisibleRange(int first, int count) {
+    if (first == this.firstVisible && count == this.visibleCount) {
+      return false;
+    }
+    this.firstVisible = first;
+    this.visibleCount = count;
+    return true;
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * SingleFlight.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Class to coalesce concurrent requests for the same resource, so that however many callers ask for a resource at once it is only
+ * fetched a single time and every caller receives the same result.
+ * 
+ * A caller joins the request for a key, starting a new request if none is in flight, and then waits for the result on its own
+ * background thread. Whichever caller waits first does the fetch and the others wait for it to finish. Each caller holds a
+ * reference to the request until it has its result or cancels, and the fetch itself is only cancelled once every caller has
+ * cancelled, so one screen giving up on a request does not affect another screen that still wants it.
+ * 
+ * Results are not cached. Once a request has finished the next caller for the same key starts a new one.
+ * 
+ * @param <K>
+ *          The type of the keys identifying the resources
+ * @param <V>
+ *          The type of the results
+ * @author Ryan Harrison
+ */
+public class SingleFlight<K, V> {
+
+  /**
+   * A caller's reference to a request in flight
+   * 
+   * @author Ryan Harrison
+   */
+  public class Call {
+
+    /** The request that the call refers to */
+    private final Flight flight;
+
+    /** Whether the call has released its reference to the request */
+    private boolean      released;
+
+    /**
+     * Construct a new Call referring to a request
+     * 
+     * @param flight
+     *          The request
+     */
+    private Call(Flight flight) {
+      this.flight = flight;
+    }
+
+    /**
+     * Give up on the request. The fetch is cancelled if no other caller still refers to it
+     */
+    public void cancel() {
+      SingleFlight.this.release(this, true);
+    }
+
+    /**
+     * Wait for the result of the request, doing the fetch on the calling thread if no other caller has started it yet. Must not be
+     * called on the UI thread
+     * 
+     * @return The result of the request
+     * @throws IOException
+     *           If the fetch failed, or the request was cancelled
+     */
+    public V get() throws IOException {
+      try {
+        // Run does nothing if another caller is already running the fetch or it has finished
+        this.flight.run();
+        return this.flight.get();
+      }
+      catch (CancellationException e) {
+        throw new InterruptedIOException("Request for " + this.flight.key + " was cancelled");
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for " + this.flight.key);
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        // IOException(String, Throwable) is not available before API level 9
+        IOException wrapped = new IOException("Request for " + this.flight.key + " failed: " + cause);
+        wrapped.initCause(cause);
+        throw wrapped;
+      }
+      finally {
+        SingleFlight.this.release(this, false);
+      }
+    }
+  }
+
+  /**
+   * A request in flight, holding the fetch and the number of callers referring to it
+   * 
+   * @author Ryan Harrison
+   */
+  private class Flight extends FutureTask<V> {
+
+    /** The key of the request */
+    private final K key;
+
+    /** The number of callers that refer to the request */
+    private int     references;
+
+    /**
+     * Construct a new Flight for a key
+     * 
+     * @param key
+     *          The key of the request
+     * @param fetch
+     *          The fetch of the resource
+     */
+    private Flight(K key, Callable<V> fetch) {
+      super(fetch);
+      this.key = key;
+    }
+
+    /**
+     * Called when the fetch has finished or been cancelled. Remove the request so that the next caller starts a new one
+     * 
+     * @see java.util.concurrent.FutureTask#done()
+     */
+    @Override
+    protected void done() {
+      SingleFlight.this.remove(this);
+    }
+  }
+
+  /** The requests in flight, keyed by the resource that they are fetching */
+  private final Map<K, Flight> flights;
+
+  /** The number of callers that joined a request already in flight rather than starting a new one */
+  private long                 coalesced;
+
+  /**
+   * Construct a new SingleFlight with no requests in flight
+   */
+  public SingleFlight() {
+    this.flights = new HashMap<K, Flight>();
+  }
+
+  /**
+   * Get the number of callers that joined a request already in flight rather than starting a new one
+   * 
+   * @return The number of coalesced callers
+   */
+  public synchronized long getCoalescedCount() {
+    return this.coalesced;
+  }
+
+  /**
+   * Join the request for a resource, starting a new request if none is in flight. The caller must either wait for the result of the
+   * returned call or cancel it
+   * 
+   * @param key
+   *          The key identifying the resource
+   * @param fetch
+   *          The fetch of the resource, only used if a new request is started
+   * @return The caller's reference to the request
+   */
+  public synchronized Call join(K key, Callable<V> fetch) {
+    Flight flight = this.flights.get(key);
+    if (flight == null) {
+      flight = new Flight(key, fetch);
+      this.flights.put(key, flight);
+    }
+    else {
+      this.coalesced++;
+    }
+    flight.references++;
+    return new Call(flight);
+  }
+
+  /**
+   * Release a caller's reference to a request. Does nothing if the call has already released its reference
+   * 
+   * @param call
+   *          The call to release
+   * @param cancel
+   *          True to cancel the fetch if no other caller refers to the request
+   */
+  private synchronized void release(Call call, boolean cancel) {
+    if (call.released) {
+      return;
+    }
+    call.released = true;
+    call.flight.references--;
+    if (cancel && call.flight.references == 0) {
+      this.remove(call.flight);
+      call.flight.cancel(true);
+    }
+  }
+
+  /**
+   * Remove a request from those in flight, unless a newer request for the same key has already replaced it
+   * 
+   * @param flight
+   *          The request to remove
+   */
+  private synchronized void remove(Flight flight) {
+    if (this.flights.get(flight.key) == flight) {
+      this.flights.remove(flight.key);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * StringDictionary.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to assign a small integer id to each distinct string it is given, so that a string repeated many times can be stored as an
+ * int and only held in memory once. Ids are allocated consecutively from zero and are never reused. A dictionary can be shared
+ * between threads
+ * 
+ * @author Ryan Harrison
+ */
+public class StringDictionary {
+
+  /** The id used in place of a null string */
+  public static final int              NONE   = -1;
+
+  /**
+   * The dictionary of the names and stock exchanges of stocks, shared by everything that handles quotes. Quotes are parsed with
+   * their strings taken from this dictionary, so the many quotes of a stock all refer to one copy of its name
+   */
+  public static final StringDictionary QUOTES = new StringDictionary();
+
+  /** The string of each id, indexed by id */
+  private final List<String>           strings;
+
+  /** Index from each string to its id */
+  private final Map<String, Integer>   ids;
+
+  /**
+   * Construct a new empty StringDictionary
+   */
+  public StringDictionary() {
+    this.strings = new ArrayList<String>();
+    this.ids = new HashMap<String, Integer>();
+  }
+
+  /**
+   * Get the single copy of a string held by the dictionary, adding the string to the dictionary if it is not already in it
+   * 
+   * @param string
+   *          The string
+   * @return The copy of the string held by the dictionary, which is equal to the string, or null if the string is null
+   */
+  public synchronized String canonical(String string) {
+    return this.get(this.intern(string));
+  }
+
+  /**
+   * Get the string of an id
+   * 
+   * @param id
+   *          The id of the string
+   * @return The string, or null if the id is NONE
+   */
+  public synchronized String get(int id) {
+    return id == NONE ? null : this.strings.get(id);
+  }
+
+  /**
+   * Get the id of a string, adding the string to the dictionary if it is not already in it
+   * 
+   * @param string
+   *          The string
+   * @return The id of the string, or NONE if it is null
+   */
+  public synchronized int intern(String string) {
+    if (string == null) {
+      return NONE;
+    }
+    Integer id = this.ids.get(string);
+    if (id == null) {
+      id = this.strings.size();
+      this.strings.add(string);
+      this.ids.put(string, id);
+    }
+    return id;
+  }
+
+  /**
+   * Get the number of distinct strings in the dictionary
+   * 
+   * @return The number of strings
+   */
+  public synchronized int size() {
+    return this.strings.size();
+  }
+}
@@ -0,0 +1,352 @@
+/**
+ * SymbolDirectory.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A local directory of ticker symbols that can be searched without a network connection.
+ * 
+ * The directory is stored in an index file written by SymbolDirectoryBuilder which is memory mapped rather than read onto the heap.
+ * The index holds a trie over every symbol and every word of every business name, flattened into arrays of ints. Each node of the
+ * trie stores the best few listings of any key starting with its prefix, so a prefix lookup is a walk down the trie followed by a
+ * read of the listings at the final node, regardless of how many listings share the prefix.
+ * 
+ * @author Ryan Harrison
+ */
+public class SymbolDirectory {
+
+  /** Magic number at the start of every index file */
+  static final int               MAGIC        = 0x53594d31;
+
+  /** The number of best listings stored at every node of the trie */
+  static final int               TOP_SIZE     = 16;
+
+  /** Flag set on the postings of name words, so that they rank below the postings of symbols */
+  static final int               NAME_POSTING = 1 << 30;
+
+  /** Mask to get the listing id out of a posting */
+  static final int               LISTING_MASK = NAME_POSTING - 1;
+
+  /** The number of ints used to store each node of the trie */
+  private static final int       NODE_INTS    = 7;
+
+  /** The size in bytes of the header of the index file */
+  private static final int       HEADER_SIZE  = 28;
+
+  /** The stamp identifying the listing file that the index was built from */
+  private final long             stamp;
+
+  /** The number of listings in the directory */
+  private final int              listingCount;
+
+  /** The nodes of the trie. Each node holds its character, child range, best postings range and terminal postings range */
+  private final IntBuffer        nodes;
+
+  /** The best postings of every node */
+  private final IntBuffer        top;
+
+  /** The postings of the keys that end at every node */
+  private final IntBuffer        terminals;
+
+  /** Offsets of the symbol, name and exchange of every listing within the string block */
+  private final IntBuffer        stringOffsets;
+
+  /** The UTF-8 bytes of the symbol, name and exchange of every listing */
+  private final ByteBuffer       strings;
+
+  /**
+   * Open an index file written by SymbolDirectoryBuilder, memory mapping its contents
+   * 
+   * @param file
+   *          The index file to open
+   * @throws IOException
+   *           If there was an error reading the index file or it is not a valid index
+   */
+  public SymbolDirectory(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer;
+    try {
+      // The mapping remains valid after the file is closed
+      FileChannel channel = raf.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    finally {
+      raf.close();
+    }
+
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Invalid symbol index " + file);
+    }
+    this.stamp = buffer.getLong(4);
+    this.listingCount = buffer.getInt(12);
+    int nodeCount = buffer.getInt(16);
+    int topCount = buffer.getInt(20);
+    int terminalCount = buffer.getInt(24);
+
+    // Slice the file into its sections
+    int offset = HEADER_SIZE;
+    this.nodes = slice(buffer, offset, nodeCount * NODE_INTS * 4).asIntBuffer();
+    offset += nodeCount * NODE_INTS * 4;
+    this.top = slice(buffer, offset, topCount * 4).asIntBuffer();
+    offset += topCount * 4;
+    this.terminals = slice(buffer, offset, terminalCount * 4).asIntBuffer();
+    offset += terminalCount * 4;
+    this.stringOffsets = slice(buffer, offset, (this.listingCount * 3 + 1) * 4).asIntBuffer();
+    offset += (this.listingCount * 3 + 1) * 4;
+    this.strings = slice(buffer, offset, buffer.limit() - offset);
+  }
+
+  /**
+   * Get a section of a buffer as a buffer of its own
+   * 
+   * @param buffer
+   *          The buffer to get a section of
+   * @param offset
+   *          The offset in bytes of the start of the section
+   * @param length
+   *          The length in bytes of the section
+   * @return A buffer sharing the contents of the section
+   * @throws IOException
+   *           If the section lies outside of the buffer
+   */
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+      throw new IOException("Truncated symbol index");
+    }
+    ByteBuffer copy = buffer.duplicate();
+    copy.position(offset);
+    copy.limit(offset + length);
+    return copy.slice();
+  }
+
+  /**
+   * Normalise a symbol or query so that searches are not case sensitive
+   * 
+   * @param s
+   *          The string to normalise
+   * @return The normalised string
+   */
+  public static String normalise(String s) {
+    return s.trim().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Split a business name into the normalised words that are indexed for it
+   * 
+   * @param name
+   *          The name to split
+   * @return The words of the name
+   */
+  public static List<String> tokenise(String name) {
+    List<String> tokens = new ArrayList<String>();
+    StringBuilder token = new StringBuilder();
+    for (int i = 0; i <= name.length(); i++) {
+      char c = i < name.length() ? Character.toLowerCase(name.charAt(i)) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        token.append(c);
+      }
+      else if (token.length() != 0) {
+        tokens.add(token.toString());
+        token.setLength(0);
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Find the node of the trie reached by following the characters of a key from the root
+   * 
+   * @param key
+   *          The normalised key to follow
+   * @return The index of the node, or -1 if no key in the trie starts with the key
+   */
+  private int find(String key) {
+    int node = 0;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      // Binary search the children of the node, which are ordered by character
+      int low = this.nodes.get(node * NODE_INTS + 1);
+      int high = low + this.nodes.get(node * NODE_INTS + 2) - 1;
+      int next = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midChar = this.nodes.get(mid * NODE_INTS);
+        if (midChar < c) {
+          low = mid + 1;
+        }
+        else if (midChar > c) {
+          high = mid - 1;
+        }
+        else {
+          next = mid;
+          break;
+        }
+      }
+      if (next == -1) {
+        return -1;
+      }
+      node = next;
+    }
+    return node;
+  }
+
+  /**
+   * Get a listing from the directory
+   * 
+   * @param id
+   *          The id of the listing, from 0 to the number of listings
+   * @return The listing with the specified id
+   */
+  public SymbolListing getListing(int id) {
+    return new SymbolListing(this.getString(id * 3), this.getString(id * 3 + 1), this.getString(id * 3 + 2));
+  }
+
+  /**
+   * Get the number of listings in the directory
+   * 
+   * @return The number of listings
+   */
+  public int getListingCount() {
+    return this.listingCount;
+  }
+
+  /**
+   * Get the stamp identifying the listing file that the index was built from
+   * 
+   * @return The stamp passed to SymbolDirectoryBuilder when the index was written
+   */
+  public long getStamp() {
+    return this.stamp;
+  }
+
+  /**
+   * Decode a string from the string block
+   * 
+   * @param index
+   *          The index of the string
+   * @return The decoded string
+   */
+  private String getString(int index) {
+    int start = this.stringOffsets.get(index);
+    byte[] bytes = new byte[this.stringOffsets.get(index + 1) - start];
+    ByteBuffer source = this.strings.duplicate();
+    source.position(start);
+    source.get(bytes);
+    try {
+      return new String(bytes, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Search the directory for listings whose symbol or a word of whose name starts with the first word of a query. Listings whose
+   * symbol matches exactly come first, followed by symbol prefix matches and then name matches, each in order of popularity. If the
+   * query has more than one word, the name of each listing must also contain the remaining words
+   * 
+   * @param query
+   *          The query to search for
+   * @param limit
+   *          The maximum number of listings to return
+   * @return The matching listings in order of rank
+   */
+  public List<SymbolListing> search(String query, int limit) {
+    List<SymbolListing> results = new ArrayList<SymbolListing>();
+    String key = normalise(query);
+    String[] words = key.split("\\s+");
+    if (key.length() == 0) {
+      return results;
+    }
+
+    // A symbol can itself contain spaces so try the whole query first
+    int node = this.find(key);
+    boolean filter = false;
+    if (node == -1 && words.length > 1) {
+      node = this.find(words[0]);
+      filter = true;
+    }
+    if (node == -1) {
+      return results;
+    }
+
+    int[] seen = new int[TOP_SIZE * 2];
+    int seenCount = 0;
+    int topStart = this.nodes.get(node * NODE_INTS + 3);
+    int topCount = this.nodes.get(node * NODE_INTS + 4);
+    int terminalStart = this.nodes.get(node * NODE_INTS + 5);
+    int terminalCount = this.nodes.get(node * NODE_INTS + 6);
+
+    // Exact matches first, then the best prefix matches
+    for (int i = 0; i < terminalCount + topCount && results.size() < limit; i++) {
+      int posting = i < terminalCount ? this.terminals.get(terminalStart + i) : this.top.get(topStart + i - terminalCount);
+      int id = posting & LISTING_MASK;
+      if (contains(seen, seenCount, id)) {
+        continue;
+      }
+      if (seenCount < seen.length) {
+        seen[seenCount++] = id;
+      }
+
+      SymbolListing listing = this.getListing(id);
+      if (filter && !containsWords(listing.name, words)) {
+        continue;
+      }
+      results.add(listing);
+    }
+    return results;
+  }
+
+  /**
+   * Determine whether the first count elements of an array contain a value
+   * 
+   * @param values
+   *          The array to search
+   * @param count
+   *          The number of elements to search
+   * @param value
+   *          The value to search for
+   * @return True if the value was found
+   */
+  private static boolean contains(int[] values, int count, int value) {
+    for (int i = 0; i < count; i++) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether a name contains every word of a query after the first
+   * 
+   * @param name
+   *          The name to search
+   * @param words
+   *          The normalised words of the query
+   * @return True if the name contains every word after the first
+   */
+  private static boolean containsWords(String name, String[] words) {
+    String lowerName = name.toLowerCase(Locale.US);
+    for (int i = 1; i < words.length; i++) {
+      if (!lowerName.contains(words[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * SymbolDirectoryBuilder.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class to build the index file of a SymbolDirectory from a listing file.
+ * 
+ * The listing file holds one listing per line in the form 'symbol [tab] name [tab] exchange', ordered from the most to the least
+ * popular listing. Blank lines and lines starting with '#' are ignored. Every symbol and every word of every name is inserted into a
+ * trie, which is then flattened into arrays of ints so that it can be memory mapped and searched in place by SymbolDirectory
+ * without being loaded onto the heap.
+ * 
+ * @author Ryan Harrison
+ */
+public class SymbolDirectoryBuilder {
+
+  /**
+   * A node of the trie while it is being built
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Node {
+
+    /** The character of the edge leading to this node */
+    public final char                  c;
+
+    /** The children of this node ordered by character */
+    public final Map<Character, Node>  children  = new TreeMap<Character, Node>();
+
+    /** Postings of the keys that end at this node */
+    public final List<Integer>         terminals = new ArrayList<Integer>(1);
+
+    /** The best postings of any key starting with the prefix this node represents */
+    public int[]                       top;
+
+    /**
+     * Construct a new Node
+     * 
+     * @param c
+     *          The character of the edge leading to this node
+     */
+    public Node(char c) {
+      this.c = c;
+    }
+  }
+
+  /** The listings read from the listing file, in order of popularity */
+  private final List<SymbolListing> listings;
+
+  /** The root node of the trie */
+  private final Node                root;
+
+  /**
+   * Construct a new empty SymbolDirectoryBuilder
+   */
+  public SymbolDirectoryBuilder() {
+    this.listings = new ArrayList<SymbolListing>();
+    this.root = new Node('\0');
+  }
+
+  /**
+   * Add a single listing to the directory
+   * 
+   * @param listing
+   *          The listing to add
+   */
+  public void add(SymbolListing listing) {
+    int id = this.listings.size();
+    this.listings.add(listing);
+
+    // Index the symbol itself, then each word of the name
+    this.insert(SymbolDirectory.normalise(listing.symbol), id);
+    for (String token : SymbolDirectory.tokenise(listing.name)) {
+      this.insert(token, SymbolDirectory.NAME_POSTING | id);
+    }
+  }
+
+  /**
+   * Read every listing from a listing file and add it to the directory
+   * 
+   * @param in
+   *          A stream of the listing file to read
+   * @throws IOException
+   *           If there was an error reading the listing file
+   */
+  public void addAll(InputStream in) throws IOException {
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Skip over blank lines and comments
+        if (line.length() == 0 || line.charAt(0) == '#') {
+          continue;
+        }
+        String[] fields = line.split("\t");
+        if (fields.length < 2 || fields[0].length() == 0) {
+          continue;
+        }
+        this.add(new SymbolListing(fields[0], fields[1], fields.length > 2 ? fields[2] : ""));
+      }
+    }
+    finally {
+      // Close the stream in all cases
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Insert a key into the trie
+   * 
+   * @param key
+   *          The normalised key to insert
+   * @param posting
+   *          The posting to record at the end of the key
+   */
+  private void insert(String key, int posting) {
+    if (key.length() == 0) {
+      return;
+    }
+    Node node = this.root;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      Node child = node.children.get(c);
+      if (child == null) {
+        child = new Node(c);
+        node.children.put(c, child);
+      }
+      node = child;
+    }
+    if (!node.terminals.contains(posting)) {
+      node.terminals.add(posting);
+    }
+  }
+
+  /**
+   * Compute the best postings for every node of a subtree. A posting from a symbol ranks above a posting from a name, and otherwise
+   * the more popular listing ranks first. Each listing appears at most once
+   * 
+   * @param node
+   *          The root of the subtree
+   */
+  private void computeTop(Node node) {
+    List<Integer> candidates = new ArrayList<Integer>(node.terminals);
+    for (Node child : node.children.values()) {
+      this.computeTop(child);
+      for (int posting : child.top) {
+        candidates.add(posting);
+      }
+    }
+
+    // Postings order by rank when sorted numerically
+    int[] sorted = new int[candidates.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = candidates.get(i);
+    }
+    Arrays.sort(sorted);
+
+    int[] top = new int[Math.min(sorted.length, SymbolDirectory.TOP_SIZE)];
+    int count = 0;
+    for (int i = 0; i < sorted.length && count < top.length; i++) {
+      if (!containsListing(top, count, sorted[i])) {
+        top[count++] = sorted[i];
+      }
+    }
+    // Arrays.copyOf is not available before API level 9
+    node.top = new int[count];
+    System.arraycopy(top, 0, node.top, 0, count);
+  }
+
+  /**
+   * Determine whether the first count postings of an array refer to the same listing as a posting
+   * 
+   * @param postings
+   *          The postings to search
+   * @param count
+   *          The number of postings to search
+   * @param posting
+   *          The posting to search for
+   * @return True if one of the postings refers to the same listing
+   */
+  private static boolean containsListing(int[] postings, int count, int posting) {
+    for (int i = 0; i < count; i++) {
+      if ((postings[i] & SymbolDirectory.LISTING_MASK) == (posting & SymbolDirectory.LISTING_MASK)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Flatten the trie and write it to an index file that can be opened by SymbolDirectory. The file is written to a temporary file
+   * first so that a partially written index is never opened
+   * 
+   * @param file
+   *          The index file to write
+   * @param stamp
+   *          A stamp identifying the listing file the index was built from, used to detect when the index is out of date
+   * @throws IOException
+   *           If there was an error writing the index file
+   */
+  public void write(File file, long stamp) throws IOException {
+    this.computeTop(this.root);
+
+    // Number the nodes breadth first so that the children of every node are contiguous
+    List<Node> nodes = new ArrayList<Node>();
+    LinkedList<Node> queue = new LinkedList<Node>();
+    queue.add(this.root);
+    while (!queue.isEmpty()) {
+      Node node = queue.removeFirst();
+      nodes.add(node);
+      queue.addAll(node.children.values());
+    }
+
+    // Encode the listing strings into one block of UTF-8 bytes
+    ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    int[] stringOffsets = new int[this.listings.size() * 3 + 1];
+    int offset = 0;
+    for (SymbolListing listing : this.listings) {
+      for (String s : new String[] { listing.symbol, listing.name, listing.exchange }) {
+        byte[] bytes = s.getBytes("UTF-8");
+        strings.write(bytes);
+        stringOffsets[offset + 1] = stringOffsets[offset] + bytes.length;
+        offset++;
+      }
+    }
+
+    int topCount = 0;
+    int terminalCount = 0;
+    for (Node node : nodes) {
+      topCount += node.top.length;
+      terminalCount += node.terminals.size();
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    FileOutputStream stream = new FileOutputStream(temp);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    try {
+      out.writeInt(SymbolDirectory.MAGIC);
+      out.writeLong(stamp);
+      out.writeInt(this.listings.size());
+      out.writeInt(nodes.size());
+      out.writeInt(topCount);
+      out.writeInt(terminalCount);
+
+      // The nodes, with each child range starting after all of the nodes queued before it
+      int nextChild = 1;
+      int nextTop = 0;
+      int nextTerminal = 0;
+      for (Node node : nodes) {
+        out.writeInt(node.c);
+        out.writeInt(nextChild);
+        out.writeInt(node.children.size());
+        out.writeInt(nextTop);
+        out.writeInt(node.top.length);
+        out.writeInt(nextTerminal);
+        out.writeInt(node.terminals.size());
+        nextChild += node.children.size();
+        nextTop += node.top.length;
+        nextTerminal += node.terminals.size();
+      }
+      for (Node node : nodes) {
+        for (int posting : node.top) {
+          out.writeInt(posting);
+        }
+      }
+      for (Node node : nodes) {
+        int[] terminals = new int[node.terminals.size()];
+        for (int i = 0; i < terminals.length; i++) {
+          terminals[i] = node.terminals.get(i);
+        }
+        // Exact matches are ranked in the same way as the best postings
+        Arrays.sort(terminals);
+        for (int posting : terminals) {
+          out.writeInt(posting);
+        }
+      }
+      for (int stringOffset : stringOffsets) {
+        out.writeInt(stringOffset);
+      }
+      strings.writeTo(out);
+      // The index must be on disk before it is renamed into place
+      out.flush();
+      stream.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+
+    // Renaming over the old index is atomic, so a crash leaves either the old or the new index. Only delete the old index first
+    // where the rename cannot replace it
+    if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+      throw new IOException("Unable to replace symbol index " + file);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * SymbolListing.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * A wrapper class holding a single entry of the symbol directory, a ticker symbol along with the name of the business and the
+ * exchange that it is listed on
+ * 
+ * @author Ryan Harrison
+ */
+public class SymbolListing {
+
+  /** The ticker symbol of the listing */
+  public final String symbol;
+
+  /** The full name of the business */
+  public final String name;
+
+  /** The stock exchange that the symbol is listed on */
+  public final String exchange;
+
+  /**
+   * Construct a new SymbolListing with the specified symbol, name and exchange
+   * 
+   * @param symbol
+   *          The ticker symbol of the listing
+   * @param name
+   *          The full name of the business
+   * @param exchange
+   *          The stock exchange that the symbol is listed on
+   */
+  public SymbolListing(String symbol, String name, String exchange) {
+    this.symbol = symbol;
+    this.name = name;
+    this.exchange = exchange;
+  }
+
+  /**
+   * Get the UI friendly string for this listing, in the same form as the search results from TickerJsonParser
+   * 
+   * @return The name of the business followed by its ticker symbol
+   */
+  public String getDisplayName() {
+    return this.name + " (" + this.symbol + ")";
+  }
+}
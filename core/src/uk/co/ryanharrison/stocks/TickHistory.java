@@ -0,0 +1,162 @@
+/**
+ * TickHistory.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recent prices of each stock, so that the movement of a price through the day is not lost when each new quote
+ * replaces the last.
+ * 
+ * The prices of each stock are held with the times they were seen in a ring of primitive arrays with a fixed capacity, allocated
+ * when the first price of the stock is recorded. Once the ring is full each new price overwrites the oldest, so the history of a
+ * stock never takes more than 16 bytes per price of capacity however long the app runs. Each stock also has a version, the number
+ * of prices ever recorded for it, which lets a view tell cheaply whether there is anything new to draw. Every method is thread
+ * safe.
+ * 
+ * @author Ryan Harrison
+ */
+public class TickHistory {
+
+  /**
+   * The recent prices of a single stock
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Series {
+
+    /** The time in milliseconds that each price was seen, in a ring starting at the head */
+    private final long[]   times;
+
+    /** The prices, in a ring starting at the head */
+    private final double[] prices;
+
+    /** The index of the oldest price */
+    private int            head;
+
+    /** The number of prices held */
+    private int            size;
+
+    /** The number of prices ever recorded */
+    private long           version;
+
+    /**
+     * Construct a new empty Series
+     * 
+     * @param capacity
+     *          The number of prices held before the oldest are overwritten
+     */
+    private Series(int capacity) {
+      this.times = new long[capacity];
+      this.prices = new double[capacity];
+    }
+  }
+
+  /** The number of prices held for each stock */
+  private final int                 capacity;
+
+  /** The prices of each stock that has any, keyed by canonical ticker */
+  private final Map<String, Series> series;
+
+  /**
+   * Construct a new TickHistory
+   * 
+   * @param capacity
+   *          The number of prices held for each stock before the oldest are overwritten
+   */
+  public TickHistory(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.series = new HashMap<String, Series>();
+  }
+
+  /**
+   * Copy the prices of a stock and the times they were seen into arrays, from the oldest to the newest
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param times
+   *          The array to copy the times into, which must be at least as long as the capacity
+   * @param prices
+   *          The array to copy the prices into, which must be at least as long as the capacity
+   * @return The number of prices copied
+   */
+  public synchronized int copy(String ticker, long[] times, double[] prices) {
+    Series ticks = this.series.get(Portfolio.canonicalise(ticker));
+    if (ticks == null) {
+      return 0;
+    }
+    // Copy the ring in at most two pieces, from the head to the end of the arrays then from the start of the arrays
+    int first = Math.min(ticks.size, this.capacity - ticks.head);
+    System.arraycopy(ticks.times, ticks.head, times, 0, first);
+    System.arraycopy(ticks.prices, ticks.head, prices, 0, first);
+    System.arraycopy(ticks.times, 0, times, first, ticks.size - first);
+    System.arraycopy(ticks.prices, 0, prices, first, ticks.size - first);
+    return ticks.size;
+  }
+
+  /**
+   * Get the number of prices held for each stock
+   * 
+   * @return The capacity
+   */
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Get the version of the prices of a stock, which changes whenever a price is recorded
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @return The number of prices ever recorded for the stock, or 0 if there are none
+   */
+  public synchronized long getVersion(String ticker) {
+    Series ticks = this.series.get(Portfolio.canonicalise(ticker));
+    return ticks == null ? 0 : ticks.version;
+  }
+
+  /**
+   * Record the latest price of a stock, overwriting its oldest price if its ring is full
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   * @param time
+   *          The time in milliseconds that the price was seen
+   * @param price
+   *          The price
+   */
+  public synchronized void record(String ticker, long time, double price) {
+    String key = Portfolio.canonicalise(ticker);
+    Series ticks = this.series.get(key);
+    if (ticks == null) {
+      ticks = new Series(this.capacity);
+      this.series.put(key, ticks);
+    }
+    int slot = (ticks.head + ticks.size) % this.capacity;
+    ticks.times[slot] = time;
+    ticks.prices[slot] = price;
+    if (ticks.size == this.capacity) {
+      ticks.head = (ticks.head + 1) % this.capacity;
+    }
+    else {
+      ticks.size++;
+    }
+    ticks.version++;
+  }
+
+  /**
+   * Forget the prices of a stock, for example when it is no longer being monitored
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   */
+  public synchronized void remove(String ticker) {
+    this.series.remove(Portfolio.canonicalise(ticker));
+  }
+}
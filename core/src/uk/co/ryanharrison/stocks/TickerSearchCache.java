@@ -0,0 +1,109 @@
+/**
+ * TickerSearchCache.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A least recently used cache of ticker search results. As well as answering repeated queries, a longer query can be answered
+ * straight away by filtering the cached results of a shorter prefix of the query while the request for the longer query is still
+ * being downloaded
+ * 
+ * @author Ryan Harrison
+ */
+public class TickerSearchCache {
+
+  /** Map of normalised queries to their search results. Kept in access order so the eldest entry is the least recently used */
+  private final Map<String, Map<String, String>> results;
+
+  /**
+   * Construct a new TickerSearchCache holding at most the specified number of queries
+   * 
+   * @param capacity
+   *          The maximum number of queries to hold results for
+   */
+  public TickerSearchCache(final int capacity) {
+    this.results = new LinkedHashMap<String, Map<String, String>>(capacity, 0.75f, true) {
+
+      /** Serial version id required as LinkedHashMap implements Serializable */
+      private static final long serialVersionUID = -2541209883165305327L;
+
+      /**
+       * Evict the least recently used query once the cache is over capacity
+       * 
+       * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+       */
+      @Override
+      protected boolean removeEldestEntry(Entry<String, Map<String, String>> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Normalise a query so that queries differing only in case or surrounding whitespace share a cache entry
+   * 
+   * @param query
+   *          The query to normalise
+   * @return The normalised query
+   */
+  public static String normalise(String query) {
+    return query.trim().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Get the cached results of a query
+   * 
+   * @param query
+   *          The query to get the results of
+   * @return A Map of UI friendly business strings to their corresponding tickers, or null if the query is not cached
+   */
+  public Map<String, String> get(String query) {
+    return this.results.get(normalise(query));
+  }
+
+  /**
+   * Estimate the results of a query by filtering the cached results of the longest cached prefix of the query. Only the results
+   * whose business string contains the query are kept
+   * 
+   * @param query
+   *          The query to estimate the results of
+   * @return A Map of UI friendly business strings to their corresponding tickers, or null if no prefix of the query is cached
+   */
+  public Map<String, String> getFromPrefix(String query) {
+    String key = normalise(query);
+    for (int length = key.length() - 1; length > 0; length--) {
+      Map<String, String> prefixResults = this.results.get(key.substring(0, length));
+      if (prefixResults == null) {
+        continue;
+      }
+
+      // Keep the results of the prefix that still match the longer query, maintaining their order
+      Map<String, String> filtered = new LinkedHashMap<String, String>();
+      for (Entry<String, String> entry : prefixResults.entrySet()) {
+        if (entry.getKey().toLowerCase(Locale.US).contains(key)) {
+          filtered.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return filtered;
+    }
+    return null;
+  }
+
+  /**
+   * Cache the results of a query, evicting the least recently used query if the cache is full
+   * 
+   * @param query
+   *          The query that the results are for
+   * @param result
+   *          A Map of UI friendly business strings to their corresponding tickers
+   */
+  public void put(String query, Map<String, String> result) {
+    this.results.put(normalise(query), result);
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Tracer.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records timed spans of work, such as http requests, parser runs and the phases of background tasks, so that a refresh or the
+ * opening of a screen can be viewed as a timeline showing which work ran on which thread and what the critical path was.
+ * 
+ * Spans are recorded into a fixed size ring buffer that overwrites the oldest spans once it is full. Recording a span claims a slot
+ * with a single atomic increment and never locks or allocates, so spans can be recorded from any thread, including the UI thread,
+ * without changing the timings being measured. The buffer can be exported in the JSON format of the Chrome trace viewer, which can
+ * be opened at chrome://tracing.
+ * 
+ * A span is recorded once it has finished, from the time at which it began:
+ * 
+ * <pre>
+ * long start = Tracer.getApp().begin();
+ * try {
+ *   ...
+ * }
+ * finally {
+ *   Tracer.getApp().end(&quot;parse&quot;, &quot;quote&quot;, ticker, start);
+ * }
+ * </pre>
+ * 
+ * @author Ryan Harrison
+ */
+public class Tracer {
+
+  /** The number of references stored for each span: its category, name, detail and thread name */
+  private static final int                   REFS_PER_SPAN  = 4;
+
+  /** The number of longs stored for each span: its start time, duration and thread id */
+  private static final int                   LONGS_PER_SPAN = 3;
+
+  /** The tracer used by the whole app, which records nothing unless the app replaces it, as it does in debug builds */
+  private static volatile Tracer             app            = new Tracer(0);
+
+  /** One less than the number of slots, which is a power of two, or -1 if spans are not recorded */
+  private final int                          mask;
+
+  /** The number of spans that have ever been recorded, of which the last is the newest span in the buffer */
+  private final AtomicLong                   recorded;
+
+  /** The number of the span held in each slot, or -1 while the slot is being written */
+  private final AtomicLongArray              sequences;
+
+  /** The category, name, detail and thread name of the span in each slot */
+  private final AtomicReferenceArray<String> refs;
+
+  /** The start time, duration and thread id of the span in each slot */
+  private final AtomicLongArray              longs;
+
+  /**
+   * Construct a new Tracer
+   * 
+   * @param capacity
+   *          The maximum number of spans to keep, which is rounded up to a power of two, or 0 to record nothing
+   */
+  public Tracer(int capacity) {
+    int slots = capacity <= 1 ? Math.max(capacity, 0) : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = slots - 1;
+    this.recorded = new AtomicLong();
+    this.sequences = new AtomicLongArray(slots);
+    this.refs = new AtomicReferenceArray<String>(slots * REFS_PER_SPAN);
+    this.longs = new AtomicLongArray(slots * LONGS_PER_SPAN);
+    for (int i = 0; i < slots; i++) {
+      this.sequences.set(i, -1);
+    }
+  }
+
+  /**
+   * Quote a string as a JSON string literal
+   * 
+   * @param value
+   *          The string
+   * @param out
+   *          The writer to write the literal to
+   * @throws IOException
+   *           If there was an error writing
+   */
+  private static void quote(String value, Writer out) throws IOException {
+    out.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      }
+      else if (c < ' ') {
+        out.write(String.format("\\u%04x", (int) c));
+      }
+      else {
+        out.write(c);
+      }
+    }
+    out.write('"');
+  }
+
+  /**
+   * Get the tracer used by the whole app
+   * 
+   * @return The tracer
+   */
+  public static Tracer getApp() {
+    return app;
+  }
+
+  /**
+   * Set the tracer used by the whole app. Spans that have begun but not ended are recorded by the tracer that they end on
+   * 
+   * @param tracer
+   *          The new tracer
+   */
+  public static void setApp(Tracer tracer) {
+    Tracer.app = tracer;
+  }
+
+  /**
+   * Get the start time of a span
+   * 
+   * @return The current time in nanoseconds, to be passed to end when the span finishes
+   */
+  public long begin() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Record a span that began at a time returned by begin and has just finished. Does nothing if spans are not recorded
+   * 
+   * @param category
+   *          The category of the span, such as http or parse
+   * @param name
+   *          The name of the span
+   * @param detail
+   *          Detail to show with the span, such as the ticker being downloaded, or null for none
+   * @param start
+   *          The start time of the span in nanoseconds
+   */
+  public void end(String category, String name, String detail, long start) {
+    if (this.mask < 0) {
+      return;
+    }
+    long end = System.nanoTime();
+    Thread thread = Thread.currentThread();
+    long number = this.recorded.getAndIncrement();
+    int slot = (int) number & this.mask;
+
+    // Mark the slot as being written so that an export running at the same time skips it
+    this.sequences.set(slot, -1);
+    this.refs.set(slot * REFS_PER_SPAN, category);
+    this.refs.set(slot * REFS_PER_SPAN + 1, name);
+    this.refs.set(slot * REFS_PER_SPAN + 2, detail);
+    this.refs.set(slot * REFS_PER_SPAN + 3, thread.getName());
+    this.longs.set(slot * LONGS_PER_SPAN, start);
+    this.longs.set(slot * LONGS_PER_SPAN + 1, end - start);
+    this.longs.set(slot * LONGS_PER_SPAN + 2, thread.getId());
+    this.sequences.set(slot, number);
+  }
+
+  /**
+   * Record a span that began at a time returned by begin and has just finished. Does nothing if spans are not recorded
+   * 
+   * @param category
+   *          The category of the span, such as http or parse
+   * @param name
+   *          The name of the span
+   * @param start
+   *          The start time of the span in nanoseconds
+   */
+  public void end(String category, String name, long start) {
+    this.end(category, name, null, start);
+  }
+
+  /**
+   * Write the spans in the buffer as a Chrome trace, oldest first. Spans that are recorded while this is running may or may not be
+   * included, and a span that is overwritten while it is being written out is left out
+   * 
+   * @param out
+   *          The writer to write the trace to
+   * @throws IOException
+   *           If there was an error writing the trace
+   */
+  public void writeChromeTrace(Writer out) throws IOException {
+    out.write("{\"traceEvents\":[");
+    boolean first = true;
+    Map<Long, String> threads = new HashMap<Long, String>();
+    long newest = this.recorded.get();
+    long oldest = Math.max(0, newest - (this.mask + 1));
+    for (long number = oldest; number < newest; number++) {
+      int slot = (int) number & this.mask;
+      if (this.sequences.get(slot) != number) {
+        continue;
+      }
+      String category = this.refs.get(slot * REFS_PER_SPAN);
+      String name = this.refs.get(slot * REFS_PER_SPAN + 1);
+      String detail = this.refs.get(slot * REFS_PER_SPAN + 2);
+      String threadName = this.refs.get(slot * REFS_PER_SPAN + 3);
+      long start = this.longs.get(slot * LONGS_PER_SPAN);
+      long duration = this.longs.get(slot * LONGS_PER_SPAN + 1);
+      long threadId = this.longs.get(slot * LONGS_PER_SPAN + 2);
+      // Skip the span if it was overwritten while being read
+      if (this.sequences.get(slot) != number) {
+        continue;
+      }
+      threads.put(threadId, threadName);
+
+      if (!first) {
+        out.write(',');
+      }
+      first = false;
+      // Complete events, with times in microseconds
+      out.write("{\"ph\":\"X\",\"pid\":1,\"tid\":" + threadId + ",\"ts\":" + start / 1000 + ",\"dur\":" + duration / 1000
+          + ",\"cat\":");
+      quote(category, out);
+      out.write(",\"name\":");
+      quote(name, out);
+      if (detail != null) {
+        out.write(",\"args\":{\"detail\":");
+        quote(detail, out);
+        out.write('}');
+      }
+      out.write('}');
+    }
+
+    // Name the threads so that the timeline shows them as main, AsyncTask #1 and so on
+    for (Map.Entry<Long, String> thread : threads.entrySet()) {
+      if (!first) {
+        out.write(',');
+      }
+      first = false;
+      out.write("{\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey() + ",\"name\":\"thread_name\",\"args\":{\"name\":");
+      quote(thread.getValue(), out);
+      out.write("}}");
+    }
+    out.write("]}");
+  }
+}
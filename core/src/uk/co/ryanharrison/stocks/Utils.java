@@ -0,0 +1,394 @@
+/**
+ * Utils.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Various utility methods for the app
+ * 
+ * @author Ryan Harrison
+ */
+public class Utils {
+
+  /**
+   * An input stream that counts the bytes read from it, and records the total in a histogram when it is closed
+   * 
+   * @author Ryan Harrison
+   */
+  private static class MeteredInputStream extends FilterInputStream {
+
+    /** The histogram of the number of bytes read from each stream */
+    private final Histogram bytesHistogram;
+
+    /** The number of bytes read so far */
+    private long            bytes;
+
+    /** Whether the stream has been closed */
+    private boolean         closed;
+
+    /**
+     * Construct a new MeteredInputStream
+     * 
+     * @param in
+     *          The stream to count the bytes of
+     * @param bytesHistogram
+     *          The histogram to record the number of bytes read in
+     */
+    private MeteredInputStream(InputStream in, Histogram bytesHistogram) {
+      super(in);
+      this.bytesHistogram = bytesHistogram;
+    }
+
+    /**
+     * Close the stream and record the number of bytes that were read from it
+     * 
+     * @see java.io.FilterInputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+      if (!this.closed) {
+        this.closed = true;
+        this.bytesHistogram.record(this.bytes);
+      }
+      super.close();
+    }
+
+    /**
+     * Read a single byte
+     * 
+     * @see java.io.FilterInputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        this.bytes++;
+      }
+      return b;
+    }
+
+    /**
+     * Read bytes into part of an array
+     * 
+     * @see java.io.FilterInputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      int read = super.read(buffer, offset, count);
+      if (read > 0) {
+        this.bytes += read;
+      }
+      return read;
+    }
+
+    /**
+     * Skip bytes, which are counted as read
+     * 
+     * @see java.io.FilterInputStream#skip(long)
+     */
+    @Override
+    public long skip(long count) throws IOException {
+      long skipped = super.skip(count);
+      this.bytes += skipped;
+      return skipped;
+    }
+  }
+
+  /** Read timeout for http requests in milliseconds */
+  private static final int                 READTIMEOUT            = 25000;
+
+  /** Connection timeout for http requests in milliseconds */
+  private static final int                 CONNECTTIMEOUT         = 20000;
+
+  /** The number of times a request is attempted before giving up */
+  private static final int                 MAX_ATTEMPTS           = 3;
+
+  /** The upper limit in milliseconds of the random delay before the first retry, which doubles with each further retry */
+  private static final long                RETRY_DELAY            = 1000;
+
+  /** The largest upper limit in milliseconds of the delay before a retry */
+  private static final long                MAX_RETRY_DELAY        = 8000;
+
+  /** The response code sent by servers that are throttling requests, which HttpURLConnection has no constant for */
+  private static final int                 HTTP_TOO_MANY_REQUESTS = 429;
+
+  /** Source of the random delays before retries */
+  private static final Random              JITTER                 = new Random();
+
+  /** The circuit breakers of the hosts that the app downloads from, which open for 30 seconds after 5 consecutive failures */
+  private static final CircuitBreaker      BREAKER                = new CircuitBreaker(5, 30 * 1000, 10 * 60 * 1000);
+
+  /**
+   * The rate limits of the families of Yahoo! Finance endpoints, indexed by RateLimiter family. Quotes are refreshed in batches so
+   * may burst the most, while charts and news feeds are only downloaded as the user opens them
+   */
+  private static volatile RateLimiter      limiter                = new RateLimiter(new int[] { 12, 4, 4, 6 },
+                                                                      new long[] { 500, 2000, 2000, 1000 });
+
+  /** The time in nanoseconds that each thread has spent waiting for rate limits and before retries while downloading */
+  private static final ThreadLocal<long[]> WAITED                 = new ThreadLocal<long[]>();
+
+  /** The suffixes of the units that market capitalisations are quoted in, in ascending order */
+  private static final String              MARKET_CAP_UNITS       = "KMBT";
+
+  /** The scale of each unit in MARKET_CAP_UNITS */
+  private static final double[]            MARKET_CAP_SCALES      = { 1e3, 1e6, 1e9, 1e12 };
+
+  /**
+   * Given a string representation of a URL, sets up a connection and gets and input stream from it. Failed connections and server
+   * errors are retried a few times after a random delay that grows with each attempt, unless the host has been failing for long
+   * enough that its circuit breaker has opened, in which case this fails immediately. Each attempt waits for the rate limit of its
+   * family of endpoints, so must not be called on the UI thread. The requests, failures, connection times and download sizes are
+   * recorded in the app's metrics, tagged by the family. Client errors other than too many requests fail immediately, as retrying
+   * them would get the same answer
+   * 
+   * @param url
+   *          The url to get a data stream from
+   * @param family
+   *          The RateLimiter family of the endpoint of the url
+   * @param priority
+   *          The RateLimiter priority of the request
+   * @return An InputStream for the url which can be used to download data from the url
+   * @throws IOException
+   *           If there was an error connecting to the url
+   */
+  public static InputStream downloadUrl(String url, int family, int priority) throws IOException {
+    URL address = new URL(url);
+    String host = address.getHost();
+    String endpoint = RateLimiter.getFamilyName(family);
+    MetricsRegistry metrics = MetricsRegistry.APP;
+    IOException failure = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      if (attempt != 0) {
+        // Wait for a random time of up to double the previous limit, so that many clients retrying at once are spread out
+        long limit = Math.min(RETRY_DELAY << (attempt - 1), MAX_RETRY_DELAY);
+        long backoffStart = Tracer.getApp().begin();
+        sleep((long) (JITTER.nextDouble() * limit), url);
+        Tracer.getApp().end("http", "backoff", endpoint, backoffStart);
+      }
+      // Retries count against the rate limit as much as first attempts do
+      long wait;
+      while ((wait = limiter.tryAcquire(family, priority, System.currentTimeMillis())) != 0) {
+        metrics.counter("http.rate_limited", "endpoint", endpoint).increment();
+        long waitStart = Tracer.getApp().begin();
+        sleep(wait, url);
+        Tracer.getApp().end("http", "rate_limit", endpoint, waitStart);
+      }
+      if (!BREAKER.allowRequest(host, System.currentTimeMillis())) {
+        metrics.counter("http.rejected", "endpoint", endpoint).increment();
+        throw new IOException("Not connecting to " + host + " as it is unavailable");
+      }
+
+      // Set up the http connection and set timeout values
+      HttpURLConnection conn = (HttpURLConnection) address.openConnection();
+      conn.setReadTimeout(READTIMEOUT);
+      conn.setConnectTimeout(CONNECTTIMEOUT);
+      conn.setRequestMethod("GET");
+      conn.setDoInput(true);
+      metrics.counter("http.requests", "endpoint", endpoint).increment();
+      // Starts the query, timing how long it takes for the response to start
+      long start = Tracer.getApp().begin();
+      int code = -1;
+      try {
+        conn.connect();
+        code = conn.getResponseCode();
+        metrics.histogram("http.connect_us", "endpoint", endpoint).recordSince(start);
+        Tracer.getApp().end("http", "connect", endpoint, start);
+        if (code < HttpURLConnection.HTTP_BAD_REQUEST) {
+          BREAKER.recordSuccess(host);
+          return new MeteredInputStream(conn.getInputStream(), metrics.histogram("http.download_bytes", "endpoint", endpoint));
+        }
+        failure = new IOException("Server returned " + code + " for " + url);
+      }
+      catch (IOException e) {
+        Tracer.getApp().end("http", "connect failed", endpoint, start);
+        failure = e;
+      }
+      conn.disconnect();
+      metrics.counter("http.failures", "endpoint", endpoint).increment();
+      // Client errors are not the fault of the host and will not go away by retrying
+      if (code >= HttpURLConnection.HTTP_BAD_REQUEST && code < HttpURLConnection.HTTP_INTERNAL_ERROR
+          && code != HTTP_TOO_MANY_REQUESTS) {
+        BREAKER.recordSuccess(host);
+        throw failure;
+      }
+      // A request abandoned by the caller says nothing about the host
+      if (Thread.currentThread().isInterrupted()) {
+        throw failure;
+      }
+      BREAKER.recordFailure(host, System.currentTimeMillis());
+    }
+    throw failure;
+  }
+
+  /**
+   * Format a market capitalisation in the largest unit that leaves at least one whole unit, for example 312400000000 as 312.4B
+   * 
+   * @param value
+   *          The market capitalisation
+   * @return The formatted market capitalisation
+   */
+  public static String formatMarketCap(double value) {
+    for (int i = MARKET_CAP_SCALES.length - 1; i >= 0; i--) {
+      if (Math.abs(value) >= MARKET_CAP_SCALES[i]) {
+        return new BigDecimal(value / MARKET_CAP_SCALES[i]).setScale(2, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString()
+            + MARKET_CAP_UNITS.charAt(i);
+      }
+    }
+    return new BigDecimal(value).setScale(2, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Format a number of shares with as few decimal places as it needs, up to four, so that whole numbers of shares have none
+   * 
+   * @param quantity
+   *          The number of shares
+   * @return The formatted number of shares
+   */
+  public static String formatQuantity(double quantity) {
+    return new BigDecimal(quantity).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Get the number of requests to a family of endpoints that could be sent now without waiting for the rate limit. Does not block,
+   * so can be used on the UI thread to decide how much work to start
+   * 
+   * @param family
+   *          The RateLimiter family of the endpoints
+   * @param priority
+   *          The RateLimiter priority of the requests
+   * @return The number of requests that would not be delayed
+   */
+  public static int getAvailableRequests(int family, int priority) {
+    return limiter.available(family, priority, System.currentTimeMillis());
+  }
+
+  /**
+   * Get the total time that the current thread has spent in downloadUrl waiting for rate limits and before retries. The difference
+   * across a download is the part of its time that was not spent on the network
+   * 
+   * @return The time in nanoseconds
+   */
+  public static long getDownloadWaitNanos() {
+    return getWaited()[0];
+  }
+
+  /**
+   * Get the time that the current thread has spent waiting while downloading, creating it on the first wait of the thread
+   * 
+   * @return An array holding the time in nanoseconds
+   */
+  private static long[] getWaited() {
+    long[] waited = WAITED.get();
+    if (waited == null) {
+      waited = new long[1];
+      WAITED.set(waited);
+    }
+    return waited;
+  }
+
+  /**
+   * Determine whether the host of a url is unavailable, because requests to it have been failing and it is not being contacted for
+   * a while. Data from the host that has already been downloaded can be shown instead
+   * 
+   * @param url
+   *          The url
+   * @return True if requests to the host of the url are currently failing immediately
+   */
+  public static boolean isHostUnavailable(String url) {
+    try {
+      return BREAKER.isOpen(new URL(url).getHost(), System.currentTimeMillis());
+    }
+    catch (MalformedURLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Parse a market capitalisation as it is quoted by Yahoo! Finance, a number followed by the suffix of its unit such as 312.4B
+   * 
+   * @param value
+   *          The quoted market capitalisation
+   * @return The market capitalisation, or NaN if it is not available or not in a recognised format
+   */
+  public static double parseMarketCap(String value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    String trimmed = value.trim();
+    if (trimmed.length() == 0 || trimmed.equals("null")) {
+      return Double.NaN;
+    }
+
+    double scale = 1;
+    int unit = MARKET_CAP_UNITS.indexOf(Character.toUpperCase(trimmed.charAt(trimmed.length() - 1)));
+    if (unit != -1) {
+      scale = MARKET_CAP_SCALES[unit];
+      trimmed = trimmed.substring(0, trimmed.length() - 1);
+    }
+    try {
+      return Double.parseDouble(trimmed) * scale;
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Round a double value to two decimal places and return as a String
+   * 
+   * @param value
+   *          The double value to round
+   * @return A String of the value rounded to two decimal places
+   */
+  public static String roundTwoPlaces(double value) {
+    return new BigDecimal(value).setScale(2, RoundingMode.HALF_UP).toPlainString();
+  }
+
+  /**
+   * Replace the rate limits of the families of endpoints, for example to let a server refreshing many tickers download faster than
+   * the app does
+   * 
+   * @param limiter
+   *          The rate limiter to use for every download from now on
+   */
+  public static void setRateLimiter(RateLimiter limiter) {
+    Utils.limiter = limiter;
+  }
+
+  /**
+   * Sleep on the current thread while waiting to download from a url
+   * 
+   * @param millis
+   *          The time in milliseconds to sleep for
+   * @param url
+   *          The url being waited on
+   * @throws InterruptedIOException
+   *           If the thread was interrupted while sleeping, for example because the download was cancelled
+   */
+  private static void sleep(long millis, String url) throws InterruptedIOException {
+    long start = System.nanoTime();
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to download " + url);
+    }
+    finally {
+      getWaited()[0] += System.nanoTime() - start;
+    }
+  }
+}
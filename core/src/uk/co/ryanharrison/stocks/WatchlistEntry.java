@@ -0,0 +1,35 @@
+/**
+ * WatchlistEntry.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+/**
+ * A wrapper class holding a single ticker of the watchlist along with the metadata that is saved with it
+ * 
+ * @author Ryan Harrison
+ */
+public class WatchlistEntry {
+
+  /** The ticker symbol of the stock, as it was entered by the user */
+  public final String ticker;
+
+  /** The position of the entry in display order. Entries are displayed in ascending order, and the values need not be contiguous */
+  public long         order;
+
+  /** A note written by the user about the stock, or null if there is none */
+  public String       note;
+
+  /**
+   * Construct a new WatchlistEntry with the specified ticker and display order
+   * 
+   * @param ticker
+   *          The ticker symbol of the stock
+   * @param order
+   *          The position of the entry in display order
+   */
+  public WatchlistEntry(String ticker, long order) {
+    this.ticker = ticker;
+    this.order = order;
+  }
+}
@@ -0,0 +1,573 @@
+/**
+ * WatchlistStore.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Class to persist the watchlist of tickers being monitored, along with the display order of each ticker and a note about it.
+ * 
+ * The watchlist is stored as a binary journal. Every change made to the watchlist is encoded as a small record and held in memory
+ * until the next flush, which appends only the new records to the end of the file. Nothing is written if nothing has changed. When
+ * the journal has grown to hold many more records than there are tickers, the next flush replaces it with a snapshot holding one
+ * record per ticker, so the size of the file stays proportional to the size of the watchlist.
+ * 
+ * The journal is read the first time the watchlist is accessed, which should be done off the UI thread. Every method is thread safe
+ * so that the watchlist can be changed on the UI thread while it is flushed on another.
+ * 
+ * @author Ryan Harrison
+ */
+public class WatchlistStore {
+
+  /** Magic number at the start of every watchlist file */
+  private static final int                      MAGIC           = 0x57544c31;
+
+  /** Record adding a ticker to the watchlist, followed by its display order */
+  private static final int                      ADD             = 1;
+
+  /** Record removing a ticker from the watchlist */
+  private static final int                      REMOVE          = 2;
+
+  /** Record changing the display order of a ticker, followed by the new order */
+  private static final int                      MOVE            = 3;
+
+  /** Record changing the note about a ticker, followed by the note or an empty string if there is none */
+  private static final int                      NOTE            = 4;
+
+  /** The gap left between the display orders of tickers added to the end of the watchlist, so that tickers can be moved between */
+  private static final long                     ORDER_GAP       = 1 << 16;
+
+  /** The number of records over twice the size of the watchlist that the journal can hold before it is replaced by a snapshot */
+  private static final int                      COMPACT_SLACK   = 64;
+
+  /** The maximum length of a note, which keeps every record within the limits of a modified UTF-8 string */
+  public static final int                       MAX_NOTE_LENGTH = 4096;
+
+  /** The file that the watchlist is stored in */
+  private final File                            file;
+
+  /** The entries of the watchlist keyed by canonical ticker */
+  private final Map<String, WatchlistEntry>     entries;
+
+  /** The entries of the watchlist keyed by display order */
+  private final SortedMap<Long, WatchlistEntry> ordered;
+
+  /** Records of the changes made since the last flush */
+  private final ByteArrayOutputStream           pending;
+
+  /** Stream used to encode records into the pending buffer */
+  private final DataOutputStream                pendingOut;
+
+  /** The number of records in the pending buffer */
+  private int                                   pendingRecords;
+
+  /** The number of records in the journal file */
+  private int                                   journalRecords;
+
+  /** Whether the next flush must replace the journal with a snapshot rather than append to it */
+  private boolean                               snapshotRequired;
+
+  /** Whether the journal has been read */
+  private boolean                               loaded;
+
+  /** Lock held while writing the file, so that flushes from different threads are written in order */
+  private final Object                          fileLock;
+
+  public static final String                    TAG             = "WatchlistStore";
+
+  /**
+   * Construct a new WatchlistStore backed by the specified file. The file is not read until the watchlist is first accessed
+   * 
+   * @param file
+   *          The file that the watchlist is stored in
+   */
+  public WatchlistStore(File file) {
+    this.file = file;
+    this.entries = new HashMap<String, WatchlistEntry>();
+    this.ordered = new TreeMap<Long, WatchlistEntry>();
+    this.pending = new ByteArrayOutputStream();
+    this.pendingOut = new DataOutputStream(this.pending);
+    this.fileLock = new Object();
+  }
+
+  /**
+   * Add a ticker to the end of the watchlist
+   * 
+   * @param ticker
+   *          The ticker to add
+   * @return True if the ticker was added, false if it was empty or is already in the watchlist
+   */
+  public synchronized boolean add(String ticker) {
+    this.ensureLoaded();
+    String key = Portfolio.canonicalise(ticker);
+    if (key.length() == 0 || this.entries.containsKey(key)) {
+      return false;
+    }
+    long order = this.ordered.isEmpty() ? 0 : this.ordered.lastKey() + ORDER_GAP;
+    this.applyAdd(ticker.trim(), order);
+    this.record(ADD, ticker.trim());
+    this.writePending(order);
+    return true;
+  }
+
+  /**
+   * Append records to the end of the journal file
+   * 
+   * @param records
+   *          The encoded records to append
+   * @throws IOException
+   *           If there was an error writing the file
+   */
+  private void appendToFile(byte[] records) throws IOException {
+    FileOutputStream out = new FileOutputStream(this.file, true);
+    try {
+      out.write(records);
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Apply the addition of a ticker to the in memory watchlist
+   * 
+   * @param ticker
+   *          The ticker to add
+   * @param order
+   *          The display order of the ticker
+   */
+  private void applyAdd(String ticker, long order) {
+    WatchlistEntry entry = new WatchlistEntry(ticker, order);
+    WatchlistEntry previous = this.entries.put(Portfolio.canonicalise(ticker), entry);
+    if (previous != null) {
+      this.ordered.remove(previous.order);
+    }
+    this.ordered.put(order, entry);
+  }
+
+  /**
+   * Apply a change to the display order of a ticker to the in memory watchlist
+   * 
+   * @param key
+   *          The canonical ticker to move
+   * @param order
+   *          The new display order of the ticker
+   */
+  private void applyMove(String key, long order) {
+    WatchlistEntry entry = this.entries.get(key);
+    if (entry != null) {
+      this.ordered.remove(entry.order);
+      entry.order = order;
+      this.ordered.put(order, entry);
+    }
+  }
+
+  /**
+   * Apply the removal of a ticker to the in memory watchlist
+   * 
+   * @param key
+   *          The canonical ticker to remove
+   */
+  private void applyRemove(String key) {
+    WatchlistEntry entry = this.entries.remove(key);
+    if (entry != null) {
+      this.ordered.remove(entry.order);
+    }
+  }
+
+  /**
+   * Read the journal into memory if it has not been read already. Records are replayed up to the end of the file or the first
+   * record that cannot be read, which can be left behind by a write that was interrupted. If the file could not be read completely
+   * it is replaced by a snapshot on the next flush
+   */
+  private void ensureLoaded() {
+    if (this.loaded) {
+      return;
+    }
+    this.loaded = true;
+    // A snapshot that was written but not yet renamed into place is the newest watchlist
+    File temp = new File(this.file.getPath() + ".tmp");
+    if (!this.file.exists() && temp.exists() && !temp.renameTo(this.file)) {
+      Logger.e(TAG, "Unable to recover watchlist from " + temp);
+    }
+    if (!this.file.exists()) {
+      return;
+    }
+
+    Logger.i(TAG, "Loading watchlist from " + this.file);
+    DataInputStream in = null;
+    int records = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Invalid watchlist " + this.file);
+      }
+      int op;
+      while ((op = in.read()) != -1) {
+        String ticker = in.readUTF();
+        String key = Portfolio.canonicalise(ticker);
+        switch (op) {
+          case ADD:
+            this.applyAdd(ticker, in.readLong());
+            break;
+          case REMOVE:
+            this.applyRemove(key);
+            break;
+          case MOVE:
+            this.applyMove(key, in.readLong());
+            break;
+          case NOTE:
+            String note = in.readUTF();
+            if (this.entries.containsKey(key)) {
+              this.entries.get(key).note = note.length() == 0 ? null : note;
+            }
+            break;
+          default:
+            throw new IOException("Unknown watchlist record " + op);
+        }
+        records++;
+      }
+    }
+    catch (IOException e) {
+      Logger.e(TAG, e.toString());
+      this.snapshotRequired = true;
+    }
+    finally {
+      // Make sure that the InputStream is closed in all cases
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) {
+          Logger.e(TAG, e.toString());
+        }
+      }
+    }
+    this.journalRecords = records;
+    Logger.i(TAG, "Loaded " + this.entries.size() + " tickers from " + records + " records");
+  }
+
+  /**
+   * Write every change made since the last flush to the file. Does nothing if there are no changes. This should not be called on the
+   * UI thread
+   * 
+   * @throws IOException
+   *           If there was an error writing the file. The changes are not lost, and are written by the next flush
+   */
+  public void flush() throws IOException {
+    synchronized (this.fileLock) {
+      byte[] records;
+      int count;
+      boolean snapshot;
+      synchronized (this) {
+        if (!this.isDirty()) {
+          return;
+        }
+        snapshot = this.snapshotRequired || !this.file.exists()
+            || this.journalRecords + this.pendingRecords > 2 * this.entries.size() + COMPACT_SLACK;
+        if (snapshot) {
+          ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+          count = this.writeSnapshot(new DataOutputStream(buffer));
+          records = buffer.toByteArray();
+        }
+        else {
+          count = this.pendingRecords;
+          records = this.pending.toByteArray();
+        }
+        this.pending.reset();
+        this.pendingRecords = 0;
+        this.snapshotRequired = false;
+      }
+
+      try {
+        if (snapshot) {
+          Logger.i(TAG, "Writing watchlist snapshot of " + count + " records");
+          this.replaceFile(records);
+        }
+        else {
+          Logger.i(TAG, "Appending " + count + " records to watchlist");
+          this.appendToFile(records);
+        }
+      }
+      catch (IOException e) {
+        // The pending records have been taken, so write everything again next time
+        synchronized (this) {
+          this.snapshotRequired = true;
+        }
+        throw e;
+      }
+
+      synchronized (this) {
+        this.journalRecords = snapshot ? count : this.journalRecords + count;
+      }
+    }
+  }
+
+  /**
+   * Get the entries of the watchlist in display order
+   * 
+   * @return A copy of the entries of the watchlist
+   */
+  public synchronized List<WatchlistEntry> getEntries() {
+    this.ensureLoaded();
+    return new ArrayList<WatchlistEntry>(this.ordered.values());
+  }
+
+  /**
+   * Get the note about a ticker
+   * 
+   * @param ticker
+   *          The ticker to get the note about
+   * @return The note, or null if there is no note or the ticker is not in the watchlist
+   */
+  public synchronized String getNote(String ticker) {
+    this.ensureLoaded();
+    WatchlistEntry entry = this.entries.get(Portfolio.canonicalise(ticker));
+    return entry == null ? null : entry.note;
+  }
+
+  /**
+   * Determine whether there are changes that have not been written to the file yet
+   * 
+   * @return True if the next flush will write to the file
+   */
+  public synchronized boolean isDirty() {
+    return this.pendingRecords != 0 || this.snapshotRequired;
+  }
+
+  /**
+   * Move a ticker to directly after another ticker in display order. Only the moved ticker is given a new order unless there is no
+   * room left between its new neighbours, in which case every ticker is renumbered and the journal is replaced on the next flush
+   * 
+   * @param ticker
+   *          The ticker to move
+   * @param after
+   *          The ticker to move it after, or null to move it to the start of the watchlist
+   * @return True if the ticker was moved, false if either ticker is not in the watchlist
+   */
+  public synchronized boolean move(String ticker, String after) {
+    this.ensureLoaded();
+    WatchlistEntry entry = this.entries.get(Portfolio.canonicalise(ticker));
+    WatchlistEntry previous = after == null ? null : this.entries.get(Portfolio.canonicalise(after));
+    if (entry == null || after != null && previous == null || entry == previous) {
+      return false;
+    }
+    this.ordered.remove(entry.order);
+
+    // Find the orders of the new neighbours of the ticker
+    long low = previous == null ? Long.MIN_VALUE / 2 : previous.order;
+    SortedMap<Long, WatchlistEntry> tail = this.ordered.tailMap(low + 1);
+    long high = tail.isEmpty() ? low + 2 * ORDER_GAP : tail.firstKey();
+    if (previous == null && !tail.isEmpty()) {
+      low = high - 2 * ORDER_GAP;
+    }
+
+    if (high - low >= 2) {
+      entry.order = low + (high - low) / 2;
+      this.ordered.put(entry.order, entry);
+      this.record(MOVE, entry.ticker);
+      this.writePending(entry.order);
+    }
+    else {
+      this.renumber(entry, previous);
+    }
+    return true;
+  }
+
+  /**
+   * Encode the start of a record into the pending buffer
+   * 
+   * @param op
+   *          The type of the record
+   * @param ticker
+   *          The ticker that the record is about
+   */
+  private void record(int op, String ticker) {
+    try {
+      this.pendingOut.writeByte(op);
+      this.pendingOut.writeUTF(ticker);
+      this.pendingRecords++;
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Remove a ticker from the watchlist
+   * 
+   * @param ticker
+   *          The ticker to remove
+   * @return True if the ticker was removed, false if it is not in the watchlist
+   */
+  public synchronized boolean remove(String ticker) {
+    this.ensureLoaded();
+    String key = Portfolio.canonicalise(ticker);
+    if (!this.entries.containsKey(key)) {
+      return false;
+    }
+    this.record(REMOVE, this.entries.get(key).ticker);
+    this.applyRemove(key);
+    return true;
+  }
+
+  /**
+   * Give every ticker a new evenly spaced display order, placing a moved ticker directly after another
+   * 
+   * @param moved
+   *          The ticker being moved, which has already been removed from the ordered map
+   * @param previous
+   *          The ticker to place it after, or null to place it first
+   */
+  private void renumber(WatchlistEntry moved, WatchlistEntry previous) {
+    List<WatchlistEntry> entries = new ArrayList<WatchlistEntry>(this.ordered.values());
+    entries.add(previous == null ? 0 : entries.indexOf(previous) + 1, moved);
+    this.ordered.clear();
+    for (int i = 0; i < entries.size(); i++) {
+      entries.get(i).order = i * ORDER_GAP;
+      this.ordered.put(entries.get(i).order, entries.get(i));
+    }
+    this.snapshotRequired = true;
+  }
+
+  /**
+   * Replace the journal file with a snapshot. The snapshot is written to a temporary file first so that the watchlist is never left
+   * partially written
+   * 
+   * @param snapshot
+   *          The encoded snapshot
+   * @throws IOException
+   *           If there was an error writing the file
+   */
+  private void replaceFile(byte[] snapshot) throws IOException {
+    File temp = new File(this.file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(snapshot);
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+    // Renaming over the old file is atomic, so a crash leaves either the old or the new watchlist. Only delete the old file first
+    // where the rename cannot replace it
+    if (!temp.renameTo(this.file) && !(this.file.delete() && temp.renameTo(this.file))) {
+      throw new IOException("Unable to replace watchlist " + this.file);
+    }
+  }
+
+  /**
+   * Set the note about a ticker
+   * 
+   * @param ticker
+   *          The ticker to set the note about
+   * @param note
+   *          The note, or null to remove it. Notes longer than the maximum length are truncated
+   * @return True if the note was set, false if the ticker is not in the watchlist
+   */
+  public synchronized boolean setNote(String ticker, String note) {
+    this.ensureLoaded();
+    WatchlistEntry entry = this.entries.get(Portfolio.canonicalise(ticker));
+    if (entry == null) {
+      return false;
+    }
+    if (note != null && note.length() > MAX_NOTE_LENGTH) {
+      note = note.substring(0, MAX_NOTE_LENGTH);
+    }
+    entry.note = note == null || note.length() == 0 ? null : note;
+    this.record(NOTE, entry.ticker);
+    this.writePending(entry.note == null ? "" : entry.note);
+    return true;
+  }
+
+  /**
+   * Get the number of tickers in the watchlist
+   * 
+   * @return The number of tickers
+   */
+  public synchronized int size() {
+    this.ensureLoaded();
+    return this.entries.size();
+  }
+
+  /**
+   * Encode the value of a record into the pending buffer
+   * 
+   * @param value
+   *          The value to encode
+   */
+  private void writePending(long value) {
+    try {
+      this.pendingOut.writeLong(value);
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Encode the value of a record into the pending buffer
+   * 
+   * @param value
+   *          The value to encode
+   */
+  private void writePending(String value) {
+    try {
+      this.pendingOut.writeUTF(value);
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Encode a snapshot of the whole watchlist, holding a record to add each ticker followed by a record for its note
+   * 
+   * @param out
+   *          The stream to encode the snapshot into
+   * @return The number of records in the snapshot
+   */
+  private int writeSnapshot(DataOutputStream out) {
+    int count = 0;
+    try {
+      out.writeInt(MAGIC);
+      for (WatchlistEntry entry : this.ordered.values()) {
+        out.writeByte(ADD);
+        out.writeUTF(entry.ticker);
+        out.writeLong(entry.order);
+        count++;
+        if (entry.note != null) {
+          out.writeByte(NOTE);
+          out.writeUTF(entry.ticker);
+          out.writeUTF(entry.note);
+          count++;
+        }
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException(e);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * XmlParserFactory.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Creates the pull parsers used to read xml, so that the core of the app can use the parser built into Android on a device and any
+ * XmlPull implementation, such as kXML, on a plain JVM.
+ * 
+ * @author Ryan Harrison
+ */
+public interface XmlParserFactory {
+
+  /**
+   * Create a new parser
+   * 
+   * @return The parser, with no input set
+   * @throws XmlPullParserException
+   *           If a parser could not be created
+   */
+  XmlPullParser newPullParser() throws XmlPullParserException;
+}
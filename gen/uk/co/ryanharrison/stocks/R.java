@@ -65,7 +65,11 @@ public final class R {
     public static final class id {
         public static final int action_about=0x7f090025;
         public static final int action_addticker=0x7f090023;
+        public static final int action_metrics=0x7f090027;
+        public static final int action_sort=0x7f09002d;
+        public static final int action_stream=0x7f090026;
         public static final int action_update=0x7f090024;
+        public static final int alertsButton=0x7f090028;
         public static final int averageVolumeTextView=0x7f090017;
         public static final int changeTextView=0x7f090010;
         public static final int chartButton=0x7f090019;
@@ -78,6 +82,10 @@ public final class R {
         public static final int feedList=0x7f09001b;
         public static final int feedTextView=0x7f09001a;
         public static final int gridview=0x7f09000d;
+        public static final int holdingButton=0x7f090029;
+        public static final int holdingsTextView=0x7f09002a;
+        public static final int indicatorsCheckBox=0x7f09002b;
+        public static final int indicatorsTextView=0x7f09002c;
         public static final int marketCapTextView=0x7f090018;
         public static final int miniChangeTextView=0x7f090020;
         public static final int miniCompanyTextView=0x7f09001c;
@@ -86,6 +94,7 @@ public final class R {
         public static final int miniPercentChangeTextView=0x7f090021;
         public static final int miniPriceTextView=0x7f09001f;
         public static final int miniTickerTextView=0x7f09001d;
+        public static final int moversTextView=0x7f09002e;
         public static final int oneDayRadioButton=0x7f090005;
         public static final int oneMonthRadioButton=0x7f090007;
         public static final int oneWeekRadioButton=0x7f090006;
@@ -117,41 +126,86 @@ public final class R {
         public static final int about=0x7f06002c;
         public static final int action_about=0x7f060003;
         public static final int action_addticker=0x7f060004;
+        public static final int action_metrics=0x7f060031;
+        public static final int action_sort=0x7f060050;
+        public static final int action_stream=0x7f06002d;
         public static final int action_update=0x7f060002;
+        public static final int add_alert=0x7f060038;
+        public static final int alert_above=0x7f06003a;
+        public static final int alert_above_item=0x7f06003d;
+        public static final int alert_below=0x7f06003b;
+        public static final int alert_below_item=0x7f06003e;
+        public static final int alert_move=0x7f06003c;
+        public static final int alert_move_item=0x7f06003f;
+        public static final int alert_threshold=0x7f060039;
+        public static final int alert_triggered=0x7f060040;
         public static final int app_name=0x7f060000;
         public static final int avg_volume=0x7f060027;
+        public static final int buy=0x7f060045;
         public static final int change=0x7f060021;
         public static final int chart_description=0x7f060019;
         public static final int chart_for=0x7f060011;
+        public static final int close=0x7f060033;
+        public static final int collapsed_headline=0x7f060059;
         public static final int day_high=0x7f060022;
         public static final int day_low=0x7f060023;
         public static final int down_arrow=0x7f06002a;
         public static final int downloading_chart=0x7f06000f;
+        public static final int holding=0x7f060042;
+        public static final int holding_summary=0x7f060044;
+        public static final int holdings_summary=0x7f06004b;
+        public static final int indicators=0x7f06004c;
+        public static final int indicators_summary=0x7f06004d;
         public static final int last_updated=0x7f06000e;
+        public static final int loading_indicators=0x7f06004e;
+        public static final int log_json=0x7f060032;
         public static final int market_cap=0x7f060028;
         public static final int market_closed=0x7f06002b;
+        public static final int mover=0x7f060056;
+        public static final int movers_summary=0x7f060057;
         public static final int news_feed=0x7f060013;
         public static final int no=0x7f06000a;
+        public static final int no_alerts=0x7f060037;
+        public static final int no_holding=0x7f060043;
         public static final int no_internet_connection=0x7f06000b;
+        public static final int no_metrics=0x7f060034;
+        public static final int no_movers=0x7f060058;
         public static final int none=0x7f060001;
         public static final int not_available=0x7f060012;
+        public static final int not_enough_shares=0x7f060049;
         public static final int one_day=0x7f06001a;
         public static final int one_month=0x7f06001c;
         public static final int one_week=0x7f06001b;
         public static final int price=0x7f060020;
+        public static final int price_alerts=0x7f060036;
+        public static final int quotes_unavailable=0x7f060030;
+        public static final int realised_gain=0x7f06004a;
+        public static final int remove_alert=0x7f060041;
         public static final int remove_ticker=0x7f060008;
         public static final int remove_ticker_title=0x7f060007;
+        public static final int save_trace=0x7f060035;
         public static final int search=0x7f060006;
         public static final int search_hint=0x7f060005;
         public static final int search_results=0x7f060018;
         public static final int searching_for=0x7f060016;
         public static final int searching_news_feed=0x7f060014;
+        public static final int sell=0x7f060046;
         public static final int six_month=0x7f06001e;
+        public static final int sort_market_cap=0x7f060054;
+        public static final int sort_name=0x7f060055;
+        public static final int sort_percent_change=0x7f060052;
+        public static final int sort_volume=0x7f060053;
+        public static final int sort_watchlist=0x7f060051;
+        public static final int stream_connected=0x7f06002e;
+        public static final int stream_disconnected=0x7f06002f;
         public static final int three_month=0x7f06001d;
+        public static final int trade_price=0x7f060048;
+        public static final int trade_quantity=0x7f060047;
         public static final int unable_download_chart=0x7f060010;
         public static final int unable_download_feed=0x7f060015;
         public static final int unable_download_stocks=0x7f06000d;
         public static final int unable_find_results=0x7f060017;
+        public static final int unable_load_indicators=0x7f06004f;
         public static final int up_arrow=0x7f060029;
         public static final int updating=0x7f06000c;
         public static final int view_chart=0x7f06001f;
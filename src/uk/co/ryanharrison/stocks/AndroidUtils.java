@@ -0,0 +1,57 @@
+/**
+ * AndroidUtils.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Various utility methods for the app that depend on Android, which are kept out of Utils so that it can run on a plain JVM
+ * 
+ * @author Ryan Harrison
+ */
+public class AndroidUtils {
+
+  /**
+   * Describe a price alert to the user, for example 'Rises above 105.5'
+   * 
+   * @param context
+   *          The context to get the description from
+   * @param alert
+   *          The alert
+   * @return The description
+   */
+  public static String describeAlert(Context context, PriceAlert alert) {
+    int format = alert.type == PriceAlert.ABOVE ? R.string.alert_above_item : alert.type == PriceAlert.BELOW ? R.string.alert_below_item
+        : R.string.alert_move_item;
+    return context.getResources().getString(format, Utils.roundTwoPlaces(alert.threshold));
+  }
+
+  /**
+   * Determines whether or not the context is in landscape or not
+   * 
+   * @param context
+   *          The context to use when getting orientation information
+   * @return True if the context is in landscape, otherwise false
+   */
+  public static boolean isInLandScape(Context context) {
+    return context.getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
+  }
+
+  /**
+   * Determine whether or not there is an active data network currently available
+   * 
+   * @param context
+   *          Context to use when getting network information
+   * @return True if there is an active network available, otherwise false
+   */
+  public static boolean isNetworkAvailable(Context context) {
+    ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+    return activeNetworkInfo != null && activeNetworkInfo.isConnected();
+  }
+}
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import uk.co.ryanharrison.stocks.R;
 
@@ -19,13 +20,14 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 
 /**
  * Activity to display stock charts for a specific ticker. The timespan of the chart can be varied by the user through a series of
- * radiobuttons
+ * radiobuttons, and the technical indicators shown on the quote screen can be drawn over and under the chart
  * 
  * @author Ryan Harrison
  */
@@ -38,6 +40,33 @@ public class ChartActivity extends Activity {
    */
   private class DownloadChartTask extends AsyncTask<String, Void, Bitmap> {
 
+    /** The task's reference to the download of the chart, which is shared with any other task downloading the same chart */
+    private final SingleFlight<String, Bitmap>.Call call;
+
+    /**
+     * Construct a new DownloadChartTask, joining the download of the chart at a url
+     * 
+     * @param url
+     *          The url of the chart to download
+     */
+    public DownloadChartTask(final String url) {
+      this.call = CHARTS.join(url, new Callable<Bitmap>() {
+
+        @Override
+        public Bitmap call() throws IOException {
+          return DownloadChartTask.this.loadBitmapFromNetwork(url);
+        }
+      });
+    }
+
+    /**
+     * Stop the task, cancelling the download unless another task is waiting for the same chart
+     */
+    public void cancelDownload() {
+      this.cancel(false);
+      this.call.cancel();
+    }
+
     /**
      * Main work to do in the separate thread. Download and return a Bitmap from the URL passed in
      * 
@@ -49,15 +78,19 @@ public class ChartActivity extends Activity {
      */
     @Override
     protected Bitmap doInBackground(String... urls) {
+      long start = Tracer.getApp().begin();
       try {
         Log.i(TAG, "Loading chart bitmap from url");
-        // Download the bitmap from the url
-        return this.loadBitmapFromNetwork(urls[0]);
+        // Download the bitmap from the url, or wait for the download if another task has already started it
+        return this.call.get();
       }
       catch (IOException e) {
-        Log.e(TAG, e.getMessage());
+        Log.e(TAG, e.toString());
         return null;
       }
+      finally {
+        Tracer.getApp().end("task", "DownloadChartTask.doInBackground", start);
+      }
     }
 
     /**
@@ -74,10 +107,13 @@ public class ChartActivity extends Activity {
       Bitmap result;
       try {
         Log.i(TAG, "Retrieiving url stream");
-        stream = Utils.downloadUrl(url);
+        stream = Utils.downloadUrl(url, RateLimiter.CHARTS, RateLimiter.INTERACTIVE);
 
         Log.i(TAG, "Decoding bitmap from stream");
+        long start = Tracer.getApp().begin();
         result = BitmapFactory.decodeStream(stream);
+        MetricsRegistry.APP.histogram("decode.bitmap_us", "endpoint", "charts").recordSince(start);
+        Tracer.getApp().end("parse", "BitmapFactory.decodeStream", start);
       }
       catch (Exception e) {
         Log.e(TAG, e.getMessage());
@@ -103,18 +139,21 @@ public class ChartActivity extends Activity {
     @Override
     protected void onPostExecute(Bitmap result) {
       Log.i(TAG, "Background work completed");
+      ChartActivity.this.task = null;
 
+      long start = Tracer.getApp().begin();
       // If the result is null there was an error so tell the user about it
       if (result == null) {
         ChartActivity.this.textView.setText(ChartActivity.this.getResources().getString(R.string.unable_download_chart)
             + ChartActivity.this.ticker);
-        return;
       }
-
-      // Otherwise display the image in the UI
-      ChartActivity.this.textView.setText(ChartActivity.this.getResources().getString(R.string.chart_for)
-          + ChartActivity.this.ticker);
-      ChartActivity.this.chartView.setImageBitmap(result);
+      else {
+        // Otherwise display the image in the UI
+        ChartActivity.this.textView.setText(ChartActivity.this.getResources().getString(R.string.chart_for)
+            + ChartActivity.this.ticker);
+        ChartActivity.this.chartView.setImageBitmap(result);
+      }
+      Tracer.getApp().end("task", "DownloadChartTask.onPostExecute", start);
     }
 
     /**
@@ -132,25 +171,52 @@ public class ChartActivity extends Activity {
   }
 
   /** The ticker of which charts will be displayed for */
-  private String              ticker;
+  private String                                    ticker;
+
+  /** The timespan of the chart being displayed */
+  private String                                    timeSpan;
+
+  /** The task downloading the chart that is to be displayed, or null if there is none */
+  private DownloadChartTask                         task;
+
+  /** The chart downloads in progress, keyed by url and shared between every chart activity */
+  private static final SingleFlight<String, Bitmap> CHARTS       = new SingleFlight<String, Bitmap>();
 
   /** The view that will be used to display the stock chart */
-  private ImageView           chartView;
+  private ImageView                                 chartView;
 
   /** A view used to display download progress to the user */
-  private TextView            textView;
+  private TextView                                  textView;
 
   /** The group of radiobuttons that specify the timespan of the chart */
-  private RadioGroup          radioGroup;
+  private RadioGroup                                radioGroup;
+
+  /** Check box that draws the technical indicators on the chart */
+  private CheckBox                                  indicatorsBox;
 
   /**
    * The url that will be used to download the stock chart image. The charts are obtained from the Yahoo! Finance API which is free
    * to use for personal use
    */
-  private static final String CHARTURL = "http://chart.finance.yahoo.com/z?s=%s&z=m&t=%s";
+  private static final String                       CHARTURL     = "http://chart.finance.yahoo.com/z?s=%s&z=m&t=%s";
+
+  /**
+   * The parameters added to the chart url to draw the technical indicators with the same periods as the quote screen. The moving
+   * averages and Bollinger bands are drawn over the price and the relative strength index and MACD under it. Yahoo! Finance does
+   * not chart the average true range
+   */
+  private static final String                       INDICATORS   = "&p=m" + IndicatorEngine.DEFAULT_SMA_PERIOD + ",e"
+                                                                     + IndicatorEngine.DEFAULT_EMA_PERIOD + ",b&a=r"
+                                                                     + IndicatorEngine.DEFAULT_RSI_PERIOD + ",m"
+                                                                     + IndicatorEngine.DEFAULT_MACD_SLOW + "-"
+                                                                     + IndicatorEngine.DEFAULT_MACD_FAST + "-"
+                                                                     + IndicatorEngine.DEFAULT_MACD_SIGNAL;
+
+  /** The name of the intent extra holding the ticker of the stock to display charts for */
+  public static final String                        EXTRA_TICKER = "ticker";
 
   /** Tag for this activity */
-  public static final String  TAG      = "ChartActivity";
+  public static final String                        TAG          = "ChartActivity";
 
   /**
    * Download a stock chart for the specified ticker with the specified timespan
@@ -162,9 +228,10 @@ public class ChartActivity extends Activity {
    */
   private void downloadChart(String ticker, String timeSpan) {
     Log.i(TAG, "Downloading chart for " + ticker + " with timespan of " + timeSpan);
+    this.timeSpan = timeSpan;
 
     // If no internet network is available, display an error message
-    if (!Utils.isNetworkAvailable(this)) {
+    if (!AndroidUtils.isNetworkAvailable(this)) {
       this.textView.setText(this.getResources().getString(R.string.no_internet_connection));
       return;
     }
@@ -175,9 +242,18 @@ public class ChartActivity extends Activity {
     try {
       // Create the url for the chart download by inserting the ticker and timespan
       url = String.format(CHARTURL, URLEncoder.encode(ticker.toLowerCase(Locale.getDefault()), "utf-8"), timeSpan);
+      if (this.indicatorsBox.isChecked()) {
+        url += INDICATORS;
+      }
+
+      // Replace the download of the previous chart, if it has not finished yet
+      if (this.task != null) {
+        this.task.cancelDownload();
+      }
 
       // Start the download in another thread so the UI does not lock up
-      new DownloadChartTask().execute(url);
+      this.task = new DownloadChartTask(url);
+      this.task.execute(url);
     }
     catch (UnsupportedEncodingException e) {
       Log.e(TAG, e.getMessage());
@@ -193,6 +269,7 @@ public class ChartActivity extends Activity {
    */
   @Override
   protected void onCreate(Bundle savedInstanceState) {
+    long start = Tracer.getApp().begin();
     super.onCreate(savedInstanceState);
 
     // Set the layout of this activity
@@ -200,15 +277,41 @@ public class ChartActivity extends Activity {
 
     // Get the ticker passed into the activity through the intent
     Bundle extras = this.getIntent().getExtras();
-    this.ticker = extras.getString("ticker");
+    this.ticker = extras.getString(EXTRA_TICKER);
 
     // Initialise view fields
     this.chartView = (ImageView) this.findViewById(R.id.chartImageView);
     this.textView = (TextView) this.findViewById(R.id.chartProgressTextView);
     this.radioGroup = (RadioGroup) this.findViewById(R.id.chartRadioGroup);
+    this.indicatorsBox = (CheckBox) this.findViewById(R.id.indicatorsCheckBox);
 
     // When the activity is created, by default download and display the 3 month chart for the ticker
     this.downloadChart(this.ticker, "3m");
+    Tracer.getApp().end("activity", "ChartActivity.onCreate", start);
+  }
+
+  /**
+   * Called when the activity is destroyed. Cancel the download of the chart, as it will never be displayed
+   * 
+   * @see android.app.Activity#onDestroy()
+   */
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    if (this.task != null) {
+      this.task.cancelDownload();
+      this.task = null;
+    }
+  }
+
+  /**
+   * Called when the indicators check box is clicked. Download the chart again with or without the indicators drawn on it
+   * 
+   * @param v
+   *          The view that raised the event
+   */
+  public void onIndicatorsClick(View v) {
+    this.downloadChart(this.ticker, this.timeSpan);
   }
 
   /**
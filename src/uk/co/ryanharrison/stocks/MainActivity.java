@@ -1,10 +1,20 @@
 package uk.co.ryanharrison.stocks;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import uk.co.ryanharrison.stocks.R;
 
 import android.app.Activity;
@@ -15,15 +25,19 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.GridView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Main Activity class for the app. Displays a grid of mini quote views for each stock that is being monitored as well as allows
@@ -35,72 +49,276 @@ import android.widget.TextView;
 public class MainActivity extends Activity {
 
   /**
-   * Task to update the stock data for each business being monitored by a portfolio. The updated stock data is downloaded from the
-   * internet and parsed as a JSON object
+   * Task to load the watchlist of monitored stocks from storage without blocking the UI thread. If there is no saved watchlist yet,
+   * it is created from the tickers saved in the preferences by earlier versions of the app, or from a default set of stocks
    * 
-   * @author Ryan Harrison (rh00148)
+   * @author Ryan Harrison
    */
-  private class UpdateQuotesTask extends AsyncTask<Portfolio, Void, Portfolio> {
+  private class LoadWatchlistTask extends AsyncTask<Void, Void, List<WatchlistEntry>> {
 
     /**
      * Main work to do in a separate thread
      * 
-     * @param urls
-     *          The portfolio to update
-     * @return The portfolio with updated stock data
+     * @param params
+     *          Unused
+     * @return The entries of the watchlist in display order
      * 
      * @see android.os.AsyncTask#doInBackground(Params[])
      */
     @Override
-    protected Portfolio doInBackground(Portfolio... params) {
+    protected List<WatchlistEntry> doInBackground(Void... params) {
+      // Read the price alerts and holdings here too, so that applying the first quotes to them does not block the UI thread
+      StocksApplication.getAlerts().load();
+      StocksApplication.getHoldings().load();
+      List<WatchlistEntry> entries = MainActivity.watchlist.getEntries();
+      File file = new File(MainActivity.this.getFilesDir(), WATCHLIST_FILE);
+      if (!entries.isEmpty() || file.exists()) {
+        return entries;
+      }
+
+      SharedPreferences settings = MainActivity.this.getSharedPreferences(PREFS_NAME, 0);
+      // If there are a set of stocks held in the preferences, use them to fill the watchlist
+      if (settings.contains("tickers")) {
+        Log.i(TAG, "Moving saved tickers from preferences to the watchlist");
+        for (String ticker : settings.getString("tickers", "").split(",")) {
+          MainActivity.watchlist.add(ticker);
+        }
+      }
+      else {
+        Log.i(TAG, "No existing saved tickers found, filling defaults");
+        // Otherwise fill the watchlist with some default stocks
+        for (String ticker : DEFAULT_TICKERS) {
+          MainActivity.watchlist.add(ticker);
+        }
+      }
+
       try {
-        Log.i(TAG, "Updating portfolio quote data");
-        // Update the portfolio. This downloads a JSON object for each monitored company which holds the data about the stock
-        params[0].update();
+        // Only forget the old preferences once the watchlist has been saved
+        MainActivity.watchlist.flush();
+        settings.edit().remove("tickers").commit();
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.toString());
+      }
+      return MainActivity.watchlist.getEntries();
+    }
+
+    /**
+     * Called back on the UI thread after the main work has finished. Fill the portfolio with the loaded watchlist and update the
+     * stock data for each stock
+     * 
+     * @param result
+     *          The entries of the watchlist in display order
+     * 
+     * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+     */
+    @Override
+    protected void onPostExecute(List<WatchlistEntry> result) {
+      Log.i(TAG, "Loaded " + result.size() + " tickers from the watchlist");
+      for (WatchlistEntry entry : result) {
+        MainActivity.this.portfolio.addCompanyNoUpdate(entry.ticker);
+      }
+      MainActivity.this.adapter.notifyDataSetChanged();
+      MainActivity.this.subscribeStream();
+      MainActivity.this.holdingsLoaded = true;
+      MainActivity.this.showHoldings();
+      MainActivity.this.showMovers();
 
-        return params[0];
+      // As initially we have no data to display, update the stock data in the portfolio
+      MainActivity.this.update();
+    }
+  }
+
+  /**
+   * Task to write the spans recorded by the app's tracer to a file as a Chrome trace without blocking the UI thread
+   * 
+   * @author Ryan Harrison
+   */
+  private static class SaveTraceTask extends AsyncTask<File, Void, Void> {
+
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param files
+     *          The file to write the trace to
+     * @return Nothing
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Void doInBackground(File... files) {
+      Writer out = null;
+      try {
+        out = new BufferedWriter(new FileWriter(files[0]));
+        Tracer.getApp().writeChromeTrace(out);
+        Log.i(TAG, "Trace written to " + files[0]);
       }
-      catch (Exception e) {
+      catch (IOException e) {
         Log.e(TAG, e.toString());
-        return null;
       }
+      finally {
+        if (out != null) {
+          try {
+            out.close();
+          }
+          catch (IOException e) {
+            Log.e(TAG, e.toString());
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Task to write any changes made to the watchlist to storage without blocking the UI thread
+   * 
+   * @author Ryan Harrison
+   */
+  private static class SaveWatchlistTask extends AsyncTask<Void, Void, Void> {
 
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param params
+     *          Unused
+     * @return Nothing
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Void doInBackground(Void... params) {
+      try {
+        // Nothing is written if the watchlist has not changed since it was last saved
+        MainActivity.watchlist.flush();
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.toString());
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Task to update the stock data for a batch of the businesses being monitored by the portfolio. The updated stock data is
+   * downloaded from the internet and parsed as a JSON object
+   * 
+   * @author Ryan Harrison
+   */
+  private class RefreshQuotesTask extends AsyncTask<String, Void, Quote[]> {
+
+    /** The canonical tickers of the businesses being updated, in the same order as the tickers passed to the task */
+    private final List<String> tickers;
+
+    /** The number of businesses at the start of the batch that are visible, which are downloaded ahead of background work */
+    private final int          interactive;
+
+    /** Whether the download of each business failed, rather than returning a quote or a response that could not be parsed */
+    private boolean[]          failed;
+
+    /**
+     * Construct a new RefreshQuotesTask for a batch of businesses
+     * 
+     * @param tickers
+     *          The canonical tickers of the businesses to update
+     * @param interactive
+     *          The number of businesses at the start of the batch that are visible
+     */
+    public RefreshQuotesTask(List<String> tickers, int interactive) {
+      this.tickers = tickers;
+      this.interactive = interactive;
+    }
+
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param params
+     *          The tickers of the businesses to update
+     * @return The updated quotes, with null in place of any quote that could not be downloaded
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Quote[] doInBackground(String... params) {
+      Log.i(TAG, "Updating quote data for " + params.length + " stocks");
+      long start = Tracer.getApp().begin();
+      Quote[] quotes = new Quote[params.length];
+      this.failed = new boolean[params.length];
+      for (int i = 0; i < params.length; i++) {
+        try {
+          // This downloads a JSON object for the company which holds the data about the stock
+          int priority = i < this.interactive ? RateLimiter.INTERACTIVE : RateLimiter.BACKGROUND;
+          quotes[i] = MainActivity.this.portfolio.downloadQuoteFor(params[i], priority);
+        }
+        catch (Exception e) {
+          Log.e(TAG, e.toString());
+          this.failed[i] = true;
+        }
+      }
+      Tracer.getApp().end("task", "RefreshQuotesTask.doInBackground", start);
+      return quotes;
     }
 
     /**
-     * Called back on the UI thread after the main work has finished. Change the user prompt and populate the gridview with the
-     * updated stock data
+     * Called back on the UI thread after the main work has finished. Put the updated quotes into the portfolio, change the user
+     * prompt and schedule the next batch
      * 
      * @param result
-     *          The portfolio object with updated stock data
+     *          The updated quotes
      * 
      * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
      */
     @Override
-    protected void onPostExecute(Portfolio result) {
+    protected void onPostExecute(Quote[] result) {
       Log.i(TAG, "Background work completed");
+      MainActivity.this.refreshTask = null;
+      long start = Tracer.getApp().begin();
 
-      // If the result is null then display an error message to the user
-      if (result == null) {
-        MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(R.string.unable_download_stocks));
-        return;
+      int updated = 0;
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < result.length; i++) {
+        // Companies that could not be downloaded are retried sooner than a whole refresh interval, backing off while they keep
+        // failing. A response that could not be parsed will not parse any better soon, so waits for the normal interval
+        if (this.failed[i]) {
+          MainActivity.this.scheduler.refreshFailed(this.tickers.get(i), now);
+          continue;
+        }
+        MainActivity.this.scheduler.refreshSucceeded(this.tickers.get(i));
+        // Companies removed while the batch was downloading are ignored
+        if (result[i] != null && MainActivity.this.portfolio.setQuote(this.tickers.get(i), result[i])) {
+          updated++;
+        }
       }
 
-      // Recreate the adapter for the gridview and populate with the updated quotes from the portfolio
-      MainActivity.this.adapter = new QuoteAdapter(MainActivity.this, MainActivity.this.portfolio.getQuotes());
-      MainActivity.this.gridView.setAdapter(MainActivity.this.adapter);
+      // Redraw the gridview in place, keeping the current scroll position
+      long notifyStart = Tracer.getApp().begin();
       MainActivity.this.adapter.notifyDataSetChanged();
+      Tracer.getApp().end("ui", "QuoteAdapter.notifyDataSetChanged", notifyStart);
+      MainActivity.this.showTriggeredAlerts();
+      MainActivity.this.showHoldings();
+      MainActivity.this.showMovers();
 
-      // Set the information text view to the current time (the time the stock data was last updated)
-      MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(R.string.last_updated)
-          + MainActivity.this.dateFormat.format(Calendar.getInstance().getTime()));
+      // If nothing could be downloaded then display an error message to the user. The last prices downloaded are still shown
+      if (updated == 0 && result.length != 0) {
+        if (MainActivity.this.portfolio.isQuoteServiceAvailable()) {
+          MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(R.string.unable_download_stocks));
+        }
+        else {
+          MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(R.string.quotes_unavailable));
+        }
+      }
+      else {
+        // Set the information text view to the current time (the time the stock data was last updated)
+        MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(R.string.last_updated)
+            + MainActivity.this.dateFormat.format(Calendar.getInstance().getTime()));
+      }
+      Tracer.getApp().end("task", "RefreshQuotesTask.onPostExecute", start);
     }
 
     /**
      * Called before the main work is done in the separate thread. Set a prompt for the user telling them that updated stock data is
      * being downloaded.
      * 
-     * 
      * @see android.os.AsyncTask#onPreExecute()
      */
     @Override
@@ -110,28 +328,131 @@ public class MainActivity extends Activity {
   }
 
   /** Object which holds and manages the set of stocks that are being monitored by the app */
-  private Portfolio           portfolio;
+  private Portfolio                          portfolio;
 
   /** Custom adapter for the gridview creates custom MiniQuoteViews for each stock in the portfolio */
-  private QuoteAdapter        adapter;
+  private QuoteAdapter                       adapter;
 
   /** Progress textview displays information about the state of the app e.g updating/last updated etc */
-  private TextView            progressText;
+  private TextView                           progressText;
+
+  /** Displays the value and gains of the shares held, and is hidden when none are held */
+  private TextView                           holdingsText;
+
+  /** Whether the holdings have been read from their file, after which they can be shown without blocking the UI thread */
+  private boolean                            holdingsLoaded;
+
+  /** Displays the stocks that have moved furthest up and down today, and is hidden until any have moved */
+  private TextView                           moversText;
 
   /** The main gridview which is populated with MiniQuoteViews for each stock in the portfolio through the QuoteAdapter */
-  private GridView            gridView;
+  private GridView                           gridView;
 
   /** Allows the current date and time to be formatted in a particular way */
-  private DateFormat          dateFormat;
+  private DateFormat                         dateFormat;
+
+  /** Decides which stocks to update next, based on which are currently visible in the gridview */
+  private RefreshScheduler                   scheduler;
+
+  /** The batch of stocks that is currently being updated, or null if there is none */
+  private RefreshQuotesTask                  refreshTask;
+
+  /** Handler used to update the next batch of stocks periodically */
+  private Handler                            handler;
+
+  /** Updates the next batch of stocks that are due to be updated */
+  private Runnable                           refreshRunnable;
+
+  /** The current scroll state of the gridview */
+  private int                                scrollState;
+
+  /** Whether the activity is in the foreground, and so whether stocks should be updated */
+  private boolean                            resumed;
+
+  /** Whether the user has turned on live prices */
+  private boolean                            streaming;
+
+  /** Client of the live quote feed, or null if the feed is not open */
+  private QuoteStreamClient                  streamClient;
+
+  /** Holds the latest update from the live quote feed for each stock until the next flush */
+  private Conflater<String, JSONObject>      conflater;
+
+  /** Applies the updates drained from the conflater to the quotes in the portfolio */
+  private Conflater.Sink<String, JSONObject> liveUpdateSink;
+
+  /** Flushes the conflater */
+  private Runnable                           flushRunnable;
+
+  /** The watchlist of stocks being monitored, shared by every instance of this activity so that it is only loaded once */
+  private static WatchlistStore              watchlist;
+
+  /** ID name for the preferences of the app, which also stored the set of stocks being monitored in earlier versions of the app */
+  private static final String                PREFS_NAME               = "StocksPrefs";
+
+  /** Name of the preference holding the order the stocks are shown in */
+  private static final String                SORT_MODE_PREF           = "sortMode";
 
-  /** ID name for the preferences that stores the set of stocks being monitored for persistence */
-  private static final String PREFS_NAME          = "StocksPrefs";
+  /** The number of stocks shown in each direction in the movers header */
+  private static final int                   MOVERS_COUNT             = 3;
+
+  /** Name of the file in internal storage that the watchlist is saved in */
+  private static final String                WATCHLIST_FILE           = "watchlist.dat";
+
+  /** The name of the file that the trace of recent work is saved to in debug builds */
+  private static final String                TRACE_FILE               = "trace.json";
+
+  /** The stocks that are monitored when the app is first run */
+  private static final String[]              DEFAULT_TICKERS          = { "YHOO", "ARM.L", "^FTSE", "MSFT", "AAPL", "FB" };
+
+  /** The time in milliseconds after which a stock that is visible in the gridview is updated again */
+  private static final long                  VISIBLE_REFRESH_INTERVAL = 30 * 1000;
+
+  /** The time in milliseconds after which a stock that is scrolled out of view is updated again */
+  private static final long                  HIDDEN_REFRESH_INTERVAL  = 10 * 60 * 1000;
+
+  /** The maximum number of stocks that are scrolled out of view to update in each batch */
+  private static final int                   HIDDEN_BATCH_SIZE        = 2;
+
+  /** The time in milliseconds between checks for stocks that are due to be updated */
+  private static final long                  REFRESH_TICK             = 2 * 1000;
+
+  /**
+   * The URL of the live quote feed. 10.0.2.2 is the address of the development machine from the emulator, where the stand-in feed
+   * QuoteStreamServer can be run. A real device cannot reach it, so the item that starts the feed is only shown in debug builds
+   */
+  private static final String                STREAM_URL               = "http://10.0.2.2:8080/quotes";
+
+  /** The time in milliseconds between flushes of the updates from the live quote feed, which is about one frame */
+  private static final long                  FLUSH_INTERVAL           = 1000 / 60;
 
   /** Request code for the SearchActivity. Allows differentiation between activities that give results */
-  private static final int    SEARCH_REQUEST_CODE = 1;
+  private static final int                   SEARCH_REQUEST_CODE      = 1;
 
   /** Tag for this activity */
-  public static final String  TAG                 = "MainActivity";
+  public static final String                 TAG                      = "MainActivity";
+
+  /**
+   * Describe a list of movers for the movers header
+   * 
+   * @param tickers
+   *          The canonical tickers of the movers
+   * @return The tickers and percentage changes of the movers, or null if there are none
+   */
+  private String describeMovers(List<String> tickers) {
+    if (tickers.isEmpty()) {
+      return null;
+    }
+    StringBuilder text = new StringBuilder();
+    for (String ticker : tickers) {
+      if (text.length() > 0) {
+        text.append(", ");
+      }
+      Quote quote = this.portfolio.getQuote(ticker);
+      text.append(this.getResources().getString(R.string.mover, quote.ticker, Utils.roundTwoPlaces(quote.percentChange)));
+    }
+    return text.toString();
+  }
 
   /**
    * Called when an activity finishes with a result
@@ -155,9 +476,12 @@ public class MainActivity extends Activity {
           // Get the ticker from the data
           String ticker = data.getStringExtra("ticker");
 
-          // Add the ticker to the portfolio of stocks and update the stock information
-          this.portfolio.addCompanyNoUpdate(ticker);
-          this.update();
+          // Add the ticker to the portfolio of stocks and update the stock information, unless it is already being monitored
+          if (this.portfolio.addCompanyNoUpdate(ticker)) {
+            MainActivity.watchlist.add(ticker);
+            this.subscribeStream();
+            this.refresh();
+          }
         }
         break;
       }
@@ -172,13 +496,12 @@ public class MainActivity extends Activity {
   @Override
   public void onConfigurationChanged(Configuration newConfig) {
     super.onConfigurationChanged(newConfig);
-    this.saveStocksToPreferences();
+    this.saveWatchlist();
   }
 
   /**
-   * Called when the activity is created. Set up fields and views with adapters and listeners. Populate the portfolio with the saved
-   * stocks in the preferences if there are any. Also update the stock data for each stock currently being monitored when the
-   * activity is created.
+   * Called when the activity is created. Set up fields and views with adapters and listeners. Start loading the saved watchlist of
+   * stocks into the portfolio, which then updates the stock data for each stock being monitored.
    * 
    * @param savedInstanceState
    * 
@@ -194,41 +517,93 @@ public class MainActivity extends Activity {
     // Initialise fields
     this.dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
     this.portfolio = new Portfolio();
+    this.portfolio.setAlertEngine(StocksApplication.getAlerts());
+    this.portfolio.setHoldings(StocksApplication.getHoldings());
+    this.portfolio.setTickHistory(StocksApplication.getTickHistory());
+    this.portfolio.setSortMode(this.getSharedPreferences(PREFS_NAME, 0).getInt(SORT_MODE_PREF, Portfolio.SORT_NONE));
+    QuoteRegistry.register(this.portfolio);
+    this.scheduler = new RefreshScheduler(this.portfolio, VISIBLE_REFRESH_INTERVAL, HIDDEN_REFRESH_INTERVAL);
+    this.handler = new Handler();
+    this.refreshRunnable = new Runnable() {
 
-    SharedPreferences settings = this.getSharedPreferences(PREFS_NAME, 0);
-    // If there are a set of stocks held in the preferences, use them to fill the portfolio
-    if (settings.contains("tickers")) {
-      String tickers = settings.getString("tickers", "");
-      for (String ticker : tickers.split(",")) {
-        this.portfolio.addCompanyNoUpdate(ticker);
+      @Override
+      public void run() {
+        MainActivity.this.refresh();
       }
-    }
-    else {
-      Log.i(TAG, "No existing saved tickers found, filling defaults");
-      // Otherwise fill the portfolio with some default stocks
-      this.portfolio.addCompanyNoUpdate("YHOO");
-      this.portfolio.addCompanyNoUpdate("ARM.L");
-      this.portfolio.addCompanyNoUpdate("^FTSE");
-      this.portfolio.addCompanyNoUpdate("MSFT");
-      this.portfolio.addCompanyNoUpdate("AAPL");
-      this.portfolio.addCompanyNoUpdate("FB");
+    };
+
+    // Updates from the live quote feed are conflated so that however fast they arrive, each stock is redrawn at most once a frame.
+    // Updates of the same stock that arrive within a frame are merged, as each only holds the fields that changed
+    final QuoteJsonParser deltaParser = new QuoteJsonParser();
+    this.conflater = new Conflater<String, JSONObject>(new Conflater.Merger<JSONObject>() {
+
+      @Override
+      public JSONObject merge(JSONObject older, JSONObject newer) {
+        try {
+          return deltaParser.mergeDeltas(older, newer);
+        }
+        catch (JSONException e) {
+          Log.e(TAG, e.getMessage());
+          return newer;
+        }
+      }
+    });
+    this.liveUpdateSink = new Conflater.Sink<String, JSONObject>() {
+
+      @Override
+      public void onFlushed(int delivered, long merged) {
+        // Redraw the gridview once for the whole batch
+        MainActivity.this.adapter.notifyDataSetChanged();
+        MainActivity.this.showTriggeredAlerts();
+        MainActivity.this.showHoldings();
+        MainActivity.this.showMovers();
+      }
+
+      @Override
+      public void onValue(String ticker, JSONObject delta) {
+        Quote quote = MainActivity.this.portfolio.getQuote(ticker);
+        // The stock may have been removed since the update was sent
+        if (quote == null) {
+          return;
+        }
+        try {
+          // The quote is a view of the portfolio, so the changes must be written back
+          deltaParser.applyDelta(quote, delta);
+          MainActivity.this.portfolio.setQuote(ticker, quote);
+        }
+        catch (JSONException e) {
+          Log.e(TAG, e.getMessage());
+        }
+      }
+    };
+    this.flushRunnable = new Runnable() {
+
+      @Override
+      public void run() {
+        MainActivity.this.conflater.flush(MainActivity.this.liveUpdateSink);
+      }
+    };
+    if (MainActivity.watchlist == null) {
+      MainActivity.watchlist = new WatchlistStore(new File(this.getFilesDir(), WATCHLIST_FILE));
     }
 
     // Set up the views and the adapter for the gridview
     this.progressText = (TextView) this.findViewById(R.id.progressTextView);
+    this.holdingsText = (TextView) this.findViewById(R.id.holdingsTextView);
+    this.moversText = (TextView) this.findViewById(R.id.moversTextView);
     this.gridView = (GridView) this.findViewById(R.id.gridview);
 
     this.adapter = new QuoteAdapter(this, this.portfolio.getQuotes());
     this.gridView.setAdapter(this.adapter);
 
     // If the device is currently in landscape mode, then we want to display 3 columns in the gridview instead of 2
-    if (Utils.isInLandScape(this)) {
+    if (AndroidUtils.isInLandScape(this)) {
       this.gridView.setNumColumns(3);
     }
 
     // Listener for when the user clicks on a view inside the gridview.
-    // Start the QuoteActivity, passing in the quote from the view that the user clicked on. The QuoteActivity then displays further
-    // information about the stock using the quote
+    // Start the QuoteActivity, passing in the ticker of the view that the user clicked on. The QuoteActivity then looks up the quote
+    // in the portfolio and displays further information about the stock
     this.gridView.setOnItemClickListener(new OnItemClickListener() {
 
       @Override
@@ -236,8 +611,8 @@ public class MainActivity extends Activity {
         Log.i(TAG, "Gridview item clicked at position " + position);
 
         Intent i = new Intent(MainActivity.this, QuoteActivity.class);
-        // Add the corresponding quote object to the intent so it can be used in the other activity
-        i.putExtra("quote", (Quote) MainActivity.this.adapter.getItem(position));
+        // Add the ticker of the corresponding quote to the intent so it can be looked up in the other activity
+        i.putExtra(QuoteActivity.EXTRA_TICKER, ((Quote) MainActivity.this.adapter.getItem(position)).ticker);
 
         // Start the new activity
         MainActivity.this.startActivity(i);
@@ -251,8 +626,10 @@ public class MainActivity extends Activity {
     this.gridView.setOnItemLongClickListener(new OnItemLongClickListener() {
 
       @Override
-      public boolean onItemLongClick(AdapterView<?> parent, View v, final int position, long id) {
+      public boolean onItemLongClick(AdapterView<?> parent, View v, int position, long id) {
         Log.i(TAG, "Gridview item long clicked at position " + position);
+        // Remember the stock rather than its position, which may change while the dialog is open if the stocks are sorted
+        final String ticker = ((Quote) MainActivity.this.adapter.getItem(position)).ticker;
 
         // Get a builder for the dialog box
         AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(MainActivity.this);
@@ -265,17 +642,23 @@ public class MainActivity extends Activity {
             .setPositiveButton(MainActivity.this.getResources().getString(R.string.yes), new DialogInterface.OnClickListener() {
 
               /**
-               * Called when the user presses the 'yes' button. Remove the item that the user clicked on from the adapter. This will
-               * also update the portfolio
+               * Called when the user presses the 'yes' button. Remove the stock that the user clicked on from the portfolio, which
+               * is the list behind the adapter
                * 
                * @see android.content.DialogInterface.OnClickListener#onClick(android.content.DialogInterface, int)
                */
               @Override
               public void onClick(DialogInterface dialog, int id) {
-                Log.i(TAG, "Removing item at position " + position);
+                Log.i(TAG, "Removing " + ticker);
 
-                MainActivity.this.adapter.removeItem(position);
+                MainActivity.this.portfolio.removeCompany(ticker);
+                // Live updates are keyed by the subscribed ticker, which is canonical. Drop any that have not been applied yet
+                MainActivity.this.conflater.remove(Portfolio.canonicalise(ticker));
                 MainActivity.this.adapter.notifyDataSetChanged();
+                MainActivity.watchlist.remove(ticker);
+                MainActivity.this.scheduler.forget(ticker);
+                MainActivity.this.subscribeStream();
+                MainActivity.this.showMovers();
               }
               // Also add a negative button. This will simply close the dialog
             }).setNegativeButton(MainActivity.this.getResources().getString(R.string.no), new DialogInterface.OnClickListener() {
@@ -298,8 +681,29 @@ public class MainActivity extends Activity {
       }
     });
 
-    // When the activity is created, we want to update the stock data in the portfolio as initially we have no data to display
-    this.update();
+    // Report the range of stocks visible in the gridview to the scheduler, so that those stocks are updated first and most often.
+    // Stocks that come into view are updated straight away, but not while the user is flinging through the grid
+    this.gridView.setOnScrollListener(new OnScrollListener() {
+
+      @Override
+      public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (MainActivity.this.scheduler.setVisibleRange(firstVisibleItem, visibleItemCount)
+            && MainActivity.this.scrollState != OnScrollListener.SCROLL_STATE_FLING) {
+          MainActivity.this.refresh();
+        }
+      }
+
+      @Override
+      public void onScrollStateChanged(AbsListView view, int scrollState) {
+        MainActivity.this.scrollState = scrollState;
+        if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+          MainActivity.this.refresh();
+        }
+      }
+    });
+
+    // Load the watchlist, which updates the stock data in the portfolio once it has been loaded
+    new LoadWatchlistTask().execute();
   }
 
   /**
@@ -315,6 +719,9 @@ public class MainActivity extends Activity {
   public boolean onCreateOptionsMenu(Menu menu) {
     // Inflate the menu; this adds items to the action bar if it is present.
     this.getMenuInflater().inflate(R.menu.main, menu);
+    menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+    // The live feed is only reachable from the emulator, so is offered in debug builds only
+    menu.findItem(R.id.action_stream).setVisible(BuildConfig.DEBUG);
     return true;
   }
 
@@ -343,6 +750,25 @@ public class MainActivity extends Activity {
         Intent i = new Intent(this, SearchActivity.class);
         this.startActivityForResult(i, SEARCH_REQUEST_CODE);
         return true;
+        // If the user clicked on the live prices item, open or close the connection to the live quote feed
+      case R.id.action_stream:
+        this.streaming = !item.isChecked();
+        item.setChecked(this.streaming);
+        if (this.streaming && this.resumed) {
+          this.startStream();
+        }
+        else {
+          this.stopStream();
+        }
+        return true;
+        // If the user clicked on the metrics item, display where the app has been spending its time
+      case R.id.action_metrics:
+        this.showMetrics();
+        return true;
+        // If the user clicked on the sort item, let them choose the order the stocks are shown in
+      case R.id.action_sort:
+        this.showSortModes();
+        return true;
         // If the user clicked on the about item, start the about activity which displays text about the app
       case R.id.action_about:
         Intent in = new Intent(this, AboutActivity.class);
@@ -353,7 +779,41 @@ public class MainActivity extends Activity {
   }
 
   /**
-   * Called when the activity is stopped. Saves each currently monitored stock into the preferences for persistence. These are then
+   * Called when the activity leaves the foreground. Stop updating stocks and close the live quote feed until it is resumed
+   * 
+   * @see android.app.Activity#onPause()
+   */
+  @Override
+  protected void onPause() {
+    super.onPause();
+    this.resumed = false;
+    this.handler.removeCallbacks(this.refreshRunnable);
+    this.stopStream();
+    Log.i(TAG, "Live updates received: " + this.conflater.getOfferedCount() + ", applied: " + this.conflater.getDeliveredCount()
+        + ", merged: " + this.conflater.getMergedCount());
+  }
+
+  /**
+   * Called when the activity comes into the foreground. Start updating the stocks that are due to be updated
+   * 
+   * @see android.app.Activity#onResume()
+   */
+  @Override
+  protected void onResume() {
+    super.onResume();
+    this.resumed = true;
+    // Trades may have been recorded while another activity was in the foreground
+    if (this.holdingsLoaded) {
+      this.showHoldings();
+    }
+    this.refresh();
+    if (this.streaming) {
+      this.startStream();
+    }
+  }
+
+  /**
+   * Called when the activity is stopped. Saves any changes to the watchlist of monitored stocks for persistence. These are then
    * loaded again when the activity is created
    * 
    * 
@@ -363,49 +823,238 @@ public class MainActivity extends Activity {
   protected void onStop() {
     super.onStop();
 
-    Log.i(TAG, "Saving tickers to preferences");
+    Log.i(TAG, "Saving watchlist");
 
-    this.saveStocksToPreferences();
+    this.saveWatchlist();
   }
 
   /**
-   * Saves the current set of monitored stocks to the preferences so that they can be reloaded again and changes to the list are not
-   * lost
+   * Update the next batch of stocks that are due to be updated in a separate thread, then check again after a short delay. Visible
+   * stocks are updated first and most often, while stocks that are scrolled out of view are updated a few at a time at a much lower
+   * rate
    */
-  private void saveStocksToPreferences() {
-    // Get an editor for the preferences
-    SharedPreferences settings = this.getSharedPreferences(PREFS_NAME, 0);
-    SharedPreferences.Editor editor = settings.edit();
-
-    String tickers = "";
-    // The stocks are held in one string in a comma separated manner
-    for (Quote q : this.portfolio.getQuotes()) {
-      if (q != null && q.ticker != null) {
-        tickers += q.ticker + ",";
+  private void refresh() {
+    this.handler.removeCallbacks(this.refreshRunnable);
+    if (!this.resumed) {
+      return;
+    }
+    // Wait for the current batch to finish, and don't update stocks that are flying past
+    if (this.refreshTask == null && this.scrollState != OnScrollListener.SCROLL_STATE_FLING) {
+      // While Yahoo! Finance is failing don't start batches that would fail immediately, and keep showing the last prices
+      if (!this.portfolio.isQuoteServiceAvailable()) {
+        this.progressText.setText(this.getResources().getString(R.string.quotes_unavailable));
+      }
+      // If a network connection is available, update the stock information
+      else if (AndroidUtils.isNetworkAvailable(this)) {
+        long now = System.currentTimeMillis();
+        // Take the visible companies that are due first. They are then no longer due, so the second batch only adds off screen
+        // companies, and only as many as the rate limit lets through without waiting behind the visible ones
+        List<String> batch = this.scheduler.nextBatch(now, 0);
+        int interactive = batch.size();
+        int available = Utils.getAvailableRequests(RateLimiter.QUOTES, RateLimiter.BACKGROUND);
+        int hidden = Math.min(HIDDEN_BATCH_SIZE, available - interactive);
+        if (hidden > 0) {
+          batch.addAll(this.scheduler.nextBatch(now, hidden));
+        }
+        if (!batch.isEmpty()) {
+          // Start a custom task that downloads the data on another thread so the UI does not lock up
+          this.refreshTask = new RefreshQuotesTask(batch, interactive);
+          this.refreshTask.execute(batch.toArray(new String[batch.size()]));
+        }
+      }
+      else {
+        // Otherwise display an error message to the user
+        this.progressText.setText(this.getResources().getString(R.string.no_internet_connection));
       }
     }
-    if (tickers.length() != 0) {
-      tickers = tickers.substring(0, tickers.length() - 1);
-      // Put the string of stocks into the preferences and save them
-      editor.putString("tickers", tickers);
-      editor.commit();
+    this.handler.postDelayed(this.refreshRunnable, REFRESH_TICK);
+  }
+
+  /**
+   * Saves any changes to the set of monitored stocks in a separate thread so that they can be reloaded again and changes to the list
+   * are not lost
+   */
+  private void saveWatchlist() {
+    new SaveWatchlistTask().execute();
+  }
+
+  /**
+   * Show the value and gains of the shares held in the header, or hide it if no shares are held. The totals are kept up to date by
+   * the holdings as each quote arrives, so this does not depend on the number of holdings
+   */
+  private void showHoldings() {
+    Holdings holdings = StocksApplication.getHoldings();
+    if (holdings.isEmpty()) {
+      this.holdingsText.setVisibility(View.GONE);
+      return;
     }
+    this.holdingsText.setText(this.getResources().getString(R.string.holdings_summary,
+        Utils.roundTwoPlaces(holdings.getTotalValue()), Utils.roundTwoPlaces(holdings.getDayChange()),
+        Utils.roundTwoPlaces(holdings.getUnrealisedGain()), Utils.roundTwoPlaces(holdings.getRealisedGain())));
+    this.holdingsText.setVisibility(View.VISIBLE);
   }
 
   /**
-   * Update the information about each stock held in the porfolio in a separate thread
+   * Display a dialog listing the app's metrics as text, with buttons to write them to the log as JSON and to save the trace of recent
+   * work to a file, so that they can be pulled off the device
    */
-  private void update() {
-    Log.i(TAG, "Updating quote data");
-    // If a network connection is available, update the stock information
-    if (Utils.isNetworkAvailable(this)) {
+  private void showMetrics() {
+    String text = MetricsRegistry.APP.dumpText();
+    AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this);
+    alertDialogBuilder.setTitle(this.getResources().getString(R.string.action_metrics));
+    alertDialogBuilder.setMessage(text.length() == 0 ? this.getResources().getString(R.string.no_metrics) : text)
+        .setNeutralButton(this.getResources().getString(R.string.log_json), new DialogInterface.OnClickListener() {
+
+          /**
+           * Called when the user presses the 'log json' button. Write the metrics to the log as a JSON object
+           * 
+           * @see android.content.DialogInterface.OnClickListener#onClick(android.content.DialogInterface, int)
+           */
+          @Override
+          public void onClick(DialogInterface dialog, int id) {
+            Log.i(TAG, MetricsRegistry.APP.dumpJson());
+          }
+        }).setNegativeButton(this.getResources().getString(R.string.save_trace), new DialogInterface.OnClickListener() {
 
-      // Start a custom task that downloads the data on another thread so the UI does not lock up
-      new UpdateQuotesTask().execute(this.portfolio);
+          /**
+           * Called when the user presses the 'save trace' button. Write the trace to external storage if there is any, where it can
+           * be pulled off the device and opened in the Chrome trace viewer
+           * 
+           * @see android.content.DialogInterface.OnClickListener#onClick(android.content.DialogInterface, int)
+           */
+          @Override
+          public void onClick(DialogInterface dialog, int id) {
+            File dir = MainActivity.this.getExternalFilesDir(null);
+            if (dir == null) {
+              dir = MainActivity.this.getFilesDir();
+            }
+            new SaveTraceTask().execute(new File(dir, TRACE_FILE));
+          }
+        }).setPositiveButton(this.getResources().getString(R.string.close), null);
+    alertDialogBuilder.create().show();
+  }
+
+  /**
+   * Show the stocks that have moved furthest up and down today in the header, or hide it if none have moved. The movers are kept
+   * ranked by the portfolio as each quote arrives, so this only looks at the stocks that are shown
+   */
+  private void showMovers() {
+    String gainers = this.describeMovers(this.portfolio.getMovers(MOVERS_COUNT, true));
+    String losers = this.describeMovers(this.portfolio.getMovers(MOVERS_COUNT, false));
+    if (gainers == null && losers == null) {
+      this.moversText.setVisibility(View.GONE);
+      return;
     }
-    else {
-      // Otherwise display an error message to the userr
-      this.progressText.setText(this.getResources().getString(R.string.no_internet_connection));
+    String none = this.getResources().getString(R.string.no_movers);
+    this.moversText.setText(this.getResources().getString(R.string.movers_summary, gainers == null ? none : gainers,
+        losers == null ? none : losers));
+    this.moversText.setVisibility(View.VISIBLE);
+  }
+
+  /**
+   * Display a dialog letting the user choose the order the stocks are shown in. The choice is saved in the preferences so that the
+   * stocks are shown in the same order next time
+   */
+  private void showSortModes() {
+    // In the order of the sort mode constants of the portfolio
+    String[] modes = { this.getResources().getString(R.string.sort_watchlist),
+        this.getResources().getString(R.string.sort_percent_change), this.getResources().getString(R.string.sort_volume),
+        this.getResources().getString(R.string.sort_market_cap), this.getResources().getString(R.string.sort_name) };
+    AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this);
+    alertDialogBuilder.setTitle(this.getResources().getString(R.string.action_sort));
+    alertDialogBuilder.setItems(modes, new DialogInterface.OnClickListener() {
+
+      /**
+       * Called when the user picks a sort mode. Sort the stocks and remember the choice
+       * 
+       * @see android.content.DialogInterface.OnClickListener#onClick(android.content.DialogInterface, int)
+       */
+      @Override
+      public void onClick(DialogInterface dialog, int which) {
+        MainActivity.this.portfolio.setSortMode(which);
+        MainActivity.this.adapter.notifyDataSetChanged();
+        MainActivity.this.getSharedPreferences(PREFS_NAME, 0).edit().putInt(SORT_MODE_PREF, which).commit();
+      }
+    });
+    alertDialogBuilder.create().show();
+  }
+
+  /**
+   * Tell the user about every price alert triggered by the quotes that have been applied to the portfolio since this was last called
+   */
+  private void showTriggeredAlerts() {
+    for (PriceAlert alert : this.portfolio.takeTriggeredAlerts()) {
+      Log.i(TAG, "Alert " + alert.id + " triggered for " + alert.ticker);
+      String text = this.getResources().getString(R.string.alert_triggered, alert.ticker, AndroidUtils.describeAlert(this, alert));
+      Toast.makeText(this, text, Toast.LENGTH_LONG).show();
     }
   }
+
+  /**
+   * Open a connection to the live quote feed, subscribed to every stock in the portfolio. Updates from the feed are applied to the
+   * quotes on the UI thread
+   */
+  private void startStream() {
+    if (this.streamClient != null) {
+      return;
+    }
+    Log.i(TAG, "Starting live quote feed");
+    this.streamClient = new QuoteStreamClient(STREAM_URL, new QuoteStreamClient.Listener() {
+
+      @Override
+      public void onConnectionChanged(final boolean connected) {
+        MainActivity.this.handler.post(new Runnable() {
+
+          @Override
+          public void run() {
+            MainActivity.this.progressText.setText(MainActivity.this.getResources().getString(
+                connected ? R.string.stream_connected : R.string.stream_disconnected));
+          }
+        });
+      }
+
+      @Override
+      public void onQuoteDelta(String ticker, JSONObject delta) {
+        // Only the first update since the last flush needs to schedule another
+        if (MainActivity.this.conflater.offer(ticker, delta)) {
+          MainActivity.this.handler.postDelayed(MainActivity.this.flushRunnable, FLUSH_INTERVAL);
+        }
+      }
+    });
+    this.subscribeStream();
+    this.streamClient.start();
+  }
+
+  /**
+   * Close the connection to the live quote feed, if there is one
+   */
+  private void stopStream() {
+    if (this.streamClient != null) {
+      Log.i(TAG, "Stopping live quote feed");
+      this.streamClient.stop();
+      this.streamClient = null;
+    }
+  }
+
+  /**
+   * Subscribe the live quote feed to the current set of stocks in the portfolio, if the feed is open
+   */
+  private void subscribeStream() {
+    if (this.streamClient != null) {
+      List<String> tickers = new ArrayList<String>(this.portfolio.getCompanyCount());
+      for (int i = 0; i < this.portfolio.getCompanyCount(); i++) {
+        tickers.add(this.portfolio.getTickerAt(i));
+      }
+      this.streamClient.subscribe(tickers);
+    }
+  }
+
+  /**
+   * Update the information about every stock held in the portfolio, starting with the stocks that are currently visible
+   */
+  private void update() {
+    Log.i(TAG, "Updating quote data");
+    this.scheduler.invalidateAll();
+    this.refresh();
+  }
 }
@@ -10,6 +10,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Path;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.widget.LinearLayout;
@@ -17,38 +18,66 @@ import android.widget.TextView;
 
 /**
  * Custom view used to display a single quote in a gridview. Only the main pieces of data are displayed and the backgrond changes
- * colour depending on the price change
+ * colour depending on the price change. A sparkline of the recent prices of the stock is drawn behind the data. Its path is kept
+ * between draws and only rebuilt when new prices have been recorded, the stock changes or the view is resized
  * 
  * @author Ryan Harrison
  */
 public class MiniQuoteView extends LinearLayout {
 
+  /** The histogram of the time taken to draw each view, including its children */
+  private static final Histogram DRAW_TIMES       = MetricsRegistry.APP.histogram("ui.draw_us");
+
+  /** The fraction of the height of the view at the bottom that the sparkline is drawn in */
+  private static final float     SPARKLINE_HEIGHT = 0.35f;
+
+  /** The distance in pixels between the sparkline and the edges of the view */
+  private static final float     SPARKLINE_INSET  = 6.0f;
+
+  /** Scratch array for the times of the recent prices used to build a sparkline, shared as it is only used on the UI thread */
+  private static long[]          sparklineTimes;
+
+  /** Scratch array for the recent prices used to build a sparkline, shared as it is only used on the UI thread */
+  private static double[]        sparklinePrices;
+
   /** The quote object that this view will display */
-  private Quote    quote;
+  private Quote                  quote;
 
   /** Company textview */
-  private TextView companyText;
+  private TextView               companyText;
 
   /** Ticker textview */
-  private TextView tickerText;
+  private TextView               tickerText;
 
   /** Price textview */
-  private TextView priceText;
+  private TextView               priceText;
 
   /** Exchange textview */
-  private TextView exchangeText;
+  private TextView               exchangeText;
 
   /** Market capitalisation textview */
-  private TextView marketCapText;
+  private TextView               marketCapText;
 
   /** Change textview */
-  private TextView changeText;
+  private TextView               changeText;
 
   /** Percent change textview */
-  private TextView percentChangeText;
+  private TextView               percentChangeText;
 
   /** The paint used to draw a border around the view */
-  private Paint    borderPaint;
+  private Paint                  borderPaint;
+
+  /** The ticker of the stock displayed, which the sparkline is drawn for */
+  private String                 ticker;
+
+  /** The sparkline of the recent prices of the stock, scaled to the size of the view */
+  private final Path             sparkline        = new Path();
+
+  /** The paint used to draw the sparkline */
+  private Paint                  sparklinePaint;
+
+  /** The version of the recent prices that the sparkline was built from, or -1 if it needs to be rebuilt */
+  private long                   sparklineVersion = -1;
 
   /**
    * Create a new MiniQuoteView with specified context and set of attributes
@@ -96,10 +125,92 @@ public class MiniQuoteView extends LinearLayout {
     this.borderPaint.setColor(Color.BLACK);
     this.borderPaint.setStrokeWidth(4.0f);
     this.borderPaint.setStyle(Style.STROKE);
+
+    // Set up the paint used to draw the sparkline, faint enough to read the data over
+    this.sparklinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    this.sparklinePaint.setColor(this.getResources().getColor(R.color.black));
+    this.sparklinePaint.setAlpha(96);
+    this.sparklinePaint.setStrokeWidth(2.0f);
+    this.sparklinePaint.setStyle(Style.STROKE);
+
+    // Views without a background are not drawn by default, which would skip the sparkline and border
+    this.setWillNotDraw(false);
+  }
+
+  /**
+   * Rebuild the sparkline from the recent prices of the stock. Times are spread across the width of the view and prices across the
+   * height of the sparkline, from the lowest to the highest price held
+   * 
+   * @param history
+   *          The recent prices of every stock
+   */
+  private void buildSparkline(TickHistory history) {
+    this.sparkline.rewind();
+    if (sparklineTimes == null || sparklineTimes.length < history.getCapacity()) {
+      sparklineTimes = new long[history.getCapacity()];
+      sparklinePrices = new double[history.getCapacity()];
+    }
+    int count = history.copy(this.ticker, sparklineTimes, sparklinePrices);
+    if (count < 2) {
+      return;
+    }
+
+    double low = sparklinePrices[0];
+    double high = sparklinePrices[0];
+    for (int i = 1; i < count; i++) {
+      low = Math.min(low, sparklinePrices[i]);
+      high = Math.max(high, sparklinePrices[i]);
+    }
+    long start = sparklineTimes[0];
+    long span = sparklineTimes[count - 1] - start;
+    float width = this.getWidth() - 2 * SPARKLINE_INSET;
+    float bottom = this.getHeight() - SPARKLINE_INSET;
+    float height = this.getHeight() * SPARKLINE_HEIGHT - SPARKLINE_INSET;
+    for (int i = 0; i < count; i++) {
+      // Prices seen at the same time, such as a batch of live updates, are spread out evenly instead
+      float x = SPARKLINE_INSET + width * (span == 0 ? (float) i / (count - 1) : (float) (sparklineTimes[i] - start) / span);
+      // A flat line is drawn across the middle
+      float y = bottom - height * (high == low ? 0.5f : (float) ((sparklinePrices[i] - low) / (high - low)));
+      if (i == 0) {
+        this.sparkline.moveTo(x, y);
+      }
+      else {
+        this.sparkline.lineTo(x, y);
+      }
+    }
+  }
+
+  /**
+   * Draw the view and its children, recording how long it takes
+   * 
+   * @param canvas
+   *          The canvas to draw on
+   * 
+   * @see android.view.View#draw(android.graphics.Canvas)
+   */
+  @Override
+  public void draw(Canvas canvas) {
+    long start = System.nanoTime();
+    super.draw(canvas);
+    DRAW_TIMES.recordSince(start);
   }
 
   /** Fill in the UI views with data from the quote object */
   private void fillData() {
+    // Clear everything shown for the previous quote, as the view may be reused for another stock
+    this.setBackgroundColor(Color.TRANSPARENT);
+    this.companyText.setText("");
+    this.priceText.setText("");
+    this.exchangeText.setText("");
+    this.marketCapText.setText("");
+    this.changeText.setText("");
+    this.percentChangeText.setText("");
+    String ticker = this.quote == null ? null : this.quote.ticker;
+    if (ticker == null ? this.ticker != null : !ticker.equals(this.ticker)) {
+      this.ticker = ticker;
+      this.sparklineVersion = -1;
+    }
+
     // If the quote has no data, then display a not available message only
     if (this.quote == null) {
       this.companyText.setText(this.getResources().getString(R.string.not_available));
@@ -114,8 +225,8 @@ public class MiniQuoteView extends LinearLayout {
       this.companyText.setText(this.quote.name);
       this.priceText.setText(this.quote.lastTradePrice + "");
       this.exchangeText.setText("  (" + this.quote.stockExchange + ")");
-      this.marketCapText.setText(this.quote.marketCapitalization.equals("null") ? this.getResources().getString(
-          R.string.not_available) : this.quote.marketCapitalization);
+      this.marketCapText.setText(Double.isNaN(this.quote.marketCapitalization) ? this.getResources().getString(
+          R.string.not_available) : Utils.formatMarketCap(this.quote.marketCapitalization));
 
       double change = this.quote.change;
 
@@ -156,7 +267,8 @@ public class MiniQuoteView extends LinearLayout {
   }
 
   /**
-   * Override the draw method to add a black border around the view
+   * Override the draw method to add the sparkline behind the data and a black border around the view. The sparkline is only rebuilt
+   * if new prices have been recorded since it was last built
    * 
    * @param canvas
    *          The canvas to draw on
@@ -166,6 +278,48 @@ public class MiniQuoteView extends LinearLayout {
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
+    TickHistory history = StocksApplication.getTickHistory();
+    if (this.ticker != null && history != null) {
+      long version = history.getVersion(this.ticker);
+      if (version != this.sparklineVersion) {
+        this.buildSparkline(history);
+        this.sparklineVersion = version;
+      }
+      canvas.drawPath(this.sparkline, this.sparklinePaint);
+    }
     canvas.drawRect(0, 0, this.getWidth(), this.getHeight(), this.borderPaint);
   }
+
+  /**
+   * Called when the size of the view changes. The sparkline is scaled to the old size so must be rebuilt
+   * 
+   * @param w
+   *          The new width
+   * @param h
+   *          The new height
+   * @param oldw
+   *          The old width
+   * @param oldh
+   *          The old height
+   * 
+   * @see android.view.View#onSizeChanged(int, int, int, int)
+   */
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    this.sparklineVersion = -1;
+  }
+
+  /**
+   * Display another quote in this view, so that the view can be reused rather than inflating a new one. The sparkline is kept if
+   * the quote is of the same stock
+   * 
+   * @param quote
+   *          The quote to display
+   */
+  public void setQuote(Quote quote) {
+    this.quote = quote;
+    this.fillData();
+    this.invalidate();
+  }
 }
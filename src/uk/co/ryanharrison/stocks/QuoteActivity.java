@@ -8,27 +8,40 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
+import org.json.JSONException;
 import org.xmlpull.v1.XmlPullParserException;
 
 import uk.co.ryanharrison.stocks.R;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.InputType;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * An activity that displays a Quote object in a graphical manner. This activity also downloads an RSS feed for the company that the
@@ -38,6 +51,100 @@ import android.widget.TextView;
  */
 public class QuoteActivity extends Activity {
 
+  /**
+   * Task to download the daily price history of the stock and warm up an indicator engine with it
+   * 
+   * @author Ryan Harrison
+   */
+  private class DownloadHistoryTask extends AsyncTask<String, Void, IndicatorEngine> {
+
+    /** The key of the engine in the cache of indicator engines */
+    private final String key;
+
+    /**
+     * Construct a new DownloadHistoryTask
+     * 
+     * @param key
+     *          The key to cache the warmed up engine under
+     */
+    public DownloadHistoryTask(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Main work to do in the separate thread. Download the price history from the url passed in and add each day to a new engine
+     * 
+     * @param urls
+     *          The url of the price history
+     * @return The warmed up engine, or null if the history could not be downloaded
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected IndicatorEngine doInBackground(String... urls) {
+      long start = Tracer.getApp().begin();
+      InputStream stream = null;
+      try {
+        stream = Utils.downloadUrl(urls[0], RateLimiter.QUOTES, RateLimiter.INTERACTIVE);
+        IndicatorEngine engine = new IndicatorEngine();
+        long parseStart = Tracer.getApp().begin();
+        int days = new HistoryJsonParser().parse(stream, engine);
+        Tracer.getApp().end("parse", "HistoryJsonParser.parse", parseStart);
+        Log.i(TAG, "Warmed up indicators from " + days + " days of history");
+        return engine;
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.toString());
+        return null;
+      }
+      catch (JSONException e) {
+        Log.e(TAG, e.toString());
+        return null;
+      }
+      finally {
+        if (stream != null) {
+          try {
+            stream.close();
+          }
+          catch (IOException e) {
+            Log.e(TAG, e.toString());
+          }
+        }
+        Tracer.getApp().end("task", "DownloadHistoryTask.doInBackground", start);
+      }
+    }
+
+    /**
+     * Called back on the UI thread after the main work has finished. Cache the engine and display its indicators
+     * 
+     * @param result
+     *          The warmed up engine, or null if the history could not be downloaded
+     * 
+     * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+     */
+    @Override
+    protected void onPostExecute(IndicatorEngine result) {
+      QuoteActivity.this.historyTask = null;
+      if (result == null) {
+        QuoteActivity.this.indicatorsText.setText(QuoteActivity.this.getResources().getString(R.string.unable_load_indicators));
+      }
+      else {
+        INDICATORS.put(this.key, result);
+        QuoteActivity.this.showIndicators(result);
+      }
+    }
+
+    /**
+     * Called before the main work is done in the separate thread. Tell the user that the indicators are being loaded
+     * 
+     * @see android.os.AsyncTask#onPreExecute()
+     */
+    @Override
+    protected void onPreExecute() {
+      QuoteActivity.this.indicatorsText.setText(QuoteActivity.this.getResources().getString(R.string.loading_indicators));
+    }
+  }
+
   /**
    * Task to download an rss feed from the internet and display it in the listview
    * 
@@ -45,6 +152,33 @@ public class QuoteActivity extends Activity {
    */
   private class DownloadRSSXmlTask extends AsyncTask<String, Void, Map<String, String>> {
 
+    /** The task's reference to the download of the feed, which is shared with any other task downloading the same feed */
+    private final SingleFlight<String, Map<String, String>>.Call call;
+
+    /**
+     * Construct a new DownloadRSSXmlTask, joining the download of the feed at a url
+     * 
+     * @param url
+     *          The url of the feed to download
+     */
+    public DownloadRSSXmlTask(final String url) {
+      this.call = FEEDS.join(url, new Callable<Map<String, String>>() {
+
+        @Override
+        public Map<String, String> call() throws IOException, XmlPullParserException {
+          return DownloadRSSXmlTask.this.loadXmlFromNetwork(url);
+        }
+      });
+    }
+
+    /**
+     * Stop the task, cancelling the download unless another task is waiting for the same feed
+     */
+    public void cancelDownload() {
+      this.cancel(false);
+      this.call.cancel();
+    }
+
     /**
      * Main work to do in the separate thread. Download and return the xml from the url passed in
      * 
@@ -56,16 +190,17 @@ public class QuoteActivity extends Activity {
      */
     @Override
     protected Map<String, String> doInBackground(String... urls) {
+      long start = Tracer.getApp().begin();
       try {
-        return this.loadXmlFromNetwork(urls[0]);
+        // Download the feed, or wait for the download if another task has already started it
+        return this.call.get();
       }
       catch (IOException e) {
-        Log.e(TAG, e.getMessage());
+        Log.e(TAG, e.toString());
         return null;
       }
-      catch (XmlPullParserException e) {
-        Log.e(TAG, e.getMessage());
-        return null;
+      finally {
+        Tracer.getApp().end("task", "DownloadRSSXmlTask.doInBackground", start);
       }
     }
 
@@ -83,16 +218,21 @@ public class QuoteActivity extends Activity {
     private Map<String, String> loadXmlFromNetwork(String url) throws XmlPullParserException, IOException {
       InputStream stream = null;
       // Instantiate the parser
-      RSSFeedXmlParser rssParser = new RSSFeedXmlParser();
+      RSSFeedXmlParser rssParser = new RSSFeedXmlParser(StocksApplication.XML_PARSERS);
+      // Show how many near-duplicate stories were collapsed into each headline that was kept
+      rssParser.setCollapsedFormat(QuoteActivity.this.getResources().getString(R.string.collapsed_headline));
       Map<String, String> entries;
       try {
         Log.i(TAG, "Retrieiving url stream");
         // Download the xml file
-        stream = Utils.downloadUrl(url);
+        stream = Utils.downloadUrl(url, RateLimiter.FEEDS, RateLimiter.INTERACTIVE);
 
         Log.i(TAG, "Parsing stream xml file for rss feed items");
         // Parse the xml file
+        long start = Tracer.getApp().begin();
         entries = rssParser.parse(stream);
+        MetricsRegistry.APP.histogram("parse.xml_us", "endpoint", "feeds").recordSince(start);
+        Tracer.getApp().end("parse", "RSSFeedXmlParser.parse", start);
       }
       finally {
         // Close the stream in all cases
@@ -114,23 +254,25 @@ public class QuoteActivity extends Activity {
     @Override
     protected void onPostExecute(Map<String, String> result) {
       Log.i(TAG, "Background work completed");
-
+      QuoteActivity.this.task = null;
+      long start = Tracer.getApp().begin();
       // If the result is null there was an error so tell the user about it
       if (result == null) {
         QuoteActivity.this.feedTextField.setText(QuoteActivity.this.getResources().getString(R.string.unable_download_feed));
-        return;
       }
+      else {
+        QuoteActivity.this.links = result;
+        QuoteActivity.this.feedTextField.setText(QuoteActivity.this.getResources().getString(R.string.news_feed));
 
-      QuoteActivity.this.links = result;
-      QuoteActivity.this.feedTextField.setText(QuoteActivity.this.getResources().getString(R.string.news_feed));
+        // Populate the listview with the RSS feed items
+        for (Entry<String, String> entry : QuoteActivity.this.links.entrySet()) {
+          QuoteActivity.this.adapter.add(entry.getKey());
+        }
 
-      // Populate the listview with the RSS feed items
-      for (Entry<String, String> entry : QuoteActivity.this.links.entrySet()) {
-        QuoteActivity.this.adapter.add(entry.getKey());
+        // Notify the adapter that the data set has changed so the listview should be redrawn
+        QuoteActivity.this.adapter.notifyDataSetChanged();
       }
-
-      // Notify the adapter that the data set has changed so the listview should be redrawn
-      QuoteActivity.this.adapter.notifyDataSetChanged();
+      Tracer.getApp().end("task", "DownloadRSSXmlTask.onPostExecute", start);
     }
 
     /**
@@ -145,29 +287,208 @@ public class QuoteActivity extends Activity {
     }
   }
 
+  /**
+   * Task to write the price alerts to their file after they have been changed
+   * 
+   * @author Ryan Harrison
+   */
+  private static class SaveAlertsTask extends AsyncTask<Void, Void, Void> {
+
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param params
+     *          Unused
+     * @return Nothing
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Void doInBackground(Void... params) {
+      try {
+        StocksApplication.getAlerts().flush();
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.toString());
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Task to append the trades recorded in the holdings to their file
+   * 
+   * @author Ryan Harrison
+   */
+  private static class SaveHoldingsTask extends AsyncTask<Void, Void, Void> {
+
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param params
+     *          Unused
+     * @return Nothing
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Void doInBackground(Void... params) {
+      try {
+        StocksApplication.getHoldings().flush();
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.toString());
+      }
+      return null;
+    }
+  }
+
   /** The quote object that is being displayed in this activity */
-  private Quote                quote;
+  private Quote                                                  quote;
+
+  /** The task downloading the RSS feed, or null if there is none */
+  private DownloadRSSXmlTask                                     task;
 
   /** The adapter used to display RSS items in the listview */
-  private ArrayAdapter<String> adapter;
+  private ArrayAdapter<String>                                   adapter;
 
   /** A Map of RSS item titles to their corresponding link urls */
-  private Map<String, String>  links;
+  private Map<String, String>                                    links;
 
   /** The listview that will be populated by RSS items for the company */
-  private ListView             rssFeed;
+  private ListView                                               rssFeed;
 
   /** A textview to provide information about the rss feed */
-  private TextView             feedTextField;
+  private TextView                                               feedTextField;
+
+  /** The task downloading the price history for the indicators, or null if there is none */
+  private DownloadHistoryTask                                    historyTask;
+
+  /** A textview displaying the technical indicators of the stock */
+  private TextView                                               indicatorsText;
+
+  /** The feed downloads in progress, keyed by url and shared between every quote activity */
+  private static final SingleFlight<String, Map<String, String>> FEEDS        = new SingleFlight<String, Map<String, String>>();
 
   /**
    * The URL to use when downloading the RSS feed for a company. The RSS feeds are obtained from the Yahoo! Finance API which is
    * free to use for personal use
    */
-  private static final String  FEEDURL = "http://feeds.finance.yahoo.com/rss/2.0/headline?s=%s&region=US&lang=en-US";
+  private static final String                                    FEEDURL      = "http://feeds.finance.yahoo.com/rss/2.0/headline?s=%s&region=US&lang=en-US";
+
+  /**
+   * The URL used to download the daily price history of a company, to which the encoded query is appended. The history is obtained
+   * from the Yahoo! Finance API which is free to use for personal use
+   */
+  private static final String                                    HISTORYURL   = "http://query.yahooapis.com/v1/public/yql?format=json&env=store%3A%2F%2Fdatatables.org%2Falltableswithkeys&q=";
+
+  /** The query for the daily price history of a company between two dates */
+  private static final String                                    HISTORYQUERY = "select * from yahoo.finance.historicaldata where symbol = \"%s\" and startDate = \"%s\" and endDate = \"%s\"";
+
+  /** The number of days of price history used to warm up the indicators */
+  private static final int                                       HISTORY_DAYS = 365;
+
+  /** The number of stocks whose warmed up indicator engines are kept */
+  private static final int                                       MAX_ENGINES  = 16;
+
+  /**
+   * The indicator engines of the stocks viewed most recently, keyed by ticker and the day their history ends, so that viewing a
+   * stock again the same day only has to apply its latest quote. Only accessed on the UI thread
+   */
+  private static final Map<String, IndicatorEngine>              INDICATORS   = newIndicatorCache();
+
+  /** The name of the intent extra holding the ticker of the stock to display */
+  public static final String                                     EXTRA_TICKER = "ticker";
+
+  /** The key of the quote saved in the instance state, used if the quote registry has been lost along with the process */
+  private static final String                                    STATE_QUOTE  = "quote";
 
   /** The tag for this activity */
-  public static final String   TAG     = "Quote";
+  public static final String                                     TAG          = "Quote";
+
+  /**
+   * Format the value of an indicator for display
+   * 
+   * @param value
+   *          The value, or NaN if the indicator is not available
+   * @return The value rounded to two decimal places, or a dash if it is not available
+   */
+  private static String formatIndicator(double value) {
+    return Double.isNaN(value) ? "-" : Utils.roundTwoPlaces(value);
+  }
+
+  /**
+   * Create the least recently used cache of the indicator engines of the stocks viewed most recently
+   * 
+   * @return The empty cache
+   */
+  private static Map<String, IndicatorEngine> newIndicatorCache() {
+    return new LinkedHashMap<String, IndicatorEngine>(MAX_ENGINES, 0.75f, true) {
+
+      /** Serial version id required as LinkedHashMap implements Serializable */
+      private static final long serialVersionUID = 4913337451823072514L;
+
+      /**
+       * Evict the engine of the least recently viewed stock once the cache is over capacity
+       * 
+       * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+       */
+      @Override
+      protected boolean removeEldestEntry(Entry<String, IndicatorEngine> eldest) {
+        return this.size() > MAX_ENGINES;
+      }
+    };
+  }
+
+  /**
+   * Create a listener for a button of the dialog adding an alert, which adds an alert of a type at the level entered by the user
+   * 
+   * @param input
+   *          The field that the user enters the level in
+   * @param type
+   *          The type of the alert added by the button
+   * @return The listener
+   */
+  private DialogInterface.OnClickListener addAlertListener(final EditText input, final int type) {
+    return new DialogInterface.OnClickListener() {
+
+      @Override
+      public void onClick(DialogInterface dialog, int id) {
+        double threshold;
+        try {
+          threshold = Double.parseDouble(input.getText().toString().trim());
+        }
+        catch (NumberFormatException e) {
+          // Nothing sensible was entered, so there is no alert to add
+          return;
+        }
+        StocksApplication.getAlerts().add(QuoteActivity.this.quote.ticker, type, threshold);
+        new SaveAlertsTask().execute();
+        QuoteActivity.this.showAlerts();
+      }
+    };
+  }
+
+  /**
+   * Ask the user to confirm that they want to remove an alert, and remove it if they do
+   * 
+   * @param alert
+   *          The alert to remove
+   */
+  private void confirmRemoveAlert(final PriceAlert alert) {
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(AndroidUtils.describeAlert(this, alert)).setMessage(this.getResources().getString(R.string.remove_alert));
+    builder.setPositiveButton(this.getResources().getString(R.string.yes), new DialogInterface.OnClickListener() {
+
+      @Override
+      public void onClick(DialogInterface dialog, int id) {
+        StocksApplication.getAlerts().remove(alert.id);
+        new SaveAlertsTask().execute();
+        QuoteActivity.this.showAlerts();
+      }
+    }).setNegativeButton(this.getResources().getString(R.string.no), null);
+    builder.show();
+  }
 
   /**
    * Display the current Quote object in the views of the layout
@@ -209,9 +530,8 @@ public class QuoteActivity extends Activity {
     ((TextView) this.findViewById(R.id.yearHighTextView)).setText("" + this.quote.yearHigh);
     ((TextView) this.findViewById(R.id.volumeTextView)).setText("" + this.quote.volume);
     ((TextView) this.findViewById(R.id.averageVolumeTextView)).setText("" + this.quote.averageDailyVolume);
-    ((TextView) this.findViewById(R.id.marketCapTextView)).setText(this.quote.marketCapitalization == null
-        || this.quote.marketCapitalization.equals("null") ? this.getResources().getString(R.string.not_available)
-        : this.quote.marketCapitalization);
+    ((TextView) this.findViewById(R.id.marketCapTextView)).setText(Double.isNaN(this.quote.marketCapitalization) ? this
+        .getResources().getString(R.string.not_available) : Utils.formatMarketCap(this.quote.marketCapitalization));
   }
 
   /**
@@ -224,7 +544,7 @@ public class QuoteActivity extends Activity {
     Log.i(TAG, "Filling rss feed with items for " + ticker);
 
     // If no internet network is available, display an error message
-    if (!Utils.isNetworkAvailable(this)) {
+    if (!AndroidUtils.isNetworkAvailable(this)) {
       this.feedTextField.setText(this.getResources().getString(R.string.no_internet_connection));
       return;
     }
@@ -235,13 +555,61 @@ public class QuoteActivity extends Activity {
       url = String.format(FEEDURL, URLEncoder.encode(ticker.toLowerCase(Locale.getDefault()), "utf-8"));
 
       // Start the download in another thread so the UI does not lock up
-      new DownloadRSSXmlTask().execute(url);
+      this.task = new DownloadRSSXmlTask(url);
+      this.task.execute(url);
+    }
+    catch (UnsupportedEncodingException e) {
+      Log.e(TAG, e.getMessage());
+    }
+  }
+
+  /**
+   * Display the technical indicators of a stock. The indicator engine of the stock is warmed up from its daily price history the
+   * first time the stock is viewed each day, after which the engine is reused and only the latest quote has to be applied
+   * 
+   * @param ticker
+   *          The ticker of the stock
+   */
+  private void fillIndicators(String ticker) {
+    // The history ends yesterday, as today's bar is still forming and comes from the latest quote instead
+    DateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    Calendar calendar = Calendar.getInstance();
+    calendar.add(Calendar.DAY_OF_MONTH, -1);
+    String end = format.format(calendar.getTime());
+    String key = Portfolio.canonicalise(ticker) + " " + end;
+
+    IndicatorEngine engine = INDICATORS.get(key);
+    if (engine != null) {
+      this.showIndicators(engine);
+      return;
+    }
+    if (!AndroidUtils.isNetworkAvailable(this)) {
+      this.indicatorsText.setText(this.getResources().getString(R.string.unable_load_indicators));
+      return;
+    }
+
+    calendar.add(Calendar.DAY_OF_MONTH, 1 - HISTORY_DAYS);
+    String start = format.format(calendar.getTime());
+    try {
+      String url = HISTORYURL + URLEncoder.encode(String.format(HISTORYQUERY, ticker, start, end), "utf-8");
+      this.historyTask = new DownloadHistoryTask(key);
+      this.historyTask.execute(url);
     }
     catch (UnsupportedEncodingException e) {
       Log.e(TAG, e.getMessage());
     }
   }
 
+  /**
+   * Called when the price alerts button is clicked. Show the alerts of the stock, from where they can be added to or removed
+   * 
+   * @param v
+   *          The view that raised the event
+   */
+  public void onAlertsButtonClick(View v) {
+    this.showAlerts();
+  }
+
   /**
    * Called when the display chart button is clicked. Start the ChartActivity and pass in the ticker that it will display the charts
    * of
@@ -252,7 +620,7 @@ public class QuoteActivity extends Activity {
   public void onChartButtonClick(View v) {
     // Construct the Intent making sure to add the ticker that the activity will use
     Intent i = new Intent(this, ChartActivity.class);
-    i.putExtra("ticker", this.quote.ticker);
+    i.putExtra(ChartActivity.EXTRA_TICKER, this.quote.ticker);
 
     // Start the ChartActivity
     this.startActivity(i);
@@ -267,18 +635,25 @@ public class QuoteActivity extends Activity {
    */
   @Override
   protected void onCreate(Bundle savedInstanceState) {
+    long start = Tracer.getApp().begin();
     super.onCreate(savedInstanceState);
 
     // Set the layout of this activity
     this.setContentView(R.layout.activity_quote);
 
-    // Get the Quote object that is passed into the activity through the intent object
+    // Look up the latest quote of the ticker that is passed into the activity through the intent object. If the process has been
+    // restarted since the activity was started, the quote registry is empty so use the quote saved in the instance state instead
     Bundle extras = this.getIntent().getExtras();
-    this.quote = (Quote) extras.get("quote");
+    this.quote = QuoteRegistry.lookup(extras.getString(EXTRA_TICKER));
+    if (this.quote == null && savedInstanceState != null) {
+      QuoteParcel saved = savedInstanceState.getParcelable(STATE_QUOTE);
+      this.quote = saved == null ? null : saved.quote;
+    }
 
     // Get views from the layout
     this.rssFeed = (ListView) this.findViewById(R.id.feedList);
     this.feedTextField = ((TextView) this.findViewById(R.id.feedTextView));
+    this.indicatorsText = (TextView) this.findViewById(R.id.indicatorsTextView);
 
     // Set the adapter for the RSS feed listview
     this.adapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
@@ -313,11 +688,187 @@ public class QuoteActivity extends Activity {
 
       /** Download and fill the rss feed with items related to the company that this activity displays */
       this.fillFeed(this.quote.ticker);
+
+      /** Calculate the technical indicators of the company from its price history */
+      this.fillIndicators(this.quote.ticker);
     }
     else {
       ((TextView) this.findViewById(R.id.companyNameTextView)).setText(this.getResources().getString(R.string.not_available));
       ((Button) this.findViewById(R.id.chartButton)).setEnabled(false);
+      ((Button) this.findViewById(R.id.alertsButton)).setEnabled(false);
+      ((Button) this.findViewById(R.id.holdingButton)).setEnabled(false);
+    }
+    Tracer.getApp().end("activity", "QuoteActivity.onCreate", start);
+  }
+
+  /**
+   * Called when the activity is destroyed. Cancel the downloads of the RSS feed and price history, as they will never be displayed
+   * 
+   * @see android.app.Activity#onDestroy()
+   */
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    if (this.task != null) {
+      this.task.cancelDownload();
+      this.task = null;
+    }
+    if (this.historyTask != null) {
+      this.historyTask.cancel(true);
+      this.historyTask = null;
+    }
+  }
+
+  /**
+   * Called when the holding button is clicked. Show the shares held in the stock, from where trades can be recorded
+   * 
+   * @param v
+   *          The button
+   */
+  public void onHoldingButtonClick(View v) {
+    this.showHolding();
+  }
+
+  /**
+   * Called before the activity may be destroyed. Save the quote being displayed so that it can be restored if the process is killed
+   * 
+   * @param outState
+   *          The bundle to save the state in
+   * 
+   * @see android.app.Activity#onSaveInstanceState(android.os.Bundle)
+   */
+  @Override
+  protected void onSaveInstanceState(Bundle outState) {
+    super.onSaveInstanceState(outState);
+    if (this.quote != null) {
+      outState.putParcelable(STATE_QUOTE, new QuoteParcel(this.quote));
+    }
+  }
+
+  /**
+   * Show a dialog asking the user for the level of a new alert, with a button for each type of alert
+   */
+  private void showAddAlert() {
+    EditText input = new EditText(this);
+    input.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+    input.setHint(this.getResources().getString(R.string.alert_threshold));
+
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(this.getResources().getString(R.string.add_alert)).setView(input);
+    builder.setPositiveButton(this.getResources().getString(R.string.alert_above), this.addAlertListener(input, PriceAlert.ABOVE));
+    builder.setNeutralButton(this.getResources().getString(R.string.alert_move), this.addAlertListener(input, PriceAlert.MOVE));
+    builder.setNegativeButton(this.getResources().getString(R.string.alert_below), this.addAlertListener(input, PriceAlert.BELOW));
+    builder.show();
+  }
+
+  /**
+   * Show a dialog listing the price alerts of the stock. Touching an alert offers to remove it
+   */
+  private void showAlerts() {
+    final List<PriceAlert> alerts = StocksApplication.getAlerts().getAlerts(this.quote.ticker);
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(this.getResources().getString(R.string.price_alerts));
+    if (alerts.isEmpty()) {
+      builder.setMessage(this.getResources().getString(R.string.no_alerts));
+    }
+    else {
+      String[] descriptions = new String[alerts.size()];
+      for (int i = 0; i < descriptions.length; i++) {
+        descriptions[i] = AndroidUtils.describeAlert(this, alerts.get(i));
+      }
+      builder.setItems(descriptions, new DialogInterface.OnClickListener() {
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+          QuoteActivity.this.confirmRemoveAlert(alerts.get(which));
+        }
+      });
+    }
+    builder.setPositiveButton(this.getResources().getString(R.string.add_alert), new DialogInterface.OnClickListener() {
+
+      @Override
+      public void onClick(DialogInterface dialog, int id) {
+        QuoteActivity.this.showAddAlert();
+      }
+    }).setNegativeButton(this.getResources().getString(R.string.close), null);
+    builder.show();
+  }
+
+  /**
+   * Show a dialog with the number and cost of the shares held in the stock, with buttons to record a purchase or a sale
+   */
+  private void showHolding() {
+    Holdings holdings = StocksApplication.getHoldings();
+    double quantity = holdings.getQuantity(this.quote.ticker);
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(this.getResources().getString(R.string.holding));
+    if (quantity > 0) {
+      builder.setMessage(this.getResources().getString(R.string.holding_summary, Utils.formatQuantity(quantity),
+          Utils.roundTwoPlaces(holdings.getCostBasis(this.quote.ticker))));
+      builder.setNeutralButton(this.getResources().getString(R.string.sell), new DialogInterface.OnClickListener() {
+
+        @Override
+        public void onClick(DialogInterface dialog, int id) {
+          QuoteActivity.this.showTrade(false);
+        }
+      });
+    }
+    else {
+      builder.setMessage(this.getResources().getString(R.string.no_holding));
+    }
+    builder.setPositiveButton(this.getResources().getString(R.string.buy), new DialogInterface.OnClickListener() {
+
+      @Override
+      public void onClick(DialogInterface dialog, int id) {
+        QuoteActivity.this.showTrade(true);
+      }
+    }).setNegativeButton(this.getResources().getString(R.string.close), null);
+    builder.show();
+  }
+
+  /**
+   * Apply the latest quote to an indicator engine as the bar that is forming today, and display the indicators
+   * 
+   * @param engine
+   *          The engine warmed up from the price history of the stock
+   */
+  private void showIndicators(IndicatorEngine engine) {
+    // Before the market opens there is no bar for today yet, and the last price is the close already in the history
+    if (this.quote.daysHigh > 0) {
+      engine.setFormingBar(this.quote.daysHigh, this.quote.daysLow, this.quote.lastTradePrice);
     }
+    this.indicatorsText.setText(this.getResources().getString(R.string.indicators_summary, engine.getSmaPeriod(),
+        formatIndicator(engine.getSma()), engine.getEmaPeriod(), formatIndicator(engine.getEma()), engine.getRsiPeriod(),
+        formatIndicator(engine.getRsi()), engine.getAtrPeriod(), formatIndicator(engine.getAtr()),
+        formatIndicator(engine.getMacd()), formatIndicator(engine.getMacdSignal()), formatIndicator(engine.getBollingerLower()),
+        formatIndicator(engine.getBollingerUpper())));
+  }
+
+  /**
+   * Show a dialog asking the user for the number of shares traded and the price per share, which starts at the current price
+   * 
+   * @param buy
+   *          True to record a purchase, false to record a sale
+   */
+  private void showTrade(boolean buy) {
+    EditText quantityInput = new EditText(this);
+    quantityInput.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+    quantityInput.setHint(this.getResources().getString(R.string.trade_quantity));
+    EditText priceInput = new EditText(this);
+    priceInput.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+    priceInput.setHint(this.getResources().getString(R.string.trade_price));
+    priceInput.setText(Utils.roundTwoPlaces(this.quote.lastTradePrice));
+    LinearLayout layout = new LinearLayout(this);
+    layout.setOrientation(LinearLayout.VERTICAL);
+    layout.addView(quantityInput);
+    layout.addView(priceInput);
+
+    String title = this.getResources().getString(buy ? R.string.buy : R.string.sell);
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(title).setView(layout);
+    builder.setPositiveButton(title, this.tradeListener(quantityInput, priceInput, buy));
+    builder.setNegativeButton(this.getResources().getString(R.string.close), null);
+    builder.show();
   }
 
   /**
@@ -331,4 +882,58 @@ public class QuoteActivity extends Activity {
     Intent browserIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
     this.startActivity(browserIntent);
   }
+
+  /**
+   * Create a listener for the button of the dialog recording a trade, which records a purchase or sale of the number of shares at
+   * the price entered by the user
+   * 
+   * @param quantityInput
+   *          The field that the user enters the number of shares in
+   * @param priceInput
+   *          The field that the user enters the price per share in
+   * @param buy
+   *          True if the button records a purchase, false if it records a sale
+   * @return The listener
+   */
+  private DialogInterface.OnClickListener tradeListener(final EditText quantityInput, final EditText priceInput, final boolean buy) {
+    return new DialogInterface.OnClickListener() {
+
+      @Override
+      public void onClick(DialogInterface dialog, int id) {
+        double quantity;
+        double price;
+        try {
+          quantity = Double.parseDouble(quantityInput.getText().toString().trim());
+          price = Double.parseDouble(priceInput.getText().toString().trim());
+        }
+        catch (NumberFormatException e) {
+          // Nothing sensible was entered, so there is no trade to record
+          return;
+        }
+        if (!(quantity > 0) || !(price >= 0)) {
+          return;
+        }
+
+        Holdings holdings = StocksApplication.getHoldings();
+        String ticker = QuoteActivity.this.quote.ticker;
+        if (buy) {
+          holdings.buy(ticker, quantity, price);
+        }
+        else if (quantity > holdings.getQuantity(ticker)) {
+          Toast.makeText(QuoteActivity.this, QuoteActivity.this.getResources().getString(R.string.not_enough_shares,
+              Utils.formatQuantity(holdings.getQuantity(ticker))), Toast.LENGTH_LONG).show();
+          return;
+        }
+        else {
+          double gain = holdings.sell(ticker, quantity, price);
+          Toast.makeText(QuoteActivity.this, QuoteActivity.this.getResources().getString(R.string.realised_gain,
+              Utils.roundTwoPlaces(gain)), Toast.LENGTH_LONG).show();
+        }
+        // Value the holding at the latest price straight away, rather than waiting for the next quote of the stock
+        holdings.updatePrice(ticker, QuoteActivity.this.quote.lastTradePrice, QuoteActivity.this.quote.change);
+        new SaveHoldingsTask().execute();
+        QuoteActivity.this.showHolding();
+      }
+    };
+  }
 }
@@ -20,11 +20,14 @@ import android.widget.GridView;
  */
 public class QuoteAdapter extends BaseAdapter {
 
+  /** The histogram of the time taken to bind each view to its quote */
+  private static final Histogram BIND_TIMES = MetricsRegistry.APP.histogram("ui.bind_us");
+
   /** The context that this adapter will work in */
-  private Context     context;
+  private Context                context;
 
   /** The list of quotes that this adapter will create views for */
-  private List<Quote> quotes;
+  private List<Quote>            quotes;
 
   /**
    * Create a new QuoteAdapter with the specified context and list of quotes to work with
@@ -105,9 +108,20 @@ public class QuoteAdapter extends BaseAdapter {
    */
   @Override
   public View getView(int position, View convertView, ViewGroup parent) {
-    MiniQuoteView miniQuoteView = new MiniQuoteView(this.context, this.quotes.get(position));
-    miniQuoteView.setLayoutParams(new GridView.LayoutParams(220, 220));
-    miniQuoteView.setPadding(4, 4, 4, 4);
+    long start = Tracer.getApp().begin();
+    MiniQuoteView miniQuoteView;
+    if (convertView instanceof MiniQuoteView) {
+      // Rebind the old view instead of inflating a new one, which also keeps its sparkline if it shows the same stock
+      miniQuoteView = (MiniQuoteView) convertView;
+      miniQuoteView.setQuote(this.quotes.get(position));
+    }
+    else {
+      miniQuoteView = new MiniQuoteView(this.context, this.quotes.get(position));
+      miniQuoteView.setLayoutParams(new GridView.LayoutParams(220, 220));
+      miniQuoteView.setPadding(4, 4, 4, 4);
+    }
+    BIND_TIMES.recordSince(start);
+    Tracer.getApp().end("ui", "QuoteAdapter.getView", start);
 
     return miniQuoteView;
   }
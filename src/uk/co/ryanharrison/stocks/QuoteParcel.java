@@ -0,0 +1,100 @@
+/**
+ * QuoteParcel.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A wrapper around a quote so that it can be written to a Parcel, used when an activity saves the quote it is displaying in its
+ * instance state.
+ * 
+ * Each field is written explicitly in a fixed order, which is far cheaper than the reflection and class metadata of Java
+ * serialization. Keeping this apart from Quote leaves Quote free of any Android classes.
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteParcel implements Parcelable {
+
+  /** Creates QuoteParcels from the data written by writeToParcel */
+  public static final Parcelable.Creator<QuoteParcel> CREATOR = new Parcelable.Creator<QuoteParcel>() {
+
+    @Override
+    public QuoteParcel createFromParcel(Parcel source) {
+      Quote quote = new Quote();
+      quote.ticker = source.readString();
+      quote.name = source.readString();
+      quote.stockExchange = source.readString();
+      quote.marketCapitalization = source.readDouble();
+      quote.lastTradePrice = source.readDouble();
+      quote.change = source.readDouble();
+      quote.percentChange = source.readDouble();
+      quote.daysLow = source.readDouble();
+      quote.daysHigh = source.readDouble();
+      quote.yearLow = source.readDouble();
+      quote.yearHigh = source.readDouble();
+      quote.volume = source.readLong();
+      quote.averageDailyVolume = source.readLong();
+      return new QuoteParcel(quote);
+    }
+
+    @Override
+    public QuoteParcel[] newArray(int size) {
+      return new QuoteParcel[size];
+    }
+  };
+
+  /** The quote that is wrapped */
+  public final Quote                                  quote;
+
+  /**
+   * Construct a new QuoteParcel wrapping a quote
+   * 
+   * @param quote
+   *          The quote to wrap
+   */
+  public QuoteParcel(Quote quote) {
+    this.quote = quote;
+  }
+
+  /**
+   * Describe the special objects contained in this Parcelable, of which there are none
+   * 
+   * @return Zero
+   * 
+   * @see android.os.Parcelable#describeContents()
+   */
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  /**
+   * Write the fields of the quote to a Parcel. They must be read back in the same order by CREATOR
+   * 
+   * @param dest
+   *          The Parcel to write to
+   * @param flags
+   *          Flags about how the object should be written
+   * 
+   * @see android.os.Parcelable#writeToParcel(android.os.Parcel, int)
+   */
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeString(this.quote.ticker);
+    dest.writeString(this.quote.name);
+    dest.writeString(this.quote.stockExchange);
+    dest.writeDouble(this.quote.marketCapitalization);
+    dest.writeDouble(this.quote.lastTradePrice);
+    dest.writeDouble(this.quote.change);
+    dest.writeDouble(this.quote.percentChange);
+    dest.writeDouble(this.quote.daysLow);
+    dest.writeDouble(this.quote.daysHigh);
+    dest.writeDouble(this.quote.yearLow);
+    dest.writeDouble(this.quote.yearHigh);
+    dest.writeLong(this.quote.volume);
+    dest.writeLong(this.quote.averageDailyVolume);
+  }
+}
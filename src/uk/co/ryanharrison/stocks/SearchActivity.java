@@ -1,11 +1,15 @@
 package uk.co.ryanharrison.stocks;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.json.JSONException;
 
@@ -13,14 +17,17 @@ import uk.co.ryanharrison.stocks.R;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
-import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -32,10 +39,73 @@ import android.widget.TextView;
  * tickers. The user can then select the one they are looking for. The ticker for the company is then sent back to the caller
  * activity.
  * 
+ * Searches are also started automatically as the user types, once they have stopped typing for a short delay. Only the most
+ * recent search is ever displayed, with any older search still downloading being cancelled. Recent results are cached so that a
+ * longer query can be answered immediately from the results of a shorter one while its own results are downloaded.
+ * 
+ * Results from a local SymbolDirectory are displayed straight away for every query and merged with the downloaded results when
+ * they arrive, so searching still works without a network connection.
+ * 
  * @author Ryan Harrison
  */
 public class SearchActivity extends Activity {
 
+  /**
+   * Task to open the local symbol directory, building its index from the listing file first if necessary, and then build the fuzzy
+   * matcher over its listings
+   * 
+   * @author Ryan Harrison
+   */
+  private class LoadSymbolDirectoryTask extends AsyncTask<Void, Void, SymbolDirectory> {
+
+    /** The fuzzy matcher built over the listings of the opened directory */
+    private FuzzySymbolMatcher fuzzyMatcher;
+
+    /**
+     * Main work to do in a separate thread
+     * 
+     * @param params
+     *          Unused
+     * @return The opened symbol directory, or null if it could not be opened
+     * 
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected SymbolDirectory doInBackground(Void... params) {
+      try {
+        SymbolDirectory result = SearchActivity.this.openSymbolDirectory();
+        this.fuzzyMatcher = new FuzzySymbolMatcher(result);
+        return result;
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.getMessage());
+        return null;
+      }
+    }
+
+    /**
+     * Called back on the UI thread after the main work has finished. Keep the directory for the rest of the process and redisplay
+     * the current query so that it includes local results
+     * 
+     * @param result
+     *          The opened symbol directory
+     * 
+     * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+     */
+    @Override
+    protected void onPostExecute(SymbolDirectory result) {
+      if (result == null) {
+        return;
+      }
+      Log.i(TAG, "Symbol directory opened with " + result.getListingCount() + " listings");
+      SearchActivity.directory = result;
+      SearchActivity.matcher = this.fuzzyMatcher;
+      if (SearchActivity.this.query != null && SearchActivity.this.query.length() != 0) {
+        SearchActivity.this.fillTickers(SearchActivity.this.query);
+      }
+    }
+  }
+
   /**
    * Task to download a set of business names and tickers that are related to a search query string
    * 
@@ -43,6 +113,19 @@ public class SearchActivity extends Activity {
    */
   private class DownloadTickerJsonTask extends AsyncTask<String, Void, Map<String, String>> {
 
+    /** The query string that this task is downloading results for */
+    private final String query;
+
+    /**
+     * Construct a new DownloadTickerJsonTask for the specified query
+     * 
+     * @param query
+     *          The query string that this task is downloading results for
+     */
+    public DownloadTickerJsonTask(String query) {
+      this.query = query;
+    }
+
     /**
      * Main work to do in a separate thread
      * 
@@ -54,6 +137,7 @@ public class SearchActivity extends Activity {
      */
     @Override
     protected Map<String, String> doInBackground(String... urls) {
+      long start = Tracer.getApp().begin();
       try {
         // Download the json object and parse it for the business data
         return this.loadJsonFromNetwork(urls[0]);
@@ -66,6 +150,9 @@ public class SearchActivity extends Activity {
         Log.e(TAG, e.getMessage());
         return null;
       }
+      finally {
+        Tracer.getApp().end("task", "DownloadTickerJsonTask.doInBackground", start);
+      }
     }
 
     /**
@@ -87,11 +174,19 @@ public class SearchActivity extends Activity {
       try {
         Log.i(TAG, "Retrieiving url stream");
         // Get an input stream from the url
-        stream = Utils.downloadUrl(url);
+        stream = Utils.downloadUrl(url, RateLimiter.SEARCH, RateLimiter.INTERACTIVE);
+
+        // If the search has been superseded while connecting then there is no need to parse the results
+        if (this.isCancelled()) {
+          return null;
+        }
 
         Log.i(TAG, "Parsing json object for tickers");
         // Download and parse the json object and get the business names and tickers from it
+        long start = Tracer.getApp().begin();
         entries = tickerParser.parse(stream);
+        MetricsRegistry.APP.histogram("parse.json_us", "endpoint", "search").recordSince(start);
+        Tracer.getApp().end("parse", "TickerJsonParser.parse", start);
       }
       finally {
         // Makes sure that the InputStream is closed after the app is finished using it.
@@ -115,89 +210,174 @@ public class SearchActivity extends Activity {
     protected void onPostExecute(Map<String, String> result) {
       Log.i(TAG, "Background work finished");
 
-      // Re-enable the search button
-      SearchActivity.this.searchButton.setEnabled(true);
-
-      // Display an error message if no results were found
-      if (result == null || result.size() == 0) {
-        SearchActivity.this.searchTextView.setText(SearchActivity.this.getResources().getString(R.string.unable_find_results)
-            + " '" + SearchActivity.this.query + "'");
+      // Ignore the result if a newer search has been started since this one, so an old response cannot overwrite a newer one
+      if (SearchActivity.this.task != this) {
         return;
       }
-      else {
-        // Otherwise populate the listview adapter with the UI friendly strings from the result Map
-        SearchActivity.this.namesToTickers = result;
-        SearchActivity.this.searchTextView.setText(SearchActivity.this.getResources().getString(R.string.search_results) + " '"
-            + SearchActivity.this.query + "'");
-        SearchActivity.this.adapter.clear();
-        for (String e : result.keySet()) {
-          SearchActivity.this.adapter.add(e);
-        }
+      SearchActivity.this.task = null;
 
-        // Notify the adapter that the data set is changed so the view can be redrawn
-        SearchActivity.this.adapter.notifyDataSetChanged();
+      // Cache successful results so the same query, or a longer query starting with it, can be answered without downloading
+      if (result != null) {
+        SearchActivity.this.cache.put(this.query, result);
       }
+
+      SearchActivity.this.displayResults(this.query, SearchActivity.this.withLocalResults(this.query, result));
     }
 
     /**
      * Called before the main work is done in the separate thread. Set a prompt for the user telling them that tickers are being
-     * downloaded. Also clear any existing tickers that may have been already downloaded
+     * downloaded, unless results from the cache are already being displayed
      * 
      * 
      * @see android.os.AsyncTask#onPreExecute()
      */
     @Override
     protected void onPreExecute() {
-      // If there are existing tickers, then clear them
-      if (SearchActivity.this.namesToTickers != null) {
-        SearchActivity.this.namesToTickers.clear();
+      if (SearchActivity.this.adapter.getCount() == 0) {
+        SearchActivity.this.searchTextView.setText(SearchActivity.this.getResources().getString(R.string.searching_for) + " '"
+            + this.query + "'");
       }
-
-      // Give a prompt to the user and disable the search button
-      SearchActivity.this.searchTextView.setText(SearchActivity.this.getResources().getString(R.string.searching_for) + " '"
-          + SearchActivity.this.query + "'");
-      SearchActivity.this.searchButton.setEnabled(false);
     }
   }
 
   /** An adapter used to populate the listview of company names and tickers */
-  private ArrayAdapter<String> adapter;
+  private ArrayAdapter<String>      adapter;
 
   /** A textview to display download progress and other information to the user */
-  private TextView             searchTextView;
-
-  /** The button used to start a search of possible company names */
-  private Button               searchButton;
+  private TextView                  searchTextView;
 
   /** Edit text box used by the user to enter a search term */
-  private EditText             tickerEditText;
+  private EditText                  tickerEditText;
 
   /** The query string that the user has entered into the search field */
-  private String               query;
+  private String                    query;
 
   /** A Map of UI friendly business strings to their corresponding tickers */
-  private Map<String, String>  namesToTickers;
+  private Map<String, String>       namesToTickers;
+
+  /** The search that is currently being downloaded, or null if there is none */
+  private DownloadTickerJsonTask    task;
+
+  /** Cache of the results of recent queries */
+  private TickerSearchCache         cache;
+
+  /** Handler used to delay starting a search until the user has stopped typing */
+  private Handler                   handler;
+
+  /** Starts a search using the current contents of the search field once the user has stopped typing */
+  private Runnable                  searchRunnable;
+
+  /** The local symbol directory shared by every instance of this activity, or null if it has not been opened yet */
+  private static SymbolDirectory    directory;
+
+  /** Fuzzy matcher over the listings of the local symbol directory, used to find businesses when the query is misspelt */
+  private static FuzzySymbolMatcher matcher;
+
+  /** Time in milliseconds after the user stops typing before a search is started */
+  private static final long         SEARCH_DELAY  = 300;
+
+  /** The maximum number of queries to cache the results of */
+  private static final int          CACHE_SIZE    = 32;
+
+  /** The maximum number of results from the local symbol directory to display */
+  private static final int          LOCAL_RESULTS = 10;
+
+  /**
+   * The name of the listing file used to build the local symbol directory. A file of this name in the files directory, such as a
+   * downloaded listing, is used if it exists, otherwise the listing bundled in the assets is used
+   */
+  private static final String       LISTING_FILE  = "symbols.txt";
+
+  /** The name of the index file of the local symbol directory, kept in the cache directory as it can always be rebuilt */
+  private static final String       INDEX_FILE    = "symbols.idx";
 
   /**
    * The URL used to download a set of possible business names and ticker from a search term from the user. The ticker suggestions
    * are obtained from the Yahoo! Finance API which is free to use for personal use
    */
-  private static final String  TICKERURL = "http://autoc.finance.yahoo.com/autoc?query=%s&callback=YAHOO.Finance.SymbolSuggest.ssCallback";
+  private static final String       TICKERURL     = "http://autoc.finance.yahoo.com/autoc?query=%s&callback=YAHOO.Finance.SymbolSuggest.ssCallback";
 
   /** The tag for this activity */
-  public static final String   TAG       = "SearchActivity";
+  public static final String        TAG           = "SearchActivity";
+
+  /**
+   * Cancel the search that is currently being downloaded, if there is one
+   */
+  private void cancelSearch() {
+    if (this.task != null) {
+      Log.i(TAG, "Cancelling superseded search");
+      this.task.cancel(true);
+      this.task = null;
+    }
+  }
+
+  /**
+   * Display a set of business names and tickers in the listview
+   * 
+   * @param query
+   *          The query that the results are for
+   * @param result
+   *          A Map of UI friendly business strings to their corresponding tickers, or null if the search failed
+   */
+  private void displayResults(String query, Map<String, String> result) {
+    // Display an error message if no results were found
+    if (result == null || result.size() == 0) {
+      this.searchTextView.setText(this.getResources().getString(R.string.unable_find_results) + " '" + query + "'");
+      this.adapter.clear();
+      this.adapter.notifyDataSetChanged();
+      return;
+    }
+
+    // Otherwise populate the listview adapter with the UI friendly strings from the result Map
+    this.namesToTickers = result;
+    this.searchTextView.setText(this.getResources().getString(R.string.search_results) + " '" + query + "'");
+    this.adapter.clear();
+    for (String e : result.keySet()) {
+      this.adapter.add(e);
+    }
+
+    // Notify the adapter that the data set is changed so the view can be redrawn
+    this.adapter.notifyDataSetChanged();
+  }
 
   /**
-   * Download and display a set of business names and tickers related to a search query
+   * Download and display a set of business names and tickers related to a search query. If the query has been searched for
+   * recently the cached results are displayed instead. Otherwise the cached results of a shorter prefix of the query, if there are
+   * any, are filtered and displayed while the results of the full query are downloaded
    * 
    * @param query
    *          The query to use when downloading related business names and tickers
    */
   private void fillTickers(String query) {
     Log.i(TAG, "Filling possible tickers with query of " + query);
-    // If no network connection is available, display an error message to the user
-    if (!Utils.isNetworkAvailable(this)) {
-      this.searchTextView.setText(this.getResources().getString(R.string.no_internet_connection));
+
+    // Any search still being downloaded is for an older query so is no longer needed
+    this.cancelSearch();
+
+    // Display the cached results if this query has been searched for recently
+    Map<String, String> cached = this.cache.get(query);
+    if (cached != null) {
+      Log.i(TAG, "Using cached results for " + query);
+      this.displayResults(query, this.withLocalResults(query, cached));
+      return;
+    }
+
+    // Otherwise display the local results, along with an estimate of the results from a shorter query, while the full results are
+    // downloaded
+    Map<String, String> estimate = this.withLocalResults(query, this.cache.getFromPrefix(query));
+    if (estimate.size() != 0) {
+      this.displayResults(query, estimate);
+    }
+    else {
+      this.adapter.clear();
+      this.adapter.notifyDataSetChanged();
+    }
+
+    // If no network connection is available, display an error message to the user unless there are local results to show
+    if (!AndroidUtils.isNetworkAvailable(this)) {
+      if (estimate.size() == 0) {
+        this.searchTextView.setText(this.getResources().getString(R.string.no_internet_connection));
+      }
       return;
     }
 
@@ -207,13 +387,96 @@ public class SearchActivity extends Activity {
       url = String.format(TICKERURL, URLEncoder.encode(query.toLowerCase(Locale.getDefault()), "utf-8"));
 
       // Start the download in another thread so the UI does not lock up
-      new DownloadTickerJsonTask().execute(url);
+      this.task = new DownloadTickerJsonTask(query);
+      this.task.execute(url);
     }
     catch (UnsupportedEncodingException e) {
       Log.e(TAG, e.getMessage());
     }
   }
 
+  /**
+   * Open the local symbol directory. The existing index is used if it was built from the current listing file, otherwise the index
+   * is rebuilt from the listing file
+   * 
+   * @return The opened symbol directory
+   * @throws IOException
+   *           If there was an error reading the listing file or reading or writing the index
+   */
+  private SymbolDirectory openSymbolDirectory() throws IOException {
+    File listing = new File(this.getFilesDir(), LISTING_FILE);
+    File index = new File(this.getCacheDir(), INDEX_FILE);
+
+    // A downloaded listing is identified by when it was modified, the bundled listing by the version of the app it came with
+    long stamp;
+    if (listing.exists()) {
+      stamp = listing.lastModified();
+    }
+    else {
+      try {
+        stamp = -this.getPackageManager().getPackageInfo(this.getPackageName(), 0).versionCode;
+      }
+      catch (NameNotFoundException e) {
+        stamp = 0;
+      }
+    }
+
+    // Reuse the existing index if it was built from the same listing
+    if (index.exists()) {
+      try {
+        SymbolDirectory existing = new SymbolDirectory(index);
+        if (existing.getStamp() == stamp) {
+          return existing;
+        }
+      }
+      catch (IOException e) {
+        Log.e(TAG, e.getMessage());
+      }
+    }
+
+    Log.i(TAG, "Building symbol directory index");
+    SymbolDirectoryBuilder builder = new SymbolDirectoryBuilder();
+    builder.addAll(listing.exists() ? new FileInputStream(listing) : this.getAssets().open(LISTING_FILE));
+    builder.write(index, stamp);
+    return new SymbolDirectory(index);
+  }
+
+  /**
+   * Merge the results from the local symbol directory for a query with a set of downloaded results. The local results come first,
+   * topped up with fuzzy matches if there are only a few prefix matches, followed by any downloaded results for tickers that are
+   * not already included
+   * 
+   * @param query
+   *          The query to search the local symbol directory for
+   * @param downloaded
+   *          A Map of UI friendly business strings to their corresponding tickers, or null if there are no downloaded results
+   * @return A Map of UI friendly business strings to their corresponding tickers containing both sets of results
+   */
+  private Map<String, String> withLocalResults(String query, Map<String, String> downloaded) {
+    Map<String, String> merged = new LinkedHashMap<String, String>();
+    if (directory != null) {
+      for (SymbolListing listing : directory.search(query, LOCAL_RESULTS)) {
+        merged.put(listing.getDisplayName(), listing.symbol);
+      }
+    }
+    // Fuzzy matches find businesses even when the query is misspelt
+    if (matcher != null && merged.size() < LOCAL_RESULTS) {
+      for (SymbolListing listing : matcher.search(query, LOCAL_RESULTS)) {
+        if (merged.size() < LOCAL_RESULTS && !merged.containsValue(listing.symbol)) {
+          merged.put(listing.getDisplayName(), listing.symbol);
+        }
+      }
+    }
+    if (downloaded != null) {
+      for (Entry<String, String> entry : downloaded.entrySet()) {
+        if (!merged.containsValue(entry.getValue())) {
+          merged.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return merged;
+  }
+
   /**
    * Called when the activity is created. Initialise fields and set up the click listener for the listview
    * 
@@ -231,9 +494,46 @@ public class SearchActivity extends Activity {
     // Get views from the layout
     ListView list = (ListView) this.findViewById(R.id.searchList);
     this.searchTextView = (TextView) this.findViewById(R.id.searchProgressTextView);
-    this.searchButton = (Button) this.findViewById(R.id.searchButton);
     this.tickerEditText = (EditText) this.findViewById(R.id.tickerEditText);
 
+    this.cache = new TickerSearchCache(CACHE_SIZE);
+
+    // Open the local symbol directory the first time this activity is created
+    if (directory == null) {
+      new LoadSymbolDirectoryTask().execute();
+    }
+    this.handler = new Handler();
+    this.searchRunnable = new Runnable() {
+
+      @Override
+      public void run() {
+        // Only search if the query has changed since the last search
+        String newQuery = SearchActivity.this.tickerEditText.getText().toString().trim();
+        if (newQuery.length() != 0 && !newQuery.equals(SearchActivity.this.query)) {
+          SearchActivity.this.query = newQuery;
+          SearchActivity.this.fillTickers(newQuery);
+        }
+      }
+    };
+
+    // Search as the user types. Each change restarts the delay so that a search is only started once the user stops typing
+    this.tickerEditText.addTextChangedListener(new TextWatcher() {
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        SearchActivity.this.handler.removeCallbacks(SearchActivity.this.searchRunnable);
+        SearchActivity.this.handler.postDelayed(SearchActivity.this.searchRunnable, SEARCH_DELAY);
+      }
+
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+      }
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+      }
+    });
+
     // Set up the adapter for the listview
     this.adapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
     list.setAdapter(this.adapter);
@@ -262,16 +562,30 @@ public class SearchActivity extends Activity {
     });
   }
 
+  /**
+   * Called when the activity is destroyed. Stop any pending or in progress search as its results can no longer be displayed
+   * 
+   * @see android.app.Activity#onDestroy()
+   */
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    this.handler.removeCallbacks(this.searchRunnable);
+    this.cancelSearch();
+  }
+
   /**
    * Called when the search button is pressed. Get the query string and start the process of downloading and displaying a set of
-   * possible businesses
+   * possible businesses straight away rather than waiting for the user to stop typing
    * 
    * @param v
    *          The view that raised the event
    */
   public void searchButtonOnClick(View v) {
+    this.handler.removeCallbacks(this.searchRunnable);
+
     // Get the user query
-    this.query = this.tickerEditText.getText().toString();
+    this.query = this.tickerEditText.getText().toString().trim();
 
     // Fill the list of tickers using the query
     this.fillTickers(this.query);
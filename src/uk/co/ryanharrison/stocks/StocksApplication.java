@@ -0,0 +1,108 @@
+/**
+ * StocksApplication.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.File;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import android.app.Application;
+import android.util.Log;
+import android.util.Xml;
+
+/**
+ * The application, which connects the core of the app to Android before any activity is created. The core logs to the system log
+ * and parses xml with the parser built into Android, and debug builds record trace spans. The application also holds the price
+ * alerts, the holdings and the recent prices of each stock, which are shared by every activity.
+ * 
+ * @author Ryan Harrison
+ */
+public class StocksApplication extends Application {
+
+  /** The number of trace spans kept in debug builds */
+  private static final int             TRACE_CAPACITY = 4096;
+
+  /** The number of recent prices kept for each stock, which is two hours of refreshes of a visible stock */
+  private static final int             TICK_CAPACITY  = 240;
+
+  /** The name of the file that the price alerts are stored in */
+  private static final String          ALERTS_FILE    = "alerts.dat";
+
+  /** The name of the file that the trades of the holdings are stored in */
+  private static final String          HOLDINGS_FILE  = "holdings.dat";
+
+  /** The price alerts set by the user */
+  private static AlertEngine           alerts;
+
+  /** The shares held by the user */
+  private static Holdings              holdings;
+
+  /** The recent prices of each stock */
+  private static TickHistory           ticks;
+
+  /** Factory creating xml parsers with the parser built into Android */
+  public static final XmlParserFactory XML_PARSERS    = new XmlParserFactory() {
+
+    @Override
+    public XmlPullParser newPullParser() {
+      return Xml.newPullParser();
+    }
+  };
+
+  /**
+   * Get the price alerts set by the user. They are not read from their file until they are first accessed
+   * 
+   * @return The price alerts
+   */
+  public static AlertEngine getAlerts() {
+    return alerts;
+  }
+
+  /**
+   * Get the shares held by the user. Their trades are not read from their file until they are first accessed
+   * 
+   * @return The holdings
+   */
+  public static Holdings getHoldings() {
+    return holdings;
+  }
+
+  /**
+   * Get the recent prices of each stock, which are recorded as quotes arrive
+   * 
+   * @return The price history
+   */
+  public static TickHistory getTickHistory() {
+    return ticks;
+  }
+
+  /**
+   * Called when the application is starting, before any activity is created. Connect the core of the app to Android
+   * 
+   * @see android.app.Application#onCreate()
+   */
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    Logger.setSink(new Logger.Sink() {
+
+      @Override
+      public void log(int priority, String tag, String message) {
+        if (priority >= Logger.ERROR) {
+          Log.e(tag, message);
+        }
+        else {
+          Log.i(tag, message);
+        }
+      }
+    });
+    alerts = new AlertEngine(new File(this.getFilesDir(), ALERTS_FILE));
+    holdings = new Holdings(new File(this.getFilesDir(), HOLDINGS_FILE));
+    ticks = new TickHistory(TICK_CAPACITY);
+    if (BuildConfig.DEBUG) {
+      Tracer.setApp(new Tracer(TRACE_CAPACITY));
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/**
+ * QuoteRefreshDaemon.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless service that keeps the quotes of a long list of tickers fresh, for dashboards that want the same data as the app without
+ * a phone. It runs the portfolio and quote parser of the core of the app on a plain JVM.
+ * 
+ * The tickers are read from a file with one ticker per line, ignoring blank lines and lines starting with #. Every interval the
+ * quote of each ticker is downloaded on a large pool of threads, as each download spends almost all of its time waiting on the
+ * network, and the quotes are applied to the portfolio as they arrive. Once every download has finished a snapshot of every quote
+ * is written as JSON, either to a file that is replaced atomically or to every client that connects to a port, and the number of
+ * tickers refreshed per second and the download times are printed. The download times only cover the network and parsing, and the
+ * time spent waiting for the rate limit or before retries is reported separately.
+ * 
+ * Downloads go through the rate limiter and circuit breaker of the app. The limit of the app, which is meant for a phone refreshing
+ * a screenful of stocks, would hold this service to about two quotes a second, so it allows 100 quotes a second instead unless a
+ * different rate is given as the last argument.
+ * 
+ * Runs on a plain JVM from the root of the project, with an org.json implementation such as the json.org reference jar:
+ * 
+ * <pre>
+ * javac -cp json.jar -d bin/tools core/src/uk/co/ryanharrison/stocks/*.java tools/src/uk/co/ryanharrison/stocks/QuoteRefreshDaemon.java
+ * java -cp bin/tools:json.jar uk.co.ryanharrison.stocks.QuoteRefreshDaemon tickers [interval seconds] [snapshot file | port] [threads] [quotes per second]
+ * </pre>
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteRefreshDaemon {
+
+  /** The number of seconds between the start of each refresh if none is given */
+  private static final int      DEFAULT_INTERVAL = 60;
+
+  /** The number of downloads run at once if none is given */
+  private static final int      DEFAULT_THREADS  = 64;
+
+  /** The number of quotes downloaded per second if no rate is given, enough to refresh a few thousand tickers every minute */
+  private static final int      DEFAULT_RATE     = 100;
+
+  /** The portfolio of every ticker being refreshed, which is only accessed on the refresh thread */
+  private final Portfolio       portfolio;
+
+  /** The tickers being refreshed, in the order they were read */
+  private final List<String>    tickers;
+
+  /** The pool of threads that downloads run on */
+  private final ExecutorService downloads;
+
+  /** The file that snapshots are written to, or null if they are served on a port */
+  private final File            snapshotFile;
+
+  /** The latest snapshot, encoded ready to be written to clients */
+  private volatile byte[]       snapshot;
+
+  /**
+   * Construct a new QuoteRefreshDaemon
+   * 
+   * @param tickers
+   *          The tickers to refresh
+   * @param threads
+   *          The number of downloads to run at once
+   * @param snapshotFile
+   *          The file to write snapshots to, or null if they are served on a port
+   */
+  public QuoteRefreshDaemon(List<String> tickers, int threads, File snapshotFile) {
+    this.portfolio = new Portfolio();
+    this.tickers = new ArrayList<String>();
+    for (String ticker : tickers) {
+      if (this.portfolio.addCompanyNoUpdate(ticker)) {
+        this.tickers.add(Portfolio.canonicalise(ticker));
+      }
+    }
+    this.downloads = Executors.newFixedThreadPool(threads);
+    this.snapshotFile = snapshotFile;
+    this.snapshot = this.encodeSnapshot(System.currentTimeMillis()).getBytes();
+  }
+
+  /**
+   * Encode the quote of every ticker as a JSON snapshot. Tickers that have not been downloaded yet have a null quote
+   * 
+   * @param time
+   *          The time of the snapshot in milliseconds since the epoch
+   * @return The JSON text
+   */
+  private String encodeSnapshot(long time) {
+    StringBuilder json = new StringBuilder("{\"time\":").append(time).append(",\"quotes\":{");
+    Quote quote = new Quote();
+    for (int i = 0; i < this.tickers.size(); i++) {
+      String ticker = this.tickers.get(i);
+      if (i != 0) {
+        json.append(',');
+      }
+      quote(ticker, json);
+      json.append(':');
+      if (this.portfolio.getQuote(ticker, quote) == null || quote.name == null) {
+        json.append("null");
+        continue;
+      }
+      json.append("{\"name\":");
+      quote(quote.name, json);
+      json.append(",\"exchange\":");
+      quote(quote.stockExchange, json);
+      json.append(String.format(Locale.US, ",\"price\":%.4f,\"change\":%.4f,\"percentChange\":%.4f", quote.lastTradePrice,
+          quote.change, quote.percentChange));
+      json.append(String.format(Locale.US, ",\"daysLow\":%.4f,\"daysHigh\":%.4f", quote.daysLow, quote.daysHigh));
+      json.append(",\"volume\":").append(quote.volume).append(",\"averageDailyVolume\":").append(quote.averageDailyVolume);
+      if (!Double.isNaN(quote.marketCapitalization)) {
+        json.append(String.format(Locale.US, ",\"marketCapitalization\":%.0f", quote.marketCapitalization));
+      }
+      json.append('}');
+    }
+    return json.append("}}\n").toString();
+  }
+
+  /**
+   * Encode a snapshot of the portfolio and make it available, writing it to the snapshot file if there is one
+   * 
+   * @param time
+   *          The time of the snapshot in milliseconds since the epoch
+   */
+  private void publish(long time) {
+    this.snapshot = this.encodeSnapshot(time).getBytes();
+    if (this.snapshotFile == null) {
+      return;
+    }
+    // Write to a temporary file and rename it over the snapshot, so that readers never see a partly written snapshot
+    File temp = new File(this.snapshotFile.getPath() + ".tmp");
+    try {
+      OutputStream out = new FileOutputStream(temp);
+      try {
+        out.write(this.snapshot);
+      }
+      finally {
+        out.close();
+      }
+      if (!temp.renameTo(this.snapshotFile) && !(this.snapshotFile.delete() && temp.renameTo(this.snapshotFile))) {
+        throw new IOException("Could not replace " + this.snapshotFile);
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Could not write snapshot: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Quote a string as a JSON string literal
+   * 
+   * @param value
+   *          The string, or null
+   * @param json
+   *          The builder to append the literal to
+   */
+  private static void quote(String value, StringBuilder json) {
+    if (value == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      }
+      else if (c < ' ') {
+        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+      }
+      else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  /**
+   * Read the tickers to refresh from a file
+   * 
+   * @param file
+   *          The path of the file, which holds one ticker per line
+   * @return The tickers
+   * @throws IOException
+   *           If there was an error reading the file
+   */
+  private static List<String> readTickers(String file) throws IOException {
+    List<String> tickers = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() != 0 && !line.startsWith("#")) {
+          tickers.add(line);
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+    return tickers;
+  }
+
+  /**
+   * Download the quote of every ticker once, apply them to the portfolio and publish a snapshot
+   * 
+   * @throws InterruptedException
+   *           If the thread was interrupted while waiting for downloads
+   */
+  private void refresh() throws InterruptedException {
+    long start = System.nanoTime();
+    final Histogram latencies = new Histogram();
+    final Histogram waits = new Histogram();
+    CompletionService<Quote> completion = new ExecutorCompletionService<Quote>(this.downloads);
+    for (final String ticker : this.tickers) {
+      completion.submit(new Callable<Quote>() {
+
+        @Override
+        public Quote call() throws IOException {
+          long fetchStart = System.nanoTime();
+          long waitStart = Utils.getDownloadWaitNanos();
+          try {
+            return QuoteRefreshDaemon.this.portfolio.downloadQuoteFor(ticker, RateLimiter.BACKGROUND);
+          }
+          finally {
+            // Separate the time spent waiting for the rate limit and before retries from the time spent on the network
+            long waited = Utils.getDownloadWaitNanos() - waitStart;
+            latencies.record((System.nanoTime() - fetchStart - waited) / 1000);
+            waits.record(waited / 1000);
+          }
+        }
+      });
+    }
+
+    // Apply each quote as it arrives, on this thread only, as the portfolio is not thread safe
+    int updated = 0;
+    int failed = 0;
+    Throwable failure = null;
+    for (int i = 0; i < this.tickers.size(); i++) {
+      try {
+        Quote quote = completion.take().get();
+        if (quote != null && quote.ticker != null && this.portfolio.setQuote(quote.ticker, quote)) {
+          updated++;
+        }
+        else {
+          failed++;
+        }
+      }
+      catch (ExecutionException e) {
+        failed++;
+        failure = e.getCause();
+      }
+    }
+    this.publish(System.currentTimeMillis());
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format(Locale.US, "Refreshed %d of %d tickers in %.1f s: %.1f tickers/s, fetch p50 %.1f ms, p99 %.1f "
+        + "ms, waiting p99 %.1f ms, %d failed", updated, this.tickers.size(), seconds, updated / seconds,
+        latencies.getPercentile(50) / 1000.0, latencies.getPercentile(99) / 1000.0, waits.getPercentile(99) / 1000.0, failed));
+    if (failure != null) {
+      System.out.println("Last failure: " + failure);
+    }
+  }
+
+  /**
+   * Serve the latest snapshot to every client that connects to a port, closing the connection once it has been written
+   * 
+   * @param port
+   *          The port to listen on
+   * @throws IOException
+   *           If the port could not be listened on
+   */
+  private void serve(int port) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(port);
+    System.out.println("Serving snapshots on port " + port);
+    while (true) {
+      Socket socket = serverSocket.accept();
+      try {
+        socket.getOutputStream().write(this.snapshot);
+      }
+      catch (IOException e) {
+        System.out.println(socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+      }
+      finally {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Run the daemon until it is killed
+   * 
+   * @param args
+   *          The file of tickers, and optionally the interval between refreshes in seconds, the snapshot file or port, the number of
+   *          downloads to run at once and the number of quotes that may be downloaded per second
+   * @throws IOException
+   *           If the tickers could not be read or the port could not be listened on
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: QuoteRefreshDaemon tickers [interval seconds] [snapshot file | port] [threads] [quotes per second]");
+      return;
+    }
+    int interval = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_INTERVAL;
+    String output = args.length > 2 ? args[2] : "snapshot.json";
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+    // A bucket of one second's worth of quotes that gains a token every 1 / rate seconds
+    int rate = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_RATE;
+    Utils.setRateLimiter(new RateLimiter(new int[] { rate, 4, 4, 6 }, new long[] { Math.max(1000 / rate, 1), 2000, 2000, 1000 }));
+
+    // Only report errors, as the portfolio logs every download
+    Logger.setSink(new Logger.Sink() {
+
+      @Override
+      public void log(int priority, String tag, String message) {
+        if (priority >= Logger.ERROR) {
+          Logger.STDERR.log(priority, tag, message);
+        }
+      }
+    });
+
+    boolean port = output.matches("[0-9]+");
+    final QuoteRefreshDaemon daemon = new QuoteRefreshDaemon(readTickers(args[0]), threads, port ? null : new File(output));
+    System.out.println("Refreshing " + daemon.tickers.size() + " tickers every " + interval + " s on " + threads
+        + " threads at up to " + rate + " quotes/s");
+
+    // A refresh that overruns the interval delays the next one rather than overlapping it
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.scheduleAtFixedRate(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          daemon.refresh();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException e) {
+          // An exception would cancel every later refresh, so report it and carry on
+          e.printStackTrace();
+        }
+      }
+    }, 0, interval, TimeUnit.SECONDS);
+
+    if (port) {
+      daemon.serve(Integer.parseInt(output));
+    }
+  }
+}
@@ -0,0 +1,454 @@
+/**
+ * QuoteStreamServer.java
+ */
+
+package uk.co.ryanharrison.stocks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A local stand-in for a push based quote feed, so that QuoteStreamClient can be built and tested without an internet connection.
+ * 
+ * The server speaks the same protocol as the client expects: a GET request with the tickers in a 'symbols' query parameter is
+ * answered with a stream of server-sent events, each holding the fields of a quote that have changed. Ticks are either synthesised
+ * as a random walk for every ticker that any client has subscribed to, or replayed from a recorded file. The last ticks are kept so
+ * that a client reconnecting with a Last-Event-ID header is sent the ticks it missed.
+ * 
+ * Runs on a plain JVM from the root of the project:
+ * 
+ * <pre>
+ * javac -d bin/tools tools/src/uk/co/ryanharrison/stocks/QuoteStreamServer.java
+ * java -cp bin/tools uk.co.ryanharrison.stocks.QuoteStreamServer [port] [ticks per second | replay file]
+ * </pre>
+ * 
+ * A replay file holds one tick per line in the form 'delay in milliseconds [tab] symbol [tab] price [tab] volume', and is replayed
+ * in a loop. From the Android emulator the server is reachable at http://10.0.2.2:[port]/quotes
+ * 
+ * @author Ryan Harrison
+ */
+public class QuoteStreamServer {
+
+  /**
+   * The state of the market in a single ticker
+   * 
+   * @author Ryan Harrison
+   */
+  private static class Ticker {
+
+    /** The price when the market opened */
+    public final double open;
+
+    /** The latest price */
+    public double       price;
+
+    /** The lowest price of the day */
+    public double       low;
+
+    /** The highest price of the day */
+    public double       high;
+
+    /** The number of shares traded today */
+    public long         volume;
+
+    /**
+     * Construct a new Ticker opening at the specified price
+     * 
+     * @param open
+     *          The price when the market opened
+     */
+    public Ticker(double open) {
+      this.open = open;
+      this.price = open;
+      this.low = open;
+      this.high = open;
+    }
+  }
+
+  /** The number of past ticks kept for clients that reconnect */
+  private static final int          HISTORY_SIZE   = 4096;
+
+  /** The time in milliseconds after which an idle connection is sent a comment to keep it alive */
+  private static final long         KEEP_ALIVE     = 15000;
+
+  /** The delay in milliseconds that clients are told to wait before reconnecting */
+  private static final int          RETRY          = 1000;
+
+  /** The state of every ticker that has been subscribed to or replayed, keyed by upper case ticker */
+  private final Map<String, Ticker> tickers        = new HashMap<String, Ticker>();
+
+  /** The ticker of each of the most recent ticks, indexed by sequence number modulo the history size */
+  private final String[]            historyTickers = new String[HISTORY_SIZE];
+
+  /** The encoded data of each of the most recent ticks, indexed by sequence number modulo the history size */
+  private final String[]            historyData    = new String[HISTORY_SIZE];
+
+  /** The sequence number of the next tick */
+  private long                      sequence;
+
+  /**
+   * Encode the fields of a ticker that change on every tick as a JSON object
+   * 
+   * @param symbol
+   *          The ticker symbol
+   * @param ticker
+   *          The state of the ticker
+   * @param range
+   *          Whether to include the low and high of the day
+   * @return The encoded JSON object
+   */
+  private static String encode(String symbol, Ticker ticker, boolean range) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"Symbol\":\"").append(symbol.replace("\\", "\\\\").replace("\"", "\\\""));
+    json.append("\",\"LastTradePriceOnly\":\"").append(format(ticker.price));
+    json.append("\",\"Change\":\"").append(format(ticker.price - ticker.open));
+    json.append("\",\"Volume\":\"").append(ticker.volume);
+    if (range) {
+      json.append("\",\"DaysLow\":\"").append(format(ticker.low));
+      json.append("\",\"DaysHigh\":\"").append(format(ticker.high));
+    }
+    return json.append("\"}").toString();
+  }
+
+  /**
+   * Encode a single event of the stream
+   * 
+   * @param id
+   *          The sequence number of the event
+   * @param data
+   *          The data of the event
+   * @return The encoded event
+   */
+  private static String event(long id, String data) {
+    return "event: quote\nid: " + id + "\ndata: " + data + "\n\n";
+  }
+
+  /**
+   * Format a price to two decimal places
+   * 
+   * @param price
+   *          The price to format
+   * @return The formatted price
+   */
+  private static String format(double price) {
+    return String.format(Locale.US, "%.2f", price);
+  }
+
+  /**
+   * Get the state of a ticker, creating it with a made up opening price if it has not been seen before. Must be called while
+   * holding the lock on the server
+   * 
+   * @param symbol
+   *          The upper case ticker symbol
+   * @return The state of the ticker
+   */
+  private Ticker getTicker(String symbol) {
+    Ticker ticker = this.tickers.get(symbol);
+    if (ticker == null) {
+      ticker = new Ticker(5 + (symbol.hashCode() & 0x7fffffff) % 50000 / 100.0);
+      this.tickers.put(symbol, ticker);
+    }
+    return ticker;
+  }
+
+  /**
+   * Handle a single client connection, streaming ticks of its tickers until it disconnects
+   * 
+   * @param socket
+   *          The socket of the client
+   * @throws IOException
+   *           If there was an error reading the request or writing the stream
+   */
+  private void handle(Socket socket) throws IOException {
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+      String request = in.readLine();
+      if (request == null) {
+        return;
+      }
+
+      // Read the headers, looking for the id of the last event the client received
+      long resumeFrom = -1;
+      String line;
+      while ((line = in.readLine()) != null && line.length() != 0) {
+        if (line.toLowerCase(Locale.US).startsWith("last-event-id:")) {
+          try {
+            resumeFrom = Long.parseLong(line.substring(line.indexOf(':') + 1).trim()) + 1;
+          }
+          catch (NumberFormatException e) {
+            resumeFrom = -1;
+          }
+        }
+      }
+
+      Set<String> symbols = parseSymbols(request);
+      OutputStream out = socket.getOutputStream();
+      if (symbols == null) {
+        out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+        return;
+      }
+      System.out.println(socket.getRemoteSocketAddress() + " subscribed to " + symbols + " from " + resumeFrom);
+
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+      writer.write("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n");
+      writer.write("retry: " + RETRY + "\n\n");
+
+      long next;
+      synchronized (this) {
+        for (String symbol : symbols) {
+          this.getTicker(symbol);
+        }
+        // Send the ticks the client missed if they are still in the history, otherwise send the current state of every ticker
+        if (resumeFrom >= 0 && resumeFrom <= this.sequence && this.sequence - resumeFrom < HISTORY_SIZE) {
+          next = resumeFrom;
+        }
+        else {
+          next = this.sequence;
+          for (String symbol : symbols) {
+            writer.write(event(this.sequence - 1, encode(symbol, this.getTicker(symbol), true)));
+          }
+        }
+      }
+      writer.flush();
+
+      long lastWrite = System.currentTimeMillis();
+      while (true) {
+        List<String> events = new ArrayList<String>();
+        synchronized (this) {
+          if (next == this.sequence) {
+            this.wait(KEEP_ALIVE);
+          }
+          // A client that has fallen further behind than the history is skipped ahead
+          next = Math.max(next, this.sequence - HISTORY_SIZE);
+          for (; next < this.sequence; next++) {
+            int slot = (int) (next % HISTORY_SIZE);
+            if (symbols.contains(this.historyTickers[slot])) {
+              events.add(event(next, this.historyData[slot]));
+            }
+          }
+        }
+
+        // Ticks of other tickers also wake the connection, so only keep it alive once it has been idle for long enough
+        long now = System.currentTimeMillis();
+        if (events.isEmpty() && now - lastWrite < KEEP_ALIVE) {
+          continue;
+        }
+        if (events.isEmpty()) {
+          writer.write(": keep-alive\n\n");
+        }
+        for (String event : events) {
+          writer.write(event);
+        }
+        writer.flush();
+        lastWrite = now;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Parse the tickers out of the request line of a client
+   * 
+   * @param request
+   *          The request line
+   * @return The upper case tickers, or null if the request was not for the quote feed
+   * @throws IOException
+   *           If the query could not be decoded
+   */
+  private static Set<String> parseSymbols(String request) throws IOException {
+    String[] parts = request.split(" ");
+    if (parts.length < 2 || !parts[0].equals("GET") || !parts[1].startsWith("/quotes")) {
+      return null;
+    }
+    Set<String> symbols = new LinkedHashSet<String>();
+    int query = parts[1].indexOf('?');
+    if (query == -1) {
+      return symbols;
+    }
+    for (String param : parts[1].substring(query + 1).split("&")) {
+      if (param.startsWith("symbols=")) {
+        for (String symbol : URLDecoder.decode(param.substring(8), "UTF-8").split(",")) {
+          if (symbol.trim().length() != 0) {
+            symbols.add(symbol.trim().toUpperCase(Locale.US));
+          }
+        }
+      }
+    }
+    return symbols;
+  }
+
+  /**
+   * Record a tick of a ticker and wake up every client waiting for ticks. Must be called while holding the lock on the server
+   * 
+   * @param symbol
+   *          The upper case ticker symbol
+   * @param ticker
+   *          The state of the ticker after the tick
+   * @param range
+   *          Whether the low or high of the day changed
+   */
+  private void publish(String symbol, Ticker ticker, boolean range) {
+    int slot = (int) (this.sequence % HISTORY_SIZE);
+    this.historyTickers[slot] = symbol;
+    this.historyData[slot] = encode(symbol, ticker, range);
+    this.sequence++;
+    this.notifyAll();
+  }
+
+  /**
+   * Replay ticks from a recorded file in a loop
+   * 
+   * @param file
+   *          The path of the file to replay
+   * @throws IOException
+   *           If there was an error reading the file
+   * @throws InterruptedException
+   *           If the thread was interrupted
+   */
+  private void replay(String file) throws IOException, InterruptedException {
+    while (true) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.split("\t");
+          if (line.startsWith("#") || fields.length < 3) {
+            continue;
+          }
+          Thread.sleep(Long.parseLong(fields[0]));
+          String symbol = fields[1].trim().toUpperCase(Locale.US);
+          synchronized (this) {
+            Ticker ticker = this.getTicker(symbol);
+            this.update(ticker, Double.parseDouble(fields[2]), fields.length > 3 ? Long.parseLong(fields[3]) : 0);
+            this.publish(symbol, ticker, true);
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Synthesise ticks as a random walk of the price of every ticker that has been subscribed to
+   * 
+   * @param rate
+   *          The number of ticks to synthesise per second
+   * @throws InterruptedException
+   *           If the thread was interrupted
+   */
+  private void synthesise(double rate) throws InterruptedException {
+    Random random = new Random();
+    while (true) {
+      Thread.sleep(Math.max(1, (long) (1000 / rate)));
+      synchronized (this) {
+        if (this.tickers.isEmpty()) {
+          continue;
+        }
+        // Move the price of a random ticker by a small random amount, trading a random number of shares
+        List<String> symbols = new ArrayList<String>(this.tickers.keySet());
+        String symbol = symbols.get(random.nextInt(symbols.size()));
+        Ticker ticker = this.tickers.get(symbol);
+        double price = Math.max(0.01, ticker.price * (1 + random.nextGaussian() * 0.002));
+        this.publish(symbol, ticker, this.update(ticker, price, 100 * (1 + random.nextInt(50))));
+      }
+    }
+  }
+
+  /**
+   * Apply a trade to the state of a ticker
+   * 
+   * @param ticker
+   *          The ticker to update
+   * @param price
+   *          The price of the trade
+   * @param shares
+   *          The number of shares traded
+   * @return True if the low or high of the day changed
+   */
+  private boolean update(Ticker ticker, double price, long shares) {
+    ticker.price = price;
+    ticker.volume += shares;
+    boolean range = price < ticker.low || price > ticker.high;
+    ticker.low = Math.min(ticker.low, price);
+    ticker.high = Math.max(ticker.high, price);
+    return range;
+  }
+
+  /**
+   * Run the server
+   * 
+   * @param args
+   *          Optionally the port to listen on, followed by either the number of ticks to synthesise per second or the path of a file
+   *          to replay
+   * @throws IOException
+   *           If the server socket could not be opened
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    final String source = args.length > 1 ? args[1] : "20";
+    final QuoteStreamServer server = new QuoteStreamServer();
+
+    // Produce ticks on a thread of their own
+    Thread producer = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          if (source.matches("[0-9.]+")) {
+            server.synthesise(Double.parseDouble(source));
+          }
+          else {
+            server.replay(source);
+          }
+        }
+        catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    });
+    producer.setDaemon(true);
+    producer.start();
+
+    ServerSocket serverSocket = new ServerSocket(port);
+    System.out.println("Quote stream listening on http://localhost:" + port + "/quotes?symbols=...");
+    while (true) {
+      final Socket socket = serverSocket.accept();
+      new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            server.handle(socket);
+          }
+          catch (IOException e) {
+            System.out.println(socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+          }
+        }
+      }).start();
+    }
+  }
+}